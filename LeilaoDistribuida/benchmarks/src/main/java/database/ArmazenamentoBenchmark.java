@@ -0,0 +1,93 @@
+package database;
+
+import models.Lance;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operações do motor de armazenamento. O padrão é o motor em memória; com
+ * um PostgreSQL local (configuração do BancoDados) use -p motor=postgres.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Dlogback.configurationFile=logback-benchmark.xml"})
+public class ArmazenamentoBenchmark {
+    private static final int ITENS = 1_000;
+    private static final int LANCES_HISTORICO = 1_000;
+
+    @Param({"memoria"})
+    public String motor;
+
+    private ArmazenamentoLeilao armazenamento;
+    private int primeiroItem;
+    private int itemHistorico;
+
+    // Valor em centavos crescente por chamada, para que todo lance seja aceito
+    private long valor = 1_000;
+    private int proximoItem;
+
+    // Por iteração: os lances aceitos acumulam no histórico e, no motor em memória, esgotariam o heap
+    @Setup(Level.Iteration)
+    public void preparar() {
+        armazenamento = Armazenamento.POSTGRES.equals(motor) ? BancoDados.getInstance() : new BancoMemoria();
+        primeiroItem = armazenamento.adicionarItem("Item 0", "Benchmark", 1_000L, 0L);
+        for (int i = 1; i < ITENS; i++) {
+            armazenamento.adicionarItem("Item " + i, "Benchmark", 1_000L, 0L);
+        }
+
+        itemHistorico = armazenamento.adicionarItem("Histórico", "Benchmark", 100L, 0L);
+        for (int i = 0; i < LANCES_HISTORICO; i++) {
+            armazenamento.registrarLance(itemHistorico, "cliente" + (i % 50), 200L + i);
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void encerrar() {
+        if (!Armazenamento.POSTGRES.equals(motor)) {
+            armazenamento.fechar();
+        }
+    }
+
+    private int item() {
+        proximoItem = (proximoItem + 1) % ITENS;
+        return primeiroItem + proximoItem;
+    }
+
+    @Benchmark
+    public boolean registrarLance() {
+        return armazenamento.registrarLance(item(), "cliente", valor++);
+    }
+
+    @Benchmark
+    public boolean registrarLanceRecusado() {
+        return armazenamento.registrarLance(item(), "cliente", 50L);
+    }
+
+    // Lote típico de um processarBatch (BATCH_SIZE = 5)
+    @Benchmark
+    public boolean[] registrarLances() {
+        List<Lance> lances = new ArrayList<>(5);
+        for (int i = 0; i < 5; i++) {
+            lances.add(new Lance(0, item(), "cliente", valor++));
+        }
+        return armazenamento.registrarLances(lances);
+    }
+
+    @Benchmark
+    public Object getItem() {
+        return armazenamento.getItem(item());
+    }
+
+    // Uma página de 100 lances do histórico
+    @Benchmark
+    public int listarLances(Blackhole blackhole) {
+        return armazenamento.listarLances(itemHistorico, 0, 100, blackhole::consume);
+    }
+}
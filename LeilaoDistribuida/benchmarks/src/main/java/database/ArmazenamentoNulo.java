@@ -0,0 +1,41 @@
+package database;
+
+import models.ItemLeilao;
+import models.Lance;
+
+import java.util.function.Consumer;
+
+/**
+ * Armazenamento que não faz nada: isola o custo de parsing e de fila dos
+ * benchmarks que não querem medir o motor.
+ */
+public class ArmazenamentoNulo implements ArmazenamentoLeilao {
+    @Override
+    public int adicionarItem(String nome, String descricao, long precoInicialCentavos, long encerraEm) {
+        return 1;
+    }
+
+    @Override
+    public boolean registrarLance(int idItem, String cliente, long valorCentavos) {
+        return true;
+    }
+
+    @Override
+    public ItemLeilao getItem(int idItem) {
+        return null;
+    }
+
+    @Override
+    public int listarLances(int idItem, int aposId, int limite, Consumer<Lance> consumidor) {
+        return 0;
+    }
+
+    @Override
+    public int[] listarItensEncerrados(long antesDe, int limite) {
+        return new int[0];
+    }
+
+    @Override
+    public void removerItens(int[] idItens) {
+    }
+}
@@ -0,0 +1,63 @@
+package gateway;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+
+/**
+ * Backends HTTP mínimos no mesmo processo, só com os comandos que o gateway
+ * encaminha. Servem para medir o encaminhamento sem o custo dos handlers
+ * reais.
+ */
+final class BackendsFalsos implements AutoCloseable {
+    private static final byte[] RESPOSTA = "Requisição recebida e adicionada ao batch.".getBytes(StandardCharsets.UTF_8);
+
+    private final List<AutoCloseable> recursos = new ArrayList<>();
+    final List<Integer> portas = new ArrayList<>();
+
+    static BackendsFalsos iniciar(int quantidade) throws IOException {
+        BackendsFalsos backends = new BackendsFalsos();
+        for (int i = 0; i < quantidade; i++) {
+            backends.iniciarHTTP();
+        }
+        return backends;
+    }
+
+    private void iniciarHTTP() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/cadastrarItem", exchange -> responder(exchange, RESPOSTA));
+        server.createContext("/registrarLance", exchange -> responder(exchange, RESPOSTA));
+        server.setExecutor(Executors.newFixedThreadPool(2, BackendsFalsos::daemon));
+        server.start();
+        recursos.add(() -> server.stop(0));
+        portas.add(server.getAddress().getPort());
+    }
+
+    private static void responder(HttpExchange exchange, byte[] corpo) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        exchange.sendResponseHeaders(200, corpo.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(corpo);
+        }
+    }
+
+    private static Thread daemon(Runnable tarefa) {
+        Thread t = new Thread(tarefa, "backend-falso");
+        t.setDaemon(true);
+        return t;
+    }
+
+    @Override
+    public void close() throws Exception {
+        for (AutoCloseable recurso : recursos) {
+            recurso.close();
+        }
+    }
+}
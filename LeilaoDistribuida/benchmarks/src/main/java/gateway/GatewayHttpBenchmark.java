@@ -0,0 +1,49 @@
+package gateway;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caminho completo de um POST no GatewayHttpHandler: leitura e montagem do
+ * corpo, roteamento e encaminhamento ao backend (falso, local). A troca HTTP
+ * com o cliente é feita em memória, então o socket do cliente fica de fora.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class GatewayHttpBenchmark {
+    @Param({"1", "4"})
+    public int backends;
+
+    private final byte[] lance = "42;maria;175.50".getBytes(StandardCharsets.UTF_8);
+    private Gateway.GatewayHttpHandler handler;
+    private BackendsFalsos falsos;
+
+    @Setup(Level.Trial)
+    public void preparar() throws Exception {
+        Gateway gateway = new Gateway();
+        falsos = BackendsFalsos.iniciar(backends);
+        for (int porta : falsos.portas) {
+            gateway.getRegistro().registrar("http", "localhost", porta, 1);
+        }
+        handler = new Gateway.GatewayHttpHandler(gateway);
+    }
+
+    @TearDown(Level.Trial)
+    public void encerrar() throws Exception {
+        falsos.close();
+    }
+
+    @Benchmark
+    public int registrarLance() throws IOException {
+        TrocaHttpFalsa troca = new TrocaHttpFalsa("POST", "/registrarLance", lance);
+        handler.handle(troca);
+        return troca.getResponseCode();
+    }
+}
@@ -0,0 +1,40 @@
+package gateway;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gateway.rotear com N backends registrados: leitura do instantâneo do
+ * registro e round-robin ponderado. Nenhum backend é contatado, então os
+ * endereços registrados não precisam existir; o relógio da roda não é
+ * ligado e as concessões não vencem durante a medição.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class RoteamentoBenchmark {
+    @Param({"http", "tcp", "udp"})
+    public String protocolo;
+
+    @Param({"1", "4", "16"})
+    public int backends;
+
+    private Gateway gateway;
+
+    @Setup(Level.Trial)
+    public void preparar() {
+        gateway = new Gateway();
+        for (int i = 0; i < backends; i++) {
+            gateway.getRegistro().registrar(protocolo, "localhost", 20000 + i, 1 + i % 3);
+        }
+    }
+
+    @Benchmark
+    public RegistroServicos.Backend proximoBackend() {
+        return gateway.rotear(protocolo);
+    }
+}
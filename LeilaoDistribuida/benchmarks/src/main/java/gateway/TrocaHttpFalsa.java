@@ -0,0 +1,112 @@
+package gateway;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+
+// HttpExchange em memória para chamar os HttpHandlers do gateway sem socket de cliente
+final class TrocaHttpFalsa extends HttpExchange {
+    private final String metodo;
+    private final URI uri;
+    private final InputStream corpo;
+    private final Headers cabecalhosRequisicao = new Headers();
+    private final Headers cabecalhosResposta = new Headers();
+    private final ByteArrayOutputStream resposta = new ByteArrayOutputStream();
+    private int codigo = -1;
+
+    TrocaHttpFalsa(String metodo, String caminho, byte[] corpo) {
+        this.metodo = metodo;
+        this.uri = URI.create(caminho);
+        this.corpo = new ByteArrayInputStream(corpo);
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return cabecalhosRequisicao;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return cabecalhosResposta;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return metodo;
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return null;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return corpo;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return resposta;
+    }
+
+    @Override
+    public void sendResponseHeaders(int codigo, long tamanho) {
+        this.codigo = codigo;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return new InetSocketAddress(0);
+    }
+
+    @Override
+    public int getResponseCode() {
+        return codigo;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return new InetSocketAddress(0);
+    }
+
+    @Override
+    public String getProtocol() {
+        return "HTTP/1.1";
+    }
+
+    @Override
+    public Object getAttribute(String nome) {
+        return null;
+    }
+
+    @Override
+    public void setAttribute(String nome, Object valor) {
+    }
+
+    @Override
+    public void setStreams(InputStream entrada, OutputStream saida) {
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+}
@@ -0,0 +1,47 @@
+package protocol;
+
+import database.ArmazenamentoNulo;
+import metricas.Rastreador;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Entrada no requestBatch do TCPHandler e drenagem a cada BATCH_SIZE
+ * requisições (processarBatch roda na thread que completa o lote, como no
+ * handler). Com armazenamento nulo, mede fila, trava, métricas e rastros.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class BatchBenchmark {
+    private String lance;
+    private String cadastro;
+
+    @Setup
+    public void preparar() {
+        TCPHandler.bancoDados = new ArmazenamentoNulo();
+        lance = new StringBuilder("registrarLance;42;maria;175.50").toString();
+        cadastro = new StringBuilder("cadastrarItem;Relógio;Relógio de bolso antigo;150.00").toString();
+    }
+
+    @Benchmark
+    public void enfileirarLance() {
+        TCPHandler.enfileirar(lance, Rastreador.iniciar(null, "tcp:registrarLance"));
+    }
+
+    @Benchmark
+    public void enfileirarCadastro() {
+        TCPHandler.enfileirar(cadastro, Rastreador.iniciar(null, "tcp:cadastrarItem"));
+    }
+
+    // Quatro clientes disputando a trava do requestBatch
+    @Benchmark
+    @Threads(4)
+    public void enfileirarLanceConcorrente() {
+        TCPHandler.enfileirar(lance, Rastreador.iniciar(null, "tcp:registrarLance"));
+    }
+}
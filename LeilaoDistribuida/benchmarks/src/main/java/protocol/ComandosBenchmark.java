@@ -0,0 +1,46 @@
+package protocol;
+
+import database.ArmazenamentoNulo;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing dos comandos em TCPHandler.processarRequisicao (o UDPHandler usa o
+ * mesmo código). O armazenamento é nulo para medir só o parsing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmark.xml")
+public class ComandosBenchmark {
+    private String cadastrarItem;
+    private String registrarLance;
+    private String invalido;
+
+    @Setup
+    public void preparar() {
+        TCPHandler.bancoDados = new ArmazenamentoNulo();
+        // Strings construídas em tempo de execução, como as lidas do socket
+        cadastrarItem = new StringBuilder("cadastrarItem;Relógio;Relógio de bolso antigo;150.00;3600").toString();
+        registrarLance = new StringBuilder("registrarLance;42;maria;175.50").toString();
+        invalido = new StringBuilder("comprarAgora;42").toString();
+    }
+
+    @Benchmark
+    public String cadastrarItem() {
+        return TCPHandler.processarRequisicao(cadastrarItem);
+    }
+
+    @Benchmark
+    public String registrarLance() {
+        return TCPHandler.processarRequisicao(registrarLance);
+    }
+
+    @Benchmark
+    public String comandoInvalido() {
+        return TCPHandler.processarRequisicao(invalido);
+    }
+}
@@ -0,0 +1,30 @@
+package carga;
+
+import java.io.IOException;
+
+/**
+ * Cliente de um protocolo do gateway. Cada thread do gerador tem a sua
+ * instância, então as implementações não precisam ser thread-safe.
+ */
+interface ClienteCarga extends AutoCloseable {
+
+    /**
+     * Envia um comando e espera a resposta.
+     *
+     * @param lance true para registrarLance, false para cadastrarItem
+     * @param dados Campos do comando separados por ";", sem o nome do comando
+     */
+    Resultado enviar(boolean lance, String dados) throws IOException;
+
+    @Override
+    default void close() {
+    }
+
+    static ClienteCarga criar(ConfiguracaoCarga configuracao) throws IOException {
+        return switch (configuracao.protocolo) {
+            case "http" -> new ClienteHTTP(configuracao.host, configuracao.portaHttp, configuracao.timeoutMillis);
+            case "tcp" -> new ClienteTCP(configuracao.host, configuracao.portaTcp, configuracao.timeoutMillis);
+            default -> new ClienteUDP(configuracao.host, configuracao.portaUdp, configuracao.timeoutMillis);
+        };
+    }
+}
@@ -0,0 +1,55 @@
+package carga;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * POST /cadastrarItem e /registrarLance no gateway. O HttpURLConnection
+ * reaproveita conexões keep-alive desde que a resposta seja lida até o fim,
+ * ao contrário do plano JMeter, que abria uma conexão por requisição.
+ */
+final class ClienteHTTP implements ClienteCarga {
+    private final URL urlCadastro;
+    private final URL urlLance;
+    private final int timeoutMillis;
+
+    ClienteHTTP(String host, int porta, int timeoutMillis) throws IOException {
+        this.urlCadastro = URI.create("http://" + host + ":" + porta + "/cadastrarItem").toURL();
+        this.urlLance = URI.create("http://" + host + ":" + porta + "/registrarLance").toURL();
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public Resultado enviar(boolean lance, String dados) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) (lance ? urlLance : urlCadastro).openConnection();
+        conn.setRequestMethod("POST");
+        conn.setDoOutput(true);
+        conn.setConnectTimeout(timeoutMillis);
+        conn.setReadTimeout(timeoutMillis);
+        conn.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+
+        try (OutputStream os = conn.getOutputStream()) {
+            os.write(dados.getBytes(StandardCharsets.UTF_8));
+        }
+
+        int status = conn.getResponseCode();
+        // Lê o corpo inteiro (inclusive o de erro) para a conexão voltar ao pool de keep-alive
+        InputStream corpo = status < 400 ? conn.getInputStream() : conn.getErrorStream();
+        String resposta = "";
+        if (corpo != null) {
+            try (corpo) {
+                resposta = new String(corpo.readAllBytes(), StandardCharsets.UTF_8);
+            }
+        }
+
+        if (status >= 400) {
+            return Resultado.REJEITADA;
+        }
+        return Resultado.daResposta(resposta.isEmpty() ? "OK" : resposta);
+    }
+}
@@ -0,0 +1,35 @@
+package carga;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Uma conexão por comando, como exige o protocolo TCP do gateway (uma linha
+ * de pedido, uma linha de resposta e o fechamento).
+ */
+final class ClienteTCP implements ClienteCarga {
+    private final InetSocketAddress endereco;
+    private final int timeoutMillis;
+
+    ClienteTCP(String host, int porta, int timeoutMillis) {
+        this.endereco = new InetSocketAddress(host, porta);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public Resultado enviar(boolean lance, String dados) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.setTcpNoDelay(true);
+            socket.connect(endereco, timeoutMillis);
+            socket.setSoTimeout(timeoutMillis);
+
+            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out.write((lance ? "registrarLance;" : "cadastrarItem;") + dados + "\n");
+            out.flush();
+            return Resultado.daResposta(in.readLine());
+        }
+    }
+}
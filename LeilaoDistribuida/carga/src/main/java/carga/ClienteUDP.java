@@ -0,0 +1,40 @@
+package carga;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Um socket UDP conectado ao gateway por thread: envia o comando e espera
+ * o datagrama de resposta. Sem resposta dentro do timeout, a requisição
+ * conta como erro (datagrama perdido ou descartado) e o SocketTimeoutException
+ * sobe para o gerador, que descarta o cliente: uma resposta atrasada chegaria
+ * ao mesmo socket e seria lida como a da requisição seguinte.
+ */
+final class ClienteUDP implements ClienteCarga {
+    private final DatagramSocket socket;
+    private final byte[] resposta = new byte[2048];
+
+    ClienteUDP(String host, int porta, int timeoutMillis) throws IOException {
+        socket = new DatagramSocket();
+        socket.connect(new InetSocketAddress(host, porta));
+        socket.setSoTimeout(timeoutMillis);
+    }
+
+    @Override
+    public Resultado enviar(boolean lance, String dados) throws IOException {
+        byte[] comando = ((lance ? "registrarLance;" : "cadastrarItem;") + dados).getBytes(StandardCharsets.UTF_8);
+        socket.send(new DatagramPacket(comando, comando.length));
+
+        DatagramPacket pacote = new DatagramPacket(resposta, resposta.length);
+        socket.receive(pacote);
+        return Resultado.daResposta(new String(pacote.getData(), 0, pacote.getLength(), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public void close() {
+        socket.close();
+    }
+}
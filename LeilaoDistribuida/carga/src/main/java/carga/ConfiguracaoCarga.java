@@ -0,0 +1,112 @@
+package carga;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Parâmetros de uma execução do gerador, lidos da linha de comando no
+ * formato --chave=valor. Chaves não informadas ficam com o padrão.
+ */
+final class ConfiguracaoCarga {
+    String protocolo = "http";          // http | tcp | udp
+    String host = "localhost";
+    int portaHttp = 9000;
+    int portaTcp = 9001;
+    int portaUdp = 9002;
+
+    double taxa = 200;                  // Requisições por segundo (taxa base)
+    int duracao = 60;                   // Segundos medidos
+    int aquecimento = 10;               // Segundos iniciais fora do relatório
+    int conexoes = 64;                  // Threads clientes (requisições em voo ao mesmo tempo)
+    int timeoutMillis = 5000;
+
+    int itens = 1000;                   // Itens alvo dos lances: primeiroItem .. primeiroItem + itens - 1
+    int primeiroItem = 1;
+    double zipf = 1.0;                  // Expoente da popularidade dos itens (0 = uniforme)
+    double fracaoLances = 0.9;          // Fração de registrarLance; o resto é cadastrarItem
+    int clientes = 10000;               // Nomes distintos de licitantes
+
+    String perfil = "constante";        // constante | encerramento
+    double pico = 10;                   // Multiplicador da taxa no fim do perfil encerramento
+    double janelaPico = 0.1;            // Fração final da duração em que a taxa sobe até o pico
+
+    boolean preparar = false;           // Cadastra os itens antes da execução
+    int esperaPreparo = 11;             // Segundos para os batches dos handlers gravarem os itens
+    long semente = 42;
+    int intervaloRelatorio = 5;         // Segundos entre as linhas de progresso
+    String saida;                       // CSV com os quantis por operação (opcional)
+
+    static ConfiguracaoCarga ler(String[] args) {
+        Map<String, String> valores = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Argumento inválido: " + arg + " (use --chave=valor)");
+            }
+            int igual = arg.indexOf('=');
+            if (igual < 0) {
+                valores.put(arg.substring(2), "true");
+            } else {
+                valores.put(arg.substring(2, igual), arg.substring(igual + 1));
+            }
+        }
+
+        ConfiguracaoCarga c = new ConfiguracaoCarga();
+        c.protocolo = texto(valores, "protocolo", c.protocolo).toLowerCase();
+        c.host = texto(valores, "host", c.host);
+        c.portaHttp = inteiro(valores, "portaHttp", c.portaHttp);
+        c.portaTcp = inteiro(valores, "portaTcp", c.portaTcp);
+        c.portaUdp = inteiro(valores, "portaUdp", c.portaUdp);
+        c.taxa = decimal(valores, "taxa", c.taxa);
+        c.duracao = inteiro(valores, "duracao", c.duracao);
+        c.aquecimento = inteiro(valores, "aquecimento", c.aquecimento);
+        c.conexoes = inteiro(valores, "conexoes", c.conexoes);
+        c.timeoutMillis = inteiro(valores, "timeout", c.timeoutMillis);
+        c.itens = inteiro(valores, "itens", c.itens);
+        c.primeiroItem = inteiro(valores, "primeiroItem", c.primeiroItem);
+        c.zipf = decimal(valores, "zipf", c.zipf);
+        c.fracaoLances = decimal(valores, "lances", c.fracaoLances);
+        c.clientes = inteiro(valores, "clientes", c.clientes);
+        c.perfil = texto(valores, "perfil", c.perfil).toLowerCase();
+        c.pico = decimal(valores, "pico", c.pico);
+        c.janelaPico = decimal(valores, "janelaPico", c.janelaPico);
+        c.preparar = Boolean.parseBoolean(texto(valores, "preparar", "false"));
+        c.esperaPreparo = inteiro(valores, "esperaPreparo", c.esperaPreparo);
+        c.semente = Long.parseLong(texto(valores, "semente", Long.toString(c.semente)));
+        c.intervaloRelatorio = inteiro(valores, "intervalo", c.intervaloRelatorio);
+        c.saida = valores.remove("saida");
+
+        if (!valores.isEmpty()) {
+            throw new IllegalArgumentException("Parâmetros desconhecidos: " + valores.keySet());
+        }
+        c.validar();
+        return c;
+    }
+
+    private void validar() {
+        if (!protocolo.equals("http") && !protocolo.equals("tcp") && !protocolo.equals("udp")) {
+            throw new IllegalArgumentException("Protocolo desconhecido: " + protocolo);
+        }
+        if (!perfil.equals("constante") && !perfil.equals("encerramento")) {
+            throw new IllegalArgumentException("Perfil desconhecido: " + perfil);
+        }
+        if (taxa <= 0 || duracao <= 0 || aquecimento < 0 || conexoes <= 0 || itens <= 0 || clientes <= 0) {
+            throw new IllegalArgumentException("taxa, duracao, conexoes, itens e clientes devem ser positivos");
+        }
+        if (fracaoLances < 0 || fracaoLances > 1 || janelaPico <= 0 || janelaPico > 1 || pico < 1 || zipf < 0) {
+            throw new IllegalArgumentException("lances e janelaPico devem estar em [0, 1], pico >= 1 e zipf >= 0");
+        }
+    }
+
+    private static String texto(Map<String, String> valores, String chave, String padrao) {
+        String valor = valores.remove(chave);
+        return valor != null ? valor : padrao;
+    }
+
+    private static int inteiro(Map<String, String> valores, String chave, int padrao) {
+        return Integer.parseInt(texto(valores, chave, Integer.toString(padrao)));
+    }
+
+    private static double decimal(Map<String, String> valores, String chave, double padrao) {
+        return Double.parseDouble(texto(valores, chave, Double.toString(padrao)));
+    }
+}
@@ -0,0 +1,36 @@
+package carga;
+
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Popularidade dos itens: o item de posição k (0, 1, ...) é sorteado com
+ * probabilidade proporcional a 1 / (k + 1)^s. Com s = 0 a escolha é
+ * uniforme; com s perto de 1 poucos itens concentram a maior parte dos
+ * lances, como nos leilões disputados.
+ *
+ * A distribuição acumulada é calculada uma vez; cada sorteio é uma busca
+ * binária.
+ */
+final class DistribuicaoZipf {
+    private final double[] acumulada;
+
+    DistribuicaoZipf(int quantidade, double expoente) {
+        acumulada = new double[quantidade];
+        double soma = 0;
+        for (int k = 0; k < quantidade; k++) {
+            soma += 1.0 / Math.pow(k + 1, expoente);
+            acumulada[k] = soma;
+        }
+        for (int k = 0; k < quantidade; k++) {
+            acumulada[k] /= soma;
+        }
+    }
+
+    // Posição sorteada em [0, quantidade)
+    int sortear(SplittableRandom aleatorio) {
+        int posicao = Arrays.binarySearch(acumulada, aleatorio.nextDouble());
+        posicao = posicao >= 0 ? posicao : -posicao - 1;
+        return Math.min(posicao, acumulada.length - 1);
+    }
+}
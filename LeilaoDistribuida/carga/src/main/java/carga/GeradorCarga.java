@@ -0,0 +1,187 @@
+package carga;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Gerador de carga em laço aberto para o gateway (HTTP 9000, TCP 9001, UDP 9002).
+ *
+ * Uma única thread agenda as requisições na taxa do perfil, sorteia a
+ * operação e o item (Zipf) e as entrega a um pool de threads clientes; o
+ * agendamento nunca espera por respostas. Com a mesma semente, a sequência
+ * de comandos é sempre a mesma.
+ *
+ * Uso: java -jar gerador-carga.jar --protocolo=tcp --taxa=500 --duracao=60 --perfil=encerramento
+ */
+public class GeradorCarga {
+
+    private final ConfiguracaoCarga configuracao;
+    private final RelatorioCarga relatorio = new RelatorioCarga();
+    private final ThreadLocal<ClienteCarga> clientes = new ThreadLocal<>();
+
+    // Último valor ofertado por item, para que os lances sejam crescentes
+    private final AtomicLongArray ultimosValores;
+
+    GeradorCarga(ConfiguracaoCarga configuracao) {
+        this.configuracao = configuracao;
+        this.ultimosValores = new AtomicLongArray(configuracao.itens);
+    }
+
+    public static void main(String[] args) throws Exception {
+        ConfiguracaoCarga configuracao;
+        try {
+            configuracao = ConfiguracaoCarga.ler(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        GeradorCarga gerador = new GeradorCarga(configuracao);
+        if (configuracao.preparar) {
+            gerador.preparar();
+        }
+        gerador.executar();
+    }
+
+    // Cadastra os itens alvo em laço fechado e espera os batches dos handlers gravá-los
+    private void preparar() throws InterruptedException {
+        System.out.printf("Cadastrando %d itens (ids esperados a partir de %d)...%n", configuracao.itens, configuracao.primeiroItem);
+        ExecutorService pool = criarPool();
+        for (int i = 0; i < configuracao.itens; i++) {
+            String dados = "item-carga-" + i + ";Item da carga;1.00";
+            pool.execute(() -> {
+                try {
+                    cliente().enviar(false, dados);
+                } catch (IOException e) {
+                    descartarCliente();
+                }
+            });
+        }
+        pool.shutdown();
+        pool.awaitTermination(10, TimeUnit.MINUTES);
+        TimeUnit.SECONDS.sleep(configuracao.esperaPreparo);
+    }
+
+    private void executar() throws InterruptedException, IOException {
+        ExecutorService pool = criarPool();
+        PerfilCarga perfil = new PerfilCarga(configuracao);
+        DistribuicaoZipf popularidade = new DistribuicaoZipf(configuracao.itens, configuracao.zipf);
+        SplittableRandom aleatorio = new SplittableRandom(configuracao.semente);
+
+        long inicio = System.nanoTime();
+        long inicioMedicao = inicio + TimeUnit.SECONDS.toNanos(configuracao.aquecimento);
+        long fim = inicioMedicao + TimeUnit.SECONDS.toNanos(configuracao.duracao);
+        ScheduledExecutorService progresso = iniciarProgresso(inicioMedicao);
+
+        int cadastros = 0;
+        long previsto = inicio;
+        while (previsto < fim) {
+            esperarAte(previsto);
+
+            double t = (previsto - inicioMedicao) / 1e9;
+            boolean lance = perfil.noPico(t) || aleatorio.nextDouble() < configuracao.fracaoLances;
+            String dados = lance ? montarLance(popularidade, aleatorio) : "item-carga-" + (cadastros++) + ";Item da carga;1.00";
+            boolean medir = previsto >= inicioMedicao;
+            long horario = previsto;
+
+            relatorio.enviadas.incrementAndGet();
+            pool.execute(() -> enviar(lance, dados, horario, medir));
+
+            previsto += (long) (1e9 / perfil.taxaEm(t));
+        }
+
+        // Espera as respostas pendentes por no máximo um timeout além do fim
+        pool.shutdown();
+        if (!pool.awaitTermination(configuracao.timeoutMillis + 1000L, TimeUnit.MILLISECONDS)) {
+            pool.shutdownNow();
+        }
+        progresso.shutdownNow();
+
+        long semResposta = relatorio.enviadas.get() - relatorio.concluidas.get();
+        relatorio.imprimir(System.out, configuracao, semResposta);
+        if (configuracao.saida != null) {
+            relatorio.gravarCsv(Path.of(configuracao.saida));
+            System.out.println("Quantis gravados em " + configuracao.saida);
+        }
+    }
+
+    private String montarLance(DistribuicaoZipf popularidade, SplittableRandom aleatorio) {
+        int posicao = popularidade.sortear(aleatorio);
+        long valor = 1 + ultimosValores.incrementAndGet(posicao);
+        return (configuracao.primeiroItem + posicao) + ";cliente" + aleatorio.nextInt(configuracao.clientes) + ";" + valor + ".00";
+    }
+
+    private void enviar(boolean lance, String dados, long previsto, boolean medir) {
+        long envio = System.nanoTime();
+        Resultado resultado;
+        try {
+            resultado = cliente().enviar(lance, dados);
+        } catch (IOException e) {
+            resultado = Resultado.ERRO;
+            descartarCliente();
+        }
+        long resposta = System.nanoTime();
+
+        relatorio.concluidas.incrementAndGet();
+        if (medir) {
+            relatorio.registrar(lance, resultado, previsto, envio, resposta);
+        }
+    }
+
+    private ClienteCarga cliente() throws IOException {
+        ClienteCarga cliente = clientes.get();
+        if (cliente == null) {
+            cliente = ClienteCarga.criar(configuracao);
+            clientes.set(cliente);
+        }
+        return cliente;
+    }
+
+    // Após uma falha de E/S o cliente da thread é recriado na próxima requisição
+    private void descartarCliente() {
+        ClienteCarga cliente = clientes.get();
+        if (cliente != null) {
+            cliente.close();
+            clientes.remove();
+        }
+    }
+
+    private ExecutorService criarPool() {
+        AtomicInteger contador = new AtomicInteger();
+        return Executors.newFixedThreadPool(configuracao.conexoes, r -> {
+            Thread t = new Thread(r, "carga-" + contador.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private ScheduledExecutorService iniciarProgresso(long inicioMedicao) {
+        ScheduledExecutorService progresso = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "carga-progresso");
+            t.setDaemon(true);
+            return t;
+        });
+        long intervalo = configuracao.intervaloRelatorio;
+        progresso.scheduleAtFixedRate(() -> System.out.printf(Locale.ROOT,
+                "t=%6.1fs enviadas=%d concluídas=%d pendentes=%d rejeitadas=%d erros=%d%n",
+                (System.nanoTime() - inicioMedicao) / 1e9,
+                relatorio.enviadas.get(), relatorio.concluidas.get(),
+                relatorio.enviadas.get() - relatorio.concluidas.get(),
+                relatorio.total(Resultado.REJEITADA), relatorio.total(Resultado.ERRO)), intervalo, intervalo, TimeUnit.SECONDS);
+        return progresso;
+    }
+
+    private static void esperarAte(long instante) {
+        long restante;
+        while ((restante = instante - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(restante);
+        }
+    }
+}
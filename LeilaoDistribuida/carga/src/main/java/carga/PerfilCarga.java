@@ -0,0 +1,38 @@
+package carga;
+
+/**
+ * Taxa de chegada ao longo da execução.
+ *
+ * - constante: a taxa base do início ao fim.
+ * - encerramento: a taxa base até a janela final, onde sobe linearmente até
+ *   taxa * pico e só chegam lances (os últimos segundos de um leilão).
+ *
+ * O tempo é contado a partir do fim do aquecimento, que sempre roda na taxa base.
+ */
+final class PerfilCarga {
+    private final double taxa;
+    private final double pico;
+    private final double inicioPico; // Segundos
+    private final double duracao;
+
+    PerfilCarga(ConfiguracaoCarga configuracao) {
+        this.taxa = configuracao.taxa;
+        this.duracao = configuracao.duracao;
+        boolean encerramento = "encerramento".equals(configuracao.perfil);
+        this.pico = encerramento ? configuracao.pico : 1;
+        this.inicioPico = encerramento ? duracao * (1 - configuracao.janelaPico) : duracao;
+    }
+
+    // Requisições por segundo no instante t (segundos desde o fim do aquecimento; negativo durante ele)
+    double taxaEm(double t) {
+        if (t < inicioPico) {
+            return taxa;
+        }
+        double progresso = Math.min(1, (t - inicioPico) / (duracao - inicioPico));
+        return taxa * (1 + (pico - 1) * progresso);
+    }
+
+    boolean noPico(double t) {
+        return pico > 1 && t >= inicioPico;
+    }
+}
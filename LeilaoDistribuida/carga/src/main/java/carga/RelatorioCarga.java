@@ -0,0 +1,115 @@
+package carga;
+
+import metricas.Histograma;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contadores e histogramas de latência por operação.
+ *
+ * Cada requisição tem um horário previsto, fixado pelo agendador antes do
+ * envio. A latência corrigida é medida desse horário até a resposta: se o
+ * sistema trava e as requisições se acumulam na fila do gerador, a espera
+ * entra no histograma, em vez de sumir como num gerador de laço fechado
+ * (omissão coordenada). O tempo de serviço, medido a partir do envio real,
+ * é mantido ao lado só para comparação.
+ */
+final class RelatorioCarga {
+    private static final double[] QUANTIS = {0.5, 0.75, 0.9, 0.95, 0.99, 0.999, 0.9999, 1.0};
+    private static final String[] OPERACOES = {"cadastrarItem", "registrarLance"};
+
+    private final Histograma[] corrigida = {new Histograma(1e6), new Histograma(1e6)};
+    private final Histograma[] servico = {new Histograma(1e6), new Histograma(1e6)};
+    private final LongAdder[][] resultados = new LongAdder[2][Resultado.values().length];
+    private final AtomicLong maiorAtrasoEnvio = new AtomicLong();
+
+    final AtomicLong enviadas = new AtomicLong();
+    final AtomicLong concluidas = new AtomicLong();
+
+    RelatorioCarga() {
+        for (LongAdder[] porOperacao : resultados) {
+            for (int i = 0; i < porOperacao.length; i++) {
+                porOperacao[i] = new LongAdder();
+            }
+        }
+    }
+
+    /**
+     * @param previsto Horário previsto pelo agendador (System.nanoTime)
+     * @param envio    Quando uma thread cliente de fato começou o envio
+     * @param resposta Quando a resposta (ou a falha) chegou
+     */
+    void registrar(boolean lance, Resultado resultado, long previsto, long envio, long resposta) {
+        int operacao = lance ? 1 : 0;
+        resultados[operacao][resultado.ordinal()].increment();
+        corrigida[operacao].registrar(resposta - previsto);
+        servico[operacao].registrar(resposta - envio);
+        maiorAtrasoEnvio.accumulateAndGet(envio - previsto, Math::max);
+    }
+
+    long total(Resultado resultado) {
+        return resultados[0][resultado.ordinal()].sum() + resultados[1][resultado.ordinal()].sum();
+    }
+
+    void imprimir(PrintStream out, ConfiguracaoCarga configuracao, long semResposta) {
+        out.printf(Locale.ROOT, "%n== %s, perfil %s, %.0f req/s por %d s (aquecimento de %d s) ==%n",
+                configuracao.protocolo, configuracao.perfil, configuracao.taxa, configuracao.duracao, configuracao.aquecimento);
+        out.printf(Locale.ROOT, "%-15s %9s %9s %10s %7s | %9s %9s %9s %9s %9s %9s%n",
+                "operação", "total", "sucesso", "rejeitadas", "erros", "p50", "p90", "p99", "p99.9", "p99.99", "max");
+
+        for (int operacao = 0; operacao < OPERACOES.length; operacao++) {
+            if (corrigida[operacao].getTotal() == 0) {
+                continue;
+            }
+            double[] q = corrigida[operacao].quantis(QUANTIS);
+            out.printf(Locale.ROOT, "%-15s %9d %9d %10d %7d | %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    OPERACOES[operacao], corrigida[operacao].getTotal(),
+                    resultados[operacao][Resultado.SUCESSO.ordinal()].sum(),
+                    resultados[operacao][Resultado.REJEITADA.ordinal()].sum(),
+                    resultados[operacao][Resultado.ERRO.ordinal()].sum(),
+                    q[0], q[2], q[4], q[5], q[6], q[7]);
+            double[] s = servico[operacao].quantis(QUANTIS);
+            out.printf(Locale.ROOT, "%-15s %39s | %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f%n",
+                    "", "tempo de serviço (sem correção)", s[0], s[2], s[4], s[5], s[6], s[7]);
+        }
+
+        long medidas = corrigida[0].getTotal() + corrigida[1].getTotal();
+        out.printf(Locale.ROOT, "Latências em ms a partir do horário previsto. Vazão medida: %.1f req/s.%n",
+                medidas / (double) configuracao.duracao);
+        out.printf(Locale.ROOT, "Maior atraso entre o horário previsto e o envio: %.2f ms%s%n",
+                maiorAtrasoEnvio.get() / 1e6,
+                maiorAtrasoEnvio.get() > 1_000_000_000L ? " (o gerador ou o sistema não acompanhou a taxa)" : "");
+        if (semResposta > 0) {
+            out.printf("%d requisições ainda sem resposta ao fim da execução (fora do relatório).%n", semResposta);
+        }
+    }
+
+    // CSV: operacao,medida,quantil,ms
+    void gravarCsv(Path arquivo) throws IOException {
+        try (PrintWriter out = new PrintWriter(Files.newBufferedWriter(arquivo, StandardCharsets.UTF_8))) {
+            out.println("operacao,medida,quantil,ms");
+            for (int operacao = 0; operacao < OPERACOES.length; operacao++) {
+                escreverQuantis(out, OPERACOES[operacao], "corrigida", corrigida[operacao]);
+                escreverQuantis(out, OPERACOES[operacao], "servico", servico[operacao]);
+            }
+        }
+    }
+
+    private static void escreverQuantis(PrintWriter out, String operacao, String medida, Histograma histograma) {
+        if (histograma.getTotal() == 0) {
+            return;
+        }
+        double[] valores = histograma.quantis(QUANTIS);
+        for (int i = 0; i < QUANTIS.length; i++) {
+            out.printf(Locale.ROOT, "%s,%s,%s,%.3f%n", operacao, medida, QUANTIS[i], valores[i]);
+        }
+    }
+}
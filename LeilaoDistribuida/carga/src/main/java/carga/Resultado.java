@@ -0,0 +1,23 @@
+package carga;
+
+/**
+ * Desfecho de uma requisição do gerador.
+ *
+ * - SUCESSO: o gateway aceitou o comando.
+ * - REJEITADA: o sistema respondeu, mas recusou (HTTP 4xx/5xx, "Erro...", "... inválido").
+ * - ERRO: sem resposta (conexão recusada, timeout, falha de E/S).
+ */
+enum Resultado {
+    SUCESSO, REJEITADA, ERRO;
+
+    // Classifica a resposta textual do gateway (TCP e UDP, ou o corpo HTTP com status 2xx)
+    static Resultado daResposta(String resposta) {
+        if (resposta == null || resposta.isEmpty()) {
+            return ERRO;
+        }
+        if (resposta.startsWith("Erro") || resposta.contains("inválid") || resposta.contains("Nenhum servidor")) {
+            return REJEITADA;
+        }
+        return SUCESSO;
+    }
+}
@@ -0,0 +1,181 @@
+package database;
+
+/**
+ * Armazém colunar de itens de leilão em arrays primitivos.
+ *
+ * Cada atributo do item é uma coluna segmentada (blocos de SEGMENTO posições),
+ * indexada pelo ID do item. Valores monetários ficam em centavos (long) e
+ * clientes como códigos do DicionarioNomes, de modo que o caminho do lance
+ * não cria objetos: o custo de memória por lote é fixo e o crescimento
+ * só aloca um novo bloco, sem copiar os existentes.
+ *
+ * A classe não sincroniza os acessos às colunas de lance; quem a usa
+ * (BancoMemoria) protege cada item com sua trava listrada.
+ */
+public class ArmazemColunar {
+    private static final int BITS_SEGMENTO = 14;
+    private static final int SEGMENTO = 1 << BITS_SEGMENTO; // 16384 itens por bloco
+    private static final int MASCARA = SEGMENTO - 1;
+
+    private volatile long[][] precoInicial = new long[0][];
+    private volatile long[][] maiorLance = new long[0][];
+    private volatile int[][] clienteMaiorLance = new int[0][];
+    private volatile String[][] nome = new String[0][];
+    private volatile String[][] descricao = new String[0][];
+    private volatile int[][] primeiroLance = new int[0][];
+    private volatile int[][] ultimoLance = new int[0][];
+    private volatile long[][] encerraEm = new long[0][];
+    private volatile boolean[][] removido = new boolean[0][];
+
+    // Último ID válido; a posição 0 não é usada
+    private volatile int ultimoId = 0;
+
+    /**
+     * Acrescenta um item ao fim das colunas.
+     *
+     * @return ID do novo item
+     */
+    public synchronized int adicionar(String nomeItem, String descricaoItem, long precoInicialCentavos, long encerraEmMillis) {
+        int id = ultimoId + 1;
+        int segmento = id >>> BITS_SEGMENTO;
+        if (segmento >= precoInicial.length) {
+            crescer(segmento + 1);
+        }
+
+        int posicao = id & MASCARA;
+        precoInicial[segmento][posicao] = precoInicialCentavos;
+        maiorLance[segmento][posicao] = 0L;
+        clienteMaiorLance[segmento][posicao] = DicionarioNomes.NENHUM;
+        nome[segmento][posicao] = nomeItem;
+        descricao[segmento][posicao] = descricaoItem;
+        primeiroLance[segmento][posicao] = 0;
+        ultimoLance[segmento][posicao] = 0;
+        encerraEm[segmento][posicao] = encerraEmMillis;
+        removido[segmento][posicao] = false;
+
+        ultimoId = id; // Escrita volátil publica o item completo
+        return id;
+    }
+
+    private void crescer(int segmentos) {
+        precoInicial = crescer(precoInicial, segmentos);
+        maiorLance = crescer(maiorLance, segmentos);
+        clienteMaiorLance = crescer(clienteMaiorLance, segmentos);
+        nome = crescer(nome, segmentos);
+        descricao = crescer(descricao, segmentos);
+        primeiroLance = crescer(primeiroLance, segmentos);
+        ultimoLance = crescer(ultimoLance, segmentos);
+        encerraEm = crescer(encerraEm, segmentos);
+        removido = crescer(removido, segmentos);
+    }
+
+    private static long[][] crescer(long[][] coluna, int segmentos) {
+        long[][] maior = new long[segmentos][];
+        System.arraycopy(coluna, 0, maior, 0, coluna.length);
+        for (int i = coluna.length; i < segmentos; i++) {
+            maior[i] = new long[SEGMENTO];
+        }
+        return maior;
+    }
+
+    private static int[][] crescer(int[][] coluna, int segmentos) {
+        int[][] maior = new int[segmentos][];
+        System.arraycopy(coluna, 0, maior, 0, coluna.length);
+        for (int i = coluna.length; i < segmentos; i++) {
+            maior[i] = new int[SEGMENTO];
+        }
+        return maior;
+    }
+
+    private static String[][] crescer(String[][] coluna, int segmentos) {
+        String[][] maior = new String[segmentos][];
+        System.arraycopy(coluna, 0, maior, 0, coluna.length);
+        for (int i = coluna.length; i < segmentos; i++) {
+            maior[i] = new String[SEGMENTO];
+        }
+        return maior;
+    }
+
+    private static boolean[][] crescer(boolean[][] coluna, int segmentos) {
+        boolean[][] maior = new boolean[segmentos][];
+        System.arraycopy(coluna, 0, maior, 0, coluna.length);
+        for (int i = coluna.length; i < segmentos; i++) {
+            maior[i] = new boolean[SEGMENTO];
+        }
+        return maior;
+    }
+
+    public boolean existe(int id) {
+        return id > 0 && id <= ultimoId && !removido[id >>> BITS_SEGMENTO][id & MASCARA];
+    }
+
+    public int getUltimoId() {
+        return ultimoId;
+    }
+
+    public long getPrecoInicial(int id) {
+        return precoInicial[id >>> BITS_SEGMENTO][id & MASCARA];
+    }
+
+    public long getMaiorLance(int id) {
+        return maiorLance[id >>> BITS_SEGMENTO][id & MASCARA];
+    }
+
+    public int getClienteMaiorLance(int id) {
+        return clienteMaiorLance[id >>> BITS_SEGMENTO][id & MASCARA];
+    }
+
+    public String getNome(int id) {
+        return nome[id >>> BITS_SEGMENTO][id & MASCARA];
+    }
+
+    public String getDescricao(int id) {
+        return descricao[id >>> BITS_SEGMENTO][id & MASCARA];
+    }
+
+    // Instante de encerramento em milissegundos (0 = sem prazo)
+    public long getEncerraEm(int id) {
+        return encerraEm[id >>> BITS_SEGMENTO][id & MASCARA];
+    }
+
+    /**
+     * Marca o item como removido e solta os textos; as posições primitivas
+     * continuam reservadas, pois o ID nunca é reutilizado.
+     * Deve ser chamado sob a trava do item.
+     */
+    public void remover(int id) {
+        int segmento = id >>> BITS_SEGMENTO;
+        int posicao = id & MASCARA;
+        removido[segmento][posicao] = true;
+        nome[segmento][posicao] = null;
+        descricao[segmento][posicao] = null;
+    }
+
+    // Deve ser chamado sob a trava do item
+    public void setMaiorLance(int id, long valorCentavos, int codigoCliente) {
+        int segmento = id >>> BITS_SEGMENTO;
+        int posicao = id & MASCARA;
+        maiorLance[segmento][posicao] = valorCentavos;
+        clienteMaiorLance[segmento][posicao] = codigoCliente;
+    }
+
+    // ID do primeiro lance do item no HistoricoLances (0 se não houver)
+    public int getPrimeiroLance(int id) {
+        return primeiroLance[id >>> BITS_SEGMENTO][id & MASCARA];
+    }
+
+    // ID do último lance do item no HistoricoLances (0 se não houver)
+    public int getUltimoLance(int id) {
+        return ultimoLance[id >>> BITS_SEGMENTO][id & MASCARA];
+    }
+
+    // Deve ser chamado sob a trava do item
+    public void encadearLance(int id, int idLance) {
+        int segmento = id >>> BITS_SEGMENTO;
+        int posicao = id & MASCARA;
+        if (primeiroLance[segmento][posicao] == 0) {
+            primeiroLance[segmento][posicao] = idLance;
+        }
+        ultimoLance[segmento][posicao] = idLance;
+    }
+}
@@ -0,0 +1,70 @@
+package database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * Seleciona o motor de armazenamento na inicialização dos handlers.
+ *
+ * O motor pode ser informado como segundo argumento do handler
+ * (ex.: "java protocol.TCPHandler 8081 memoria") ou pela propriedade
+ * de sistema "leilao.armazenamento". O padrão continua sendo o PostgreSQL.
+ * Para o motor em memória, "leilao.snapshot" define o arquivo de snapshot
+ * em disco (opcional) e "leilao.snapshot.intervalo" o intervalo em segundos.
+ * Com "leilao.arquivo.dir", qualquer motor passa a arquivar leilões
+ * encerrados nesse diretório ("leilao.arquivo.intervalo" e
+ * "leilao.arquivo.carencia", em segundos, ajustam o arquivador). Com o
+ * PostgreSQL, o diretório deve ser compartilhado por todos os handlers
+ * (ex.: montagem de rede): um só arquiva por vez e todos leem os segmentos.
+ * Toda operação do motor é medida pelo ArmazenamentoMedido.
+ */
+public final class Armazenamento {
+    private static final Logger logger = LoggerFactory.getLogger(Armazenamento.class);
+
+    public static final String POSTGRES = "postgres";
+    public static final String MEMORIA = "memoria";
+
+    private Armazenamento() {
+    }
+
+    public static ArmazenamentoLeilao criar(String tipo) {
+        if (tipo == null || tipo.isBlank()) {
+            tipo = System.getProperty("leilao.armazenamento", POSTGRES);
+        }
+
+        ArmazenamentoLeilao armazenamento;
+        if (MEMORIA.equalsIgnoreCase(tipo)) {
+            String snapshot = System.getProperty("leilao.snapshot");
+            Path arquivo = (snapshot == null || snapshot.isBlank()) ? null : Paths.get(snapshot);
+            long intervalo = Long.getLong("leilao.snapshot.intervalo", 30);
+            armazenamento = new BancoMemoria(arquivo, intervalo);
+        } else if (POSTGRES.equalsIgnoreCase(tipo)) {
+            armazenamento = BancoDados.getInstance();
+        } else {
+            throw new IllegalArgumentException("Motor de armazenamento desconhecido: " + tipo);
+        }
+
+        // Mede o motor em si; leituras atendidas pelo arquivo ficam fora da série
+        armazenamento = new ArmazenamentoMedido(armazenamento, tipo.toLowerCase());
+
+        String diretorioArquivo = System.getProperty("leilao.arquivo.dir");
+        if (diretorioArquivo != null && !diretorioArquivo.isBlank()) {
+            try {
+                ArquivoLeilao arquivo = new ArquivoLeilao(Paths.get(diretorioArquivo));
+                armazenamento = new ArmazenamentoArquivado(armazenamento, arquivo,
+                        Long.getLong("leilao.arquivo.intervalo", 60), Long.getLong("leilao.arquivo.carencia", 60));
+                logger.info("Arquivamento de leilões encerrados ativo em {}", diretorioArquivo);
+            } catch (IOException e) {
+                logger.error("Erro ao abrir o arquivo de leilões em {}: {}", diretorioArquivo, e.getMessage());
+            }
+        }
+
+        logger.info("Motor de armazenamento selecionado: {}", tipo.toLowerCase());
+        Runtime.getRuntime().addShutdownHook(new Thread(armazenamento::fechar));
+        return armazenamento;
+    }
+}
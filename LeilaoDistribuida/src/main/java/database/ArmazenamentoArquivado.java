@@ -0,0 +1,206 @@
+package database;
+
+import models.ItemLeilao;
+import models.Lance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Decora um motor de armazenamento com o arquivamento de leilões encerrados.
+ *
+ * Em segundo plano, itens encerrados há mais de um período de carência são
+ * copiados, com todos os lances, para um segmento do ArquivoLeilao e só
+ * depois removidos do motor principal. As leituras (getItem e listarLances)
+ * consultam o arquivo de forma transparente, de modo que o motor principal
+ * guarda apenas os leilões vivos.
+ *
+ * Com o motor compartilhado (PostgreSQL), cada handler tem o seu
+ * arquivador, mas só o dono da vez (comoArquivador) arquiva; o diretório do
+ * arquivo deve ser o mesmo para todos. O histórico lido de cada item é
+ * conferido com a contagem do motor antes de publicar, e os itens só são
+ * removidos depois de o segmento estar no disco. Um item que some do motor
+ * principal é procurado de novo no arquivo depois de atualizar o índice, já
+ * que pode ter sido arquivado por outro handler.
+ */
+public class ArmazenamentoArquivado implements ArmazenamentoLeilao {
+    private static final Logger logger = LoggerFactory.getLogger(ArmazenamentoArquivado.class);
+
+    private static final int ITENS_POR_SEGMENTO = 500;
+    private static final int LANCES_POR_LEITURA = 1000;
+    private static final int LOTES_POR_RODADA = 20; // Limita a rodada mesmo se a remoção falhar
+
+    private final ArmazenamentoLeilao principal;
+    private final ArquivoLeilao arquivo;
+    private final long carenciaMillis;
+    private final ScheduledExecutorService arquivador;
+
+    /**
+     * @param principal         Motor com os leilões vivos
+     * @param arquivo           Destino dos leilões encerrados
+     * @param intervaloSegundos Intervalo entre rodadas de arquivamento
+     * @param carenciaSegundos  Tempo após o encerramento antes de arquivar (deixa os batches pendentes terminarem)
+     */
+    public ArmazenamentoArquivado(ArmazenamentoLeilao principal, ArquivoLeilao arquivo,
+                                  long intervaloSegundos, long carenciaSegundos) {
+        this.principal = principal;
+        this.arquivo = arquivo;
+        this.carenciaMillis = TimeUnit.SECONDS.toMillis(carenciaSegundos);
+
+        arquivador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "arquivador-leilao");
+            t.setDaemon(true);
+            return t;
+        });
+        arquivador.scheduleWithFixedDelay(this::arquivar, intervaloSegundos, intervaloSegundos, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public int adicionarItem(String nome, String descricao, long precoInicialCentavos, long encerraEm) {
+        return principal.adicionarItem(nome, descricao, precoInicialCentavos, encerraEm);
+    }
+
+    @Override
+    public boolean registrarLance(int idItem, String cliente, long valorCentavos) {
+        return principal.registrarLance(idItem, cliente, valorCentavos);
+    }
+
+    @Override
+    public boolean[] registrarLances(List<Lance> lances) {
+        return principal.registrarLances(lances);
+    }
+
+    @Override
+    public ItemLeilao getItem(int idItem) {
+        ItemLeilao item = principal.getItem(idItem);
+        if (item != null) {
+            return item;
+        }
+        item = arquivo.getItem(idItem);
+        return item != null || !atualizarArquivo() ? item : arquivo.getItem(idItem);
+    }
+
+    @Override
+    public int listarLances(int idItem, int aposId, int limite, Consumer<Lance> consumidor) {
+        if (arquivo.contem(idItem)) {
+            return arquivo.listarLances(idItem, aposId, limite, consumidor);
+        }
+        int lidos = principal.listarLances(idItem, aposId, limite, consumidor);
+        // Nada no motor e o item sumiu dele: pode ter acabado de ser arquivado por outro handler
+        if (lidos == 0 && principal.getItem(idItem) == null && atualizarArquivo() && arquivo.contem(idItem)) {
+            return arquivo.listarLances(idItem, aposId, limite, consumidor);
+        }
+        return lidos;
+    }
+
+    @Override
+    public int contarLances(int idItem) {
+        return principal.contarLances(idItem);
+    }
+
+    @Override
+    public boolean comoArquivador(Runnable rodada) {
+        return principal.comoArquivador(rodada);
+    }
+
+    private boolean atualizarArquivo() {
+        try {
+            return arquivo.atualizar();
+        } catch (IOException e) {
+            logger.error("Erro ao atualizar o índice do arquivo: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public int[] listarItensEncerrados(long antesDe, int limite) {
+        return principal.listarItensEncerrados(antesDe, limite);
+    }
+
+    @Override
+    public void removerItens(int[] idItens) {
+        principal.removerItens(idItens);
+    }
+
+    // Uma rodada do arquivador, só no dono da vez; os demais handlers apenas atualizam o índice
+    void arquivar() {
+        try {
+            if (!principal.comoArquivador(this::arquivarComoDono)) {
+                atualizarArquivo();
+            }
+        } catch (RuntimeException e) {
+            logger.error("Erro inesperado no arquivador: {}", e.getMessage(), e);
+        }
+    }
+
+    // Repete enquanto houver lotes cheios de itens encerrados
+    private void arquivarComoDono() {
+        long antesDe = System.currentTimeMillis() - carenciaMillis;
+        for (int lote = 0; lote < LOTES_POR_RODADA; lote++) {
+            int[] encerrados = principal.listarItensEncerrados(antesDe, ITENS_POR_SEGMENTO);
+            if (encerrados.length == 0 || !arquivarLote(encerrados) || encerrados.length < ITENS_POR_SEGMENTO) {
+                return;
+            }
+        }
+    }
+
+    private boolean arquivarLote(int[] encerrados) {
+        int[] ids = encerrados.clone();
+        Arrays.sort(ids);
+
+        SegmentoArquivo.Construtor construtor = new SegmentoArquivo.Construtor();
+        for (int idItem : ids) {
+            ItemLeilao item = principal.getItem(idItem);
+            if (item == null) {
+                continue;
+            }
+            construtor.adicionarItem(item);
+
+            int lidos;
+            do {
+                lidos = principal.listarLances(idItem, construtor.ultimoLanceDoItem(), LANCES_POR_LEITURA, construtor::adicionarLance);
+                if (lidos < 0) {
+                    // Histórico incompleto: nada é removido, a próxima rodada tenta de novo
+                    logger.error("Falha ao ler os lances do item {}; lote de arquivamento abandonado.", idItem);
+                    return false;
+                }
+            } while (lidos == LANCES_POR_LEITURA);
+
+            // O segmento é imutável: só sai com o histórico inteiro do item
+            int esperados = principal.contarLances(idItem);
+            if (esperados != construtor.lancesDoItem()) {
+                logger.error("Item {}: {} lances lidos, {} no armazenamento; lote de arquivamento abandonado.",
+                        idItem, construtor.lancesDoItem(), esperados);
+                return false;
+            }
+        }
+
+        if (construtor.quantidadeItens() == 0) {
+            return false;
+        }
+
+        try {
+            arquivo.publicar(construtor);
+        } catch (IOException e) {
+            logger.error("Erro ao gravar segmento de arquivo: {}", e.getMessage());
+            return false;
+        }
+
+        principal.removerItens(construtor.ids());
+        logger.info("{} leilões encerrados arquivados e removidos do armazenamento principal.", construtor.quantidadeItens());
+        return true;
+    }
+
+    @Override
+    public void fechar() {
+        arquivador.shutdown();
+        principal.fechar();
+    }
+}
@@ -0,0 +1,143 @@
+package database;
+
+import models.ItemLeilao;
+import models.Lance;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Contrato comum dos motores de armazenamento do leilão.
+ * Os handlers dependem apenas desta interface, o que permite trocar o
+ * PostgreSQL (BancoDados) pelo motor em memória (BancoMemoria) na inicialização.
+ * Valores monetários atravessam a interface em centavos (long), como os
+ * handlers os leem do texto (Centavos.deTexto): nenhum passa por double.
+ */
+public interface ArmazenamentoLeilao {
+
+    /**
+     * Adiciona um novo item de leilão.
+     *
+     * @param nome         Nome do item
+     * @param descricao    Descrição do item
+     * @param precoInicialCentavos Preço inicial do item, em centavos
+     * @return ID do item cadastrado ou -1 em caso de erro
+     */
+    default int adicionarItem(String nome, String descricao, long precoInicialCentavos) {
+        return adicionarItem(nome, descricao, precoInicialCentavos, 0L);
+    }
+
+    /**
+     * Adiciona um novo item de leilão com instante de encerramento.
+     * Depois de encerrado, o item não aceita lances e pode ser arquivado.
+     *
+     * @param nome         Nome do item
+     * @param descricao    Descrição do item
+     * @param precoInicialCentavos Preço inicial do item, em centavos
+     * @param encerraEm    Instante de encerramento em milissegundos (0 = sem prazo)
+     * @return ID do item cadastrado ou -1 em caso de erro
+     */
+    int adicionarItem(String nome, String descricao, long precoInicialCentavos, long encerraEm);
+
+    /**
+     * Registra um lance para um item de leilão.
+     *
+     * @param idItem  ID do item
+     * @param cliente Nome do cliente
+     * @param valorCentavos Valor do lance, em centavos
+     * @return true se o lance for o maior atual, false caso contrário
+     */
+    boolean registrarLance(int idItem, String cliente, long valorCentavos);
+
+    /**
+     * Obtém as informações de um item de leilão.
+     *
+     * @param idItem ID do item
+     * @return Objeto ItemLeilao ou null se não encontrado
+     */
+    ItemLeilao getItem(int idItem);
+
+    /**
+     * Percorre o histórico de lances de um item em ordem de ID, a partir de
+     * um cursor (paginação por chave, sem OFFSET). Os lances são entregues ao
+     * consumidor um a um, à medida que são lidos, sem montar listas.
+     *
+     * @param idItem     ID do item
+     * @param aposId     Cursor: ID do último lance já visto (0 para o início)
+     * @param limite     Quantidade máxima de lances a entregar
+     * @param consumidor Recebe cada lance lido
+     * @return Quantidade de lances entregues, ou -1 se a leitura falhar
+     */
+    int listarLances(int idItem, int aposId, int limite, Consumer<Lance> consumidor);
+
+    /**
+     * Aplica um lote de lances de uma só vez.
+     *
+     * @param lances Lances a registrar, na ordem de chegada
+     * @return Resultado de cada lance, na mesma ordem da lista recebida
+     */
+    default boolean[] registrarLances(List<Lance> lances) {
+        boolean[] resultados = new boolean[lances.size()];
+        for (int i = 0; i < lances.size(); i++) {
+            Lance lance = lances.get(i);
+            resultados[i] = registrarLance(lance.getIdItem(), lance.getCliente(), lance.getValorCentavos());
+        }
+        return resultados;
+    }
+
+    /**
+     * Lista itens encerrados antes de um instante, candidatos a arquivamento.
+     *
+     * @param antesDe Instante limite em milissegundos
+     * @param limite  Quantidade máxima de IDs
+     * @return IDs dos itens encerrados, do encerramento mais antigo ao mais recente
+     */
+    int[] listarItensEncerrados(long antesDe, int limite);
+
+    /**
+     * Conta os lances de um item, para conferir um histórico lido antes de
+     * arquivá-lo. A implementação padrão percorre o histórico.
+     *
+     * @param idItem ID do item
+     * @return Quantidade de lances, ou -1 se a leitura falhar
+     */
+    default int contarLances(int idItem) {
+        int total = 0;
+        int[] ultimo = {0};
+        int lidos;
+        do {
+            lidos = listarLances(idItem, ultimo[0], 1000, lance -> ultimo[0] = lance.getId());
+            if (lidos < 0) {
+                return -1;
+            }
+            total += lidos;
+        } while (lidos == 1000);
+        return total;
+    }
+
+    /**
+     * Executa uma rodada de arquivamento só se nenhum outro processo estiver
+     * arquivando o mesmo armazenamento: um dono por vez. Um motor que não é
+     * compartilhado entre processos executa sempre.
+     *
+     * @param rodada Rodada do arquivador
+     * @return false se outro processo tem a vez e a rodada não foi executada
+     */
+    default boolean comoArquivador(Runnable rodada) {
+        rodada.run();
+        return true;
+    }
+
+    /**
+     * Remove itens e todos os seus lances (usado após o arquivamento).
+     *
+     * @param idItens IDs dos itens a remover
+     */
+    void removerItens(int[] idItens);
+
+    /**
+     * Libera os recursos do motor (conexões, snapshot final etc.).
+     */
+    default void fechar() {
+    }
+}
@@ -0,0 +1,125 @@
+package database;
+
+import metricas.Histograma;
+import metricas.Metricas;
+import models.ItemLeilao;
+import models.Lance;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Decora um motor de armazenamento medindo a duração de cada operação em
+ * leilao_bd_comando_segundos{motor, operacao}. Os histogramas são criados
+ * uma vez; a medição em si só lê o relógio e incrementa contadores atômicos.
+ */
+public class ArmazenamentoMedido implements ArmazenamentoLeilao {
+    private static final String NOME = "leilao_bd_comando_segundos";
+    private static final String AJUDA = "Duração das operações no motor de armazenamento";
+
+    private final ArmazenamentoLeilao motor;
+    private final Histograma adicionarItem;
+    private final Histograma registrarLance;
+    private final Histograma registrarLances;
+    private final Histograma getItem;
+    private final Histograma listarLances;
+    private final Histograma listarItensEncerrados;
+    private final Histograma removerItens;
+
+    public ArmazenamentoMedido(ArmazenamentoLeilao motor, String nomeMotor) {
+        this.motor = motor;
+        adicionarItem = Metricas.histogramaTempo(NOME, AJUDA, "motor", nomeMotor, "operacao", "adicionarItem");
+        registrarLance = Metricas.histogramaTempo(NOME, AJUDA, "motor", nomeMotor, "operacao", "registrarLance");
+        registrarLances = Metricas.histogramaTempo(NOME, AJUDA, "motor", nomeMotor, "operacao", "registrarLances");
+        getItem = Metricas.histogramaTempo(NOME, AJUDA, "motor", nomeMotor, "operacao", "getItem");
+        listarLances = Metricas.histogramaTempo(NOME, AJUDA, "motor", nomeMotor, "operacao", "listarLances");
+        listarItensEncerrados = Metricas.histogramaTempo(NOME, AJUDA, "motor", nomeMotor, "operacao", "listarItensEncerrados");
+        removerItens = Metricas.histogramaTempo(NOME, AJUDA, "motor", nomeMotor, "operacao", "removerItens");
+    }
+
+    @Override
+    public int adicionarItem(String nome, String descricao, long precoInicialCentavos, long encerraEm) {
+        long inicio = System.nanoTime();
+        try {
+            return motor.adicionarItem(nome, descricao, precoInicialCentavos, encerraEm);
+        } finally {
+            adicionarItem.registrarDesde(inicio);
+        }
+    }
+
+    @Override
+    public boolean registrarLance(int idItem, String cliente, long valorCentavos) {
+        long inicio = System.nanoTime();
+        try {
+            return motor.registrarLance(idItem, cliente, valorCentavos);
+        } finally {
+            registrarLance.registrarDesde(inicio);
+        }
+    }
+
+    @Override
+    public boolean[] registrarLances(List<Lance> lances) {
+        long inicio = System.nanoTime();
+        try {
+            return motor.registrarLances(lances);
+        } finally {
+            registrarLances.registrarDesde(inicio);
+        }
+    }
+
+    @Override
+    public ItemLeilao getItem(int idItem) {
+        long inicio = System.nanoTime();
+        try {
+            return motor.getItem(idItem);
+        } finally {
+            getItem.registrarDesde(inicio);
+        }
+    }
+
+    @Override
+    public int listarLances(int idItem, int aposId, int limite, Consumer<Lance> consumidor) {
+        // Inclui o tempo do consumidor: o histórico é escrito ao cliente enquanto é lido
+        long inicio = System.nanoTime();
+        try {
+            return motor.listarLances(idItem, aposId, limite, consumidor);
+        } finally {
+            listarLances.registrarDesde(inicio);
+        }
+    }
+
+    @Override
+    public int[] listarItensEncerrados(long antesDe, int limite) {
+        long inicio = System.nanoTime();
+        try {
+            return motor.listarItensEncerrados(antesDe, limite);
+        } finally {
+            listarItensEncerrados.registrarDesde(inicio);
+        }
+    }
+
+    @Override
+    public int contarLances(int idItem) {
+        return motor.contarLances(idItem);
+    }
+
+    @Override
+    public boolean comoArquivador(Runnable rodada) {
+        return motor.comoArquivador(rodada);
+    }
+
+    @Override
+    public void removerItens(int[] idItens) {
+        long inicio = System.nanoTime();
+        try {
+            motor.removerItens(idItens);
+        } finally {
+            removerItens.registrarDesde(inicio);
+        }
+    }
+
+    @Override
+    public void fechar() {
+        motor.fechar();
+    }
+}
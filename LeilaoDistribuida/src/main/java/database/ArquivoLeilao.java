@@ -0,0 +1,239 @@
+package database;
+
+import models.ItemLeilao;
+import models.Lance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Arquivo de leilões encerrados: segmentos imutáveis (SegmentoArquivo) mais
+ * um índice idItem -> segmento.
+ *
+ * O índice fica em disco como registros (idItem, segmento) acrescentados a
+ * indice.idx e, em memória, como dois arrays ordenados por item, trocados
+ * atomicamente a cada publicação; a busca é binária e não trava leitores.
+ * Se um item aparecer em mais de um segmento (arquivamento repetido após
+ * uma falha), vale o segmento mais novo. Os segmentos lidos recentemente
+ * ficam num cache LRU.
+ *
+ * O diretório pode ser compartilhado pelos handlers: só um deles publica
+ * por vez (ArmazenamentoLeilao.comoArquivador) e os demais leem com
+ * atualizar() os registros que o índice em disco ganhou desde a última
+ * leitura. Um registro só é acrescentado depois de o segmento estar no
+ * disco, então todo registro lido aponta para um segmento completo.
+ */
+public class ArquivoLeilao {
+    private static final Logger logger = LoggerFactory.getLogger(ArquivoLeilao.class);
+
+    private static final String ARQUIVO_INDICE = "indice.idx";
+    private static final int SEGMENTOS_EM_CACHE = 8;
+
+    private final Path diretorio;
+    private volatile Indice indice = new Indice(new int[0], new int[0]);
+    private int proximoSegmento = 1;
+    private long bytesIndice; // Parte de indice.idx já lida
+
+    private final Map<Integer, SegmentoArquivo> cache = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, SegmentoArquivo> maisAntigo) {
+            return size() > SEGMENTOS_EM_CACHE;
+        }
+    };
+
+    // Arrays paralelos ordenados por idItem
+    private static final class Indice {
+        final int[] itens;
+        final int[] segmentos;
+
+        Indice(int[] itens, int[] segmentos) {
+            this.itens = itens;
+            this.segmentos = segmentos;
+        }
+
+        int segmento(int idItem) {
+            int posicao = Arrays.binarySearch(itens, idItem);
+            return posicao >= 0 ? segmentos[posicao] : 0;
+        }
+    }
+
+    public ArquivoLeilao(Path diretorio) throws IOException {
+        this.diretorio = diretorio;
+        Files.createDirectories(diretorio);
+        atualizar();
+        logger.info("Índice do arquivo carregado: {} itens em {} segmentos.", indice.itens.length, proximoSegmento - 1);
+    }
+
+    /**
+     * Lê os registros acrescentados ao índice em disco desde a última
+     * leitura (por este processo ou por outro handler com o mesmo diretório).
+     *
+     * @return true se o índice ganhou registros
+     */
+    public synchronized boolean atualizar() throws IOException {
+        Path arquivo = diretorio.resolve(ARQUIVO_INDICE);
+        if (!Files.exists(arquivo)) {
+            return false;
+        }
+        int registros = (int) ((Files.size(arquivo) - bytesIndice) / 8); // Só registros inteiros
+        if (registros <= 0) {
+            return false;
+        }
+
+        int[] itens = new int[registros];
+        int[] segmentos = new int[registros];
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(canal.position(bytesIndice))))) {
+            for (int i = 0; i < registros; i++) {
+                itens[i] = in.readInt();
+                segmentos[i] = in.readInt();
+                proximoSegmento = Math.max(proximoSegmento, segmentos[i] + 1);
+            }
+        }
+        bytesIndice += registros * 8L;
+        indice = mesclar(indice, itens, segmentos, registros);
+        return true;
+    }
+
+    // Junta novos registros ao índice; para itens repetidos, fica o maior segmento
+    private static Indice mesclar(Indice atual, int[] itens, int[] segmentos, int quantidade) {
+        long[] pares = new long[atual.itens.length + quantidade];
+        int total = 0;
+        for (int i = 0; i < atual.itens.length; i++) {
+            pares[total++] = ((long) atual.itens[i] << 32) | (atual.segmentos[i] & 0xFFFFFFFFL);
+        }
+        for (int i = 0; i < quantidade; i++) {
+            pares[total++] = ((long) itens[i] << 32) | (segmentos[i] & 0xFFFFFFFFL);
+        }
+        Arrays.sort(pares, 0, total);
+
+        int[] novosItens = new int[total];
+        int[] novosSegmentos = new int[total];
+        int unicos = 0;
+        for (int i = 0; i < total; i++) {
+            int item = (int) (pares[i] >>> 32);
+            int segmento = (int) pares[i];
+            if (unicos > 0 && novosItens[unicos - 1] == item) {
+                novosSegmentos[unicos - 1] = segmento; // Ordenado: o último é o mais novo
+            } else {
+                novosItens[unicos] = item;
+                novosSegmentos[unicos] = segmento;
+                unicos++;
+            }
+        }
+        return new Indice(Arrays.copyOf(novosItens, unicos), Arrays.copyOf(novosSegmentos, unicos));
+    }
+
+    public boolean contem(int idItem) {
+        return indice.segmento(idItem) != 0;
+    }
+
+    public ItemLeilao getItem(int idItem) {
+        SegmentoArquivo segmento = segmentoDo(idItem);
+        if (segmento == null) {
+            return null;
+        }
+        int posicao = segmento.posicao(idItem);
+        return posicao >= 0 ? segmento.getItem(posicao) : null;
+    }
+
+    /**
+     * @return Quantidade de lances entregues, ou -1 se o segmento não puder ser lido
+     */
+    public int listarLances(int idItem, int aposId, int limite, Consumer<Lance> consumidor) {
+        SegmentoArquivo segmento = segmentoDo(idItem);
+        if (segmento == null) {
+            return -1;
+        }
+        int posicao = segmento.posicao(idItem);
+        return posicao >= 0 ? segmento.listarLances(posicao, aposId, limite, consumidor) : 0;
+    }
+
+    private SegmentoArquivo segmentoDo(int idItem) {
+        int numero = indice.segmento(idItem);
+        if (numero == 0) {
+            return null;
+        }
+
+        synchronized (cache) {
+            SegmentoArquivo segmento = cache.get(numero);
+            if (segmento != null) {
+                return segmento;
+            }
+        }
+
+        try {
+            SegmentoArquivo segmento = SegmentoArquivo.ler(caminhoSegmento(numero));
+            synchronized (cache) {
+                cache.put(numero, segmento);
+            }
+            return segmento;
+        } catch (IOException e) {
+            logger.error("Erro ao ler o segmento {}: {}", numero, e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Grava o segmento, acrescenta suas entradas ao índice em disco e só então
+     * as publica para leitura. Ao retornar, os dados já estão no disco e os
+     * itens podem ser removidos do armazenamento principal.
+     */
+    public synchronized void publicar(SegmentoArquivo.Construtor construtor) throws IOException {
+        atualizar(); // Numera depois dos segmentos publicados por um dono anterior
+        int numero = proximoSegmento;
+        while (Files.exists(caminhoSegmento(numero))) {
+            numero++; // Segmento de uma publicação interrompida antes do índice: não é sobrescrito
+        }
+        Path destino = caminhoSegmento(numero);
+        Path temporario = destino.resolveSibling(destino.getFileName() + ".tmp");
+        Files.deleteIfExists(temporario);
+        construtor.gravar(temporario);
+        Files.move(temporario, destino, StandardCopyOption.ATOMIC_MOVE);
+        forcarDiretorio();
+
+        int[] itens = construtor.ids();
+        int[] segmentos = new int[itens.length];
+        Arrays.fill(segmentos, numero);
+
+        try (FileChannel canal = FileChannel.open(diretorio.resolve(ARQUIVO_INDICE),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(canal)))) {
+            for (int item : itens) {
+                out.writeInt(item);
+                out.writeInt(numero);
+            }
+            out.flush();
+            canal.force(true);
+        }
+
+        bytesIndice += itens.length * 8L;
+        proximoSegmento = numero + 1;
+        indice = mesclar(indice, itens, segmentos, itens.length);
+        logger.info("Segmento {} publicado com {} itens.", numero, itens.length);
+    }
+
+    // O rename só é durável com a entrada do diretório no disco (sem suporte, fica a cargo do sistema)
+    private void forcarDiretorio() {
+        try (FileChannel canal = FileChannel.open(diretorio, StandardOpenOption.READ)) {
+            canal.force(true);
+        } catch (IOException e) {
+            logger.debug("Diretório do arquivo sem fsync: {}", e.getMessage());
+        }
+    }
+
+    private Path caminhoSegmento(int numero) {
+        return diretorio.resolve(String.format("segmento-%08d.seg", numero));
+    }
+}
@@ -2,19 +2,37 @@ package database;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
+import com.zaxxer.hikari.metrics.PoolStats;
+import metricas.Histograma;
+import metricas.EventoComandoBD;
+import metricas.EventoEsperaConexao;
+import metricas.Metricas;
+import metricas.Rastreador;
+import models.Centavos;
 import models.ItemLeilao;
 import models.Lance;
 
 import java.sql.*;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class BancoDados {
+public class BancoDados implements ArmazenamentoLeilao {
     private static BancoDados instance = null;
     private HikariDataSource dataSource;
+    private GerenciadorEsquema esquema;
     private static final Logger logger = LoggerFactory.getLogger(BancoDados.class);
 
+    // Linhas buscadas por ida ao servidor ao percorrer o histórico de lances
+    private static final int TAMANHO_FETCH = 256;
+
+    // Chave da trava consultiva (pg_advisory_lock) que elege o único arquivador entre os handlers
+    private static final long TRAVA_ARQUIVADOR = 0x4C45494C41524351L; // "LEILARCQ"
+
     private BancoDados() {
         HikariConfig config = new HikariConfig();
         config.setJdbcUrl("jdbc:postgresql://localhost:5432/leilao_db");
@@ -23,7 +41,28 @@ public class BancoDados {
         config.addDataSourceProperty("cachePrepStmts", "true");
         config.addDataSourceProperty("prepStmtCacheSize", "250");
         config.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+        config.setMetricsTrackerFactory(BancoDados::criarMetricasPool);
         dataSource = new HikariDataSource(config);
+        esquema = new GerenciadorEsquema(dataSource);
+        esquema.inicializar();
+    }
+
+    // Espera por conexão do pool e ocupação, lidas pelo Hikari a cada aquisição
+    private static IMetricsTracker criarMetricasPool(String nomePool, PoolStats estatisticas) {
+        Histograma espera = Metricas.histogramaTempo("leilao_bd_pool_espera_segundos",
+                "Tempo de espera por uma conexão do pool", "pool", nomePool);
+        Metricas.medidor("leilao_bd_pool_conexoes_ativas", "Conexões em uso",
+                estatisticas::getActiveConnections, "pool", nomePool);
+        Metricas.medidor("leilao_bd_pool_conexoes_ociosas", "Conexões livres no pool",
+                estatisticas::getIdleConnections, "pool", nomePool);
+        Metricas.medidor("leilao_bd_pool_threads_aguardando", "Threads aguardando uma conexão",
+                estatisticas::getPendingThreads, "pool", nomePool);
+        return new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long nanos) {
+                espera.registrar(nanos);
+            }
+        };
     }
 
     public static BancoDados getInstance() {
@@ -42,19 +81,27 @@ public class BancoDados {
      *
      * @param nome         Nome do item
      * @param descricao    Descrição do item
-     * @param precoInicial Preço inicial do item
+     * @param precoInicialCentavos Preço inicial do item, em centavos
+     * @param encerraEm    Instante de encerramento em milissegundos (0 = sem prazo)
      * @return ID do item cadastrado
      */
-    public int adicionarItem(String nome, String descricao, double precoInicial) {
-        String sql = "INSERT INTO itens_leilao (nome, descricao, preco_inicial) VALUES (?, ?, ?) RETURNING id";
-        try (Connection conn = dataSource.getConnection();
+    @Override
+    public int adicionarItem(String nome, String descricao, long precoInicialCentavos, long encerraEm) {
+        String sql = "INSERT INTO itens_leilao (nome, descricao, preco_inicial, encerra_em) VALUES (?, ?, ?, ?) RETURNING id";
+        try (Connection conn = conectar("adicionarItem");
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setString(1, nome);
             stmt.setString(2, descricao);
-            stmt.setDouble(3, precoInicial);
+            stmt.setBigDecimal(3, Centavos.paraDecimal(precoInicialCentavos));
+            stmt.setTimestamp(4, encerraEm > 0 ? new Timestamp(encerraEm) : null);
+            Rastreador.marcarAtivos("bd.conexao");
+            EventoComandoBD evento = EventoComandoBD.iniciar("inserirItem", 0);
             ResultSet rs = stmt.executeQuery();
+            Rastreador.marcarAtivos("bd.insert");
             if (rs.next()) {
                 int id = rs.getInt(1);
+                evento.idItem = id;
+                evento.concluir(1);
                 logger.info("Item cadastrado com ID: {}", id);
                 return id;
             }
@@ -69,24 +116,34 @@ public class BancoDados {
      *
      * @param idItem  ID do item
      * @param cliente Nome do cliente
-     * @param valor   Valor do lance
+     * @param valorCentavos Valor do lance, em centavos
      * @return true se o lance for o maior atual, false caso contrário
      */
-    public boolean registrarLance(int idItem, String cliente, double valor) {
-        String verificarSql = "SELECT maior_lance FROM itens_leilao WHERE id = ?";
+    @Override
+    public boolean registrarLance(int idItem, String cliente, long valorCentavos) {
+        String verificarSql = "SELECT maior_lance, encerra_em <= now() AS encerrado FROM itens_leilao WHERE id = ?";
         String atualizarItemSql = "UPDATE itens_leilao SET maior_lance = ?, cliente_maior_lance = ? WHERE id = ?";
         String inserirLanceSql = "INSERT INTO lances (id_item, cliente, valor) VALUES (?, ?, ?)";
 
-        try (Connection conn = dataSource.getConnection()) {
+        try (Connection conn = conectar("registrarLance")) {
+            Rastreador.marcarAtivos("bd.conexao");
             conn.setAutoCommit(false);
 
-            // Verificar o maior lance atual
-            double maiorLanceAtual = 0.0;
+            // Verificar o maior lance atual (comparação exata em centavos)
+            long maiorLanceAtual = 0L;
             try (PreparedStatement verificarStmt = conn.prepareStatement(verificarSql)) {
                 verificarStmt.setInt(1, idItem);
+                EventoComandoBD evento = EventoComandoBD.iniciar("verificarLance", idItem);
                 ResultSet rs = verificarStmt.executeQuery();
-                if (rs.next()) {
-                    maiorLanceAtual = rs.getDouble("maior_lance");
+                boolean encontrado = rs.next();
+                evento.concluir(encontrado ? 1 : 0);
+                if (encontrado) {
+                    if (rs.getBoolean("encerrado")) {
+                        conn.rollback();
+                        logger.info("Lance de {} recusado: o item ID {} já está encerrado.", cliente, idItem);
+                        return false;
+                    }
+                    maiorLanceAtual = Centavos.deDecimal(rs.getBigDecimal("maior_lance"));
                 } else {
                     conn.rollback();
                     logger.warn("Item com ID {} não encontrado.", idItem);
@@ -94,29 +151,34 @@ public class BancoDados {
                 }
             }
 
-            if (valor > maiorLanceAtual) {
+            if (valorCentavos > maiorLanceAtual) {
                 // Atualizar o maior lance no item
                 try (PreparedStatement atualizarStmt = conn.prepareStatement(atualizarItemSql)) {
-                    atualizarStmt.setDouble(1, valor);
+                    atualizarStmt.setBigDecimal(1, Centavos.paraDecimal(valorCentavos));
                     atualizarStmt.setString(2, cliente);
                     atualizarStmt.setInt(3, idItem);
-                    atualizarStmt.executeUpdate();
+                    EventoComandoBD evento = EventoComandoBD.iniciar("atualizarItem", idItem);
+                    evento.concluir(atualizarStmt.executeUpdate());
                 }
 
                 // Inserir o lance na tabela de lances
                 try (PreparedStatement inserirStmt = conn.prepareStatement(inserirLanceSql)) {
                     inserirStmt.setInt(1, idItem);
                     inserirStmt.setString(2, cliente);
-                    inserirStmt.setDouble(3, valor);
-                    inserirStmt.executeUpdate();
+                    inserirStmt.setBigDecimal(3, Centavos.paraDecimal(valorCentavos));
+                    EventoComandoBD evento = EventoComandoBD.iniciar("inserirLance", idItem);
+                    evento.concluir(inserirStmt.executeUpdate());
                 }
 
+                EventoComandoBD evento = EventoComandoBD.iniciar("commit", idItem);
                 conn.commit();
-                logger.info("Lance registrado com sucesso para o item ID {}: {} por {}", idItem, valor, cliente);
+                evento.concluir(0);
+                Rastreador.marcarAtivos("bd.commit");
+                logger.info("Lance registrado com sucesso para o item ID {}: {} por {}", idItem, Centavos.paraDecimal(valorCentavos), cliente);
                 return true;
             } else {
                 conn.rollback();
-                logger.info("Lance de {} para o item ID {} é inferior ao maior lance atual de {}", cliente, idItem, maiorLanceAtual);
+                logger.info("Lance de {} para o item ID {} é inferior ao maior lance atual de {}", cliente, idItem, Centavos.paraDecimal(maiorLanceAtual));
                 return false;
             }
 
@@ -132,20 +194,25 @@ public class BancoDados {
      * @param idItem ID do item
      * @return Objeto ItemLeilao ou null se não encontrado
      */
+    @Override
     public ItemLeilao getItem(int idItem) {
         String sql = "SELECT * FROM itens_leilao WHERE id = ?";
-        try (Connection conn = dataSource.getConnection();
+        try (Connection conn = conectar("getItem");
              PreparedStatement stmt = conn.prepareStatement(sql)) {
             stmt.setInt(1, idItem);
+            EventoComandoBD evento = EventoComandoBD.iniciar("getItem", idItem);
             ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
+            boolean encontrado = rs.next();
+            evento.concluir(encontrado ? 1 : 0);
+            if (encontrado) {
                 ItemLeilao item = new ItemLeilao(
                         rs.getInt("id"),
                         rs.getString("nome"),
                         rs.getString("descricao"),
-                        rs.getDouble("preco_inicial"),
-                        rs.getDouble("maior_lance"),
-                        rs.getString("cliente_maior_lance")
+                        Centavos.deDecimal(rs.getBigDecimal("preco_inicial")),
+                        Centavos.deDecimal(rs.getBigDecimal("maior_lance")),
+                        rs.getString("cliente_maior_lance"),
+                        paraMillis(rs.getTimestamp("encerra_em"))
                 );
                 return item;
             }
@@ -154,4 +221,263 @@ public class BancoDados {
         }
         return null;
     }
+
+    /**
+     * Percorre o histórico de lances de um item por chave (id_item, id),
+     * usando o índice idx_lances_item_id criado pelo GerenciadorEsquema.
+     * As linhas vêm do cursor do servidor em blocos de TAMANHO_FETCH e são
+     * entregues ao consumidor sem montar listas.
+     *
+     * @param idItem     ID do item
+     * @param aposId     Cursor: ID do último lance já visto (0 para o início)
+     * @param limite     Quantidade máxima de lances a entregar
+     * @param consumidor Recebe cada lance lido
+     * @return Quantidade de lances entregues, ou -1 se a leitura falhar
+     */
+    @Override
+    public int listarLances(int idItem, int aposId, int limite, Consumer<Lance> consumidor) {
+        String sql = "SELECT id, id_item, cliente, valor FROM lances WHERE id_item = ? AND id > ? ORDER BY id LIMIT ?";
+
+        int entregues = 0;
+        try (Connection conn = conectar("listarLances")) {
+            // O driver do PostgreSQL só usa cursor (fetchSize) fora do modo autocommit
+            conn.setAutoCommit(false);
+            try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+                stmt.setFetchSize(TAMANHO_FETCH);
+                stmt.setInt(1, idItem);
+                stmt.setInt(2, aposId);
+                stmt.setInt(3, limite);
+                // O evento cobre a consulta e a leitura do cursor (as linhas vêm em blocos durante o laço)
+                EventoComandoBD evento = EventoComandoBD.iniciar("listarLances", idItem);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        consumidor.accept(new Lance(
+                                rs.getInt("id"),
+                                rs.getInt("id_item"),
+                                rs.getString("cliente"),
+                                Centavos.deDecimal(rs.getBigDecimal("valor"))
+                        ));
+                        entregues++;
+                    }
+                }
+                evento.concluir(entregues);
+            } finally {
+                conn.rollback(); // Somente leitura: apenas encerra a transação
+            }
+        } catch (SQLException e) {
+            logger.error("Erro ao listar lances do item {}: {}", idItem, e.getMessage());
+            return -1;
+        }
+        return entregues;
+    }
+
+    /**
+     * Aplica um lote de lances numa única transação, travando cada item
+     * com SELECT ... FOR UPDATE. Os itens são travados em ordem crescente
+     * de ID, a mesma em todos os handlers, para que dois lotes com itens em
+     * comum não se bloqueiem em ciclo; lances do mesmo item mantêm a ordem
+     * de chegada. Se o lote falhar, os lances são reaplicados
+     * individualmente para não perder os válidos.
+     *
+     * @param lances Lances a registrar, na ordem de chegada
+     * @return Resultado de cada lance, na mesma ordem da lista recebida
+     */
+    @Override
+    public boolean[] registrarLances(List<Lance> lances) {
+        String verificarSql = "SELECT maior_lance, encerra_em <= now() AS encerrado FROM itens_leilao WHERE id = ? FOR UPDATE";
+        String atualizarItemSql = "UPDATE itens_leilao SET maior_lance = ?, cliente_maior_lance = ? WHERE id = ?";
+        String inserirLanceSql = "INSERT INTO lances (id_item, cliente, valor) VALUES (?, ?, ?)";
+
+        // ID do item nos 32 bits altos e posição na lista nos baixos: a ordenação
+        // segue o item e, dentro dele, a chegada
+        long[] ordem = new long[lances.size()];
+        for (int i = 0; i < ordem.length; i++) {
+            ordem[i] = ((long) lances.get(i).getIdItem() << 32) | i;
+        }
+        Arrays.sort(ordem);
+
+        boolean[] resultados = new boolean[lances.size()];
+        try (Connection conn = conectar("registrarLances");
+             PreparedStatement verificarStmt = conn.prepareStatement(verificarSql);
+             PreparedStatement atualizarStmt = conn.prepareStatement(atualizarItemSql);
+             PreparedStatement inserirStmt = conn.prepareStatement(inserirLanceSql)) {
+            Rastreador.marcarAtivos("bd.conexao");
+            conn.setAutoCommit(false);
+            try {
+                for (long chave : ordem) {
+                    int i = (int) chave;
+                    Lance lance = lances.get(i);
+
+                    verificarStmt.setInt(1, lance.getIdItem());
+                    EventoComandoBD verificacao = EventoComandoBD.iniciar("verificarLance", lance.getIdItem());
+                    try (ResultSet rs = verificarStmt.executeQuery()) {
+                        boolean encontrado = rs.next();
+                        verificacao.concluir(encontrado ? 1 : 0);
+                        if (!encontrado || rs.getBoolean("encerrado")
+                                || lance.getValorCentavos() <= Centavos.deDecimal(rs.getBigDecimal("maior_lance"))) {
+                            continue;
+                        }
+                    }
+
+                    atualizarStmt.setBigDecimal(1, Centavos.paraDecimal(lance.getValorCentavos()));
+                    atualizarStmt.setString(2, lance.getCliente());
+                    atualizarStmt.setInt(3, lance.getIdItem());
+                    EventoComandoBD atualizacao = EventoComandoBD.iniciar("atualizarItem", lance.getIdItem());
+                    atualizacao.concluir(atualizarStmt.executeUpdate());
+
+                    inserirStmt.setInt(1, lance.getIdItem());
+                    inserirStmt.setString(2, lance.getCliente());
+                    inserirStmt.setBigDecimal(3, Centavos.paraDecimal(lance.getValorCentavos()));
+                    inserirStmt.addBatch();
+                    resultados[i] = true;
+                }
+                Rastreador.marcarAtivos("bd.verificacao");
+                EventoComandoBD insercao = EventoComandoBD.iniciar("inserirLote", 0);
+                insercao.concluir(inserirStmt.executeBatch().length);
+                Rastreador.marcarAtivos("bd.insert");
+                EventoComandoBD efetivacao = EventoComandoBD.iniciar("commit", 0);
+                conn.commit();
+                efetivacao.concluir(0);
+                Rastreador.marcarAtivos("bd.commit");
+                logger.info("Lote de {} lances aplicado numa única transação.", lances.size());
+                return resultados;
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            logger.error("Erro ao aplicar lote de lances, reaplicando individualmente: {}", e.getMessage());
+            return ArmazenamentoLeilao.super.registrarLances(lances);
+        }
+    }
+
+    @Override
+    public int[] listarItensEncerrados(long antesDe, int limite) {
+        String sql = "SELECT id FROM itens_leilao WHERE encerra_em < ? ORDER BY encerra_em LIMIT ?";
+        try (Connection conn = conectar("listarItensEncerrados");
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setTimestamp(1, new Timestamp(antesDe));
+            stmt.setInt(2, limite);
+            EventoComandoBD evento = EventoComandoBD.iniciar("listarItensEncerrados", 0);
+            try (ResultSet rs = stmt.executeQuery()) {
+                int[] ids = new int[limite];
+                int total = 0;
+                while (rs.next()) {
+                    ids[total++] = rs.getInt(1);
+                }
+                evento.concluir(total);
+                return Arrays.copyOf(ids, total);
+            }
+        } catch (SQLException e) {
+            logger.error("Erro ao listar itens encerrados: {}", e.getMessage());
+            return new int[0];
+        }
+    }
+
+    @Override
+    public int contarLances(int idItem) {
+        String sql = "SELECT count(*) FROM lances WHERE id_item = ?";
+        try (Connection conn = conectar("contarLances");
+             PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setInt(1, idItem);
+            EventoComandoBD evento = EventoComandoBD.iniciar("contarLances", idItem);
+            try (ResultSet rs = stmt.executeQuery()) {
+                int total = rs.next() ? rs.getInt(1) : 0;
+                evento.concluir(total);
+                return total;
+            }
+        } catch (SQLException e) {
+            logger.error("Erro ao contar lances do item {}: {}", idItem, e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Todos os handlers compartilham o banco: a rodada só roda com a trava
+     * consultiva do arquivador, tomada sem esperar e presa à conexão (se o
+     * processo cair, o PostgreSQL a solta com a sessão).
+     */
+    @Override
+    public boolean comoArquivador(Runnable rodada) {
+        try (Connection conn = conectar("travaArquivador")) {
+            try (PreparedStatement stmt = conn.prepareStatement("SELECT pg_try_advisory_lock(?)")) {
+                stmt.setLong(1, TRAVA_ARQUIVADOR);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    if (!rs.next() || !rs.getBoolean(1)) {
+                        return false;
+                    }
+                }
+            }
+            try {
+                rodada.run();
+                return true;
+            } finally {
+                try (PreparedStatement stmt = conn.prepareStatement("SELECT pg_advisory_unlock(?)")) {
+                    stmt.setLong(1, TRAVA_ARQUIVADOR);
+                    stmt.execute();
+                }
+            }
+        } catch (SQLException e) {
+            logger.error("Erro na trava do arquivador: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    @Override
+    public void removerItens(int[] idItens) {
+        String removerLancesSql = "DELETE FROM lances WHERE id_item = ANY (?)";
+        String removerItensSql = "DELETE FROM itens_leilao WHERE id = ANY (?)";
+
+        try (Connection conn = conectar("removerItens")) {
+            conn.setAutoCommit(false);
+            Integer[] ids = new Integer[idItens.length];
+            for (int i = 0; i < idItens.length; i++) {
+                ids[i] = idItens[i];
+            }
+            Array array = conn.createArrayOf("integer", ids);
+            try (PreparedStatement lancesStmt = conn.prepareStatement(removerLancesSql);
+                 PreparedStatement itensStmt = conn.prepareStatement(removerItensSql)) {
+                lancesStmt.setArray(1, array);
+                EventoComandoBD evento = EventoComandoBD.iniciar("removerLances", 0);
+                int lances = lancesStmt.executeUpdate();
+                evento.concluir(lances);
+                itensStmt.setArray(1, array);
+                evento = EventoComandoBD.iniciar("removerItens", 0);
+                int itens = itensStmt.executeUpdate();
+                evento.concluir(itens);
+                evento = EventoComandoBD.iniciar("commit", 0);
+                conn.commit();
+                evento.concluir(0);
+                logger.info("Removidos {} itens e {} lances arquivados.", itens, lances);
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            }
+        } catch (SQLException e) {
+            logger.error("Erro ao remover itens arquivados: {}", e.getMessage());
+        }
+    }
+
+    // getConnection com o tempo de espera pelo pool registrado no JFR
+    private Connection conectar(String operacao) throws SQLException {
+        EventoEsperaConexao evento = new EventoEsperaConexao();
+        evento.begin();
+        Connection conn = dataSource.getConnection();
+        evento.end();
+        if (evento.shouldCommit()) {
+            evento.operacao = operacao;
+            evento.commit();
+        }
+        return conn;
+    }
+
+    private static long paraMillis(Timestamp timestamp) {
+        return timestamp == null ? 0L : timestamp.getTime();
+    }
+
+    @Override
+    public void fechar() {
+        esquema.fechar();
+        dataSource.close();
+    }
 }
@@ -0,0 +1,334 @@
+package database;
+
+import models.ItemLeilao;
+import models.Lance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Motor de armazenamento em memória, usado como alvo de testes/benchmarks
+ * e para leilões relâmpago de baixa latência.
+ *
+ * Os itens ficam no ArmazemColunar, indexados pelo próprio ID, com valores
+ * em centavos e clientes codificados pelo DicionarioNomes; ItemLeilao só é
+ * criado em getItem, na fronteira da API. Os lances são aplicados sob travas
+ * listradas: itens diferentes raramente disputam a mesma trava. Os lances
+ * aceitos ficam no HistoricoLances, encadeados por item.
+ * Opcionalmente, o estado é gravado periodicamente num snapshot em disco
+ * e recarregado na inicialização.
+ */
+public class BancoMemoria implements ArmazenamentoLeilao {
+    private static final Logger logger = LoggerFactory.getLogger(BancoMemoria.class);
+
+    private static final int NUM_TRAVAS = 64; // Potência de 2
+    private static final int VERSAO_SNAPSHOT = 4;
+
+    private final ArmazemColunar armazem = new ArmazemColunar();
+    private final DicionarioNomes clientes = new DicionarioNomes();
+    private final HistoricoLances historico = new HistoricoLances();
+
+    private final Object[] travas = new Object[NUM_TRAVAS];
+
+    private final Path arquivoSnapshot;
+    private ScheduledExecutorService snapshotScheduler;
+
+    public BancoMemoria() {
+        this(null, 0);
+    }
+
+    /**
+     * @param arquivoSnapshot   Arquivo de snapshot em disco, ou null para desativar
+     * @param intervaloSegundos Intervalo entre snapshots (0 grava apenas ao fechar)
+     */
+    public BancoMemoria(Path arquivoSnapshot, long intervaloSegundos) {
+        for (int i = 0; i < NUM_TRAVAS; i++) {
+            travas[i] = new Object();
+        }
+        this.arquivoSnapshot = arquivoSnapshot;
+
+        if (arquivoSnapshot != null) {
+            carregarSnapshot();
+            if (intervaloSegundos > 0) {
+                snapshotScheduler = Executors.newSingleThreadScheduledExecutor();
+                snapshotScheduler.scheduleAtFixedRate(this::salvarSnapshotAgendado, intervaloSegundos, intervaloSegundos, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    private Object trava(int idItem) {
+        return travas[idItem & (NUM_TRAVAS - 1)];
+    }
+
+    @Override
+    public int adicionarItem(String nome, String descricao, long precoInicialCentavos, long encerraEm) {
+        int id = armazem.adicionar(nome, descricao, precoInicialCentavos, encerraEm);
+        logger.debug("Item cadastrado em memória com ID: {}", id);
+        return id;
+    }
+
+    // Comparação exata em centavos
+    @Override
+    public boolean registrarLance(int idItem, String cliente, long valorCentavos) {
+        if (!armazem.existe(idItem)) {
+            logger.warn("Item com ID {} não encontrado.", idItem);
+            return false;
+        }
+
+        synchronized (trava(idItem)) {
+            long encerraEm = armazem.getEncerraEm(idItem);
+            if (encerraEm > 0 && encerraEm <= System.currentTimeMillis()) {
+                logger.debug("Lance recusado: o item ID {} já está encerrado.", idItem);
+                return false;
+            }
+            if (!armazem.existe(idItem)) {
+                return false; // Removido pelo arquivador entre a verificação e a trava
+            }
+            if (valorCentavos > armazem.getMaiorLance(idItem)) {
+                int codigoCliente = clientes.codificar(cliente);
+                armazem.setMaiorLance(idItem, valorCentavos, codigoCliente);
+                int idLance = historico.acrescentar(idItem, codigoCliente, valorCentavos, armazem.getUltimoLance(idItem));
+                armazem.encadearLance(idItem, idLance);
+                return true;
+            }
+            return false;
+        }
+    }
+
+    @Override
+    public ItemLeilao getItem(int idItem) {
+        if (!armazem.existe(idItem)) {
+            return null;
+        }
+        // Monta a visão sob a trava para que o chamador não veja lances pela
+        // metade nem um item que o arquivador removeu entre a checagem e a leitura
+        String nome;
+        String descricao;
+        long maiorLance;
+        int cliente;
+        synchronized (trava(idItem)) {
+            if (!armazem.existe(idItem)) {
+                return null;
+            }
+            nome = armazem.getNome(idItem);
+            descricao = armazem.getDescricao(idItem);
+            maiorLance = armazem.getMaiorLance(idItem);
+            cliente = armazem.getClienteMaiorLance(idItem);
+        }
+        return new ItemLeilao(idItem, nome, descricao, armazem.getPrecoInicial(idItem), maiorLance,
+                clientes.decodificar(cliente), armazem.getEncerraEm(idItem));
+    }
+
+    @Override
+    public int[] listarItensEncerrados(long antesDe, int limite) {
+        int[] ids = new int[limite];
+        int total = 0;
+        int ultimo = armazem.getUltimoId();
+        for (int id = 1; id <= ultimo && total < limite; id++) {
+            long encerraEm = armazem.getEncerraEm(id);
+            if (encerraEm > 0 && encerraEm < antesDe && armazem.existe(id)) {
+                ids[total++] = id;
+            }
+        }
+        return Arrays.copyOf(ids, total);
+    }
+
+    @Override
+    public void removerItens(int[] idItens) {
+        for (int idItem : idItens) {
+            if (armazem.existe(idItem)) {
+                synchronized (trava(idItem)) {
+                    armazem.remover(idItem);
+                }
+            }
+        }
+    }
+
+    @Override
+    public int listarLances(int idItem, int aposId, int limite, Consumer<Lance> consumidor) {
+        if (!armazem.existe(idItem)) {
+            return 0;
+        }
+
+        // Fixa o fim da lista sob a trava; os nós até ele não mudam mais
+        int primeiro;
+        int ultimo;
+        synchronized (trava(idItem)) {
+            primeiro = armazem.getPrimeiroLance(idItem);
+            ultimo = armazem.getUltimoLance(idItem);
+        }
+        if (primeiro == 0 || aposId >= ultimo) {
+            return 0;
+        }
+
+        int atual;
+        if (aposId > 0 && historico.existe(aposId) && historico.getIdItem(aposId) == idItem) {
+            atual = historico.getProximo(aposId);
+        } else {
+            atual = primeiro;
+            while (atual != ultimo && atual <= aposId) {
+                atual = historico.getProximo(atual);
+            }
+        }
+
+        int entregues = 0;
+        while (entregues < limite && atual != 0) {
+            consumidor.accept(new Lance(atual, idItem, clientes.decodificar(historico.getCliente(atual)),
+                    historico.getValor(atual)));
+            entregues++;
+            if (atual == ultimo) {
+                break;
+            }
+            atual = historico.getProximo(atual);
+        }
+        return entregues;
+    }
+
+    @Override
+    public void fechar() {
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdown();
+        }
+        if (arquivoSnapshot != null) {
+            salvarSnapshot();
+        }
+    }
+
+    // Uma exceção que escapasse cancelaria o agendamento para sempre
+    private void salvarSnapshotAgendado() {
+        try {
+            salvarSnapshot();
+        } catch (RuntimeException e) {
+            logger.error("Erro inesperado ao gravar snapshot em {}: {}", arquivoSnapshot, e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Grava o estado atual num arquivo temporário e o move atomicamente
+     * sobre o snapshot anterior.
+     */
+    public void salvarSnapshot() {
+        Path temporario = arquivoSnapshot.resolveSibling(arquivoSnapshot.getFileName() + ".tmp");
+        int total = armazem.getUltimoId();
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporario)))) {
+            out.writeInt(VERSAO_SNAPSHOT);
+            out.writeInt(total);
+            for (int id = 1; id <= total; id++) {
+                String nome = null;
+                String descricao = null;
+                long maiorLance;
+                String cliente;
+                boolean existe;
+                int primeiro;
+                int ultimo;
+                // Nome e descrição são anulados pela remoção, que também roda sob a trava
+                synchronized (trava(id)) {
+                    existe = armazem.existe(id);
+                    if (existe) {
+                        nome = armazem.getNome(id);
+                        descricao = armazem.getDescricao(id);
+                    }
+                    maiorLance = armazem.getMaiorLance(id);
+                    cliente = clientes.decodificar(armazem.getClienteMaiorLance(id));
+                    primeiro = armazem.getPrimeiroLance(id);
+                    ultimo = armazem.getUltimoLance(id);
+                }
+                // Itens removidos mantêm a posição para preservar os IDs
+                out.writeBoolean(existe);
+                if (!existe) {
+                    continue;
+                }
+                out.writeUTF(nome);
+                out.writeUTF(descricao);
+                out.writeLong(armazem.getPrecoInicial(id));
+                out.writeLong(armazem.getEncerraEm(id));
+                out.writeLong(maiorLance);
+                out.writeBoolean(cliente != null);
+                if (cliente != null) {
+                    out.writeUTF(cliente);
+                }
+                escreverHistorico(out, primeiro, ultimo);
+            }
+        } catch (IOException e) {
+            logger.error("Erro ao gravar snapshot em {}: {}", temporario, e.getMessage());
+            return;
+        }
+
+        try {
+            Files.move(temporario, arquivoSnapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            logger.info("Snapshot gravado com {} itens em {}", total, arquivoSnapshot);
+        } catch (IOException e) {
+            logger.error("Erro ao publicar snapshot {}: {}", arquivoSnapshot, e.getMessage());
+        }
+    }
+
+    /**
+     * Grava os lances do item, do primeiro ao último fixado sob a trava; sem
+     * eles o item restaurado iria vazio para o arquivo. Os lances são
+     * regravados em ordem e recebem IDs novos ao carregar.
+     */
+    private void escreverHistorico(DataOutputStream out, int primeiro, int ultimo) throws IOException {
+        int quantidade = 0;
+        for (int atual = primeiro; atual != 0; atual = atual == ultimo ? 0 : historico.getProximo(atual)) {
+            quantidade++;
+        }
+        out.writeInt(quantidade);
+        for (int atual = primeiro; atual != 0; atual = atual == ultimo ? 0 : historico.getProximo(atual)) {
+            out.writeUTF(clientes.decodificar(historico.getCliente(atual)));
+            out.writeLong(historico.getValor(atual));
+        }
+    }
+
+    private void carregarSnapshot() {
+        if (!Files.exists(arquivoSnapshot)) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(arquivoSnapshot)))) {
+            int versao = in.readInt();
+            if (versao != VERSAO_SNAPSHOT) {
+                logger.error("Versão de snapshot {} não suportada em {}", versao, arquivoSnapshot);
+                return;
+            }
+            int total = in.readInt();
+            for (int i = 0; i < total; i++) {
+                if (!in.readBoolean()) {
+                    int id = armazem.adicionar(null, null, 0L, 0L);
+                    armazem.remover(id);
+                    continue;
+                }
+                String nome = in.readUTF();
+                String descricao = in.readUTF();
+                long precoInicial = in.readLong();
+                long encerraEm = in.readLong();
+                long maiorLance = in.readLong();
+                String cliente = in.readBoolean() ? in.readUTF() : null;
+
+                int id = armazem.adicionar(nome, descricao, precoInicial, encerraEm);
+                if (cliente != null) {
+                    // Direto nas colunas: itens já encerrados recusariam o lance
+                    armazem.setMaiorLance(id, maiorLance, clientes.codificar(cliente));
+                }
+                int lances = in.readInt();
+                for (int j = 0; j < lances; j++) {
+                    int codigoCliente = clientes.codificar(in.readUTF());
+                    int idLance = historico.acrescentar(id, codigoCliente, in.readLong(), armazem.getUltimoLance(id));
+                    armazem.encadearLance(id, idLance);
+                }
+            }
+            logger.info("Snapshot carregado com {} itens de {}", total, arquivoSnapshot);
+        } catch (IOException e) {
+            logger.error("Erro ao carregar snapshot {}: {}", arquivoSnapshot, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package database;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Dicionário que codifica nomes de clientes como inteiros.
+ * Cada nome distinto é guardado uma única vez; as colunas do armazém
+ * guardam apenas o código. O código 0 representa "nenhum cliente".
+ */
+public class DicionarioNomes {
+    public static final int NENHUM = 0;
+
+    private final ConcurrentHashMap<String, Integer> codigos = new ConcurrentHashMap<>();
+    private volatile String[] nomes = new String[256];
+    private int proximoCodigo = 1;
+
+    public int codificar(String nome) {
+        if (nome == null) {
+            return NENHUM;
+        }
+        Integer codigo = codigos.get(nome);
+        if (codigo != null) {
+            return codigo;
+        }
+        return registrar(nome);
+    }
+
+    private synchronized int registrar(String nome) {
+        Integer existente = codigos.get(nome);
+        if (existente != null) {
+            return existente;
+        }
+
+        int codigo = proximoCodigo++;
+        String[] atual = nomes;
+        if (codigo >= atual.length) {
+            String[] maior = new String[atual.length * 2];
+            System.arraycopy(atual, 0, maior, 0, atual.length);
+            atual = maior;
+        }
+        atual[codigo] = nome;
+        nomes = atual; // Publica o nome antes de expor o código no mapa
+        codigos.put(nome, codigo);
+        return codigo;
+    }
+
+    public String decodificar(int codigo) {
+        if (codigo == NENHUM) {
+            return null;
+        }
+        return nomes[codigo];
+    }
+
+    public int tamanho() {
+        return codigos.size();
+    }
+}
@@ -0,0 +1,215 @@
+package database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.*;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cria e mantém o esquema do leilão no PostgreSQL.
+ *
+ * - itens_leilao usa fillfactor reduzido e não tem índice sobre maior_lance
+ *   nem cliente_maior_lance, para que o UPDATE do maior lance seja HOT
+ *   (a nova versão da linha cabe na mesma página e nenhum índice é tocado).
+ * - lances é particionada por hash de id_item em PARTICOES_HASH partições,
+ *   criadas junto com a tabela. Toda consulta do registro e do histórico
+ *   filtra por id_item e lê uma só partição, e o VACUUM anda por tabelas
+ *   menores.
+ * - Tabelas lances criadas por versões anteriores, particionadas por
+ *   intervalo mensal de criado_em, continuam recebendo partições com
+ *   MESES_ANTECEDENCIA meses de folga, verificadas diariamente. Os limites
+ *   são meses em UTC, escritos com fuso explícito, para não depender do
+ *   fuso da JVM nem do fuso da sessão.
+ * - idx_lances_item_id (id_item, id) atende o registro de lances e a
+ *   paginação do histórico; é propagado para todas as partições.
+ * - idx_itens_encerra_em (parcial) localiza os itens encerrados que o
+ *   arquivador move para os segmentos em disco.
+ *
+ * Todo o DDL é idempotente e pode rodar a cada inicialização, inclusive em
+ * vários handlers ao mesmo tempo: cada passo usa IF NOT EXISTS e tolera o
+ * erro de objeto duplicado de quem perdeu a corrida (ver executar).
+ */
+public class GerenciadorEsquema {
+    private static final Logger logger = LoggerFactory.getLogger(GerenciadorEsquema.class);
+
+    private static final int FILLFACTOR_ITENS = 70;
+    private static final int PARTICOES_HASH = Math.max(1, Integer.getInteger("leilao.particoes.hash", 16));
+    private static final int MESES_ANTECEDENCIA = Integer.getInteger("leilao.particoes.meses", 3);
+    private static final DateTimeFormatter SUFIXO_PARTICAO = DateTimeFormatter.ofPattern("yyyy_MM");
+    // partstrat de pg_partitioned_table
+    private static final String HASH = "h";
+    private static final String INTERVALO = "r";
+    // duplicate_table, duplicate_object, duplicate_column e unique_violation (no catálogo, entre dois CREATE concorrentes)
+    private static final Set<String> OBJETO_DUPLICADO = Set.of("42P07", "42710", "42701", "23505");
+
+    private final DataSource dataSource;
+    private ScheduledExecutorService particaoScheduler;
+
+    public GerenciadorEsquema(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Cria tabelas, partições e índices que ainda não existirem e, se lances
+     * for particionada por intervalo, agenda a criação diária de partições futuras.
+     */
+    public void inicializar() {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            criarItens(stmt);
+            String particionamento = criarLances(conn, stmt);
+            executar(stmt, "CREATE INDEX IF NOT EXISTS idx_lances_item_id ON lances (id_item, id)");
+            if (HASH.equals(particionamento)) {
+                criarParticoesHash(conn, stmt);
+            } else if (INTERVALO.equals(particionamento)) {
+                criarParticoes(stmt);
+            }
+            logger.info("Esquema do leilão verificado (particionamento de lances: {}).",
+                    HASH.equals(particionamento) ? "hash de id_item" : INTERVALO.equals(particionamento) ? "mensal" : "nenhum");
+
+            if (INTERVALO.equals(particionamento)) {
+                particaoScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                    Thread t = new Thread(r, "particoes-lances");
+                    t.setDaemon(true);
+                    return t;
+                });
+                particaoScheduler.scheduleAtFixedRate(this::manterParticoes, 1, 1, TimeUnit.DAYS);
+            }
+        } catch (SQLException e) {
+            logger.error("Erro ao inicializar o esquema: {}", e.getMessage());
+        }
+    }
+
+    private void criarItens(Statement stmt) throws SQLException {
+        executar(stmt, "CREATE TABLE IF NOT EXISTS itens_leilao ("
+                + " id SERIAL PRIMARY KEY,"
+                + " nome VARCHAR(255) NOT NULL,"
+                + " descricao TEXT,"
+                + " preco_inicial NUMERIC(14,2) NOT NULL,"
+                + " maior_lance NUMERIC(14,2) NOT NULL DEFAULT 0,"
+                + " cliente_maior_lance VARCHAR(255),"
+                + " encerra_em TIMESTAMPTZ"
+                + ") WITH (fillfactor = " + FILLFACTOR_ITENS + ")");
+        // Também aplica o fillfactor em tabelas criadas antes deste gerenciador (vale para páginas novas)
+        stmt.execute("ALTER TABLE itens_leilao SET (fillfactor = " + FILLFACTOR_ITENS + ")");
+        executar(stmt, "ALTER TABLE itens_leilao ADD COLUMN IF NOT EXISTS encerra_em TIMESTAMPTZ");
+        // Índice parcial para o arquivador; encerra_em nunca é atualizada, então o UPDATE do lance segue HOT
+        executar(stmt, "CREATE INDEX IF NOT EXISTS idx_itens_encerra_em ON itens_leilao (encerra_em) WHERE encerra_em IS NOT NULL");
+    }
+
+    /**
+     * @return HASH, INTERVALO, ou null se lances não for particionada
+     */
+    private String criarLances(Connection conn, Statement stmt) throws SQLException {
+        // Sem verificar antes: outro handler pode criar a tabela entre a verificação e o CREATE
+        executar(stmt, "CREATE TABLE IF NOT EXISTS lances ("
+                + " id SERIAL,"
+                + " id_item INTEGER NOT NULL,"
+                + " cliente VARCHAR(255) NOT NULL,"
+                + " valor NUMERIC(14,2) NOT NULL,"
+                + " criado_em TIMESTAMPTZ NOT NULL DEFAULT now(),"
+                + " PRIMARY KEY (id, id_item)"
+                + ") PARTITION BY HASH (id_item)");
+        String particionamento = particionamento(conn, "lances");
+        if (particionamento == null) {
+            logger.warn("A tabela lances já existe sem particionamento; ela será mantida como está "
+                    + "(migre os dados para uma tabela particionada por hash de id_item para ativar as partições).");
+        } else if (INTERVALO.equals(particionamento)) {
+            executar(stmt, "CREATE TABLE IF NOT EXISTS lances_padrao PARTITION OF lances DEFAULT");
+        }
+        return particionamento;
+    }
+
+    // Só numa tabela sem partições: o módulo de uma tabela existente não muda com leilao.particoes.hash
+    private static void criarParticoesHash(Connection conn, Statement stmt) throws SQLException {
+        if (contarParticoes(conn, "lances") > 0) {
+            return;
+        }
+        for (int resto = 0; resto < PARTICOES_HASH; resto++) {
+            executar(stmt, "CREATE TABLE IF NOT EXISTS lances_h" + resto + " PARTITION OF lances"
+                    + " FOR VALUES WITH (MODULUS " + PARTICOES_HASH + ", REMAINDER " + resto + ")");
+        }
+        logger.info("Tabela lances particionada por hash de id_item em {} partições.", PARTICOES_HASH);
+    }
+
+    /**
+     * Executa um passo do DDL. IF NOT EXISTS não é atômico no PostgreSQL:
+     * dois handlers iniciando juntos podem passar pela verificação, e o
+     * segundo CREATE falha com objeto duplicado, que aqui conta como feito.
+     */
+    private static void executar(Statement stmt, String sql) throws SQLException {
+        try {
+            stmt.execute(sql);
+        } catch (SQLException e) {
+            if (!OBJETO_DUPLICADO.contains(e.getSQLState())) {
+                throw e;
+            }
+            logger.debug("Objeto já criado por outra conexão ({}): {}", e.getSQLState(), sql);
+        }
+    }
+
+    // Estratégia da tabela particionada no search_path atual (HASH, INTERVALO...), ou null se não for particionada
+    private static String particionamento(Connection conn, String tabela) throws SQLException {
+        String sql = "SELECT p.partstrat FROM pg_partitioned_table p JOIN pg_class c ON c.oid = p.partrelid"
+                + " WHERE c.relname = ? AND pg_table_is_visible(c.oid)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, tabela);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getString(1) : null;
+            }
+        }
+    }
+
+    private static int contarParticoes(Connection conn, String tabela) throws SQLException {
+        String sql = "SELECT count(*) FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhparent"
+                + " WHERE c.relname = ? AND pg_table_is_visible(c.oid)";
+        try (PreparedStatement stmt = conn.prepareStatement(sql)) {
+            stmt.setString(1, tabela);
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        }
+    }
+
+    // Garante as partições do mês corrente (em UTC) até MESES_ANTECEDENCIA meses à frente
+    private void criarParticoes(Statement stmt) throws SQLException {
+        YearMonth mes = YearMonth.now(ZoneOffset.UTC);
+        for (int i = 0; i <= MESES_ANTECEDENCIA; i++) {
+            criarParticao(stmt, mes.plusMonths(i));
+        }
+    }
+
+    private static void criarParticao(Statement stmt, YearMonth mes) throws SQLException {
+        LocalDate inicio = mes.atDay(1);
+        LocalDate fim = mes.plusMonths(1).atDay(1);
+        String nome = "lances_" + mes.format(SUFIXO_PARTICAO);
+        // Fuso explícito: sem ele o PostgreSQL lê a data no fuso da sessão
+        executar(stmt, "CREATE TABLE IF NOT EXISTS " + nome + " PARTITION OF lances"
+                + " FOR VALUES FROM ('" + inicio + " 00:00:00+00') TO ('" + fim + " 00:00:00+00')");
+        logger.debug("Partição {} verificada [{}, {}).", nome, inicio, fim);
+    }
+
+    private void manterParticoes() {
+        try (Connection conn = dataSource.getConnection();
+             Statement stmt = conn.createStatement()) {
+            criarParticoes(stmt);
+        } catch (SQLException e) {
+            logger.error("Erro ao criar partições futuras de lances: {}", e.getMessage());
+        }
+    }
+
+    public void fechar() {
+        if (particaoScheduler != null) {
+            particaoScheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package database;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registro em memória dos lances aceitos, em colunas primitivas segmentadas.
+ *
+ * Cada lance recebe um ID crescente e é encadeado na lista do seu item
+ * (primeiro/último ficam nas colunas do ArmazemColunar), o que permite
+ * paginar o histórico de um item por cursor (ID do último lance visto)
+ * sem percorrer os lances dos outros itens.
+ *
+ * O encadeamento é feito sob a trava do item, mantida pelo BancoMemoria.
+ * O ID é reservado antes de o bloco existir e de as colunas serem escritas:
+ * um ID reservado por outro escritor, ainda sem bloco ou sem o item escrito,
+ * não existe para os leitores.
+ */
+public class HistoricoLances {
+    private static final int BITS_SEGMENTO = 16;
+    private static final int SEGMENTO = 1 << BITS_SEGMENTO;
+    private static final int MASCARA = SEGMENTO - 1;
+
+    private final AtomicInteger ultimoId = new AtomicInteger();
+
+    private volatile int[][] idItem = new int[0][];
+    private volatile int[][] cliente = new int[0][];
+    private volatile long[][] valor = new long[0][];
+    private volatile int[][] proximo = new int[0][];
+
+    /**
+     * Acrescenta um lance ao registro e o encadeia depois de ultimoDoItem.
+     *
+     * @return ID do novo lance
+     */
+    public int acrescentar(int item, int codigoCliente, long valorCentavos, int ultimoDoItem) {
+        int id = ultimoId.incrementAndGet();
+        int segmento = id >>> BITS_SEGMENTO;
+        if (segmento >= idItem.length) {
+            crescer(segmento + 1);
+        }
+
+        int posicao = id & MASCARA;
+        idItem[segmento][posicao] = item;
+        cliente[segmento][posicao] = codigoCliente;
+        valor[segmento][posicao] = valorCentavos;
+        if (ultimoDoItem != 0) {
+            proximo[ultimoDoItem >>> BITS_SEGMENTO][ultimoDoItem & MASCARA] = id;
+        }
+        return id;
+    }
+
+    private synchronized void crescer(int segmentos) {
+        if (segmentos <= idItem.length) {
+            return; // Outro escritor já alocou o bloco
+        }
+        int atual = idItem.length;
+        int[][] novoIdItem = Arrays.copyOf(idItem, segmentos);
+        int[][] novoCliente = Arrays.copyOf(cliente, segmentos);
+        long[][] novoValor = Arrays.copyOf(valor, segmentos);
+        int[][] novoProximo = Arrays.copyOf(proximo, segmentos);
+        for (int i = atual; i < segmentos; i++) {
+            novoIdItem[i] = new int[SEGMENTO];
+            novoCliente[i] = new int[SEGMENTO];
+            novoValor[i] = new long[SEGMENTO];
+            novoProximo[i] = new int[SEGMENTO];
+        }
+        cliente = novoCliente;
+        valor = novoValor;
+        proximo = novoProximo;
+        idItem = novoIdItem; // Publicado por último: quem vê o bloco vê todas as colunas
+    }
+
+    // Lances de outros itens em escrita podem ser vistos pela metade; os do item, sob a trava dele, não
+    public boolean existe(int id) {
+        if (id <= 0 || id > ultimoId.get()) {
+            return false;
+        }
+        int[][] blocos = idItem;
+        int segmento = id >>> BITS_SEGMENTO;
+        return segmento < blocos.length && blocos[segmento][id & MASCARA] != 0;
+    }
+
+    public int getIdItem(int id) {
+        return idItem[id >>> BITS_SEGMENTO][id & MASCARA];
+    }
+
+    public int getCliente(int id) {
+        return cliente[id >>> BITS_SEGMENTO][id & MASCARA];
+    }
+
+    public long getValor(int id) {
+        return valor[id >>> BITS_SEGMENTO][id & MASCARA];
+    }
+
+    public int getProximo(int id) {
+        return proximo[id >>> BITS_SEGMENTO][id & MASCARA];
+    }
+}
@@ -0,0 +1,340 @@
+package database;
+
+import models.ItemLeilao;
+import models.Lance;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Segmento imutável com itens encerrados e todos os seus lances.
+ *
+ * Layout do arquivo: MAGICO, VERSAO, quantidade de itens, de lances e de
+ * nomes de clientes; depois cada coluna como um bloco independente
+ * [tamanho][bytes comprimidos com Deflate]. Os itens ficam ordenados por ID
+ * e os lances de cada item são contíguos, de inicioLances[i] até
+ * inicioLances[i + 1], em ordem de ID. Clientes são codificados por um
+ * dicionário do próprio segmento (código 0 = nenhum).
+ */
+public final class SegmentoArquivo {
+    private static final int MAGICO = 0x4C534547; // "LSEG"
+    private static final int VERSAO = 1;
+
+    // Colunas dos itens
+    private final int[] ids;
+    private final String[] nomes;
+    private final String[] descricoes;
+    private final long[] precoInicial;
+    private final long[] maiorLance;
+    private final int[] clienteMaiorLance;
+    private final long[] encerraEm;
+    private final int[] inicioLances;
+
+    // Colunas dos lances
+    private final int[] lanceIds;
+    private final int[] lanceClientes;
+    private final long[] lanceValores;
+
+    private final String[] dicionario;
+
+    private SegmentoArquivo(int[] ids, String[] nomes, String[] descricoes, long[] precoInicial, long[] maiorLance,
+                            int[] clienteMaiorLance, long[] encerraEm, int[] inicioLances,
+                            int[] lanceIds, int[] lanceClientes, long[] lanceValores, String[] dicionario) {
+        this.ids = ids;
+        this.nomes = nomes;
+        this.descricoes = descricoes;
+        this.precoInicial = precoInicial;
+        this.maiorLance = maiorLance;
+        this.clienteMaiorLance = clienteMaiorLance;
+        this.encerraEm = encerraEm;
+        this.inicioLances = inicioLances;
+        this.lanceIds = lanceIds;
+        this.lanceClientes = lanceClientes;
+        this.lanceValores = lanceValores;
+        this.dicionario = dicionario;
+    }
+
+    // Posição do item no segmento, ou negativo se ele não estiver aqui
+    public int posicao(int idItem) {
+        return Arrays.binarySearch(ids, idItem);
+    }
+
+    public ItemLeilao getItem(int posicao) {
+        return new ItemLeilao(ids[posicao], nomes[posicao], descricoes[posicao],
+                precoInicial[posicao], maiorLance[posicao],
+                dicionario[clienteMaiorLance[posicao]], encerraEm[posicao]);
+    }
+
+    /**
+     * Entrega os lances do item com ID maior que o cursor, em ordem de ID.
+     *
+     * @return Quantidade de lances entregues
+     */
+    public int listarLances(int posicao, int aposId, int limite, Consumer<Lance> consumidor) {
+        int inicio = inicioLances[posicao];
+        int fim = inicioLances[posicao + 1];
+        int atual = Arrays.binarySearch(lanceIds, inicio, fim, aposId);
+        atual = atual >= 0 ? atual + 1 : -atual - 1;
+
+        int entregues = 0;
+        while (atual < fim && entregues < limite) {
+            consumidor.accept(new Lance(lanceIds[atual], ids[posicao], dicionario[lanceClientes[atual]],
+                    lanceValores[atual]));
+            atual++;
+            entregues++;
+        }
+        return entregues;
+    }
+
+    public int quantidadeItens() {
+        return ids.length;
+    }
+
+    public static SegmentoArquivo ler(Path arquivo) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(arquivo)))) {
+            if (in.readInt() != MAGICO || in.readInt() != VERSAO) {
+                throw new IOException("Segmento inválido: " + arquivo);
+            }
+            int qtdItens = in.readInt();
+            int qtdLances = in.readInt();
+            int qtdNomes = in.readInt();
+
+            int[] ids = lerInts(lerBloco(in), qtdItens);
+            String[] nomes = lerTextos(lerBloco(in), qtdItens);
+            String[] descricoes = lerTextos(lerBloco(in), qtdItens);
+            long[] precoInicial = lerLongs(lerBloco(in), qtdItens);
+            long[] maiorLance = lerLongs(lerBloco(in), qtdItens);
+            int[] clienteMaiorLance = lerInts(lerBloco(in), qtdItens);
+            long[] encerraEm = lerLongs(lerBloco(in), qtdItens);
+            int[] inicioLances = lerInts(lerBloco(in), qtdItens + 1);
+            int[] lanceIds = lerInts(lerBloco(in), qtdLances);
+            int[] lanceClientes = lerInts(lerBloco(in), qtdLances);
+            long[] lanceValores = lerLongs(lerBloco(in), qtdLances);
+            String[] dicionario = lerTextos(lerBloco(in), qtdNomes);
+
+            return new SegmentoArquivo(ids, nomes, descricoes, precoInicial, maiorLance, clienteMaiorLance,
+                    encerraEm, inicioLances, lanceIds, lanceClientes, lanceValores, dicionario);
+        }
+    }
+
+    private static DataInputStream lerBloco(DataInputStream in) throws IOException {
+        byte[] comprimido = new byte[in.readInt()];
+        in.readFully(comprimido);
+        return new DataInputStream(new BufferedInputStream(new InflaterInputStream(new ByteArrayInputStream(comprimido))));
+    }
+
+    private static int[] lerInts(DataInputStream in, int quantidade) throws IOException {
+        int[] valores = new int[quantidade];
+        for (int i = 0; i < quantidade; i++) {
+            valores[i] = in.readInt();
+        }
+        return valores;
+    }
+
+    private static long[] lerLongs(DataInputStream in, int quantidade) throws IOException {
+        long[] valores = new long[quantidade];
+        for (int i = 0; i < quantidade; i++) {
+            valores[i] = in.readLong();
+        }
+        return valores;
+    }
+
+    private static String[] lerTextos(DataInputStream in, int quantidade) throws IOException {
+        String[] valores = new String[quantidade];
+        for (int i = 0; i < quantidade; i++) {
+            int tamanho = in.readInt();
+            if (tamanho >= 0) {
+                byte[] bytes = new byte[tamanho];
+                in.readFully(bytes);
+                valores[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+        return valores;
+    }
+
+    /**
+     * Monta um segmento em memória. Os itens devem ser adicionados em ordem
+     * crescente de ID, cada um seguido dos seus lances em ordem de ID.
+     */
+    public static final class Construtor {
+        private int qtdItens = 0;
+        private int qtdLances = 0;
+
+        private int[] ids = new int[64];
+        private String[] nomes = new String[64];
+        private String[] descricoes = new String[64];
+        private long[] precoInicial = new long[64];
+        private long[] maiorLance = new long[64];
+        private int[] clienteMaiorLance = new int[64];
+        private long[] encerraEm = new long[64];
+        private int[] inicioLances = new int[65];
+
+        private int[] lanceIds = new int[256];
+        private int[] lanceClientes = new int[256];
+        private long[] lanceValores = new long[256];
+
+        private final Map<String, Integer> codigos = new HashMap<>();
+        private String[] dicionario = new String[64];
+        private int qtdNomes = 1; // Código 0 = nenhum cliente
+
+        public void adicionarItem(ItemLeilao item) {
+            if (qtdItens > 0 && item.getId() <= ids[qtdItens - 1]) {
+                throw new IllegalArgumentException("Itens devem ser adicionados em ordem crescente de ID.");
+            }
+            if (qtdItens == ids.length) {
+                int novo = ids.length * 2;
+                ids = Arrays.copyOf(ids, novo);
+                nomes = Arrays.copyOf(nomes, novo);
+                descricoes = Arrays.copyOf(descricoes, novo);
+                precoInicial = Arrays.copyOf(precoInicial, novo);
+                maiorLance = Arrays.copyOf(maiorLance, novo);
+                clienteMaiorLance = Arrays.copyOf(clienteMaiorLance, novo);
+                encerraEm = Arrays.copyOf(encerraEm, novo);
+                inicioLances = Arrays.copyOf(inicioLances, novo + 1);
+            }
+            ids[qtdItens] = item.getId();
+            nomes[qtdItens] = item.getNome();
+            descricoes[qtdItens] = item.getDescricao();
+            precoInicial[qtdItens] = item.getPrecoInicialCentavos();
+            maiorLance[qtdItens] = item.getMaiorLanceCentavos();
+            clienteMaiorLance[qtdItens] = codificar(item.getClienteMaiorLance());
+            encerraEm[qtdItens] = item.getEncerraEm();
+            inicioLances[qtdItens] = qtdLances;
+            qtdItens++;
+            inicioLances[qtdItens] = qtdLances;
+        }
+
+        // Lance do último item adicionado
+        public void adicionarLance(Lance lance) {
+            if (qtdItens == 0 || lance.getIdItem() != ids[qtdItens - 1]) {
+                throw new IllegalArgumentException("Lance não pertence ao último item adicionado.");
+            }
+            if (qtdLances == lanceIds.length) {
+                int novo = lanceIds.length * 2;
+                lanceIds = Arrays.copyOf(lanceIds, novo);
+                lanceClientes = Arrays.copyOf(lanceClientes, novo);
+                lanceValores = Arrays.copyOf(lanceValores, novo);
+            }
+            lanceIds[qtdLances] = lance.getId();
+            lanceClientes[qtdLances] = codificar(lance.getCliente());
+            lanceValores[qtdLances] = lance.getValorCentavos();
+            qtdLances++;
+            inicioLances[qtdItens] = qtdLances;
+        }
+
+        // ID do último lance do item corrente (0 se ainda não houver), usado como cursor
+        public int ultimoLanceDoItem() {
+            if (qtdItens == 0 || inicioLances[qtdItens - 1] == qtdLances) {
+                return 0;
+            }
+            return lanceIds[qtdLances - 1];
+        }
+
+        // Lances já adicionados ao item corrente
+        public int lancesDoItem() {
+            return qtdItens == 0 ? 0 : qtdLances - inicioLances[qtdItens - 1];
+        }
+
+        public int quantidadeItens() {
+            return qtdItens;
+        }
+
+        public int[] ids() {
+            return Arrays.copyOf(ids, qtdItens);
+        }
+
+        private int codificar(String nome) {
+            if (nome == null) {
+                return 0;
+            }
+            Integer codigo = codigos.get(nome);
+            if (codigo == null) {
+                codigo = qtdNomes++;
+                if (codigo == dicionario.length) {
+                    dicionario = Arrays.copyOf(dicionario, dicionario.length * 2);
+                }
+                dicionario[codigo] = nome;
+                codigos.put(nome, codigo);
+            }
+            return codigo;
+        }
+
+        /**
+         * Grava o segmento e força os dados para o disco antes de retornar.
+         */
+        public void gravar(Path arquivo) throws IOException {
+            try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(canal)))) {
+                out.writeInt(MAGICO);
+                out.writeInt(VERSAO);
+                out.writeInt(qtdItens);
+                out.writeInt(qtdLances);
+                out.writeInt(qtdNomes);
+
+                escreverBloco(out, c -> escreverInts(c, ids, qtdItens));
+                escreverBloco(out, c -> escreverTextos(c, nomes, qtdItens));
+                escreverBloco(out, c -> escreverTextos(c, descricoes, qtdItens));
+                escreverBloco(out, c -> escreverLongs(c, precoInicial, qtdItens));
+                escreverBloco(out, c -> escreverLongs(c, maiorLance, qtdItens));
+                escreverBloco(out, c -> escreverInts(c, clienteMaiorLance, qtdItens));
+                escreverBloco(out, c -> escreverLongs(c, encerraEm, qtdItens));
+                escreverBloco(out, c -> escreverInts(c, inicioLances, qtdItens + 1));
+                escreverBloco(out, c -> escreverInts(c, lanceIds, qtdLances));
+                escreverBloco(out, c -> escreverInts(c, lanceClientes, qtdLances));
+                escreverBloco(out, c -> escreverLongs(c, lanceValores, qtdLances));
+                escreverBloco(out, c -> escreverTextos(c, dicionario, qtdNomes));
+
+                out.flush();
+                canal.force(true);
+            }
+        }
+
+        private interface Coluna {
+            void escrever(DataOutputStream out) throws IOException;
+        }
+
+        private static void escreverBloco(DataOutputStream out, Coluna coluna) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream comprimido = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+                coluna.escrever(comprimido);
+            }
+            out.writeInt(bytes.size());
+            bytes.writeTo(out);
+        }
+
+        private static void escreverInts(DataOutputStream out, int[] valores, int quantidade) throws IOException {
+            for (int i = 0; i < quantidade; i++) {
+                out.writeInt(valores[i]);
+            }
+        }
+
+        private static void escreverLongs(DataOutputStream out, long[] valores, int quantidade) throws IOException {
+            for (int i = 0; i < quantidade; i++) {
+                out.writeLong(valores[i]);
+            }
+        }
+
+        private static void escreverTextos(DataOutputStream out, String[] valores, int quantidade) throws IOException {
+            for (int i = 0; i < quantidade; i++) {
+                if (valores[i] == null) {
+                    out.writeInt(-1);
+                } else {
+                    byte[] bytes = valores[i].getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+        }
+    }
+}
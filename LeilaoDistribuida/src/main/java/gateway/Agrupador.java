@@ -0,0 +1,175 @@
+package gateway;
+
+import metricas.Contador;
+import metricas.Histograma;
+import metricas.Metricas;
+import protocol.ComandosAgrupados;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Agrupamento dos comandos encaminhados a um mesmo backend.
+ *
+ * O primeiro comando para um backend abre um lote e agenda o envio para o
+ * fim da janela; os que chegam antes disso entram no mesmo lote. O lote é
+ * enviado numa única requisição de vários comandos (ComandosAgrupados) ao
+ * fim da janela ou antes, ao atingir o máximo de comandos ou de bytes, e
+ * cada cliente recebe a linha de resposta do seu comando. Um lote cheio é
+ * enviado pela própria thread do cliente que o completou; os que vencem
+ * pela janela, por uma thread de envio.
+ *
+ * Propriedades leilao.agrupamento.*: janela (µs, padrão 500; 0 desliga o
+ * agrupamento) e maximo (comandos por lote, padrão 32).
+ */
+class Agrupador {
+    private static final long JANELA_NANOS = TimeUnit.MICROSECONDS.toNanos(Long.getLong("leilao.agrupamento.janela", 500));
+    private static final int MAXIMO = Math.min(ComandosAgrupados.MAXIMO, Integer.getInteger("leilao.agrupamento.maximo", 32));
+
+    // Desligado, cada comando segue sozinho como antes
+    static final boolean ATIVO = JANELA_NANOS > 0 && MAXIMO > 1;
+
+    private static final AtomicInteger sequencia = new AtomicInteger();
+    private static final ScheduledExecutorService relogio = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "agrupamento-relogio");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final ExecutorService envios = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "agrupamento-" + sequencia.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Envia as linhas numa só requisição e devolve uma resposta por linha, na mesma ordem
+    interface Envio {
+        List<String> enviar(RegistroServicos.Backend backend, List<String> linhas) throws IOException;
+    }
+
+    private static final class Pendente {
+        final String linha;
+        final CompletableFuture<String> resposta = new CompletableFuture<>();
+
+        Pendente(String linha) {
+            this.linha = linha;
+        }
+    }
+
+    private static final class Lote {
+        final RegistroServicos.Backend backend;
+        final List<Pendente> pendentes = new ArrayList<>();
+        int bytes;
+
+        Lote(RegistroServicos.Backend backend) {
+            this.backend = backend;
+        }
+    }
+
+    private final Envio envio;
+    private final int maximoBytes;
+    private final Map<String, Lote> abertos = new ConcurrentHashMap<>(); // Por endereço do backend
+    private final Histograma tamanho;
+    private final Contador porJanela;
+    private final Contador porTamanho;
+
+    /**
+     * @param maximoBytes Limite de bytes das linhas de um lote (o UDP precisa
+     *                    caber num datagrama sem fragmentar)
+     */
+    Agrupador(String protocolo, Envio envio, int maximoBytes) {
+        this.envio = envio;
+        this.maximoBytes = maximoBytes;
+        tamanho = Metricas.histograma("leilao_gateway_agrupamento_tamanho", "Comandos por requisição agrupada", "protocolo", protocolo);
+        String ajuda = "Lotes de comandos enviados, pelo motivo do envio (fim da janela ou lote cheio)";
+        porJanela = Metricas.contador("leilao_gateway_agrupamentos_total", ajuda, "protocolo", protocolo, "motivo", "janela");
+        porTamanho = Metricas.contador("leilao_gateway_agrupamentos_total", ajuda, "protocolo", protocolo, "motivo", "cheio");
+    }
+
+    /**
+     * Coloca o comando no lote do backend e espera a sua resposta.
+     *
+     * @throws IOException se o envio do lote falhar ou não trouxer a resposta do comando
+     */
+    String enviar(RegistroServicos.Backend backend, String linha) throws IOException {
+        Pendente pendente = new Pendente(linha);
+        String endereco = backend.getEndereco();
+        int bytesLinha = linha.length() + 1;
+        Lote[] cheios = new Lote[2];
+
+        abertos.compute(endereco, (k, lote) -> {
+            if (lote != null && lote.bytes + bytesLinha > maximoBytes) {
+                cheios[0] = lote; // Não cabe: o lote atual segue agora e a linha abre outro
+                lote = null;
+            }
+            if (lote == null) {
+                lote = new Lote(backend);
+                Lote novo = lote;
+                relogio.schedule(() -> vencer(endereco, novo), JANELA_NANOS, TimeUnit.NANOSECONDS);
+            }
+            lote.pendentes.add(pendente);
+            lote.bytes += bytesLinha;
+            if (lote.pendentes.size() >= MAXIMO) {
+                cheios[1] = lote;
+                return null;
+            }
+            return lote;
+        });
+
+        for (Lote cheio : cheios) {
+            if (cheio != null) {
+                porTamanho.incrementar();
+                despachar(cheio);
+            }
+        }
+
+        try {
+            return pendente.resposta.get();
+        } catch (ExecutionException e) {
+            Throwable causa = e.getCause();
+            throw causa instanceof IOException io ? io : new IOException(causa);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrompido aguardando o lote.");
+        }
+    }
+
+    // Fim da janela: envia o lote se ele ainda não saiu por estar cheio
+    private void vencer(String endereco, Lote lote) {
+        if (abertos.remove(endereco, lote)) {
+            porJanela.incrementar();
+            envios.execute(() -> despachar(lote));
+        }
+    }
+
+    private void despachar(Lote lote) {
+        List<String> linhas = new ArrayList<>(lote.pendentes.size());
+        for (Pendente pendente : lote.pendentes) {
+            linhas.add(pendente.linha);
+        }
+        tamanho.registrar(linhas.size());
+        try {
+            List<String> respostas = envio.enviar(lote.backend, linhas);
+            for (int i = 0; i < lote.pendentes.size(); i++) {
+                if (i < respostas.size()) {
+                    lote.pendentes.get(i).resposta.complete(respostas.get(i));
+                } else {
+                    lote.pendentes.get(i).resposta.completeExceptionally(new IOException("Erro: Nenhuma resposta do servidor interno."));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            for (Pendente pendente : lote.pendentes) {
+                pendente.resposta.completeExceptionally(e);
+            }
+        }
+    }
+}
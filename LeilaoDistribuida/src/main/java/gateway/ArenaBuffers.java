@@ -0,0 +1,59 @@
+package gateway;
+
+import metricas.Contador;
+import metricas.Metricas;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+
+/**
+ * Buffers diretos de tamanho fixo reaproveitados entre datagramas.
+ *
+ * Os buffers são fatias de placas alocadas de uma vez (PLACA buffers por
+ * placa). Quem obtém um buffer o devolve depois de enviar a resposta. O pool
+ * não cresce: vazio, obter devolve null, contado em esgotados, e quem chama
+ * recusa o trabalho em vez de alocar memória fora do pool.
+ */
+final class ArenaBuffers {
+    private static final int PLACA = 16;
+
+    private final int tamanho;
+    private final ArrayBlockingQueue<ByteBuffer> livres;
+    private final Contador esgotados;
+
+    ArenaBuffers(String nome, int tamanho, int quantidade) {
+        this.tamanho = tamanho;
+        int placas = Math.max(1, (quantidade + PLACA - 1) / PLACA);
+        livres = new ArrayBlockingQueue<>(placas * PLACA);
+        for (int p = 0; p < placas; p++) {
+            ByteBuffer placa = ByteBuffer.allocateDirect(tamanho * PLACA);
+            for (int i = 0; i < PLACA; i++) {
+                livres.add(placa.slice(i * tamanho, tamanho));
+            }
+        }
+        esgotados = Metricas.contador("leilao_gateway_buffers_esgotados_total",
+                "Pedidos de buffer recusados por falta de buffer livre", "arena", nome);
+        Metricas.medidor("leilao_gateway_buffers_livres", "Buffers livres no pool", livres::size, "arena", nome);
+    }
+
+    int tamanho() {
+        return tamanho;
+    }
+
+    // Buffer limpo, ou null com o pool vazio
+    ByteBuffer obter() {
+        ByteBuffer buffer = livres.poll();
+        if (buffer == null) {
+            esgotados.incrementar();
+            return null;
+        }
+        return buffer.clear();
+    }
+
+    // Só depois do último uso: o buffer pode ser entregue a outro datagrama em seguida
+    void devolver(ByteBuffer buffer) {
+        if (buffer != null && buffer.capacity() == tamanho) {
+            livres.offer(buffer);
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package gateway;
+
+import metricas.Contador;
+import metricas.Metricas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Disjuntor de um backend: fechado, aberto (ejetado) ou meio-aberto.
+ *
+ * Fechado, todo o tráfego passa e cada resultado entra numa janela
+ * deslizante de baldes por segundo. O disjuntor abre quando, com volume
+ * mínimo na janela, a taxa de erro passa do limite ou o quantil de
+ * latência configurado passa do limite de latência (isto é, mais de
+ * 1 - quantil das chamadas foram lentas); falhas seguidas abrem sem
+ * esperar volume, para backends que caíram de vez.
+ *
+ * Aberto, o backend fica fora do roteamento por um tempo que dobra a cada
+ * ejeção seguida (até ejecaoMaxima). Vencido o tempo, o disjuntor fica
+ * meio-aberto e deixa passar uma sonda por vez com tráfego real: algumas
+ * sondas rápidas e bem-sucedidas fecham o disjuntor, uma falha reabre.
+ * O histórico de ejeções é esquecido depois de um período fechado sem
+ * problemas.
+ *
+ * A guarda de ejeção (registro) limita a fração de backends do protocolo
+ * ejetados ao mesmo tempo; acima dela, o disjuntor continua fechado.
+ *
+ * Propriedades leilao.disjuntor.*: janela (s, padrão 10), minimo (chamadas
+ * na janela, 20), taxaErro (0.5), latencia (ms, 500), quantil (0.95),
+ * falhasSeguidas (5), ejecaoBase (ms, 5000), ejecaoMaxima (ms, 300000),
+ * sucessosParaFechar (3).
+ */
+public class Disjuntor {
+    private static final Logger logger = LoggerFactory.getLogger(Disjuntor.class);
+
+    private static final int JANELA_SEGUNDOS = Math.max(1, Integer.getInteger("leilao.disjuntor.janela", 10));
+    private static final int MINIMO_CHAMADAS = Integer.getInteger("leilao.disjuntor.minimo", 20);
+    private static final double TAXA_ERRO = Double.parseDouble(System.getProperty("leilao.disjuntor.taxaErro", "0.5"));
+    private static final long LATENCIA_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("leilao.disjuntor.latencia", 500));
+    private static final double QUANTIL = Double.parseDouble(System.getProperty("leilao.disjuntor.quantil", "0.95"));
+    private static final int FALHAS_SEGUIDAS = Integer.getInteger("leilao.disjuntor.falhasSeguidas", 5);
+    private static final long EJECAO_BASE_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("leilao.disjuntor.ejecaoBase", 5000));
+    private static final long EJECAO_MAXIMA_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("leilao.disjuntor.ejecaoMaxima", 300_000));
+    private static final int SUCESSOS_PARA_FECHAR = Integer.getInteger("leilao.disjuntor.sucessosParaFechar", 3);
+    private static final long SONDA_PERDIDA_NANOS = TimeUnit.SECONDS.toNanos(5); // Sonda sem resultado: libera outra
+
+    public enum Estado { FECHADO, ABERTO, MEIO_ABERTO }
+
+    // Decide se o backend pode ser ejetado sem passar da fração máxima do protocolo
+    interface Guarda {
+        boolean ejetar(Disjuntor disjuntor, Runnable abrir);
+    }
+
+    // Balde de um segundo da janela; reaproveitado quando o segundo muda
+    private static final class Balde {
+        volatile long segundo = -1;
+        final AtomicLong chamadas = new AtomicLong();
+        final AtomicLong erros = new AtomicLong();
+        final AtomicLong lentas = new AtomicLong();
+    }
+
+    private final String descricao;
+    private final Guarda guarda;
+    private final Balde[] janela = new Balde[JANELA_SEGUNDOS];
+    private final long origem = System.nanoTime();
+
+    private volatile Estado estado = Estado.FECHADO;
+    private volatile long reabrirEm;       // Fim da ejeção (System.nanoTime)
+    private volatile long fechadoDesde = System.nanoTime();
+    private int ejecoesSeguidas;           // Só alterado com a trava do disjuntor
+    private final AtomicInteger falhasSeguidas = new AtomicInteger();
+    private final AtomicInteger sucessosSonda = new AtomicInteger();
+    private final AtomicBoolean sondaEmVoo = new AtomicBoolean();
+    private volatile long inicioSonda;
+
+    private final Contador ejecoes;
+
+    Disjuntor(String protocolo, String endereco, Guarda guarda) {
+        this.descricao = protocolo + " " + endereco;
+        this.guarda = guarda;
+        for (int i = 0; i < janela.length; i++) {
+            janela[i] = new Balde();
+        }
+        ejecoes = Metricas.contador("leilao_disjuntor_ejecoes_total", "Ejeções do backend pelo disjuntor",
+                "protocolo", protocolo, "backend", endereco);
+        Metricas.medidor("leilao_disjuntor_estado", "Estado do disjuntor (0 fechado, 1 aberto, 2 meio-aberto)",
+                () -> estado.ordinal(), "protocolo", protocolo, "backend", endereco);
+    }
+
+    public Estado getEstado() {
+        return estado;
+    }
+
+    // Fora do roteamento: aberto ou em teste
+    public boolean isEjetado() {
+        return estado != Estado.FECHADO;
+    }
+
+    /**
+     * Consultado pelo roteador a cada escolha. Meio-aberto, só autoriza uma
+     * sonda por vez; quem recebe true deve registrar o resultado.
+     */
+    public boolean permite() {
+        Estado atual = estado;
+        if (atual == Estado.FECHADO) {
+            return true;
+        }
+        long agora = System.nanoTime();
+        if (atual == Estado.ABERTO) {
+            if (agora - reabrirEm < 0) {
+                return false;
+            }
+            meioAbrir();
+        }
+        if (sondaEmVoo.compareAndSet(false, true)) {
+            inicioSonda = agora;
+            return true;
+        }
+        if (agora - inicioSonda > SONDA_PERDIDA_NANOS) {
+            inicioSonda = agora; // A sonda anterior não registrou resultado
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Resultado de uma chamada ao backend.
+     *
+     * @param duracaoNanos Tempo até a resposta (ou até a falha)
+     */
+    public void registrar(long duracaoNanos, boolean sucesso) {
+        boolean lenta = duracaoNanos > LATENCIA_NANOS;
+        Estado atual = estado;
+        if (atual == Estado.MEIO_ABERTO) {
+            registrarSonda(sucesso && !lenta);
+            return;
+        }
+        if (atual == Estado.ABERTO) {
+            return; // Chamada iniciada antes da ejeção
+        }
+
+        Balde balde = balde(System.nanoTime());
+        balde.chamadas.incrementAndGet();
+        if (!sucesso) {
+            balde.erros.incrementAndGet();
+        }
+        if (lenta) {
+            balde.lentas.incrementAndGet();
+        }
+
+        if (sucesso) {
+            falhasSeguidas.set(0);
+            if (!lenta) {
+                return; // Chamada boa não abre o disjuntor: dispensa a avaliação
+            }
+        } else if (falhasSeguidas.incrementAndGet() >= FALHAS_SEGUIDAS) {
+            tentarAbrir("falhas seguidas");
+            return;
+        }
+        avaliar();
+    }
+
+    private void avaliar() {
+        long segundoAtual = segundo(System.nanoTime());
+        long chamadas = 0;
+        long erros = 0;
+        long lentas = 0;
+        for (Balde balde : janela) {
+            if (segundoAtual - balde.segundo < JANELA_SEGUNDOS) {
+                chamadas += balde.chamadas.get();
+                erros += balde.erros.get();
+                lentas += balde.lentas.get();
+            }
+        }
+        if (chamadas < MINIMO_CHAMADAS) {
+            return;
+        }
+        if (erros >= TAXA_ERRO * chamadas) {
+            tentarAbrir("taxa de erro " + erros + "/" + chamadas);
+        } else if (lentas > (1 - QUANTIL) * chamadas) {
+            tentarAbrir("p" + Math.round(QUANTIL * 100) + " acima de " + TimeUnit.NANOSECONDS.toMillis(LATENCIA_NANOS) + " ms");
+        }
+    }
+
+    private void tentarAbrir(String motivo) {
+        if (estado != Estado.FECHADO) {
+            return;
+        }
+        if (!guarda.ejetar(this, () -> abrir(motivo))) {
+            logger.warn("Disjuntor de {} não aberto ({}): limite de backends ejetados atingido.", descricao, motivo);
+            limparJanela(); // Reavalia com dados novos em vez de insistir a cada chamada
+        }
+    }
+
+    // Chamado pela guarda, com a trava dela
+    private synchronized void abrir(String motivo) {
+        if (estado != Estado.FECHADO) {
+            return;
+        }
+        long agora = System.nanoTime();
+        // Um período fechado de uma volta da ejeção máxima apaga o histórico
+        if (agora - fechadoDesde > EJECAO_MAXIMA_NANOS) {
+            ejecoesSeguidas = 0;
+        }
+        reabrirEm = agora + duracaoEjecao(ejecoesSeguidas++);
+        estado = Estado.ABERTO;
+        ejecoes.incrementar();
+        logger.warn("Disjuntor de {} aberto ({}); ejetado por {} ms.", descricao, motivo,
+                TimeUnit.NANOSECONDS.toMillis(reabrirEm - agora));
+    }
+
+    private synchronized void meioAbrir() {
+        if (estado == Estado.ABERTO && System.nanoTime() - reabrirEm >= 0) {
+            sucessosSonda.set(0);
+            sondaEmVoo.set(false);
+            estado = Estado.MEIO_ABERTO;
+            logger.info("Disjuntor de {} meio-aberto: enviando sondas.", descricao);
+        }
+    }
+
+    private synchronized void registrarSonda(boolean boa) {
+        if (estado != Estado.MEIO_ABERTO) {
+            return;
+        }
+        sondaEmVoo.set(false);
+        if (!boa) {
+            long agora = System.nanoTime();
+            reabrirEm = agora + duracaoEjecao(ejecoesSeguidas++);
+            estado = Estado.ABERTO;
+            ejecoes.incrementar();
+            logger.warn("Sonda de {} falhou; ejetado por mais {} ms.", descricao, TimeUnit.NANOSECONDS.toMillis(reabrirEm - agora));
+        } else if (sucessosSonda.incrementAndGet() >= SUCESSOS_PARA_FECHAR) {
+            limparJanela();
+            falhasSeguidas.set(0);
+            fechadoDesde = System.nanoTime();
+            estado = Estado.FECHADO;
+            logger.info("Disjuntor de {} fechado: backend de volta ao roteamento.", descricao);
+        }
+    }
+
+    private static long duracaoEjecao(int ejecoesAnteriores) {
+        long duracao = EJECAO_BASE_NANOS << Math.min(ejecoesAnteriores, 20);
+        return Math.min(duracao, EJECAO_MAXIMA_NANOS);
+    }
+
+    private Balde balde(long agora) {
+        long segundo = segundo(agora);
+        Balde balde = janela[(int) (segundo % JANELA_SEGUNDOS)];
+        if (balde.segundo != segundo) {
+            synchronized (balde) {
+                if (balde.segundo != segundo) {
+                    balde.chamadas.set(0);
+                    balde.erros.set(0);
+                    balde.lentas.set(0);
+                    balde.segundo = segundo;
+                }
+            }
+        }
+        return balde;
+    }
+
+    private void limparJanela() {
+        for (Balde balde : janela) {
+            balde.chamadas.set(0);
+            balde.erros.set(0);
+            balde.lentas.set(0);
+        }
+    }
+
+    private long segundo(long nanos) {
+        return TimeUnit.NANOSECONDS.toSeconds(nanos - origem);
+    }
+}
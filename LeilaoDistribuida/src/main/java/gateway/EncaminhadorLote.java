@@ -0,0 +1,175 @@
+package gateway;
+
+import metricas.Histograma;
+import metricas.Metricas;
+import protocol.ChaveIdempotencia;
+import protocol.ComandosLote;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lotes de comandos dos clientes (ComandosLote) encaminhados pelo gateway.
+ *
+ * As linhas são lidas do corpo à medida que chegam e cada comando segue
+ * pelo mesmo caminho de um comando avulso (roteamento pela chave,
+ * agrupamento por backend), com até EM_VOO comandos do lote em andamento ao
+ * mesmo tempo. Os resultados voltam na ordem das linhas: cada um é escrito
+ * assim que ele e os anteriores terminam, e com a janela cheia a leitura
+ * espera a escrita do mais antigo. O limite por cliente (LimiteClientes)
+ * vale para cada comando do lote, conferido logo depois de lida a linha.
+ *
+ * Os comandos de todos os lotes dividem um pool fixo de threads; a fila
+ * dele fica limitada pela janela, no máximo EM_VOO comandos por lote. A
+ * escrita de cada lote tem a sua thread, num pool também limitado: acima
+ * de "escritas" lotes simultâneos, o lote novo é recusado.
+ *
+ * Propriedades leilao.lote.*: emVoo (comandos em andamento por lote, padrão
+ * 64), threads (pool dos comandos, padrão 64) e escritas (lotes simultâneos,
+ * padrão 32).
+ */
+class EncaminhadorLote {
+    private static final int EM_VOO = Math.max(1, Integer.getInteger("leilao.lote.emVoo", 64));
+    private static final int THREADS = Math.max(1, Integer.getInteger("leilao.lote.threads", 64));
+    private static final int ESCRITAS = Math.max(1, Integer.getInteger("leilao.lote.escritas", 32));
+
+    private static final CompletableFuture<String> FIM = new CompletableFuture<>(); // Marca o fim do lote na fila de escrita
+
+    private static final AtomicInteger sequencia = new AtomicInteger();
+    private static final ExecutorService execucoes = Executors.newFixedThreadPool(THREADS, r -> {
+        Thread t = new Thread(r, "lote-" + sequencia.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+    private static final ExecutorService escritas = new ThreadPoolExecutor(0, ESCRITAS, 60L, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), r -> {
+        Thread t = new Thread(r, "lote-escrita-" + sequencia.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Encaminha um comando ("!chave;tipo;dados", chave opcional); a mensagem da exceção é a resposta de erro
+    interface Execucao {
+        String executar(String comando) throws IOException;
+    }
+
+    private final String protocolo;
+    private final LimiteClientes limites;
+    private final Execucao execucao;
+    private final Histograma tamanho;
+
+    EncaminhadorLote(String protocolo, LimiteClientes limites, Execucao execucao) {
+        this.protocolo = protocolo;
+        this.limites = limites;
+        this.execucao = execucao;
+        tamanho = Metricas.histograma("leilao_gateway_lote_tamanho", "Comandos por lote recebido dos clientes", "protocolo", protocolo);
+    }
+
+    /**
+     * Lê os comandos até o fim do corpo (ou até uma linha vazia, se
+     * vaziaEncerra) e escreve um resultado NDJSON por comando. A escrita roda
+     * numa thread à parte, para que um resultado pronto chegue ao cliente
+     * mesmo enquanto a leitura espera a próxima linha.
+     *
+     * @param origem Endereço do cliente, para o limite por endereço
+     * @return quantidade de comandos do lote
+     * @throws IOException também com ESCRITAS lotes já em andamento, sem ler nenhum comando
+     */
+    int encaminhar(BufferedReader in, Writer out, boolean vaziaEncerra, InetAddress origem) throws IOException {
+        BlockingQueue<CompletableFuture<String>> resultados = new LinkedBlockingQueue<>();
+        Semaphore janela = new Semaphore(EM_VOO);
+        CompletableFuture<Void> escrita;
+        try {
+            escrita = CompletableFuture.runAsync(() -> escrever(resultados, janela, out), escritas);
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Erro: lotes simultâneos demais, tente mais tarde.");
+        }
+        int numero = 0;
+        try {
+            String linha;
+            while (!escrita.isDone() && (linha = in.readLine()) != null) {
+                if (linha.isBlank()) {
+                    if (vaziaEncerra) {
+                        break;
+                    }
+                    continue;
+                }
+                int n = ++numero;
+                janela.acquireUninterruptibly();
+                String comando;
+                try {
+                    comando = ComandosLote.comando(linha);
+                } catch (IllegalArgumentException e) {
+                    resultados.add(CompletableFuture.completedFuture(ComandosLote.resultado(n, "Mensagem inválida: " + e.getMessage())));
+                    continue;
+                }
+                String mensagem = ChaveIdempotencia.semChave(comando);
+                String tipo = mensagem.startsWith("cadastrarItem") ? "cadastrarItem" : "registrarLance";
+                if (!limites.permitir(protocolo, tipo, LimiteClientes.clienteDoLance(mensagem), origem)) {
+                    resultados.add(CompletableFuture.completedFuture(ComandosLote.resultado(n, LimiteClientes.RECUSA)));
+                    continue;
+                }
+                resultados.add(CompletableFuture.supplyAsync(() -> ComandosLote.resultado(n, executar(comando)), execucoes));
+            }
+        } finally {
+            resultados.add(FIM);
+            tamanho.registrar(numero);
+        }
+
+        try {
+            escrita.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof UncheckedIOException io ? io.getCause() : new IOException(e.getCause());
+        }
+        return numero;
+    }
+
+    // Escreve os resultados na ordem das linhas, esvaziando o buffer antes de esperar o próximo
+    private static void escrever(BlockingQueue<CompletableFuture<String>> resultados, Semaphore janela, Writer out) {
+        try {
+            while (true) {
+                CompletableFuture<String> proximo = resultados.peek();
+                if (proximo == null || !proximo.isDone()) {
+                    out.flush();
+                }
+                proximo = resultados.take();
+                if (proximo == FIM) {
+                    out.flush();
+                    return;
+                }
+                out.write(proximo.join());
+                out.write('\n');
+                janela.release();
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // Cliente desconectado: a leitura para na próxima linha
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            janela.release(EM_VOO); // A leitura não fica presa esperando uma escrita que não vai acontecer
+        }
+    }
+
+    private String executar(String comando) {
+        try {
+            return execucao.executar(comando);
+        } catch (IOException | RuntimeException e) {
+            return e.getMessage();
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package gateway;
+
+import metricas.Contador;
+import metricas.Metricas;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Requisições especuladas (hedged requests) de um protocolo.
+ *
+ * O gateway só especula as consultas de histórico, as únicas operações
+ * repetíveis sem chave: GET /lances no HTTP e historicoLances no TCP. Não
+ * há especulação no UDP, que não tem consulta.
+ *
+ * Uma operação idempotente é enviada ao backend escolhido; se a resposta
+ * não chegar dentro do atraso de especulação (o p95 dos encaminhamentos
+ * recentes), uma segunda cópia vai para outro backend. Vale a primeira
+ * resposta bem-sucedida e a outra tentativa é cancelada, fechando o seu
+ * socket. Um backend travado deixa de segurar o cliente pelos 5 s do
+ * timeout: o custo passa a ser o atraso mais a resposta do outro backend.
+ *
+ * O orçamento limita as cópias a uma fração das operações elegíveis: cada
+ * operação acumula um crédito e cada cópia gasta o equivalente a 100 %
+ * (com folga para uma rajada de 10 cópias).
+ *
+ * Propriedades leilao.especulacao.*: orcamento (percentual, padrão 5),
+ * atrasoMinimo (ms, padrão 2) e atrasoInicial (ms, padrão 50, usado até
+ * haver amostras suficientes).
+ */
+class Especulacao {
+    private static final int AMOSTRAS = 512; // Potência de 2: janela dos encaminhamentos recentes
+    private static final int RECALCULO = 128; // Recalcula o atraso a cada N amostras
+    private static final int AMOSTRAS_MINIMAS = 32;
+    private static final double QUANTIL = 0.95;
+    private static final long CREDITO_POR_OPERACAO = Math.max(0, Integer.getInteger("leilao.especulacao.orcamento", 5)) * 10L;
+    private static final long CUSTO_COPIA = 1000;
+    private static final long CREDITO_MAXIMO = 10 * CUSTO_COPIA;
+    private static final long ATRASO_MINIMO_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("leilao.especulacao.atrasoMinimo", 2));
+    private static final long ATRASO_INICIAL_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("leilao.especulacao.atrasoInicial", 50));
+
+    private static final AtomicInteger sequencia = new AtomicInteger();
+    private static final ExecutorService tentativas = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "especulacao-" + sequencia.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    /**
+     * Envio a um backend. Recursos bloqueantes (socket, conexão) devem ser
+     * associados ao cancelamento, que os fecha se a outra tentativa vencer.
+     */
+    interface Tentativa<T> {
+        T executar(RegistroServicos.Backend backend, Cancelamento cancelamento) throws IOException;
+
+        // Resultado de uma tentativa que chegou depois da vencedora
+        default void descartar(T resultado) {
+            if (resultado instanceof Closeable recurso) {
+                try {
+                    recurso.close();
+                } catch (IOException e) {
+                    // Descartado de qualquer forma
+                }
+            }
+        }
+    }
+
+    // Permite interromper uma tentativa bloqueada fechando o seu recurso
+    static class Cancelamento {
+        // Envios sem especulação: nada a cancelar
+        static final Cancelamento NENHUM = new Cancelamento() {
+            @Override
+            void associar(Closeable recurso) {
+            }
+        };
+
+        private volatile boolean cancelado;
+        private volatile Closeable recurso;
+
+        void associar(Closeable recurso) {
+            this.recurso = recurso;
+            if (cancelado) {
+                fechar(recurso);
+            }
+        }
+
+        boolean isCancelado() {
+            return cancelado;
+        }
+
+        void cancelar() {
+            cancelado = true;
+            Closeable atual = recurso;
+            if (atual != null) {
+                fechar(atual);
+            }
+        }
+
+        private static void fechar(Closeable recurso) {
+            try {
+                recurso.close();
+            } catch (IOException e) {
+                // O objetivo é só desbloquear a tentativa
+            }
+        }
+    }
+
+    private final String protocolo;
+    private final RegistroServicos registro;
+
+    private final long[] amostras = new long[AMOSTRAS];
+    private final AtomicLong escritas = new AtomicLong();
+    private volatile long atrasoNanos = ATRASO_INICIAL_NANOS;
+    private final AtomicLong creditos = new AtomicLong(CREDITO_MAXIMO);
+
+    private final Contador enviadas;
+    private final Contador vencedoras;
+    private final Contador negadas;
+
+    Especulacao(String protocolo, RegistroServicos registro) {
+        this.protocolo = protocolo;
+        this.registro = registro;
+        String ajuda = "Cópias especuladas: enviadas, vencedoras (responderam antes da original) e negadas pelo orçamento";
+        enviadas = Metricas.contador("leilao_gateway_especulacoes_total", ajuda, "protocolo", protocolo, "resultado", "enviada");
+        vencedoras = Metricas.contador("leilao_gateway_especulacoes_total", ajuda, "protocolo", protocolo, "resultado", "vencedora");
+        negadas = Metricas.contador("leilao_gateway_especulacoes_total", ajuda, "protocolo", protocolo, "resultado", "negada");
+        Metricas.medidor("leilao_gateway_especulacao_atraso_micros", "Atraso antes de enviar a cópia especulada",
+                () -> TimeUnit.NANOSECONDS.toMicros(atrasoNanos), "protocolo", protocolo);
+    }
+
+    // Latência de um encaminhamento bem-sucedido (especulado ou não), que alimenta o atraso
+    void registrarLatencia(long nanos) {
+        long i = escritas.getAndIncrement();
+        amostras[(int) (i & (AMOSTRAS - 1))] = nanos;
+        if ((i + 1) % RECALCULO == 0 && i + 1 >= AMOSTRAS_MINIMAS) {
+            recalcular((int) Math.min(i + 1, AMOSTRAS));
+        }
+    }
+
+    private void recalcular(int quantidade) {
+        long[] copia = Arrays.copyOf(amostras, quantidade);
+        Arrays.sort(copia);
+        atrasoNanos = Math.max(ATRASO_MINIMO_NANOS, copia[(int) Math.min(quantidade - 1, Math.ceil(QUANTIL * quantidade) - 1)]);
+    }
+
+    /**
+     * Executa a tentativa no backend escolhido e, passado o atraso sem
+     * resposta, numa cópia em outro backend.
+     *
+     * @throws IOException a falha da última tentativa, se nenhuma responder
+     */
+    <T> T executar(RegistroServicos.Backend primeiro, Tentativa<T> tentativa) throws IOException {
+        creditos.getAndUpdate(c -> Math.min(CREDITO_MAXIMO, c + CREDITO_POR_OPERACAO));
+
+        Cancelamento cancelamentoOriginal = new Cancelamento();
+        CompletableFuture<T> original = iniciar(primeiro, tentativa, cancelamentoOriginal);
+        try {
+            return original.get(atrasoNanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            // Sem resposta no atraso: tenta a cópia
+        } catch (ExecutionException e) {
+            throw comoIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelamentoOriginal.cancelar();
+            throw new IOException("Interrompido aguardando o backend.");
+        }
+
+        RegistroServicos.Backend segundo = outroBackend(primeiro);
+        if (segundo == null || !reservarCopia()) {
+            return aguardar(original, cancelamentoOriginal);
+        }
+        enviadas.incrementar();
+        Cancelamento cancelamentoCopia = new Cancelamento();
+        CompletableFuture<T> copia = iniciar(segundo, tentativa, cancelamentoCopia);
+
+        // A primeira resposta bem-sucedida vence; falha de uma só conta se a outra também falhar
+        CompletableFuture<Boolean> vencedor = new CompletableFuture<>(); // true se a cópia venceu
+        AtomicInteger falhas = new AtomicInteger();
+        original.whenComplete((r, erro) -> concluir(vencedor, false, erro, falhas));
+        copia.whenComplete((r, erro) -> concluir(vencedor, true, erro, falhas));
+        try {
+            if (vencedor.get()) {
+                vencedoras.incrementar();
+                cancelamentoOriginal.cancelar();
+                original.thenAccept(tentativa::descartar);
+                return copia.join();
+            }
+            cancelamentoCopia.cancelar();
+            copia.thenAccept(tentativa::descartar);
+            return original.join();
+        } catch (ExecutionException e) {
+            throw comoIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelamentoOriginal.cancelar();
+            cancelamentoCopia.cancelar();
+            throw new IOException("Interrompido aguardando o backend.");
+        }
+    }
+
+    private static void concluir(CompletableFuture<Boolean> vencedor, boolean daCopia, Throwable erro, AtomicInteger falhas) {
+        if (erro == null) {
+            vencedor.complete(daCopia);
+        } else if (falhas.incrementAndGet() == 2) {
+            vencedor.completeExceptionally(erro);
+        }
+    }
+
+    private <T> CompletableFuture<T> iniciar(RegistroServicos.Backend backend, Tentativa<T> tentativa, Cancelamento cancelamento) {
+        CompletableFuture<T> futuro = new CompletableFuture<>();
+        tentativas.execute(() -> {
+            try {
+                futuro.complete(tentativa.executar(backend, cancelamento));
+            } catch (Throwable e) {
+                futuro.completeExceptionally(e);
+            }
+        });
+        return futuro;
+    }
+
+    private <T> T aguardar(CompletableFuture<T> original, Cancelamento cancelamento) throws IOException {
+        try {
+            return original.get();
+        } catch (ExecutionException e) {
+            throw comoIOException(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cancelamento.cancelar();
+            throw new IOException("Interrompido aguardando o backend.");
+        }
+    }
+
+    // Outro backend do mesmo protocolo, pelo round-robin; null se só houver o primeiro
+    private RegistroServicos.Backend outroBackend(RegistroServicos.Backend primeiro) {
+        int candidatos = registro.getInstantaneo().getBackends(protocolo).size();
+        for (int i = 0; i < candidatos; i++) {
+            RegistroServicos.Backend backend = registro.escolher(protocolo);
+            // O handler local responde a consulta na própria thread, sem atraso a cobrir com cópia
+            if (backend != primeiro && !backend.isLocal() && !backend.getEndereco().equals(primeiro.getEndereco())) {
+                return backend;
+            }
+        }
+        return null;
+    }
+
+    private boolean reservarCopia() {
+        long atual;
+        do {
+            atual = creditos.get();
+            if (atual < CUSTO_COPIA) {
+                negadas.incrementar();
+                return false;
+            }
+        } while (!creditos.compareAndSet(atual, atual - CUSTO_COPIA));
+        return true;
+    }
+
+    private static IOException comoIOException(ExecutionException e) {
+        Throwable causa = e.getCause();
+        if (causa instanceof IOException io) {
+            return io;
+        }
+        if (causa instanceof RuntimeException runtime) {
+            throw runtime;
+        }
+        return new IOException(causa);
+    }
+}
@@ -4,56 +4,136 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.CharsetEncoder;
 import java.nio.charset.StandardCharsets;
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
+import database.Armazenamento;
+import log.Amostragem;
+import metricas.Contador;
+import metricas.EventoEncaminhamento;
+import metricas.EventoRoteamento;
+import metricas.Histograma;
+import metricas.ItensQuentes;
+import metricas.Metricas;
+import metricas.MetricasHandler;
+import metricas.QuentesHandler;
+import metricas.Rastreador;
+import metricas.Rastro;
+import metricas.RastrosHandler;
+import protocol.ChaveIdempotencia;
+import protocol.Comando;
+import protocol.ComandosAgrupados;
+import protocol.ComandosLote;
+import protocol.HandlerLocal;
 
 public class Gateway {
     private static final Logger logger = LoggerFactory.getLogger(Gateway.class);
     private static final int PORTA_GATEWAY_HTTP = 9000;
     private static final int PORTA_GATEWAY_TCP = 9001;
     private static final int PORTA_GATEWAY_UDP = 9002;
+    private static final int PORTA_GATEWAY_HEARTBEAT = 9003; // Renovação das concessões dos handlers (UDP)
+
+    // Métricas por protocolo: latência de ponta a ponta, escolha do backend e encaminhamento por backend
+    private static final Histograma requisicaoHTTP = Metricas.histogramaTempo("leilao_gateway_requisicao_segundos", "Tempo total da requisição no gateway", "protocolo", "http");
+    private static final Histograma requisicaoTCP = Metricas.histogramaTempo("leilao_gateway_requisicao_segundos", "Tempo total da requisição no gateway", "protocolo", "tcp");
+    private static final Histograma requisicaoUDP = Metricas.histogramaTempo("leilao_gateway_requisicao_segundos", "Tempo total da requisição no gateway", "protocolo", "udp");
+    private static final Histograma roteamentoHTTP = Metricas.histogramaTempo("leilao_gateway_roteamento_segundos", "Tempo de escolha do backend", "protocolo", "http");
+    private static final Histograma roteamentoTCP = Metricas.histogramaTempo("leilao_gateway_roteamento_segundos", "Tempo de escolha do backend", "protocolo", "tcp");
+    private static final Histograma roteamentoUDP = Metricas.histogramaTempo("leilao_gateway_roteamento_segundos", "Tempo de escolha do backend", "protocolo", "udp");
+    private static final Contador errosHTTP = Metricas.contador("leilao_gateway_erros_total", "Requisições respondidas com erro pelo gateway", "protocolo", "http");
+    private static final Contador errosTCP = Metricas.contador("leilao_gateway_erros_total", "Requisições respondidas com erro pelo gateway", "protocolo", "tcp");
+    private static final Contador errosUDP = Metricas.contador("leilao_gateway_erros_total", "Requisições respondidas com erro pelo gateway", "protocolo", "udp");
 
     private ExecutorService executorServiceHTTP;
     private ExecutorService executorServiceTCP;
     private ExecutorService executorServiceUDP;
 
-    // Verificadores de Heartbeat
-    private HeartBeat httpHeartbeatChecker;
-    private HeartBeat tcpHeartbeatChecker;
-    private HeartBeat udpHeartbeatChecker;
-
-    // Mapas para armazenar os servidores registrados dinamicamente
-    private final List<Integer> httpHandlerPorts = new ArrayList<>();
-    private final List<Integer> tcpHandlerPorts = new ArrayList<>();
-    private final List<Integer> udpHandlerPorts = new ArrayList<>();
-
-    public List<Integer> getHttpHandlerPorts() {
-        return httpHandlerPorts;
-    }
-
-    public List<Integer> getTcpHandlerPorts() {
-        return tcpHandlerPorts;
+    // Handlers registrados por concessão; os roteadores leem o instantâneo imutável
+    private final RegistroServicos registro = new RegistroServicos();
+
+    // Especulação por protocolo: latências recentes e orçamento de cópias. Só as consultas de histórico
+    // HTTP e TCP são especuladas; o UDP não tem consulta e os comandos nunca vão a dois backends
+    private final Especulacao especulacaoHTTP = new Especulacao("http", registro);
+    private final Especulacao especulacaoTCP = new Especulacao("tcp", registro);
+
+    // Agrupamento dos comandos por backend; o lote UDP precisa caber num datagrama sem fragmentar
+    private final Agrupador agrupadorHTTP = new Agrupador("http", this::enviarLoteHTTP, 1 << 20);
+    private final Agrupador agrupadorTCP = new Agrupador("tcp", this::enviarLoteTCP, 1 << 20);
+    private final Agrupador agrupadorUDP = new Agrupador("udp", this::enviarLoteUDP, 1400);
+
+    // Buffers dos datagramas UDP: fatias do tamanho de um comando típico e poucos buffers do maior datagrama UDP
+    private static final int MAIOR_DATAGRAMA = 65507;
+    private final ArenaBuffers arenaUDP = new ArenaBuffers("udp",
+            Math.min(MAIOR_DATAGRAMA - 1, Math.max(256, Integer.getInteger("leilao.gateway.udp.buffer", 2048))),
+            Integer.getInteger("leilao.gateway.udp.buffers", 256));
+    private final ArenaBuffers arenaGrandeUDP = new ArenaBuffers("udp-grande", MAIOR_DATAGRAMA,
+            Integer.getInteger("leilao.gateway.udp.grandes", 16));
+    // Datagramas esperando worker; acima disso (ou sem buffer livre) o datagrama é descartado
+    private static final int FILA_UDP = Math.max(1, Integer.getInteger("leilao.gateway.udp.fila", 1024));
+    private static final Contador descartadosFila = Metricas.contador("leilao_gateway_udp_descartados_total", "Datagramas de clientes descartados na recepção", "motivo", "fila");
+    private static final Contador descartadosBuffer = Metricas.contador("leilao_gateway_udp_descartados_total", "Datagramas de clientes descartados na recepção", "motivo", "buffer");
+    private static final long PRAZO_UDP_MILLIS = 5000;
+    private static final ThreadLocal<Selector> SELETOR_UDP = new ThreadLocal<>(); // Espera das respostas, um por thread
+
+    // Repasse de bytes no TCP (leilao.gateway.tcp.repasse): sem decodificar, sem agrupar
+    private static final boolean REPASSE_TCP = Boolean.getBoolean("leilao.gateway.tcp.repasse");
+    private static final ThreadLocal<byte[]> BUFFER_REPASSE = ThreadLocal.withInitial(() -> new byte[8192]); // Primeira linha
+    private static final ExecutorService repasses = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "repasse-tcp");
+        t.setDaemon(true);
+        return t;
+    });
+    private static final Contador repassados = Metricas.contador("leilao_gateway_repasse_bytes_total", "Bytes repassados no modo repasse do TCP", "sentido", "backend");
+    private static final Contador respondidos = Metricas.contador("leilao_gateway_repasse_bytes_total", "Bytes repassados no modo repasse do TCP", "sentido", "cliente");
+
+    // Token buckets por cliente e por endereço, conferidos antes do roteamento
+    private final LimiteClientes limites = new LimiteClientes();
+
+    // Lotes de comandos dos clientes (POST /lote e o modo "lote" do TCP)
+    private final EncaminhadorLote loteHTTP = new EncaminhadorLote("http", limites, this::executarComandoLoteHTTP);
+    private final EncaminhadorLote loteTCP = new EncaminhadorLote("tcp", limites, this::executarComandoLoteTCP);
+
+    // Modo co-localizado (leilao.gateway.local=memoria|postgres): handler neste processo, registrado como backend "local"
+    private HandlerLocal handlerLocal;
+
+    // Canais de memória compartilhada com os handlers da mesma máquina registrados com o transporte "memoria"
+    private final TransporteMemoria transporteMemoria = new TransporteMemoria();
+
+    // Itens com mais lances recentes: os lances de cada um vão sempre ao mesmo handler
+    private final ItensQuentes quentes = ItensQuentes.de("gateway");
+
+    public RegistroServicos getRegistro() {
+        return registro;
     }
 
-    public List<Integer> getUdpHandlerPorts() {
-        return udpHandlerPorts;
+    // Latência de um encaminhamento bem-sucedido para o atraso de especulação do protocolo (não há no UDP)
+    private void registrarLatencia(String protocolo, long duracao) {
+        switch (protocolo) {
+            case "http" -> especulacaoHTTP.registrarLatencia(duracao);
+            case "tcp" -> especulacaoTCP.registrarLatencia(duracao);
+            default -> {
+            }
+        }
     }
 
-    // Índices para Round Robin
-    private int roundRobinHTTP = 0;
-    private int roundRobinTCP = 0;
-    private int roundRobinUDP = 0;
-
     public static void main(String[] args) {
         System.out.println("Iniciando Gateway...");
         Gateway gateway = new Gateway();
@@ -67,8 +147,14 @@ public class Gateway {
             HttpServer serverHTTP = HttpServer.create(new InetSocketAddress(PORTA_GATEWAY_HTTP), 0);
             serverHTTP.createContext("/cadastrarItem", new GatewayHttpHandler(this));
             serverHTTP.createContext("/registrarLance", new GatewayHttpHandler(this));
+            serverHTTP.createContext(ComandosLote.CAMINHO_HTTP, new GatewayLoteHandler(this)); // Lote de comandos em streaming (NDJSON)
             serverHTTP.createContext("/registerServer", new RegisterServerHandler(this)); // NOVO CONTEXTO DE REGISTRO
             serverHTTP.createContext("/servidoresHTTPAtivos", new ServidoresHTTPHandler(this));
+            serverHTTP.createContext("/registro", new RegistroHandler(this)); // Instantâneo atual dos backends
+            serverHTTP.createContext("/lances/", new GatewayConsultaHandler(this)); // Histórico de lances (GET)
+            serverHTTP.createContext("/metrics", new MetricasHandler()); // Métricas no formato texto do Prometheus
+            serverHTTP.createContext("/rastros", new RastrosHandler()); // Rastros mais lentos e recentes
+            serverHTTP.createContext("/quentes", new QuentesHandler()); // Itens quentes do gateway (e do handler local)
             serverHTTP.setExecutor(executorServiceHTTP);
             serverHTTP.start();
             logger.info("Gateway HTTP iniciado na porta {}", PORTA_GATEWAY_HTTP);
@@ -77,32 +163,115 @@ public class Gateway {
             executorServiceTCP = Executors.newFixedThreadPool(10);
             new Thread(this::iniciarServidorTCP).start();
 
-            // Inicializar servidor UDP
-            executorServiceUDP = Executors.newFixedThreadPool(10);
+            // Inicializar servidor UDP (fila limitada: cheia, o receptor descarta o datagrama)
+            ThreadPoolExecutor workersUDP = new ThreadPoolExecutor(10, 10, 0, TimeUnit.MILLISECONDS,
+                    new ArrayBlockingQueue<>(FILA_UDP), new ThreadPoolExecutor.AbortPolicy());
+            Metricas.medidor("leilao_gateway_udp_fila", "Datagramas de clientes esperando worker", () -> workersUDP.getQueue().size());
+            executorServiceUDP = workersUDP;
             new Thread(this::iniciarServidorUDP).start();
             
-            // Iniciar heartbeat para verificar servidores
-            iniciarHeartbeat();
+            // Concessões dos handlers: relógio da roda e receptor dos heartbeats
+            registro.iniciar();
+            new Thread(this::iniciarReceptorHeartbeat, "registro-heartbeat").start();
+
+            String motorLocal = System.getProperty("leilao.gateway.local");
+            if (motorLocal != null && !motorLocal.isBlank()) {
+                iniciarHandlerLocal(motorLocal);
+            }
 
         } catch (IOException e) {
             logger.error("Erro ao iniciar o Gateway: {}", e.getMessage(), e);
         }
     }
-    
-    private void iniciarHeartbeat() {
-        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
 
-        // Criar verificadores para HTTP, TCP e UDP
-        httpHeartbeatChecker = new HeartBeat(httpHandlerPorts, "http", this);
-        tcpHeartbeatChecker = new HeartBeat(tcpHandlerPorts, "tcp", this);
-        udpHeartbeatChecker = new HeartBeat(udpHandlerPorts, "udp", this);
+    /**
+     * Modo co-localizado: um HandlerLocal neste processo entra no registro
+     * como backend "local" dos três protocolos, ao lado dos handlers remotos
+     * (mesmo roteamento, mesmos disjuntores), e tem a concessão renovada aqui
+     * a cada segundo enquanto a thread do batch estiver viva.
+     *
+     * Propriedades leilao.gateway.local.*: fila (comandos aguardando o batch,
+     * padrão 10000) e peso (no round-robin, padrão 1).
+     */
+    private void iniciarHandlerLocal(String motor) {
+        handlerLocal = new HandlerLocal(Armazenamento.criar(motor), Integer.getInteger("leilao.gateway.local.fila", 10_000));
+        int peso = Integer.getInteger("leilao.gateway.local.peso", 1);
+        Runnable renovar = () -> {
+            if (handlerLocal.isAtivo()) {
+                for (String protocolo : new String[]{"http", "tcp", "udp"}) {
+                    registro.registrar(protocolo, RegistroServicos.HOST_LOCAL, 0, peso);
+                }
+            }
+        };
+        renovar.run();
+        ScheduledExecutorService concessao = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "local-concessao");
+            t.setDaemon(true);
+            return t;
+        });
+        concessao.scheduleAtFixedRate(renovar, 1, 1, TimeUnit.SECONDS);
+        logger.info("Handler local iniciado (motor {}, peso {})", motor, peso);
+    }
+
+    /**
+     * Recebe os heartbeats dos handlers: um datagrama "tipo;[host:]porta[;peso[;transporte]]"
+     * por renovação, sem resposta. Um heartbeat de backend desconhecido (gateway
+     * reiniciado, concessão vencida) o registra de novo.
+     */
+    private void iniciarReceptorHeartbeat() {
+        try (DatagramSocket socket = new DatagramSocket(PORTA_GATEWAY_HEARTBEAT)) {
+            logger.info("Receptor de heartbeats iniciado na porta UDP {}", PORTA_GATEWAY_HEARTBEAT);
+            byte[] buffer = new byte[512];
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            while (true) {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+                String corpo = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
+                try {
+                    registrar(corpo, packet.getAddress());
+                } catch (IllegalArgumentException e) {
+                    logger.warn("Heartbeat inválido de {}: {}", packet.getAddress().getHostAddress(), corpo);
+                }
+            }
+        } catch (IOException e) {
+            logger.error("Erro no receptor de heartbeats: {}", e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Registra ou renova um backend a partir de "tipo;[host:]porta[;peso[;transporte]]".
+     * Sem host, vale o endereço de origem da mensagem. O transporte "memoria"
+     * (padrão "rede") leva os comandos pelo canal de memória compartilhada do
+     * handler, que precisa estar na mesma máquina do gateway.
+     *
+     * @return descrição do backend registrado (ex.: "TCP em 10.0.0.5:8181, peso 2")
+     * @throws IllegalArgumentException se o formato for inválido
+     */
+    private String registrar(String corpo, InetAddress origem) {
+        String[] partes = corpo.trim().split(";");
+        if (partes.length < 2 || partes.length > 4) {
+            throw new IllegalArgumentException("Formato inválido. Use: tipo;[host:]porta[;peso[;transporte]]");
+        }
+        String tipo = partes[0].trim().toLowerCase();
+        if (!RegistroServicos.protocoloValido(tipo)) {
+            throw new IllegalArgumentException("Tipo desconhecido: " + partes[0]);
+        }
+        String endereco = partes[1].trim();
+        int separador = endereco.lastIndexOf(':');
+        String host = separador > 0 ? endereco.substring(0, separador) : origem.getHostAddress();
+        int porta = Integer.parseInt(endereco.substring(separador + 1)); // NumberFormatException é IllegalArgumentException
+        int peso = partes.length >= 3 ? Integer.parseInt(partes[2].trim()) : 1;
+        String transporte = partes.length == 4 ? partes[3].trim().toLowerCase() : RegistroServicos.REDE;
+        if (porta <= 0 || porta > 65535) {
+            throw new IllegalArgumentException("Porta inválida: " + porta);
+        }
+        if (RegistroServicos.HOST_LOCAL.equals(host)) {
+            throw new IllegalArgumentException("Host reservado ao handler local: " + host);
+        }
 
-        // Agendar a verificação de heartbeat a cada 10 segundos
-        scheduler.scheduleAtFixedRate(() -> {
-            httpHeartbeatChecker.check();
-            tcpHeartbeatChecker.check();
-            udpHeartbeatChecker.check();
-        }, 10, 10, TimeUnit.SECONDS);
+        registro.registrar(tipo, host, porta, peso, transporte); // Transporte desconhecido: IllegalArgumentException
+        return tipo.toUpperCase() + " em " + host + ":" + porta + ", peso " + peso
+                + (RegistroServicos.MEMORIA.equals(transporte) ? ", memória compartilhada" : "");
     }
 
     // Método para inicializar o servidor TCP
@@ -119,188 +288,105 @@ public class Gateway {
     }
 
     // Método para inicializar o servidor UDP
+    // O receptor lê num buffer só seu e copia os bytes para um buffer da arena do tamanho do datagrama,
+    // devolvido pelo worker depois da resposta. Sem buffer livre ou com a fila cheia, o datagrama é
+    // descartado e contado: o cliente UDP já trata a falta de resposta
     private void iniciarServidorUDP() {
-        try (DatagramSocket serverUDPSocket = new DatagramSocket(PORTA_GATEWAY_UDP)) {
+        try (DatagramChannel canal = DatagramChannel.open(StandardProtocolFamily.INET)) {
+            canal.bind(new InetSocketAddress(PORTA_GATEWAY_UDP));
             logger.info("Servidor UDP iniciado na porta {}", PORTA_GATEWAY_UDP);
-            byte[] buffer = new byte[1024];
+            ByteBuffer recepcao = ByteBuffer.allocateDirect(MAIOR_DATAGRAMA);
             while (true) {
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
-                serverUDPSocket.receive(packet);
-                executorServiceUDP.submit(new GatewayUDPHandler(packet, serverUDPSocket, this));
+                SocketAddress origem = canal.receive(recepcao.clear());
+                recepcao.flip();
+                ByteBuffer datagrama = (recepcao.remaining() <= arenaUDP.tamanho() ? arenaUDP : arenaGrandeUDP).obter();
+                if (datagrama == null) {
+                    descartadosBuffer.incrementar();
+                    continue;
+                }
+                datagrama.put(recepcao).flip();
+                try {
+                    executorServiceUDP.execute(new GatewayUDPHandler(datagrama, origem, canal, this));
+                } catch (RejectedExecutionException e) {
+                    devolverUDP(datagrama);
+                    descartadosFila.incrementar();
+                }
             }
         } catch (IOException e) {
             logger.error("Erro no servidor UDP: {}", e.getMessage(), e);
         }
     }
 
-    // Roteamento via HTTP
-    public synchronized int getNextHTTPHandlerPort() {
-        if (httpHandlerPorts.isEmpty()) {
-            throw new IllegalStateException("Nenhum servidor HTTP disponível.");
-        }
-
-        int initialIndex = roundRobinHTTP;
-        int port;
-
-        do {
-            port = httpHandlerPorts.get(roundRobinHTTP);
-
-            // Verificar se o servidor está ativo fazendo uma requisição de teste para o /heartbeat
-            try {
-                URL url = new URL("http://localhost:" + port + "/heartbeat");  // Usar /heartbeat
-                HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-                conn.setRequestMethod("GET");
-                conn.setConnectTimeout(500);  // Timeout de 500ms
-                conn.setReadTimeout(500);
-                int responseCode = conn.getResponseCode();
-
-                if (responseCode == 200) {
-                    // Se o servidor estiver ativo, usar a porta
-                    roundRobinHTTP = (roundRobinHTTP + 1) % httpHandlerPorts.size();
-                    return port;
-                } else {
-                    // Se o servidor retornar um código de erro, tratá-lo como inativo
-                    logger.warn("Servidor HTTP na porta " + port + " retornou código de resposta: " + responseCode + ". Removendo da lista.");
-                    removerServidor("http", port); // Remover o servidor da lista
-                }
-
-            } catch (IOException e) {
-                // Se o servidor não responder, removê-lo da lista
-                logger.error("Servidor HTTP na porta " + port + " está inativo. Removendo da lista.");
-                removerServidor("http", port); // Remover o servidor da lista
-            }
-
-            // Se a lista tiver servidores restantes, atualize o round-robin
-            if (!httpHandlerPorts.isEmpty()) {
-                roundRobinHTTP = roundRobinHTTP % httpHandlerPorts.size();  // Garantir que o índice está correto
-            }
-
-        } while (roundRobinHTTP != initialIndex && !httpHandlerPorts.isEmpty());
-
-        // Se não restarem servidores ativos, lançar exceção
-        if (httpHandlerPorts.isEmpty()) {
-            throw new IllegalStateException("Nenhum servidor HTTP disponível.");
-        }
-
-        return getNextHTTPHandlerPort();  // Tentar novamente com os servidores ativos
+    // Escolhe o backend do protocolo, medindo a decisão no histograma e no evento JFR leilao.Roteamento
+    RegistroServicos.Backend rotear(String protocolo) {
+        return rotear(protocolo, null);
     }
 
-
-
-
-    // Roteamento via TCP
-    public synchronized int getNextTCPHandlerPort() {
-        if (tcpHandlerPorts.isEmpty()) {
-            throw new IllegalStateException("Nenhum servidor TCP disponível.");
+    // Com chave de idempotência, o backend é fixo para a chave em vez do round-robin
+    RegistroServicos.Backend rotear(String protocolo, String chave) {
+        EventoRoteamento evento = new EventoRoteamento();
+        evento.begin();
+        long inicio = System.nanoTime();
+
+        // Só lê o instantâneo: a saúde dos backends vem das concessões, não de sondas
+        RegistroServicos.Backend backend = chave == null ? registro.escolher(protocolo) : registro.escolher(protocolo, chave);
+        if ("http".equals(protocolo)) {
+            roteamentoHTTP.registrarDesde(inicio);
+        } else if ("tcp".equals(protocolo)) {
+            roteamentoTCP.registrarDesde(inicio);
+        } else {
+            roteamentoUDP.registrarDesde(inicio);
         }
 
-        int initialIndex = roundRobinTCP;
-        int port;
-
-        do {
-            port = tcpHandlerPorts.get(roundRobinTCP);
-
-            // Verificar se o servidor TCP está ativo
-            try (Socket socket = new Socket()) {
-                socket.connect(new InetSocketAddress("localhost", port), 500);  // Tentar se conectar com timeout de 500ms
-                socket.setSoTimeout(500);  // Definir timeout de leitura para 500ms
-                
-                // Se a conexão foi bem-sucedida, retornar a porta
-                roundRobinTCP = (roundRobinTCP + 1) % tcpHandlerPorts.size();
-                return port;
-
-            } catch (IOException e) {
-                // Se falhar, remover o servidor da lista e tentar o próximo
-                logger.error("Servidor TCP na porta " + port + " está inativo. Removendo da lista.");
-                tcpHandlerPorts.remove(Integer.valueOf(port));
-            }
-
-            // Atualizar o Round-Robin para o próximo servidor
-            roundRobinTCP = (roundRobinTCP + 1) % tcpHandlerPorts.size();
-
-        } while (roundRobinTCP != initialIndex && !tcpHandlerPorts.isEmpty());
-
-        // Se não restarem servidores ativos, lançar exceção
-        if (tcpHandlerPorts.isEmpty()) {
-            throw new IllegalStateException("Nenhum servidor TCP disponível.");
+        evento.end();
+        if (evento.shouldCommit()) {
+            evento.protocolo = protocolo;
+            evento.host = backend.host;
+            evento.porta = backend.porta;
+            evento.backends = registro.getInstantaneo().getBackends(protocolo).size();
+            evento.commit();
         }
-
-        return getNextTCPHandlerPort();  // Tentar novamente com os servidores ativos
+        return backend;
     }
 
-
-    // Roteamento via UDP no Gateway com verificação de heartbeat
-    public synchronized int getNextUDPHandlerPort() {
-        if (udpHandlerPorts.isEmpty()) {
-            throw new IllegalStateException("Nenhum servidor UDP disponível.");
-        }
-
-        int initialIndex = roundRobinUDP;
-        int port;
-
-        do {
-            port = udpHandlerPorts.get(roundRobinUDP);
-
-            // Verificar se o servidor está ativo com um ping e espera de resposta
-            try (DatagramSocket socket = new DatagramSocket()) {
-                InetAddress address = InetAddress.getByName("localhost");
-                byte[] buffer = "ping".getBytes(StandardCharsets.UTF_8);
-                DatagramPacket packet = new DatagramPacket(buffer, buffer.length, address, port);
-                socket.send(packet);
-
-                // Preparar para receber a resposta
-                byte[] responseBuffer = new byte[1024];
-                DatagramPacket responsePacket = new DatagramPacket(responseBuffer, responseBuffer.length);
-                socket.setSoTimeout(2000);  // Timeout de 2 segundos para esperar a resposta
-
-                // Tentar receber a resposta do servidor UDP
-                socket.receive(responsePacket);
-
-                // Se a resposta for recebida, significa que o servidor está ativo
-                String response = new String(responsePacket.getData(), 0, responsePacket.getLength(), StandardCharsets.UTF_8);
-                if ("Pong".equalsIgnoreCase(response.trim())) {
-                    // Se o servidor responder com "Pong", ele está ativo
-                    roundRobinUDP = (roundRobinUDP + 1) % udpHandlerPorts.size();
-                    return port;
-                } else {
-                    // Resposta inesperada
-                    logger.warn("Resposta inesperada do servidor UDP na porta " + port + ": " + response);
-                }
-
-            } catch (IOException e) {
-                // Se o servidor não responder ou der timeout, remover da lista
-                logger.error("Servidor UDP na porta " + port + " está inativo. Removendo da lista.");
-                udpHandlerPorts.remove(Integer.valueOf(port));
-            }
-
-            // Atualizar o Round-Robin para o próximo servidor
-            roundRobinUDP = (roundRobinUDP + 1) % udpHandlerPorts.size();
-
-        } while (roundRobinUDP != initialIndex && !udpHandlerPorts.isEmpty());
-
-        // Se nenhum servidor ativo restar, lançar exceção
-        if (udpHandlerPorts.isEmpty()) {
-            throw new IllegalStateException("Nenhum servidor UDP disponível.");
-        }
-
-        return getNextUDPHandlerPort();  // Tentar novamente com os servidores ativos
+    /**
+     * Conta o lance no detector de itens quentes. O lance de um item quente
+     * sem chave de idempotência é roteado pelo item, pelo mesmo rendezvous
+     * da chave: todos os lances do item caem num só handler, cuja faixa
+     * quente os coalesce, e os demais handlers não disputam a linha do item.
+     *
+     * @param idItem Item do lance, ou -1 para os demais comandos
+     * @return a chave de roteamento para rotear(protocolo, chave)
+     */
+    String chaveDeRoteamento(String chave, int idItem) {
+        boolean quente = idItem >= 0 && quentes.registrar(idItem);
+        return chave != null || !quente ? chave : "item:" + idItem;
     }
 
-
- // Método para remover servidores inativos (HTTP, TCP ou UDP)
-    public synchronized void removerServidor(String tipo, int porta) {
-        logger.info("Removendo servidor " + tipo.toUpperCase() + " na porta: " + porta);
-        if (tipo.equals("http")) {
-            httpHandlerPorts.remove(Integer.valueOf(porta));
-        } else if (tipo.equals("tcp")) {
-            tcpHandlerPorts.remove(Integer.valueOf(porta));
-        } else if (tipo.equals("udp")) {
-            udpHandlerPorts.remove(Integer.valueOf(porta));
+    // Fecha a medição de um encaminhamento: disjuntor do backend, atraso de especulação e evento JFR leilao.Encaminhamento
+    private void concluirEncaminhamento(EventoEncaminhamento evento, RegistroServicos.Backend backend, long inicio,
+                                        Especulacao.Cancelamento cancelamento, String idRequisicao, int bytes, boolean sucesso) {
+        long duracao = System.nanoTime() - inicio;
+        if (sucesso) {
+            backend.disjuntor.registrar(duracao, true);
+            registrarLatencia(backend.protocolo, duracao);
+        } else if (!cancelamento.isCancelado()) {
+            // Uma tentativa cancelada por ter perdido a especulação não é falha do backend
+            backend.disjuntor.registrar(duracao, false);
+        }
+        evento.end();
+        if (evento.shouldCommit()) {
+            evento.protocolo = backend.protocolo;
+            evento.host = backend.host;
+            evento.porta = backend.porta;
+            evento.idRequisicao = idRequisicao;
+            evento.bytes = bytes;
+            evento.sucesso = sucesso;
+            evento.commit();
         }
-        logger.info("Servidor removido com sucesso.");
     }
 
-    // Novo handler para registrar servidores dinamicamente
+    // Registro explícito (tipo;[host:]porta[;peso]); as renovações seguintes chegam por UDP na porta 9003
     static class RegisterServerHandler implements HttpHandler {
         private final Gateway gateway;
 
@@ -316,32 +402,20 @@ public class Gateway {
                         .lines()
                         .collect(Collectors.joining("\n"));
 
-                // Formato esperado: tipo;porta (Ex: "http;8080")
-                String[] partes = body.split(";");
-                if (partes.length == 2) {
-                    String tipo = partes[0];
-                    int porta = Integer.parseInt(partes[1]);
-
-                    if ("http".equalsIgnoreCase(tipo)) {
-                        gateway.httpHandlerPorts.add(porta);
-                        logger.info("Servidor HTTP registrado na porta {}", porta);
-                    } else if ("tcp".equalsIgnoreCase(tipo)) {
-                        gateway.tcpHandlerPorts.add(porta);
-                        logger.info("Servidor TCP registrado na porta {}", porta);
-                    } else if ("udp".equalsIgnoreCase(tipo)) {
-                        gateway.udpHandlerPorts.add(porta);
-                        logger.info("Servidor UDP registrado na porta {}", porta);
-                    }
-
-                    String resposta = "Servidor " + tipo.toUpperCase() + " registrado com sucesso na porta " + porta;
-                    exchange.sendResponseHeaders(200, resposta.getBytes().length);
+                // Formato esperado: tipo;[host:]porta[;peso[;transporte]] (Ex: "http;8080", "tcp;10.0.0.5:8181;2" ou "udp;8282;1;memoria")
+                try {
+                    String registrado = gateway.registrar(body, exchange.getRemoteAddress().getAddress());
+                    String resposta = "Servidor " + registrado + " registrado com sucesso";
+                    byte[] bytes = resposta.getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(200, bytes.length);
                     OutputStream os = exchange.getResponseBody();
-                    os.write(resposta.getBytes());
+                    os.write(bytes);
                     os.close();
-                } else {
-                    exchange.sendResponseHeaders(400, "Formato inválido".getBytes().length);
+                } catch (IllegalArgumentException e) {
+                    byte[] bytes = "Formato inválido. Use: tipo;[host:]porta[;peso[;transporte]]".getBytes(StandardCharsets.UTF_8);
+                    exchange.sendResponseHeaders(400, bytes.length);
                     OutputStream os = exchange.getResponseBody();
-                    os.write("Formato inválido. Use: tipo;porta".getBytes());
+                    os.write(bytes);
                     os.close();
                 }
             } else {
@@ -352,7 +426,7 @@ public class Gateway {
             }
         }
     }
-    
+
     // Handler para responder com a lista de servidores HTTP ativos
     static class ServidoresHTTPHandler implements HttpHandler {
         private final Gateway gateway;
@@ -364,9 +438,8 @@ public class Gateway {
         @Override
         public void handle(HttpExchange exchange) throws IOException {
             if ("GET".equalsIgnoreCase(exchange.getRequestMethod())) {
-                List<Integer> httpPorts = gateway.getHttpHandlerPorts();
-                String resposta = httpPorts.stream()
-                    .map(port -> "http://localhost:" + port)
+                String resposta = gateway.registro.getInstantaneo().getBackends("http").stream()
+                    .map(backend -> "http://" + backend.getEndereco())
                     .collect(Collectors.joining(";"));
 
                 exchange.sendResponseHeaders(200, resposta.getBytes().length);
@@ -382,6 +455,42 @@ public class Gateway {
         }
     }
 
+    // Instantâneo do registro: "versao N" seguida de uma linha "protocolo host:porta peso estado" por backend
+    static class RegistroHandler implements HttpHandler {
+        private final Gateway gateway;
+
+        public RegistroHandler(Gateway gateway) {
+            this.gateway = gateway;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, "Método não permitido".getBytes().length);
+                OutputStream os = exchange.getResponseBody();
+                os.write("Método não permitido".getBytes());
+                os.close();
+                return;
+            }
+
+            RegistroServicos.Instantaneo instantaneo = gateway.registro.getInstantaneo();
+            StringBuilder sb = new StringBuilder("versao ").append(instantaneo.versao).append('\n');
+            for (String protocolo : new String[]{"http", "tcp", "udp"}) {
+                for (RegistroServicos.Backend backend : instantaneo.getBackends(protocolo)) {
+                    sb.append(protocolo).append(' ').append(backend.getEndereco()).append(' ').append(backend.peso)
+                            .append(' ').append(backend.disjuntor.getEstado().name().toLowerCase())
+                            .append(backend.isMemoria() ? " memoria" : "").append('\n');
+                }
+            }
+            byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(200, bytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(bytes);
+            }
+        }
+    }
+
     // Classe responsável por lidar com requisições HTTP no Gateway e redirecioná-las para servidores internos HTTP
     static class GatewayHttpHandler implements HttpHandler {
         private final Gateway gateway;
@@ -396,22 +505,47 @@ public class Gateway {
             String caminho = exchange.getRequestURI().getPath();
 
             if ("POST".equalsIgnoreCase(metodo)) {
+                long inicio = System.nanoTime();
                 InputStream is = exchange.getRequestBody();
                 String body = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))
                         .lines()
                         .collect(Collectors.joining("\n"));
 
                 String comando = body;
+                Rastro rastro = null;
 
                 try {
                     if ("/cadastrarItem".equalsIgnoreCase(caminho) || "/registrarLance".equalsIgnoreCase(caminho)) {
-                        // O comando pode conter um batch de requisições agrupadas
-                        String respostaServidorInterno = gateway.enviarParaServidorInternoHTTP(gateway.getNextHTTPHandlerPort(), comando, caminho);
+                        // Acima do limite do cliente ou do endereço, recusa antes de rotear
+                        boolean lance = "/registrarLance".equalsIgnoreCase(caminho);
+                        if (!gateway.limites.permitir("http", lance ? "registrarLance" : "cadastrarItem",
+                                lance ? LimiteClientes.campo(body, 0, 1) : null, exchange.getRemoteAddress().getAddress())) {
+                            byte[] recusa = LimiteClientes.RECUSA.getBytes(StandardCharsets.UTF_8);
+                            exchange.sendResponseHeaders(429, recusa.length);
+                            try (OutputStream os = exchange.getResponseBody()) {
+                                os.write(recusa);
+                            }
+                            return;
+                        }
 
+                        // O comando pode conter um batch de requisições agrupadas
+                        rastro = Rastreador.iniciar(null, "/cadastrarItem".equalsIgnoreCase(caminho) ? "http:cadastrarItem" : "http:registrarLance");
+                        String chave = exchange.getRequestHeaders().getFirst(ChaveIdempotencia.CABECALHO);
+                        int idItem = lance ? inteiro(body, 0) : -1;
+                        RegistroServicos.Backend backend = gateway.rotear("http", gateway.chaveDeRoteamento(chave, idItem));
+                        rastro.marcar("roteada");
+                        String respostaServidorInterno = gateway.enviarParaServidorInternoHTTP(backend, comando, caminho, rastro.getId(), chave);
+                        rastro.marcar("encaminhada");
+
+                        if (rastro.getId() != null) {
+                            exchange.getResponseHeaders().set(Rastreador.CABECALHO, rastro.getId());
+                        }
                         exchange.sendResponseHeaders(200, respostaServidorInterno.getBytes().length);
                         OutputStream os = exchange.getResponseBody();
                         os.write(respostaServidorInterno.getBytes());
                         os.close();
+                        requisicaoHTTP.registrarDesde(inicio);
+                        rastro.concluir();
                     } else {
                         exchange.sendResponseHeaders(404, 0);
                         exchange.close();
@@ -420,6 +554,10 @@ public class Gateway {
                     // Return an error response when no internal server is available
                     String errorMessage = "Erro: Nenhum servidor HTTP disponível.";
                     logger.error(errorMessage);
+                    errosHTTP.incrementar();
+                    if (rastro != null) {
+                        rastro.concluir();
+                    }
                     exchange.sendResponseHeaders(500, errorMessage.getBytes().length);
                     OutputStream os = exchange.getResponseBody();
                     os.write(errorMessage.getBytes(StandardCharsets.UTF_8));
@@ -436,6 +574,67 @@ public class Gateway {
     }
 
 
+    // POST /lote: comandos lidos do corpo à medida que chegam, um resultado NDJSON por comando
+    static class GatewayLoteHandler implements HttpHandler {
+        private final Gateway gateway;
+
+        public GatewayLoteHandler(Gateway gateway) {
+            this.gateway = gateway;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, "Método não permitido".getBytes().length);
+                OutputStream os = exchange.getResponseBody();
+                os.write("Método não permitido".getBytes());
+                os.close();
+                return;
+            }
+
+            // Tamanho 0: resposta em chunks, escrita enquanto o corpo ainda chega
+            exchange.getResponseHeaders().set("Content-Type", ComandosLote.TIPO_CONTEUDO);
+            exchange.sendResponseHeaders(200, 0);
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+                 Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+                int comandos = gateway.loteHTTP.encaminhar(in, out, false, exchange.getRemoteAddress().getAddress());
+                logger.info("Lote HTTP encaminhado: {} comandos", comandos);
+            } catch (IOException e) {
+                logger.warn("Lote HTTP interrompido: {}", e.getMessage());
+            }
+        }
+    }
+
+    // Encaminha consultas GET (ex.: /lances/{idItem}?after=&limit=) e repassa a resposta em streaming
+    static class GatewayConsultaHandler implements HttpHandler {
+        private final Gateway gateway;
+
+        public GatewayConsultaHandler(Gateway gateway) {
+            this.gateway = gateway;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, "Método não permitido".getBytes().length);
+                OutputStream os = exchange.getResponseBody();
+                os.write("Método não permitido".getBytes());
+                os.close();
+                return;
+            }
+
+            try {
+                gateway.encaminharConsultaHTTP(gateway.rotear("http"), exchange.getRequestURI().toString(), exchange);
+            } catch (IllegalStateException | IOException e) {
+                String errorMessage = "Erro: Nenhum servidor HTTP disponível.";
+                logger.error(errorMessage);
+                exchange.sendResponseHeaders(500, errorMessage.getBytes(StandardCharsets.UTF_8).length);
+                OutputStream os = exchange.getResponseBody();
+                os.write(errorMessage.getBytes(StandardCharsets.UTF_8));
+                os.close();
+            }
+        }
+    }
 
  // Handler para requisições TCP
     static class GatewayTCPHandler implements Runnable {
@@ -449,61 +648,138 @@ public class Gateway {
 
         @Override
         public void run() {
+            if (REPASSE_TCP) {
+                try {
+                    gateway.repassarTCP(socket);
+                } catch (IOException e) {
+                    logger.error("Erro no repasse TCP: {}", e.getMessage());
+                } finally {
+                    try {
+                        socket.close();
+                    } catch (IOException e) {
+                        logger.error("Erro ao fechar socket TCP: {}", e.getMessage(), e);
+                    }
+                }
+                return;
+            }
+
             try (BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
                  BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8))) {
+                atender(in, out);
+            } catch (IOException e) {
+                logger.error("Erro ao processar a requisição TCP: {}", e.getMessage(), e);
+            } finally {
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    logger.error("Erro ao fechar socket TCP: {}", e.getMessage(), e);
+                }
+            }
+        }
 
-                String body = in.readLine();
+        // Uma conexão de mensagem: consulta, lote ou comando na primeira linha
+        void atender(BufferedReader in, BufferedWriter out) throws IOException {
+            atender(in, out, null, null);
+        }
 
-                if (body != null && !body.isEmpty()) {
-                    String comando;
-                    if (body.startsWith("cadastrarItem")) {
-                        comando = body;
-                        logger.info("Recebido via TCP: " + comando);
-                    } else if (body.startsWith("registrarLance")) {
-                        comando = body;
-                        logger.info("Recebido via TCP: " + comando);
-                    } else {
-                        out.write("Comando inválido.\n");
-                        out.flush();
-                        logger.warn("Comando TCP inválido: " + body);
-                        return;
-                    }
+        /**
+         * @param roteado Backend já escolhido pelo modo repasse para a primeira
+         *                linha, cujo comando já passou pelo limite; null para
+         *                limitar e rotear aqui
+         * @param repasse Rastro aberto pelo modo repasse, seguido e concluído
+         *                aqui; null para abrir o próprio
+         */
+        void atender(BufferedReader in, BufferedWriter out, RegistroServicos.Backend roteado, Rastro repasse) throws IOException {
+            try {
+                atenderLinha(in, out, roteado, repasse);
+            } finally {
+                if (repasse != null) {
+                    repasse.concluir();
+                }
+            }
+        }
 
-                    logger.info("Chamando enviarParaServidorInternoTCP com o comando: " + comando);
+        private void atenderLinha(BufferedReader in, BufferedWriter out, RegistroServicos.Backend roteado, Rastro repasse) throws IOException {
+            String body = in.readLine();
+            long inicio = System.nanoTime();
 
+            if (body != null && !body.isEmpty()) {
+                if (body.startsWith("historicoLances")) {
+                    // Resposta com várias linhas: repassada ao cliente à medida que chega
+                    if (Amostragem.amostrada()) {
+                        logger.info("Recebido via TCP: {}", body);
+                    }
                     try {
-                        // Call to send the request to the internal TCP server
-                        String respostaServidorInterno = gateway.enviarParaServidorInternoTCP(comando);
-
-                        // Log the response from the internal server
-                        logger.info("Resposta do servidor interno TCP: " + respostaServidorInterno);
-
-                        // Send response back to the client
-                        out.write(respostaServidorInterno + "\n");
-                        out.flush();
+                        gateway.encaminharConsultaTCP(body, out, roteado);
                     } catch (IllegalStateException e) {
-                        // Handle case where no TCP server is available
-                        logger.error("Erro: " + e.getMessage());
+                        logger.error("Erro: {}", e.getMessage());
                         out.write("Erro: Nenhum servidor TCP disponível.\n");
                         out.flush();
-                    } catch (IOException e) {
-                        // Handle communication errors with the internal server
-                        logger.error("Erro ao comunicar com o servidor TCP interno: " + e.getMessage(), e);
-                        out.write("Erro ao comunicar com o servidor interno TCP.\n");
-                        out.flush();
                     }
+                    return;
+                }
 
-                } else {
-                    logger.warn("Nenhum dado recebido via TCP.");
+                // Lote: um comando por linha até uma linha vazia ou o fim da conexão
+                if (ComandosLote.MODO_TCP.equals(body.trim())) {
+                    int comandos = gateway.loteTCP.encaminhar(in, out, true, socket.getInetAddress());
+                    logger.info("Lote TCP encaminhado: {} comandos", comandos);
+                    return;
                 }
-            } catch (IOException e) {
-                logger.error("Erro ao processar a requisição TCP: " + e.getMessage(), e);
-            } finally {
+
+                // Chave de idempotência opcional antes do comando: "!chave;comando"
+                String chave = ChaveIdempotencia.chaveDe(body);
+                String comando = ChaveIdempotencia.semChave(body);
+                if (!comando.startsWith("cadastrarItem") && !comando.startsWith("registrarLance")) {
+                    out.write("Comando inválido.\n");
+                    out.flush();
+                    logger.warn("Comando TCP inválido: {}", body);
+                    return;
+                }
+                if (roteado == null && !gateway.limites.permitir("tcp", comando.startsWith("cadastrarItem") ? "cadastrarItem" : "registrarLance",
+                        LimiteClientes.clienteDoLance(comando), socket.getInetAddress())) {
+                    out.write(LimiteClientes.RECUSA + "\n");
+                    out.flush();
+                    return;
+                }
+
+                Rastro rastro = repasse != null ? repasse
+                        : Rastreador.iniciar(null, comando.startsWith("cadastrarItem") ? "tcp:cadastrarItem" : "tcp:registrarLance");
+                boolean amostrada = Amostragem.amostrada(rastro);
+                if (amostrada) {
+                    logger.info("Recebido via TCP: {}", comando);
+                }
+
                 try {
-                    socket.close();
+                    // Call to send the request to the internal TCP server
+                    String respostaServidorInterno = gateway.enviarParaServidorInternoTCP(comando, chave, rastro, roteado);
+
+                    // Log the response from the internal server
+                    if (amostrada) {
+                        logger.info("Resposta do servidor interno TCP: {}", respostaServidorInterno);
+                    }
+
+                    // Send response back to the client
+                    out.write(respostaServidorInterno + "\n");
+                    out.flush();
+                    requisicaoTCP.registrarDesde(inicio);
+                    rastro.concluir();
+                } catch (IllegalStateException e) {
+                    // Handle case where no TCP server is available
+                    logger.error("Erro: {}", e.getMessage());
+                    errosTCP.incrementar();
+                    rastro.concluir();
+                    out.write("Erro: Nenhum servidor TCP disponível.\n");
+                    out.flush();
                 } catch (IOException e) {
-                    logger.error("Erro ao fechar socket TCP: " + e.getMessage(), e);
+                    // Handle communication errors with the internal server
+                    logger.error("Erro ao comunicar com o servidor TCP interno: {}", e.getMessage(), e);
+                    rastro.concluir();
+                    out.write("Erro ao comunicar com o servidor interno TCP.\n");
+                    out.flush();
                 }
+
+            } else {
+                logger.warn("Nenhum dado recebido via TCP.");
             }
         }
     }
@@ -511,63 +787,380 @@ public class Gateway {
 
     // Handler para requisições UDP
     static class GatewayUDPHandler implements Runnable {
-        private final DatagramPacket packet;
-        private final DatagramSocket serverUDPSocket;
+        private final ByteBuffer datagrama; // Buffer da arena, com os bytes recebidos
+        private final SocketAddress origem;
+        private final DatagramChannel canal;
         private final Gateway gateway;
 
-        public GatewayUDPHandler(DatagramPacket packet, DatagramSocket serverUDPSocket, Gateway gateway) {
-            this.packet = packet;
-            this.serverUDPSocket = serverUDPSocket;
+        public GatewayUDPHandler(ByteBuffer datagrama, SocketAddress origem, DatagramChannel canal, Gateway gateway) {
+            this.datagrama = datagrama;
+            this.origem = origem;
+            this.canal = canal;
             this.gateway = gateway;
         }
 
         @Override
         public void run() {
             try {
-                String mensagem = new String(packet.getData(), 0, packet.getLength(), StandardCharsets.UTF_8);
-                logger.info("Recebido via UDP: " + mensagem);
-
-                String comando;
-                if (mensagem.startsWith("cadastrarItem") || mensagem.startsWith("registrarLance")) {
-                    comando = mensagem;
-                } else {
-                    byte[] respostaInvalida = "Comando inválido.".getBytes(StandardCharsets.UTF_8);
-                    DatagramPacket responsePacket = new DatagramPacket(respostaInvalida, respostaInvalida.length, packet.getAddress(), packet.getPort());
-                    serverUDPSocket.send(responsePacket);
+                long inicio = System.nanoTime();
+
+                // Chave de idempotência opcional antes do comando ("!chave;comando"), lida direto dos bytes
+                int inicioComando = fimDaChave(datagrama);
+                String chave = inicioComando > 0 ? texto(datagrama, 1, inicioComando - 1) : null;
+                String tipo = comecaCom(datagrama, inicioComando, CADASTRAR_ITEM) ? "cadastrarItem"
+                        : comecaCom(datagrama, inicioComando, REGISTRAR_LANCE) ? "registrarLance" : null;
+                if (tipo == null) {
+                    responder(datagrama, "Comando inválido.");
+                    return;
+                }
+                if (!gateway.limites.permitir("udp", tipo, clienteDoLance(datagrama, inicioComando),
+                        ((InetSocketAddress) origem).getAddress())) {
+                    responder(datagrama, LimiteClientes.RECUSA);
                     return;
                 }
 
+                Rastro rastro = Rastreador.iniciar(null, "udp:" + tipo);
+                if (Amostragem.amostrada(rastro)) {
+                    logger.info("Recebido via UDP: {}", texto(datagrama, 0, datagrama.limit()));
+                }
                 try {
-                    String respostaServidorInterno = gateway.enviarParaServidorInternoUDP(comando);
-
-                    byte[] buffer = respostaServidorInterno.getBytes(StandardCharsets.UTF_8);
-                    DatagramPacket responsePacket = new DatagramPacket(buffer, buffer.length, packet.getAddress(), packet.getPort());
-                    serverUDPSocket.send(responsePacket);
+                    if (Agrupador.ATIVO) {
+                        // O lote é montado em texto: o comando é decodificado uma vez e a resposta volta no mesmo buffer
+                        String comando = texto(datagrama, inicioComando, datagrama.limit());
+                        responder(datagrama, gateway.enviarParaServidorInternoUDP(comando, chave, rastro));
+                    } else {
+                        // Sem agrupamento, os bytes seguem como chegaram e a resposta do backend volta como veio
+                        canal.send(gateway.encaminharDatagramaUDP(datagrama, chave, rastro), origem);
+                    }
+                    requisicaoUDP.registrarDesde(inicio);
+                    rastro.concluir();
                 } catch (IllegalStateException | IOException e) {
+                    errosUDP.incrementar();
+                    rastro.concluir();
                     // Handle the case where no UDP server is available or communication fails
                     String errorMessage = "Erro: Nenhum servidor UDP disponível.";
-                    byte[] responseBytes = errorMessage.getBytes(StandardCharsets.UTF_8);
-                    DatagramPacket responsePacket = new DatagramPacket(responseBytes, responseBytes.length, packet.getAddress(), packet.getPort());
-                    serverUDPSocket.send(responsePacket);
+                    responder(datagrama, errorMessage);
                     logger.error(errorMessage);
                 }
 
             } catch (IOException e) {
-                logger.error("Erro ao processar requisição UDP: " + e.getMessage(), e);
+                logger.error("Erro ao processar requisição UDP: {}", e.getMessage(), e);
+            } finally {
+                gateway.devolverUDP(datagrama);
             }
         }
+
+        // Escreve a resposta no próprio buffer do datagrama e a envia ao cliente
+        private void responder(ByteBuffer buffer, String mensagem) throws IOException {
+            canal.send(codificar(mensagem, buffer), origem);
+        }
+    }
+
+    private static final byte[] HISTORICO_LANCES = "historicoLances".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MODO_LOTE = ComandosLote.MODO_TCP.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CADASTRAR_ITEM = "cadastrarItem".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] REGISTRAR_LANCE = "registrarLance".getBytes(StandardCharsets.US_ASCII);
+    private static final ThreadLocal<CharsetEncoder> CODIFICADOR = ThreadLocal.withInitial(StandardCharsets.UTF_8::newEncoder);
+
+    // Posição do comando depois de "!chave;", ou 0 se o datagrama não tiver chave
+    private static int fimDaChave(ByteBuffer datagrama) {
+        if (datagrama.limit() == 0 || datagrama.get(0) != '!') {
+            return 0;
+        }
+        for (int i = 1; i < datagrama.limit(); i++) {
+            if (datagrama.get(i) == ';') {
+                return i > 1 ? i + 1 : 0;
+            }
+        }
+        return 0;
     }
 
+    private static boolean comecaCom(ByteBuffer datagrama, int inicio, byte[] prefixo) {
+        if (datagrama.limit() - inicio < prefixo.length) {
+            return false;
+        }
+        for (int i = 0; i < prefixo.length; i++) {
+            if (datagrama.get(inicio + i) != prefixo[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-    // Enviar dados via HTTP para o servidor interno
-    private String enviarParaServidorInternoHTTP(int porta, String dados, String endpoint) throws IOException {
+    // Id do item de "registrarLance;idItem;..." a partir de inicio, lido dos bytes; -1 se não for um lance
+    private static int idItemDoLance(ByteBuffer datagrama, int inicio) {
+        int posicao = inicio + REGISTRAR_LANCE.length;
+        if (!comecaCom(datagrama, inicio, REGISTRAR_LANCE) || posicao >= datagrama.limit() || datagrama.get(posicao) != ';') {
+            return -1;
+        }
+        int id = 0;
+        int digitos = 0;
+        for (int i = posicao + 1; i < datagrama.limit() && datagrama.get(i) != ';'; i++) {
+            byte b = datagrama.get(i);
+            if (b < '0' || b > '9' || ++digitos > 9) {
+                return -1;
+            }
+            id = id * 10 + (b - '0');
+        }
+        return digitos > 0 ? id : -1;
+    }
+
+    // Cliente de "registrarLance;idItem;cliente;..." a partir de inicio, ou null (só ele é decodificado)
+    private static String clienteDoLance(ByteBuffer datagrama, int inicio) {
+        if (!comecaCom(datagrama, inicio, REGISTRAR_LANCE)) {
+            return null;
+        }
+        int separadores = 0;
+        int inicioCliente = -1;
+        for (int i = inicio + REGISTRAR_LANCE.length; i < datagrama.limit(); i++) {
+            byte b = datagrama.get(i);
+            if (b != ';' && b != '\n' && b != '\r') {
+                continue;
+            }
+            if (inicioCliente >= 0) {
+                return texto(datagrama, inicioCliente, i);
+            }
+            if (b != ';') {
+                return null; // Fim da linha antes do campo do cliente
+            }
+            if (++separadores == 2) {
+                inicioCliente = i + 1;
+            }
+        }
+        return inicioCliente >= 0 ? texto(datagrama, inicioCliente, datagrama.limit()) : null;
+    }
+
+    private static int idItemDoLance(String comando) {
+        return comando.startsWith("registrarLance;") ? inteiro(comando, "registrarLance;".length()) : -1;
+    }
+
+    // Inteiro não negativo de inicio até o próximo ';' (ou o fim), ou -1
+    private static int inteiro(String texto, int inicio) {
+        int id = 0;
+        int digitos = 0;
+        for (int i = inicio; i < texto.length() && texto.charAt(i) != ';'; i++) {
+            char c = texto.charAt(i);
+            if (c < '0' || c > '9' || ++digitos > 9) {
+                return -1;
+            }
+            id = id * 10 + (c - '0');
+        }
+        return digitos > 0 ? id : -1;
+    }
+
+    private static String texto(ByteBuffer datagrama, int inicio, int fim) {
+        return StandardCharsets.UTF_8.decode(datagrama.slice(inicio, fim - inicio)).toString();
+    }
+
+    // Codifica a mensagem no buffer, do começo, e o devolve pronto para o envio
+    private static ByteBuffer codificar(String mensagem, ByteBuffer buffer) {
+        buffer.clear();
+        CharsetEncoder codificador = CODIFICADOR.get().reset();
+        codificador.encode(CharBuffer.wrap(mensagem), buffer, true);
+        codificador.flush(buffer);
+        return buffer.flip();
+    }
+
+
+    /**
+     * Modo repasse do TCP: só o começo da primeira linha é lido, o bastante
+     * para achar a chave e o tipo do comando e escolher o backend. Os bytes
+     * seguem ao backend atrás do id de rastreamento e a resposta volta ao
+     * cliente por transferTo, sem decodificar texto em nenhum sentido. No
+     * modo lote, ou com a primeira linha maior que o buffer, o restante do
+     * cliente também é repassado, numa thread à parte. O repasse não passa
+     * pelo Agrupador: cada conexão do cliente abre a sua com o backend.
+     */
+    private void repassarTCP(Socket cliente) throws IOException {
+        long inicio = System.nanoTime();
+        InputStream doCliente = cliente.getInputStream();
+        OutputStream paraCliente = cliente.getOutputStream();
+        byte[] primeira = BUFFER_REPASSE.get();
+        int lidos = 0;
+        boolean linhaCompleta = false;
+        while (!linhaCompleta && lidos < primeira.length) {
+            int n = doCliente.read(primeira, lidos, primeira.length - lidos);
+            if (n < 0) {
+                break;
+            }
+            for (int i = lidos; i < lidos + n && !linhaCompleta; i++) {
+                linhaCompleta = primeira[i] == '\n';
+            }
+            lidos += n;
+        }
+        if (lidos == 0) {
+            logger.warn("Nenhum dado recebido via TCP.");
+            return;
+        }
+
+        ByteBuffer linha = ByteBuffer.wrap(primeira, 0, lidos);
+        int inicioComando = fimDaChave(linha);
+        String chave = inicioComando > 0 ? texto(linha, 1, inicioComando - 1) : null;
+        boolean lote = comecaCom(linha, 0, MODO_LOTE) && (lidos == MODO_LOTE.length || primeira[MODO_LOTE.length] == '\n' || primeira[MODO_LOTE.length] == '\r');
+        String tipo = comecaCom(linha, inicioComando, CADASTRAR_ITEM) ? "cadastrarItem"
+                : comecaCom(linha, inicioComando, REGISTRAR_LANCE) ? "registrarLance"
+                : comecaCom(linha, 0, HISTORICO_LANCES) ? "historicoLances"
+                : lote ? ComandosLote.MODO_TCP : null;
+        if (tipo == null) {
+            paraCliente.write("Comando inválido.\n".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        boolean comando = "cadastrarItem".equals(tipo) || "registrarLance".equals(tipo);
+        if (comando && !limites.permitir("tcp", tipo, clienteDoLance(linha, inicioComando), cliente.getInetAddress())) {
+            paraCliente.write((LimiteClientes.RECUSA + "\n").getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+
+        Rastro rastro = Rastreador.iniciar(null, "tcp:" + tipo);
+        RegistroServicos.Backend backend;
+        try {
+            backend = rotear("tcp", chaveDeRoteamento(chave, idItemDoLance(linha, inicioComando)));
+        } catch (IllegalStateException e) {
+            logger.error("Erro: {}", e.getMessage());
+            errosTCP.incrementar();
+            rastro.concluir();
+            paraCliente.write("Erro: Nenhum servidor TCP disponível.\n".getBytes(StandardCharsets.UTF_8));
+            return;
+        }
+        rastro.marcar("roteada");
+
+        if (backend.isLocal() || backend.isMemoria()) {
+            // Handler neste processo ou no canal de memória: não há conexão para repassar os bytes, então a linha
+            // já lida e o restante seguem pelo caminho das mensagens, com o backend, o limite e o rastro daqui
+            BufferedReader in = new BufferedReader(new InputStreamReader(
+                    new SequenceInputStream(new ByteArrayInputStream(primeira, 0, lidos), doCliente), StandardCharsets.UTF_8));
+            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(paraCliente, StandardCharsets.UTF_8));
+            new GatewayTCPHandler(cliente, this).atender(in, out, backend, rastro);
+            out.flush();
+            return;
+        }
+
+        EventoEncaminhamento evento = new EventoEncaminhamento();
+        evento.begin();
+        boolean sucesso = false;
+        try (Socket servidor = new Socket()) {
+            servidor.connect(new InetSocketAddress(backend.host, backend.porta), 5000);
+            servidor.setSoTimeout(lote ? 0 : 5000); // No lote, o ritmo é o do cliente
+            OutputStream paraServidor = servidor.getOutputStream();
+            if (rastro.getId() != null) {
+                paraServidor.write(Rastreador.prefixar(rastro.getId(), "").getBytes(StandardCharsets.UTF_8));
+            }
+            paraServidor.write(primeira, 0, lidos);
+            repassados.somar(lidos);
+            if (lote || !linhaCompleta) {
+                repasses.execute(() -> subir(doCliente, servidor));
+            }
+
+            long descidos = servidor.getInputStream().transferTo(paraCliente);
+            respondidos.somar(descidos);
+            sucesso = descidos > 0;
+            rastro.marcar("encaminhada");
+            if (!sucesso) {
+                paraCliente.write("Erro: Nenhuma resposta do servidor interno TCP.\n".getBytes(StandardCharsets.UTF_8));
+            }
+        } catch (IOException e) {
+            logger.error("Erro ao comunicar com o servidor TCP em: {} - {}", backend.getEndereco(), e.getMessage());
+            if (!sucesso) {
+                paraCliente.write("Erro: Nenhum servidor TCP disponível.\n".getBytes(StandardCharsets.UTF_8));
+            }
+        } finally {
+            if (sucesso) {
+                backend.encaminhamento.registrarDesde(inicio);
+                requisicaoTCP.registrarDesde(inicio);
+            } else {
+                errosTCP.incrementar();
+            }
+            concluirEncaminhamento(evento, backend, inicio, Especulacao.Cancelamento.NENHUM, rastro.getId(), lidos, sucesso);
+            rastro.concluir();
+        }
+    }
+
+    // Repasse do cliente ao backend até o fim do envio do cliente; a conexão fechada de um dos lados encerra a cópia
+    private static void subir(InputStream doCliente, Socket servidor) {
+        try {
+            repassados.somar(doCliente.transferTo(servidor.getOutputStream()));
+            servidor.shutdownOutput();
+        } catch (IOException e) {
+            logger.debug("Repasse do cliente encerrado: {}", e.getMessage());
+        }
+    }
+
+    // Um comando de um lote HTTP ("!chave;tipo;dados"), pelo mesmo caminho do POST avulso
+    private String executarComandoLoteHTTP(String linha) throws IOException {
+        String chave = ChaveIdempotencia.chaveDe(linha);
+        String comando = ChaveIdempotencia.semChave(linha);
+        String tipo = comando.startsWith("cadastrarItem") ? "cadastrarItem" : "registrarLance";
+        Rastro rastro = Rastreador.iniciar(null, "http:" + tipo);
+        try {
+            RegistroServicos.Backend backend = rotear("http", chaveDeRoteamento(chave, idItemDoLance(comando)));
+            rastro.marcar("roteada");
+            String resposta = enviarParaServidorInternoHTTP(backend, comando.substring(tipo.length() + 1), "/" + tipo, rastro.getId(), chave);
+            rastro.marcar("encaminhada");
+            return resposta;
+        } catch (IllegalStateException | IOException e) {
+            errosHTTP.incrementar();
+            throw new IOException("Erro: Nenhum servidor HTTP disponível.", e);
+        } finally {
+            rastro.concluir();
+        }
+    }
+
+    // Um comando de um lote TCP, pelo mesmo caminho da conexão avulsa
+    private String executarComandoLoteTCP(String linha) {
+        String comando = ChaveIdempotencia.semChave(linha);
+        Rastro rastro = Rastreador.iniciar(null, comando.startsWith("cadastrarItem") ? "tcp:cadastrarItem" : "tcp:registrarLance");
+        try {
+            return enviarParaServidorInternoTCP(comando, ChaveIdempotencia.chaveDe(linha), rastro, null);
+        } catch (IllegalStateException e) {
+            errosTCP.incrementar();
+            return "Erro: Nenhum servidor TCP disponível.";
+        } finally {
+            rastro.concluir();
+        }
+    }
+
+    // Enviar dados via HTTP para o servidor interno, agrupados com os demais comandos para o mesmo backend
+    private String enviarParaServidorInternoHTTP(RegistroServicos.Backend backend, String dados, String endpoint,
+                                                 String idRequisicao, String chave) throws IOException {
+        if (backend.isLocal()) {
+            String tipo = "/cadastrarItem".equalsIgnoreCase(endpoint) ? "cadastrarItem" : "registrarLance";
+            return enviarLocal(backend, tipo + ";" + dados.lines().findFirst().orElse(""), chave, idRequisicao);
+        }
+        if (backend.isMemoria()) {
+            String tipo = "/cadastrarItem".equalsIgnoreCase(endpoint) ? "cadastrarItem" : "registrarLance";
+            String comando = tipo + ";" + dados.lines().findFirst().orElse("");
+            return enviarMemoria(backend, Rastreador.prefixar(idRequisicao, ChaveIdempotencia.prefixar(chave, comando)), idRequisicao);
+        }
+        if (Agrupador.ATIVO) {
+            // O handler lê só a primeira linha do corpo; no lote, a linha leva o tipo, o id e a chave
+            String tipo = "/cadastrarItem".equalsIgnoreCase(endpoint) ? "cadastrarItem" : "registrarLance";
+            String comando = tipo + ";" + dados.lines().findFirst().orElse("");
+            return agrupadorHTTP.enviar(backend, Rastreador.prefixar(idRequisicao, ChaveIdempotencia.prefixar(chave, comando)));
+        }
+        return tentarHTTP(backend, dados, endpoint, idRequisicao, chave);
+    }
+
+    private String tentarHTTP(RegistroServicos.Backend backend, String dados, String endpoint, String idRequisicao,
+                              String chave) throws IOException {
         HttpURLConnection conn = null;
+        long inicio = System.nanoTime();
+        EventoEncaminhamento evento = new EventoEncaminhamento();
+        evento.begin();
+        boolean sucesso = false;
         try {
-            URL url = new URL("http://localhost:" + porta + endpoint);
+            URL url = new URL("http://" + backend.getEndereco() + endpoint);
             conn = (HttpURLConnection) url.openConnection();
             conn.setRequestMethod("POST");
             conn.setDoOutput(true);
+            conn.setConnectTimeout(5000); // Sem timeout, um backend travado prenderia a thread e nunca contaria como falha
+            conn.setReadTimeout(5000);
             conn.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+            if (idRequisicao != null) {
+                conn.setRequestProperty(Rastreador.CABECALHO, idRequisicao);
+            }
+            if (chave != null) {
+                conn.setRequestProperty(ChaveIdempotencia.CABECALHO, chave);
+            }
 
             try (OutputStream os = conn.getOutputStream()) {
                 byte[] input = dados.getBytes(StandardCharsets.UTF_8);
@@ -580,81 +1173,504 @@ public class Gateway {
             }
 
             InputStream responseStream = new BufferedInputStream(conn.getInputStream());
-            return new BufferedReader(new InputStreamReader(responseStream)).lines().collect(Collectors.joining("\n"));
+            String resposta = new BufferedReader(new InputStreamReader(responseStream)).lines().collect(Collectors.joining("\n"));
+            backend.encaminhamento.registrarDesde(inicio);
+            sucesso = true;
+            return resposta;
 
         } catch (IOException e) {
-            logger.error("Erro ao comunicar com o servidor HTTP interno: " + e.getMessage());
+            logger.error("Erro ao comunicar com o servidor HTTP interno: {}", e.getMessage());
             throw new IOException("Erro: Nenhum servidor HTTP disponível.");
         } finally {
             if (conn != null) {
                 conn.disconnect();
             }
+            concluirEncaminhamento(evento, backend, inicio, Especulacao.Cancelamento.NENHUM, idRequisicao, dados.length(), sucesso);
+        }
+    }
+
+    /**
+     * Entrega o comando à fila do handler local, já analisado, sem passar
+     * pelo Agrupador: a fila e o batch do handler fazem esse papel. A fila
+     * cheia conta como falha no disjuntor do backend local, como um handler
+     * remoto que não respondeu.
+     *
+     * @param comando "tipo;dados", sem id nem chave
+     */
+    private String enviarLocal(RegistroServicos.Backend backend, String comando, String chave, String idRequisicao) throws IOException {
+        Comando analisado;
+        try {
+            analisado = Comando.analisar(comando);
+        } catch (IllegalArgumentException e) {
+            return "Mensagem inválida";
+        }
+        long inicio = System.nanoTime();
+        EventoEncaminhamento evento = new EventoEncaminhamento();
+        evento.begin();
+        boolean sucesso = false;
+        try {
+            String resposta = handlerLocal.enviar(analisado, chave, idRequisicao);
+            backend.encaminhamento.registrarDesde(inicio);
+            sucesso = true;
+            return resposta;
+        } catch (IllegalStateException e) {
+            logger.warn("Handler local recusou o comando: {}", e.getMessage());
+            throw new IOException("Erro: Nenhum servidor " + backend.protocolo.toUpperCase() + " disponível.");
+        } finally {
+            concluirEncaminhamento(evento, backend, inicio, Especulacao.Cancelamento.NENHUM, idRequisicao, 0, sucesso);
+        }
+    }
+
+    /**
+     * Uma ida e volta pelo canal de memória compartilhada do backend, sem
+     * Agrupador: o anel já junta os comandos sem custo de chamada de sistema.
+     * As falhas contam no disjuntor como as de um socket.
+     *
+     * @param linha "#id;!chave;tipo;dados", com id e chave opcionais
+     */
+    private String enviarMemoria(RegistroServicos.Backend backend, String linha, String idRequisicao) throws IOException {
+        long inicio = System.nanoTime();
+        EventoEncaminhamento evento = new EventoEncaminhamento();
+        evento.begin();
+        boolean sucesso = false;
+        try {
+            String resposta = transporteMemoria.enviar(backend, linha);
+            backend.encaminhamento.registrarDesde(inicio);
+            sucesso = true;
+            return resposta;
+        } catch (IOException e) {
+            logger.error("Erro no canal de memória com {}: {}", backend.getEndereco(), e.getMessage());
+            throw new IOException("Erro: Nenhum servidor " + backend.protocolo.toUpperCase() + " disponível.");
+        } finally {
+            concluirEncaminhamento(evento, backend, inicio, Especulacao.Cancelamento.NENHUM, idRequisicao, linha.length(), sucesso);
+        }
+    }
+
+    // Lote do Agrupador: POST em /comandos com uma linha por comando
+    private List<String> enviarLoteHTTP(RegistroServicos.Backend backend, List<String> linhas) throws IOException {
+        HttpURLConnection conn = null;
+        long inicio = System.nanoTime();
+        EventoEncaminhamento evento = new EventoEncaminhamento();
+        evento.begin();
+        byte[] corpo = (String.join("\n", linhas) + "\n").getBytes(StandardCharsets.UTF_8);
+        boolean sucesso = false;
+        try {
+            conn = (HttpURLConnection) new URL("http://" + backend.getEndereco() + ComandosAgrupados.CAMINHO_HTTP).openConnection();
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            conn.setConnectTimeout(5000);
+            conn.setReadTimeout(5000);
+            conn.setFixedLengthStreamingMode(corpo.length);
+            conn.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+            try (OutputStream os = conn.getOutputStream()) {
+                os.write(corpo);
+            }
+
+            int responseCode = conn.getResponseCode();
+            if (responseCode != 200) {
+                throw new IOException("Código de resposta " + responseCode + " em " + ComandosAgrupados.CAMINHO_HTTP);
+            }
+            List<String> respostas;
+            try (BufferedReader in = new BufferedReader(new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
+                respostas = in.lines().collect(Collectors.toList());
+            }
+            backend.encaminhamento.registrarDesde(inicio);
+            sucesso = respostas.size() == linhas.size();
+            return respostas;
+
+        } catch (IOException e) {
+            logger.error("Erro ao comunicar com o servidor HTTP interno: {}", e.getMessage());
+            throw new IOException("Erro: Nenhum servidor HTTP disponível.");
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+            concluirEncaminhamento(evento, backend, inicio, Especulacao.Cancelamento.NENHUM, null, corpo.length, sucesso);
         }
     }
 
  // Enviar dados via TCP para o servidor interno
-    private String enviarParaServidorInternoTCP(String dados) {
-        int porta = getNextTCPHandlerPort();  // Certifique-se de que o TCPHandler está registrado corretamente
-        logger.info("Tentando enviar dados para o servidor TCP na porta: " + porta);
-        
-        try (Socket socket = new Socket("localhost", porta)) {
+    // roteado: backend já escolhido (e rastro já marcado) pelo modo repasse, ou null para rotear aqui
+    private String enviarParaServidorInternoTCP(String comando, String chave, Rastro rastro, RegistroServicos.Backend roteado) {
+        String dados = ChaveIdempotencia.prefixar(chave, comando);
+        RegistroServicos.Backend backend = roteado;
+        if (backend == null) {
+            backend = rotear("tcp", chaveDeRoteamento(chave, idItemDoLance(comando)));
+            rastro.marcar("roteada");
+        }
+        boolean amostrada = Amostragem.amostrada(rastro);
+        if (amostrada) {
+            logger.info("Tentando enviar dados para o servidor TCP em: {}", backend.getEndereco());
+        }
+
+        try {
+            // Direto na fila do handler local ou no canal de memória; agrupado com os demais comandos para o
+            // mesmo backend; ou sozinho numa conexão
+            String resposta = backend.isLocal()
+                    ? enviarLocal(backend, comando, chave, rastro.getId())
+                    : backend.isMemoria()
+                    ? enviarMemoria(backend, Rastreador.prefixar(rastro.getId(), dados), rastro.getId())
+                    : Agrupador.ATIVO
+                    ? agrupadorTCP.enviar(backend, Rastreador.prefixar(rastro.getId(), dados))
+                    : tentarTCP(backend, dados, rastro, amostrada);
+            rastro.marcar("encaminhada");
+            if (amostrada) {
+                logger.info("Resposta recebida do servidor TCP: {}", resposta);
+            }
+            return resposta;
+        } catch (IOException e) {
+            errosTCP.incrementar();
+            return e.getMessage();
+        }
+    }
+
+    // Uma ida e volta a um backend TCP; a mensagem da exceção é a resposta de erro ao cliente
+    private String tentarTCP(RegistroServicos.Backend backend, String dados, Rastro rastro, boolean amostrada) throws IOException {
+        long inicio = System.nanoTime();
+        EventoEncaminhamento evento = new EventoEncaminhamento();
+        evento.begin();
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(backend.host, backend.porta), 5000);
             socket.setSoTimeout(5000);  // Adiciona um timeout de 5 segundos
 
             PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
             BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 
-            out.println(dados);  // Enviar os dados para o servidor TCP
-            logger.info("Dados enviados para o servidor TCP na porta " + porta + ": " + dados);
+            out.println(Rastreador.prefixar(rastro.getId(), dados));  // Enviar os dados para o servidor TCP
+            if (amostrada) {
+                logger.info("Dados enviados para o servidor TCP em {}: {}", backend.getEndereco(), dados);
+            }
 
             String resposta = in.readLine();  // Ler a resposta do servidor TCP
             if (resposta == null) {
-                logger.warn("Nenhuma resposta recebida do servidor TCP na porta: " + porta);
-                return "Erro: Nenhuma resposta do servidor interno TCP.";
-            } else {
-                logger.info("Resposta recebida do servidor TCP: " + resposta);
-                return resposta;
+                logger.warn("Nenhuma resposta recebida do servidor TCP em: {}", backend.getEndereco());
+                concluirEncaminhamento(evento, backend, inicio, Especulacao.Cancelamento.NENHUM, rastro.getId(), dados.length(), false);
+                throw new IOException("Erro: Nenhuma resposta do servidor interno TCP.");
             }
+            backend.encaminhamento.registrarDesde(inicio);
+            concluirEncaminhamento(evento, backend, inicio, Especulacao.Cancelamento.NENHUM, rastro.getId(), dados.length(), true);
+            return resposta;
 
         } catch (IOException e) {
-            // Se falhar ao conectar ao servidor, remover a porta da lista
-            logger.error("Erro ao comunicar com o servidor TCP na porta: " + porta + " - " + e.getMessage());
-            removerPortaInativa(porta);  // Chama o método para remover a porta
-            return "Erro: Nenhum servidor TCP disponível.";
+            if (e.getMessage() != null && e.getMessage().startsWith("Erro:")) {
+                throw e;
+            }
+            // A falha conta no disjuntor do backend, que o ejeta se ela se repetir
+            logger.error("Erro ao comunicar com o servidor TCP em: {} - {}", backend.getEndereco(), e.getMessage());
+            concluirEncaminhamento(evento, backend, inicio, Especulacao.Cancelamento.NENHUM, rastro.getId(), dados.length(), false);
+            throw new IOException("Erro: Nenhum servidor TCP disponível.");
         }
     }
 
-    // Método para remover a porta TCP inativa da lista de servidores
-    private synchronized void removerPortaInativa(int porta) {
-        logger.info("Removendo porta inativa: " + porta);
-        tcpHandlerPorts.remove(Integer.valueOf(porta));  // Remove a porta da lista
-        logger.info("Porta removida: " + porta);
+    // Lote do Agrupador: "comandos;N" e as N linhas numa conexão, N linhas de resposta
+    private List<String> enviarLoteTCP(RegistroServicos.Backend backend, List<String> linhas) throws IOException {
+        long inicio = System.nanoTime();
+        EventoEncaminhamento evento = new EventoEncaminhamento();
+        evento.begin();
+        int bytes = 0;
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(backend.host, backend.porta), 5000);
+            socket.setSoTimeout(5000);
+
+            BufferedWriter out = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            out.write(ComandosAgrupados.cabecalho(linhas.size()));
+            out.write('\n');
+            for (String linha : linhas) {
+                out.write(linha);
+                out.write('\n');
+                bytes += linha.length() + 1;
+            }
+            out.flush();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            List<String> respostas = new ArrayList<>(linhas.size());
+            String resposta;
+            while (respostas.size() < linhas.size() && (resposta = in.readLine()) != null) {
+                respostas.add(resposta);
+            }
+            if (respostas.isEmpty()) {
+                logger.warn("Nenhuma resposta recebida do servidor TCP em: {}", backend.getEndereco());
+                concluirEncaminhamento(evento, backend, inicio, Especulacao.Cancelamento.NENHUM, null, bytes, false);
+                throw new IOException("Erro: Nenhuma resposta do servidor interno TCP.");
+            }
+            backend.encaminhamento.registrarDesde(inicio);
+            concluirEncaminhamento(evento, backend, inicio, Especulacao.Cancelamento.NENHUM, null, bytes, respostas.size() == linhas.size());
+            return respostas;
+
+        } catch (IOException e) {
+            if (e.getMessage() != null && e.getMessage().startsWith("Erro:")) {
+                throw e;
+            }
+            logger.error("Erro ao comunicar com o servidor TCP em: {} - {}", backend.getEndereco(), e.getMessage());
+            concluirEncaminhamento(evento, backend, inicio, Especulacao.Cancelamento.NENHUM, null, bytes, false);
+            throw new IOException("Erro: Nenhum servidor TCP disponível.");
+        }
+    }
+
+    // Resposta de uma consulta HTTP já com o código lido; o corpo ainda está no socket
+    private static final class ConsultaHTTPAberta implements Closeable {
+        final HttpURLConnection conn;
+        final int codigo;
+
+        ConsultaHTTPAberta(HttpURLConnection conn, int codigo) {
+            this.conn = conn;
+            this.codigo = codigo;
+        }
+
+        @Override
+        public void close() {
+            conn.disconnect();
+        }
+    }
+
+    // Repassa uma consulta GET ao servidor HTTP interno, copiando o corpo da resposta sem acumulá-lo.
+    // Consultas são leituras: sempre elegíveis à especulação, decidida até o código de resposta
+    private void encaminharConsultaHTTP(RegistroServicos.Backend backend, String caminhoComQuery, HttpExchange exchange) throws IOException {
+        if (backend.isLocal()) {
+            handlerLocal.consultarHTTP(exchange);
+            return;
+        }
+        try (ConsultaHTTPAberta resposta = especulacaoHTTP.executar(backend,
+                (alvo, cancelamento) -> abrirConsultaHTTP(alvo, caminhoComQuery, cancelamento))) {
+            InputStream corpo = resposta.codigo < 400 ? resposta.conn.getInputStream() : resposta.conn.getErrorStream();
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(resposta.codigo, 0);
+            try (OutputStream os = exchange.getResponseBody()) {
+                if (corpo != null) {
+                    corpo.transferTo(os);
+                    corpo.close();
+                }
+            }
+        }
+    }
+
+    private ConsultaHTTPAberta abrirConsultaHTTP(RegistroServicos.Backend backend, String caminhoComQuery,
+                                                 Especulacao.Cancelamento cancelamento) throws IOException {
+        long inicio = System.nanoTime();
+        HttpURLConnection conn = (HttpURLConnection) new URL("http://" + backend.getEndereco() + caminhoComQuery).openConnection();
+        cancelamento.associar(conn::disconnect);
+        try {
+            conn.setRequestMethod("GET");
+            conn.setConnectTimeout(5000);
+            conn.setReadTimeout(5000);
+
+            int responseCode = conn.getResponseCode();
+            // O disjuntor mede até o início da resposta; o tamanho do histórico não é culpa do backend
+            registrarConsulta(backend, inicio, cancelamento, responseCode < 500);
+            return new ConsultaHTTPAberta(conn, responseCode);
+        } catch (IOException e) {
+            registrarConsulta(backend, inicio, cancelamento, false);
+            conn.disconnect();
+            throw e;
+        }
+    }
+
+    // Resposta de uma consulta TCP com a primeira linha lida (null se o backend fechou sem responder)
+    private static final class ConsultaTCPAberta implements Closeable {
+        final Socket socket;
+        final BufferedReader in;
+        final String primeiraLinha;
+
+        ConsultaTCPAberta(Socket socket, BufferedReader in, String primeiraLinha) {
+            this.socket = socket;
+            this.in = in;
+            this.primeiraLinha = primeiraLinha;
+        }
+
+        @Override
+        public void close() throws IOException {
+            socket.close();
+        }
+    }
+
+    // Repassa uma consulta TCP de várias linhas, lidas até o servidor interno fechar a conexão
+    private void encaminharConsultaTCP(String dados, BufferedWriter clienteOut, RegistroServicos.Backend roteado) throws IOException {
+        RegistroServicos.Backend backend = roteado != null ? roteado : rotear("tcp");
+        if (backend.isLocal()) {
+            handlerLocal.consultarTCP(dados, clienteOut);
+            return;
+        }
+
+        try (ConsultaTCPAberta resposta = especulacaoTCP.executar(backend,
+                (alvo, cancelamento) -> abrirConsultaTCP(alvo, dados, cancelamento))) {
+            String linha = resposta.primeiraLinha;
+            while (linha != null) {
+                clienteOut.write(linha);
+                clienteOut.write("\n");
+                linha = resposta.in.readLine();
+            }
+            clienteOut.flush();
+
+        } catch (IOException e) {
+            logger.error("Erro ao comunicar com o servidor TCP em: {} - {}", backend.getEndereco(), e.getMessage());
+            clienteOut.write("Erro: Nenhum servidor TCP disponível.\n");
+            clienteOut.flush();
+        }
+    }
+
+    private ConsultaTCPAberta abrirConsultaTCP(RegistroServicos.Backend backend, String dados,
+                                               Especulacao.Cancelamento cancelamento) throws IOException {
+        long inicio = System.nanoTime();
+        Socket socket = new Socket();
+        cancelamento.associar(socket);
+        try {
+            socket.connect(new InetSocketAddress(backend.host, backend.porta), 5000);
+            socket.setSoTimeout(5000);
+
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            out.println(dados);
+
+            // O disjuntor mede até a primeira linha, como na consulta HTTP
+            String primeiraLinha = in.readLine();
+            registrarConsulta(backend, inicio, cancelamento, true);
+            return new ConsultaTCPAberta(socket, in, primeiraLinha);
+        } catch (IOException e) {
+            registrarConsulta(backend, inicio, cancelamento, false);
+            socket.close();
+            throw e;
+        }
+    }
+
+    private void registrarConsulta(RegistroServicos.Backend backend, long inicio, Especulacao.Cancelamento cancelamento, boolean sucesso) {
+        long duracao = System.nanoTime() - inicio;
+        if (sucesso) {
+            backend.disjuntor.registrar(duracao, true);
+            registrarLatencia(backend.protocolo, duracao);
+        } else if (!cancelamento.isCancelado()) {
+            backend.disjuntor.registrar(duracao, false);
+        }
     }
 
     // Enviar dados via UDP para o servidor interno
-    private String enviarParaServidorInternoUDP(String dados) throws IOException {
-        int porta;
+    // Caminho agrupado: o comando entra no lote UDP do backend escolhido
+    private String enviarParaServidorInternoUDP(String comando, String chave, Rastro rastro) throws IOException {
+        String dados = ChaveIdempotencia.prefixar(chave, comando);
+        RegistroServicos.Backend backend = rotearUDP(chaveDeRoteamento(chave, idItemDoLance(comando)), rastro);
+        String resposta = backend.isLocal()
+                ? enviarLocal(backend, comando, chave, rastro.getId())
+                : backend.isMemoria()
+                ? enviarMemoria(backend, Rastreador.prefixar(rastro.getId(), dados), rastro.getId())
+                : agrupadorUDP.enviar(backend, Rastreador.prefixar(rastro.getId(), dados));
+        rastro.marcar("encaminhada");
+        return resposta;
+    }
+
+    // Devolve o buffer à arena de onde ele saiu (as duas têm tamanhos diferentes)
+    private void devolverUDP(ByteBuffer buffer) {
+        (buffer.capacity() == arenaUDP.tamanho() ? arenaUDP : arenaGrandeUDP).devolver(buffer);
+    }
+
+    /**
+     * Caminho sem agrupamento: os bytes recebidos do cliente vão ao backend
+     * sem cópia, atrás do id de rastreamento, numa escrita com dois buffers.
+     * A resposta do backend é lida no próprio buffer do datagrama, que já
+     * foi enviado: cada datagrama usa um só buffer da arena.
+     *
+     * @return o buffer do datagrama, agora com a resposta pronta para o envio
+     */
+    private ByteBuffer encaminharDatagramaUDP(ByteBuffer datagrama, String chave, Rastro rastro) throws IOException {
+        RegistroServicos.Backend backend = rotearUDP(chaveDeRoteamento(chave, idItemDoLance(datagrama, fimDaChave(datagrama))), rastro);
+        if (backend.isLocal()) {
+            // Não há datagrama a repassar: o comando é analisado e a confirmação volta num buffer da arena
+            String comando = texto(datagrama, fimDaChave(datagrama), datagrama.limit());
+            return codificar(enviarLocal(backend, comando, chave, rastro.getId()), datagrama);
+        }
+        if (backend.isMemoria()) {
+            String linha = Rastreador.prefixar(rastro.getId(), texto(datagrama, 0, datagrama.limit()));
+            return codificar(enviarMemoria(backend, linha, rastro.getId()), datagrama);
+        }
+        long inicio = System.nanoTime();
+        EventoEncaminhamento evento = new EventoEncaminhamento();
+        evento.begin();
+        ByteBuffer id = ByteBuffer.wrap(Rastreador.prefixar(rastro.getId(), "").getBytes(StandardCharsets.UTF_8));
+        int bytes = id.remaining() + datagrama.remaining();
         try {
-            porta = getNextUDPHandlerPort();
+            trocarDatagramas(backend, new ByteBuffer[]{id, datagrama.duplicate()}, datagrama);
+            backend.encaminhamento.registrarDesde(inicio);
+            concluirEncaminhamento(evento, backend, inicio, Especulacao.Cancelamento.NENHUM, rastro.getId(), bytes, true);
+            rastro.marcar("encaminhada");
+            return datagrama;
+        } catch (IOException e) {
+            logger.error("Erro ao comunicar com o servidor UDP interno: {}", e.getMessage());
+            concluirEncaminhamento(evento, backend, inicio, Especulacao.Cancelamento.NENHUM, rastro.getId(), bytes, false);
+            throw new IOException("Erro: Nenhum servidor UDP disponível.");
+        }
+    }
+
+    private RegistroServicos.Backend rotearUDP(String chave, Rastro rastro) {
+        try {
+            RegistroServicos.Backend backend = rotear("udp", chave);
+            rastro.marcar("roteada");
+            return backend;
         } catch (IllegalStateException e) {
             throw new IllegalStateException("Nenhum servidor UDP disponível.");
         }
+    }
 
-        try (DatagramSocket socket = new DatagramSocket()) {
-            byte[] buffer = dados.getBytes(StandardCharsets.UTF_8);
-            InetAddress address = InetAddress.getByName("localhost");
-            DatagramPacket packet = new DatagramPacket(buffer, buffer.length, address, porta);
-            socket.send(packet);
-
-            byte[] responseBuffer = new byte[1024];
-            DatagramPacket responsePacket = new DatagramPacket(responseBuffer, responseBuffer.length);
-            socket.setSoTimeout(5000);  // Set a timeout for receiving the response
-
-            socket.receive(responsePacket);  // Receive the response
-            return new String(responsePacket.getData(), 0, responsePacket.getLength(), StandardCharsets.UTF_8);
+    // Lote do Agrupador: um datagrama "comandos;N\n" com as N linhas; a resposta traz uma linha por comando
+    // e é lida num buffer grande, do tamanho do maior datagrama
+    private List<String> enviarLoteUDP(RegistroServicos.Backend backend, List<String> linhas) throws IOException {
+        ByteBuffer resposta = arenaGrandeUDP.obter();
+        if (resposta == null) {
+            throw new IOException("Erro: sem buffer livre para a resposta do lote UDP.");
+        }
+        long inicio = System.nanoTime();
+        EventoEncaminhamento evento = new EventoEncaminhamento();
+        evento.begin();
+        byte[] buffer = (ComandosAgrupados.cabecalho(linhas.size()) + "\n" + String.join("\n", linhas)).getBytes(StandardCharsets.UTF_8);
+        try {
+            trocarDatagramas(backend, new ByteBuffer[]{ByteBuffer.wrap(buffer)}, resposta);
+            List<String> respostas = List.of(StandardCharsets.UTF_8.decode(resposta).toString().split("\n"));
+            backend.encaminhamento.registrarDesde(inicio);
+            concluirEncaminhamento(evento, backend, inicio, Especulacao.Cancelamento.NENHUM, null, buffer.length, respostas.size() == linhas.size());
+            return respostas;
 
         } catch (IOException e) {
-            logger.error("Erro ao comunicar com o servidor UDP interno: " + e.getMessage());
+            logger.error("Erro ao comunicar com o servidor UDP interno: {}", e.getMessage());
+            concluirEncaminhamento(evento, backend, inicio, Especulacao.Cancelamento.NENHUM, null, buffer.length, false);
             throw new IOException("Erro: Nenhum servidor UDP disponível.");
+        } finally {
+            arenaGrandeUDP.devolver(resposta);
+        }
+    }
+
+    /**
+     * Uma ida e volta a um backend UDP: envia os buffers como um só datagrama
+     * num canal conectado ao backend e recebe a resposta em resposta (já
+     * pronta para leitura), esperando até PRAZO_UDP_MILLIS pelo seletor da
+     * thread. resposta só é limpa depois do envio, então pode ser o próprio
+     * buffer enviado.
+     *
+     * @throws SocketTimeoutException se a resposta não chegar no prazo
+     */
+    private static void trocarDatagramas(RegistroServicos.Backend backend, ByteBuffer[] envio, ByteBuffer resposta) throws IOException {
+        Selector seletor = SELETOR_UDP.get();
+        if (seletor == null) {
+            seletor = Selector.open();
+            SELETOR_UDP.set(seletor);
+        }
+        try (DatagramChannel canal = DatagramChannel.open(StandardProtocolFamily.INET)) {
+            canal.connect(new InetSocketAddress(backend.host, backend.porta));
+            canal.write(envio);
+            resposta.clear();
+            canal.configureBlocking(false);
+            SelectionKey chave = canal.register(seletor, SelectionKey.OP_READ);
+            try {
+                long prazo = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(PRAZO_UDP_MILLIS);
+                while (canal.read(resposta) == 0 && resposta.position() == 0) {
+                    long restante = TimeUnit.NANOSECONDS.toMillis(prazo - System.nanoTime());
+                    if (restante <= 0) {
+                        throw new SocketTimeoutException("Sem resposta do backend UDP em " + PRAZO_UDP_MILLIS + " ms");
+                    }
+                    seletor.select(restante);
+                    seletor.selectedKeys().clear();
+                }
+            } finally {
+                chave.cancel();
+                seletor.selectNow(); // Tira a chave cancelada do seletor antes de fechar o canal
+            }
         }
+        resposta.flip();
     }
 }
@@ -0,0 +1,178 @@
+package gateway;
+
+import metricas.Contador;
+import metricas.Metricas;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limite de comandos por cliente no gateway: um token bucket por nome de
+ * cliente (campo do registrarLance) e outro por endereço de origem, para
+ * cada protocolo e tipo de comando. O comando acima do limite é recusado
+ * logo depois de lido, antes do roteamento.
+ *
+ * Cada balde é um só AtomicLong com o instante teórico da próxima chegada
+ * (GCRA): passar é um compareAndSet, e a reposição dos tokens sai da
+ * diferença para o relógio, sem thread de recarga. Os baldes ficam numa
+ * tabela listrada em FAIXAS mapas; a limpeza remove, faixa a faixa, os
+ * baldes cheios (cliente parado), que equivalem a um balde novo. Acima de
+ * "chaves" baldes, as chaves novas passam sem balde até a próxima limpeza
+ * (o balde do endereço continua valendo).
+ *
+ * Regras "taxa[/rajada]" (comandos por segundo e tamanho do balde, padrão
+ * igual à taxa), da mais específica à mais geral:
+ * leilao.limite.{protocolo}.{comando}.{cliente|endereco},
+ * leilao.limite.{comando}.{cliente|endereco} e leilao.limite.{cliente|endereco}.
+ * Sem regra, não há limite. Outras propriedades leilao.limite.*: chaves
+ * (padrão 100000) e limpeza (s, padrão 10).
+ */
+class LimiteClientes {
+    static final String RECUSA = "Erro: limite de requisições excedido, tente mais tarde.";
+
+    private static final int FAIXAS = 64; // Potência de 2
+    private static final int CHAVES_POR_FAIXA = Math.max(1, Integer.getInteger("leilao.limite.chaves", 100_000) / FAIXAS);
+    private static final long LIMPEZA_SEGUNDOS = Math.max(1, Long.getLong("leilao.limite.limpeza", 10));
+
+    private static final ScheduledExecutorService limpeza = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "limite-limpeza");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // Balde de um tipo de chave: intervalo entre comandos e folga acumulável (rajada - 1 intervalos)
+    private record Regra(long intervaloNanos, long toleranciaNanos) {
+    }
+
+    // Regras e séries de um protocolo e comando; regra null é sem limite
+    private record Regras(Regra cliente, Regra endereco, Contador recusasCliente, Contador recusasEndereco) {
+    }
+
+    private final Map<String, Regras> regras = new ConcurrentHashMap<>();
+    private final List<Map<String, AtomicLong>> faixas = new ArrayList<>(FAIXAS);
+    private final Contador semBalde = Metricas.contador("leilao_gateway_limite_sem_balde_total",
+            "Chaves que passaram sem balde com a tabela de limites cheia");
+
+    LimiteClientes() {
+        for (int i = 0; i < FAIXAS; i++) {
+            faixas.add(new ConcurrentHashMap<>());
+        }
+        Metricas.medidor("leilao_gateway_limite_baldes", "Baldes de limite por cliente em uso", this::baldes);
+        limpeza.scheduleAtFixedRate(this::limpar, LIMPEZA_SEGUNDOS, LIMPEZA_SEGUNDOS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Consome um token do endereço e outro do cliente.
+     *
+     * @param comando cadastrarItem ou registrarLance
+     * @param cliente Nome do cliente do comando, ou null
+     * @param origem  Endereço de quem enviou, ou null
+     * @return false se algum dos dois baldes estiver vazio
+     */
+    boolean permitir(String protocolo, String comando, String cliente, InetAddress origem) {
+        Regras regrasComando = regras.computeIfAbsent(protocolo + "." + comando, r -> carregar(protocolo, comando));
+        long agora = System.nanoTime();
+        if (regrasComando.endereco != null && origem != null
+                && !consumir(protocolo + ";" + comando + ";e;" + origem.getHostAddress(), regrasComando.endereco, agora)) {
+            regrasComando.recusasEndereco.incrementar();
+            return false;
+        }
+        if (regrasComando.cliente != null && cliente != null && !cliente.isEmpty()
+                && !consumir(protocolo + ";" + comando + ";c;" + cliente, regrasComando.cliente, agora)) {
+            regrasComando.recusasCliente.incrementar();
+            return false;
+        }
+        return true;
+    }
+
+    private boolean consumir(String chave, Regra regra, long agora) {
+        Map<String, AtomicLong> faixa = faixas.get(misturar(chave.hashCode()) & (FAIXAS - 1));
+        AtomicLong balde = faixa.get(chave);
+        if (balde == null) {
+            if (faixa.size() >= CHAVES_POR_FAIXA) {
+                semBalde.incrementar();
+                return true;
+            }
+            balde = faixa.computeIfAbsent(chave, c -> new AtomicLong(agora));
+        }
+        while (true) {
+            long proxima = balde.get();
+            long base = proxima - agora > 0 ? proxima : agora; // Balde cheio: a conta começa de agora
+            if (base - agora > regra.toleranciaNanos) {
+                return false;
+            }
+            if (balde.compareAndSet(proxima, base + regra.intervaloNanos)) {
+                return true;
+            }
+        }
+    }
+
+    // Balde cheio (próxima chegada já no passado) é igual a um balde novo: sai da tabela
+    private void limpar() {
+        long agora = System.nanoTime();
+        for (Map<String, AtomicLong> faixa : faixas) {
+            faixa.values().removeIf(balde -> balde.get() - agora <= 0);
+        }
+    }
+
+    private long baldes() {
+        long total = 0;
+        for (Map<String, AtomicLong> faixa : faixas) {
+            total += faixa.size();
+        }
+        return total;
+    }
+
+    private static Regras carregar(String protocolo, String comando) {
+        return new Regras(regra(protocolo, comando, "cliente"), regra(protocolo, comando, "endereco"),
+                Metricas.contador("leilao_gateway_limitadas_total", "Comandos recusados pelo limite por cliente",
+                        "protocolo", protocolo, "comando", comando, "por", "cliente"),
+                Metricas.contador("leilao_gateway_limitadas_total", "Comandos recusados pelo limite por cliente",
+                        "protocolo", protocolo, "comando", comando, "por", "endereco"));
+    }
+
+    private static Regra regra(String protocolo, String comando, String tipoChave) {
+        String valor = System.getProperty("leilao.limite." + protocolo + "." + comando + "." + tipoChave,
+                System.getProperty("leilao.limite." + comando + "." + tipoChave,
+                        System.getProperty("leilao.limite." + tipoChave)));
+        if (valor == null || valor.isBlank()) {
+            return null;
+        }
+        String[] partes = valor.trim().split("/");
+        double taxa = Double.parseDouble(partes[0]);
+        if (taxa <= 0) {
+            return null;
+        }
+        double rajada = partes.length > 1 ? Double.parseDouble(partes[1]) : Math.max(1, taxa);
+        long intervalo = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / taxa));
+        return new Regra(intervalo, (long) (intervalo * Math.max(0, rajada - 1)));
+    }
+
+    private static int misturar(int h) {
+        return h ^ (h >>> 16);
+    }
+
+    // Cliente de "registrarLance;idItem;cliente;valor", ou null para os demais comandos
+    static String clienteDoLance(String comando) {
+        return comando.startsWith("registrarLance;") ? campo(comando, "registrarLance;".length(), 1) : null;
+    }
+
+    // Campo de índice n (a partir de 0) do texto separado por ';', começando em inicio; null se faltar
+    static String campo(String texto, int inicio, int n) {
+        for (int i = 0; i < n; i++) {
+            inicio = texto.indexOf(';', inicio) + 1;
+            if (inicio == 0) {
+                return null;
+            }
+        }
+        int fim = texto.indexOf(';', inicio);
+        return texto.substring(inicio, fim < 0 ? texto.length() : fim);
+    }
+}
@@ -0,0 +1,422 @@
+package gateway;
+
+import metricas.Contador;
+import metricas.Histograma;
+import metricas.Metricas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registro dos handlers (HTTP, TCP e UDP) por concessão (lease).
+ *
+ * Cada handler se registra com host:porta e peso e renova a concessão
+ * empurrando um heartbeat periódico; o gateway não sonda ninguém. Uma
+ * entrada que passa do prazo sem renovação expira pela roda de tempo: a
+ * cada tique só o balde corrente é examinado, e renovar é uma escrita do
+ * novo prazo, sem mexer na roda (a entrada é reagendada quando o seu balde
+ * passa e o prazo ainda não venceu).
+ *
+ * Os roteadores leem um instantâneo imutável e versionado, reconstruído
+ * apenas quando o conjunto de backends muda (registro, remoção ou
+ * expiração). Escolher um backend é ler o instantâneo e incrementar um
+ * contador, sem trava.
+ *
+ * Cada backend tem um Disjuntor, mantido por endereço mesmo se a entrada
+ * expirar e voltar: o roteador pula os ejetados, e a guarda de ejeção não
+ * deixa mais que leilao.disjuntor.ejetadosMax por cento (padrão 50) dos
+ * backends de um protocolo fora ao mesmo tempo.
+ *
+ * Propriedades: leilao.registro.concessao (ms de validade de cada
+ * renovação, padrão 3000) e leilao.registro.tique (ms por balde da roda,
+ * padrão 100).
+ */
+public class RegistroServicos {
+    private static final Logger logger = LoggerFactory.getLogger(RegistroServicos.class);
+
+    static final long CONCESSAO_PADRAO_MILLIS = Long.getLong("leilao.registro.concessao", 3000);
+    private static final long TIQUE_NANOS = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Long.getLong("leilao.registro.tique", 100)));
+    private static final int BALDES = 512; // Uma volta da roda: 51,2 s com o tique padrão
+    private static final int PESO_MAXIMO = 100;
+    private static final String[] PROTOCOLOS = {"http", "tcp", "udp"};
+    static final String HOST_LOCAL = "local"; // Handler no processo do gateway (porta 0), sem endereço de rede
+    static final String REDE = "rede";         // Transportes dos comandos até o backend: sockets
+    static final String MEMORIA = "memoria";   // ou o canal de memória compartilhada (CanalMemoria), na mesma máquina
+    private static final int EJETADOS_MAX_PERCENTUAL = Integer.getInteger("leilao.disjuntor.ejetadosMax", 50);
+
+    private static final Contador expirados = Metricas.contador("leilao_registro_expirados_total", "Backends removidos por concessão vencida");
+    private static final Contador renovacoes = Metricas.contador("leilao_registro_renovacoes_total", "Heartbeats de renovação recebidos");
+
+    /**
+     * Backend registrado. Imutável: mudar o peso de um endereço cria um novo
+     * Backend no próximo instantâneo.
+     */
+    public static final class Backend {
+        public final String protocolo;
+        public final String host;
+        public final int porta;
+        public final int peso;
+        public final String transporte;  // REDE ou MEMORIA
+        final Histograma encaminhamento; // Ida e volta até este backend
+        public final Disjuntor disjuntor;
+
+        Backend(String protocolo, String host, int porta, int peso, String transporte, Disjuntor disjuntor) {
+            this.protocolo = protocolo;
+            this.host = host;
+            this.porta = porta;
+            this.peso = peso;
+            this.transporte = transporte;
+            this.disjuntor = disjuntor;
+            this.encaminhamento = Metricas.histogramaTempo("leilao_gateway_encaminhamento_segundos",
+                    "Tempo de ida e volta até o backend", "protocolo", protocolo, "backend", getEndereco());
+        }
+
+        public String getEndereco() {
+            return host + ":" + porta;
+        }
+
+        // Handler no mesmo processo do gateway: recebe o comando analisado, sem socket
+        public boolean isLocal() {
+            return HOST_LOCAL.equals(host);
+        }
+
+        // Handler na mesma máquina que recebe os comandos pelo canal de memória compartilhada
+        public boolean isMemoria() {
+            return MEMORIA.equals(transporte);
+        }
+
+        @Override
+        public String toString() {
+            return protocolo + " " + getEndereco() + " (peso " + peso + (isMemoria() ? ", memória" : "") + ")";
+        }
+    }
+
+    /**
+     * Visão imutável dos backends de todos os protocolos. A versão cresce a
+     * cada mudança do conjunto.
+     */
+    public static final class Instantaneo {
+        public final long versao;
+        private final Backend[][] backends;   // Por protocolo, na ordem de PROTOCOLOS
+        private final Backend[][] sequencias; // Ordem do round-robin ponderado, uma volta completa
+
+        private Instantaneo(long versao, Backend[][] backends) {
+            this.versao = versao;
+            this.backends = backends;
+            this.sequencias = new Backend[backends.length][];
+            for (int i = 0; i < backends.length; i++) {
+                sequencias[i] = sequenciaPonderada(backends[i]);
+            }
+        }
+
+        public List<Backend> getBackends(String protocolo) {
+            return List.of(backends[indice(protocolo)]);
+        }
+    }
+
+    private static final class Entrada {
+        final Backend backend;
+        volatile long expiraEm;   // System.nanoTime() do fim da concessão
+        volatile boolean removida;
+
+        Entrada(Backend backend, long expiraEm) {
+            this.backend = backend;
+            this.expiraEm = expiraEm;
+        }
+    }
+
+    private final Map<String, Entrada> entradas = new ConcurrentHashMap<>(); // Chave: protocolo;host:porta
+    private final Map<String, Disjuntor> disjuntores = new ConcurrentHashMap<>(); // Mesma chave; nunca removidos
+    private final AtomicInteger[] contadores = {new AtomicInteger(), new AtomicInteger(), new AtomicInteger()};
+    private volatile Instantaneo atual = new Instantaneo(0, new Backend[][]{new Backend[0], new Backend[0], new Backend[0]});
+
+    // Roda de tempo: baldes indexados por tique; protegida pela trava do registro
+    private final List<ArrayDeque<Entrada>> roda = new ArrayList<>(BALDES);
+    private final long origem = System.nanoTime();
+    private long proximoTique; // Próximo tique a examinar
+    private ScheduledExecutorService relogio;
+
+    public RegistroServicos() {
+        for (int i = 0; i < BALDES; i++) {
+            roda.add(new ArrayDeque<>());
+        }
+        for (String protocolo : PROTOCOLOS) {
+            Metricas.medidor("leilao_registro_backends", "Backends com concessão válida",
+                    () -> atual.backends[indice(protocolo)].length, "protocolo", protocolo);
+        }
+        Metricas.medidor("leilao_registro_versao", "Versão do instantâneo de backends", () -> atual.versao);
+    }
+
+    // Liga o relógio da roda; sem ele as concessões nunca vencem (benchmarks)
+    public synchronized void iniciar() {
+        if (relogio != null) {
+            return;
+        }
+        proximoTique = tiqueDe(System.nanoTime());
+        relogio = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "registro-relogio");
+            t.setDaemon(true);
+            return t;
+        });
+        relogio.scheduleAtFixedRate(this::avancar, TIQUE_NANOS, TIQUE_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Registra ou renova um backend. Uma renovação de endereço já conhecido
+     * com o mesmo peso e transporte só estende o prazo; endereço novo, ou
+     * peso ou transporte diferente, publica um novo instantâneo.
+     *
+     * @param transporte REDE ou MEMORIA
+     * @return true se o conjunto de backends mudou
+     */
+    public boolean registrar(String protocolo, String host, int porta, int peso, String transporte, long concessaoMillis) {
+        indice(protocolo); // Valida o protocolo
+        if (!REDE.equals(transporte) && !MEMORIA.equals(transporte)) {
+            throw new IllegalArgumentException("Transporte desconhecido: " + transporte);
+        }
+        int pesoValido = Math.max(1, Math.min(PESO_MAXIMO, peso));
+        long expiraEm = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(concessaoMillis);
+        String chave = protocolo + ";" + host + ":" + porta;
+
+        // Caminho comum do heartbeat: só estende o prazo, sem trava
+        Entrada existente = entradas.get(chave);
+        if (existente != null && !existente.removida && existente.backend.peso == pesoValido && existente.backend.transporte.equals(transporte)) {
+            existente.expiraEm = expiraEm;
+            renovacoes.incrementar();
+            return false;
+        }
+
+        synchronized (this) {
+            existente = entradas.get(chave);
+            if (existente != null && !existente.removida && existente.backend.peso == pesoValido && existente.backend.transporte.equals(transporte)) {
+                existente.expiraEm = expiraEm;
+                return false;
+            }
+            if (existente != null) {
+                existente.removida = true;
+            }
+            Disjuntor disjuntor = disjuntores.computeIfAbsent(chave,
+                    c -> new Disjuntor(protocolo, host + ":" + porta, (d, abrir) -> ejetar(protocolo, abrir)));
+            Entrada nova = new Entrada(new Backend(protocolo, host, porta, pesoValido, transporte, disjuntor), expiraEm);
+            entradas.put(chave, nova);
+            agendar(nova, tiqueDe(expiraEm));
+            publicar();
+            logger.info("Backend registrado: {}", nova.backend);
+            return true;
+        }
+    }
+
+    public boolean registrar(String protocolo, String host, int porta, int peso, long concessaoMillis) {
+        return registrar(protocolo, host, porta, peso, REDE, concessaoMillis);
+    }
+
+    public boolean registrar(String protocolo, String host, int porta, int peso, String transporte) {
+        return registrar(protocolo, host, porta, peso, transporte, CONCESSAO_PADRAO_MILLIS);
+    }
+
+    public boolean registrar(String protocolo, String host, int porta, int peso) {
+        return registrar(protocolo, host, porta, peso, REDE, CONCESSAO_PADRAO_MILLIS);
+    }
+
+    /**
+     * Próximo backend do protocolo pelo round-robin ponderado, pulando os
+     * ejetados pelo disjuntor. Se todos estiverem ejetados (a guarda evita,
+     * mas o conjunto pode encolher depois), usa o da vez assim mesmo.
+     *
+     * @throws IllegalStateException se não houver backend com concessão válida
+     */
+    public Backend escolher(String protocolo) {
+        int i = indice(protocolo);
+        Backend[] sequencia = atual.sequencias[i];
+        if (sequencia.length == 0) {
+            throw new IllegalStateException("Nenhum servidor " + protocolo.toUpperCase() + " disponível.");
+        }
+        int inicio = contadores[i].getAndIncrement();
+        for (int k = 0; k < sequencia.length; k++) {
+            Backend backend = sequencia[Math.floorMod(inicio + k, sequencia.length)];
+            if (backend.disjuntor.permite()) {
+                return backend;
+            }
+        }
+        return sequencia[Math.floorMod(inicio, sequencia.length)];
+    }
+
+    /**
+     * Backend fixo para a chave de idempotência (hash de rendezvous sobre os
+     * endereços), para que as repetições de um comando caiam no handler que
+     * guarda o seu resultado; o gateway usa o mesmo para fixar os lances de
+     * um item quente num só handler. Pula os ejetados; se o conjunto de backends
+     * mudar, só as chaves do backend que entrou ou saiu trocam de destino.
+     *
+     * @throws IllegalStateException se não houver backend com concessão válida
+     */
+    public Backend escolher(String protocolo, String chave) {
+        Backend[] backends = atual.backends[indice(protocolo)];
+        if (backends.length == 0) {
+            throw new IllegalStateException("Nenhum servidor " + protocolo.toUpperCase() + " disponível.");
+        }
+        long hashChave = chave.hashCode() * 0x9E3779B97F4A7C15L;
+        Backend escolhido = null;
+        long maior = 0;
+        for (Backend backend : backends) {
+            if (backend.disjuntor.isEjetado()) {
+                continue;
+            }
+            long pontuacao = misturar(hashChave ^ backend.getEndereco().hashCode());
+            if (escolhido == null || Long.compareUnsigned(pontuacao, maior) > 0) {
+                escolhido = backend;
+                maior = pontuacao;
+            }
+        }
+        return escolhido != null ? escolhido : escolher(protocolo);
+    }
+
+    // Finalizador do MurmurHash3 (64 bits)
+    private static long misturar(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // Guarda de ejeção: abre o disjuntor só se o protocolo continuar com backends suficientes
+    private synchronized boolean ejetar(String protocolo, Runnable abrir) {
+        Backend[] backends = atual.backends[indice(protocolo)];
+        int ejetados = 0;
+        for (Backend backend : backends) {
+            if (backend.disjuntor.isEjetado()) {
+                ejetados++;
+            }
+        }
+        if ((ejetados + 1) * 100 > backends.length * EJETADOS_MAX_PERCENTUAL) {
+            return false;
+        }
+        abrir.run();
+        return true;
+    }
+
+    public Instantaneo getInstantaneo() {
+        return atual;
+    }
+
+    // Examina os baldes dos tiques que já passaram (normalmente um só)
+    private void avancar() {
+        try {
+            long agora = System.nanoTime();
+            long tiqueAgora = tiqueDe(agora);
+            synchronized (this) {
+                boolean mudou = false;
+                for (; proximoTique <= tiqueAgora; proximoTique++) {
+                    ArrayDeque<Entrada> balde = roda.get((int) (proximoTique % BALDES));
+                    for (int n = balde.size(); n > 0; n--) {
+                        Entrada entrada = balde.poll();
+                        if (entrada.removida) {
+                            continue;
+                        }
+                        long expiraEm = entrada.expiraEm;
+                        if (expiraEm - agora <= 0) {
+                            entrada.removida = true;
+                            entradas.remove(entrada.backend.protocolo + ";" + entrada.backend.getEndereco());
+                            expirados.incrementar();
+                            mudou = true;
+                            logger.warn("Concessão vencida, backend removido: {}", entrada.backend);
+                        } else {
+                            // Renovada desde o agendamento, ou o prazo cai ainda neste tique: volta à roda
+                            // no balde do novo prazo, nunca no que está sendo esvaziado (só seria visto na
+                            // próxima volta)
+                            agendar(entrada, Math.max(tiqueDe(expiraEm), proximoTique + 1));
+                        }
+                    }
+                }
+                if (mudou) {
+                    publicar();
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.error("Erro ao avançar a roda do registro: {}", e.getMessage(), e);
+        }
+    }
+
+    // Chamado com a trava; prazos além de uma volta caem num balde anterior e são reagendados ao passar
+    private void agendar(Entrada entrada, long tique) {
+        long alvo = Math.max(tique, proximoTique);
+        if (alvo >= proximoTique + BALDES) {
+            alvo = proximoTique + BALDES - 1;
+        }
+        roda.get((int) (alvo % BALDES)).add(entrada);
+    }
+
+    private long tiqueDe(long nanos) {
+        return (nanos - origem) / TIQUE_NANOS;
+    }
+
+    // Chamado com a trava: reconstrói o instantâneo a partir das entradas vivas
+    private void publicar() {
+        List<List<Backend>> porProtocolo = new ArrayList<>();
+        for (int i = 0; i < PROTOCOLOS.length; i++) {
+            porProtocolo.add(new ArrayList<>());
+        }
+        for (Entrada entrada : entradas.values()) {
+            porProtocolo.get(indice(entrada.backend.protocolo)).add(entrada.backend);
+        }
+        Backend[][] backends = new Backend[PROTOCOLOS.length][];
+        for (int i = 0; i < PROTOCOLOS.length; i++) {
+            List<Backend> lista = porProtocolo.get(i);
+            lista.sort(Comparator.comparing(Backend::getEndereco)); // Ordem estável entre versões
+            backends[i] = lista.toArray(new Backend[0]);
+        }
+        atual = new Instantaneo(atual.versao + 1, backends);
+    }
+
+    /**
+     * Round-robin ponderado suave: a cada passo escolhe o backend de maior
+     * crédito acumulado, espalhando os de peso alto ao longo da volta em vez
+     * de enviá-los em rajada.
+     */
+    private static Backend[] sequenciaPonderada(Backend[] backends) {
+        int total = 0;
+        for (Backend backend : backends) {
+            total += backend.peso;
+        }
+        Backend[] sequencia = new Backend[total];
+        int[] credito = new int[backends.length];
+        for (int passo = 0; passo < total; passo++) {
+            int melhor = 0;
+            for (int i = 0; i < backends.length; i++) {
+                credito[i] += backends[i].peso;
+                if (credito[i] > credito[melhor]) {
+                    melhor = i;
+                }
+            }
+            credito[melhor] -= total;
+            sequencia[passo] = backends[melhor];
+        }
+        return sequencia;
+    }
+
+    private static int indice(String protocolo) {
+        return switch (protocolo) {
+            case "http" -> 0;
+            case "tcp" -> 1;
+            case "udp" -> 2;
+            default -> throw new IllegalArgumentException("Protocolo desconhecido: " + protocolo);
+        };
+    }
+
+    static boolean protocoloValido(String protocolo) {
+        return Arrays.asList(PROTOCOLOS).contains(protocolo);
+    }
+}
@@ -0,0 +1,137 @@
+package gateway;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import protocol.CanalMemoria;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lado do gateway do canal de memória compartilhada com os handlers da
+ * mesma máquina registrados com o transporte "memoria".
+ *
+ * Há um canal por backend, aberto no primeiro comando. As threads do
+ * gateway escrevem no anel de requisições uma de cada vez (o anel tem um
+ * só produtor) e esperam a resposta com o seu número de sequência; uma
+ * thread por canal lê o anel de respostas e as entrega. Um canal que falha
+ * ou passa do prazo é fechado e reaberto no próximo comando, o que também
+ * cobre o handler reiniciado (que recria o arquivo).
+ */
+class TransporteMemoria {
+    private static final Logger logger = LoggerFactory.getLogger(TransporteMemoria.class);
+
+    private static final long PRAZO_NANOS = TimeUnit.SECONDS.toNanos(5);
+    private static final long ESPERA_ESPACO_NANOS = TimeUnit.MILLISECONDS.toNanos(1); // Anel de requisições cheio
+
+    private final Map<String, Cliente> clientes = new ConcurrentHashMap<>(); // Por endereço do backend
+
+    /**
+     * Envia uma linha de comando ("#id;!chave;tipo;dados") e espera a linha de resposta.
+     *
+     * @throws IOException se o canal não abrir, estiver cheio ou a resposta não chegar no prazo
+     */
+    String enviar(RegistroServicos.Backend backend, String linha) throws IOException {
+        Cliente cliente = cliente(backend);
+        try {
+            return cliente.enviar(linha);
+        } catch (IOException e) {
+            if (clientes.remove(backend.getEndereco(), cliente)) {
+                cliente.fechar();
+            }
+            throw e;
+        }
+    }
+
+    private Cliente cliente(RegistroServicos.Backend backend) throws IOException {
+        Cliente cliente = clientes.get(backend.getEndereco());
+        if (cliente != null) {
+            return cliente;
+        }
+        synchronized (this) {
+            cliente = clientes.get(backend.getEndereco());
+            if (cliente == null) {
+                cliente = new Cliente(CanalMemoria.abrir(CanalMemoria.caminho(backend.protocolo, backend.porta)), backend.getEndereco());
+                clientes.put(backend.getEndereco(), cliente);
+                logger.info("Canal de memória aberto com {}", backend);
+            }
+            return cliente;
+        }
+    }
+
+    private static final class Cliente {
+        final CanalMemoria canal;
+        final Map<Long, CompletableFuture<String>> pendentes = new ConcurrentHashMap<>();
+        // Começa num ponto aleatório: respostas deixadas no anel por um gateway anterior não casam com as novas
+        final AtomicLong sequencia = new AtomicLong(ThreadLocalRandom.current().nextLong());
+        volatile boolean fechado;
+
+        Cliente(CanalMemoria canal, String endereco) {
+            this.canal = canal;
+            Thread leitor = new Thread(this::ler, "memoria-" + endereco);
+            leitor.setDaemon(true);
+            leitor.start();
+        }
+
+        String enviar(String linha) throws IOException {
+            long seq = sequencia.incrementAndGet();
+            CompletableFuture<String> resposta = new CompletableFuture<>();
+            pendentes.put(seq, resposta);
+            try {
+                escrever(seq, linha);
+                return resposta.get(PRAZO_NANOS, TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                throw new IOException("Sem resposta pelo canal de memória em " + TimeUnit.NANOSECONDS.toMillis(PRAZO_NANOS) + " ms");
+            } catch (ExecutionException e) {
+                throw new IOException(e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrompido aguardando o canal de memória.");
+            } finally {
+                pendentes.remove(seq);
+            }
+        }
+
+        // Um produtor por vez; com o anel cheio, gira um pouco à espera do handler antes de desistir
+        private synchronized void escrever(long seq, String linha) throws IOException {
+            long prazo = System.nanoTime() + ESPERA_ESPACO_NANOS;
+            while (!canal.enviar(seq, linha)) {
+                if (fechado || System.nanoTime() > prazo) {
+                    throw new IOException("Anel de requisições cheio");
+                }
+                Thread.onSpinWait();
+            }
+        }
+
+        private void ler() {
+            try {
+                while (!fechado) {
+                    CanalMemoria.Mensagem mensagem = canal.receber();
+                    CompletableFuture<String> resposta = pendentes.get(mensagem.seq());
+                    if (resposta != null) {
+                        resposta.complete(mensagem.texto());
+                    }
+                }
+            } catch (IOException e) {
+                if (!fechado) {
+                    logger.warn("Leitura do canal de memória interrompida: {}", e.getMessage());
+                }
+            }
+            for (CompletableFuture<String> resposta : pendentes.values()) {
+                resposta.completeExceptionally(new IOException("Canal de memória fechado"));
+            }
+        }
+
+        void fechar() {
+            fechado = true;
+            canal.close();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package log;
+
+import metricas.Rastro;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Amostragem dos logs por requisição no caminho quente.
+ *
+ * A decisão sai do id de rastreamento, que atravessa gateway e handler:
+ * uma requisição amostrada tem todas as suas linhas registradas, nos dois
+ * processos, e as demais não têm nenhuma. Sem id (rastreamento desligado,
+ * healthchecks), a decisão é aleatória na mesma proporção.
+ *
+ * Propriedade leilao.log.amostragem: registra 1 a cada N requisições
+ * (padrão 16; 1 registra todas). Erros e avisos nunca são amostrados.
+ */
+public final class Amostragem {
+    private static final int TAXA = Math.max(1, Integer.getInteger("leilao.log.amostragem", 16));
+
+    private Amostragem() {
+    }
+
+    // Requisições sem id (healthchecks): sorteio na mesma proporção
+    public static boolean amostrada() {
+        return TAXA == 1 || ThreadLocalRandom.current().nextInt(TAXA) == 0;
+    }
+
+    public static boolean amostrada(Rastro rastro) {
+        return amostrada(rastro != null ? rastro.getId() : null);
+    }
+
+    public static boolean amostrada(String idRequisicao) {
+        if (TAXA == 1) {
+            return true;
+        }
+        if (idRequisicao == null) {
+            return amostrada();
+        }
+        // Espalha o hash: ids hexadecimais parecidos não caem sempre no mesmo resto
+        return Math.floorMod(idRequisicao.hashCode() * 0x9E3779B9, TAXA) == 0;
+    }
+}
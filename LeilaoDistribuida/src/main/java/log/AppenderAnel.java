@@ -0,0 +1,322 @@
+package log;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.OutputStreamAppender;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import ch.qos.logback.core.spi.AppenderAttachable;
+import ch.qos.logback.core.spi.AppenderAttachableImpl;
+import metricas.Contador;
+import metricas.Metricas;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Appender assíncrono: a thread da requisição só publica o evento num anel
+ * de capacidade fixa e uma thread escritora dedicada o repassa aos
+ * appenders filhos (console, arquivo). A formatação da saída e a E/S saem
+ * do caminho da requisição.
+ *
+ * O anel é um buffer circular com um número de sequência por posição
+ * (vários produtores, um consumidor); publicar é um CAS e não trava. Com o
+ * anel cheio vale a política configurada:
+ *
+ * - descartarInfo (padrão): INFO e abaixo são descartados na hora; WARN e
+ *   ERROR esperam vaga por até esperaMaxima ms antes de serem descartados.
+ * - descartar: qualquer evento é descartado.
+ * - bloquear: a requisição espera a vaga (nenhum evento se perde).
+ *
+ * Descartes são contados em leilao_log_descartados_total e resumidos pela
+ * escritora num WARN periódico. Com assincrono=false o anel não é criado e
+ * os eventos vão direto aos filhos, na thread de quem registrou (o modo
+ * antigo). Configuração em logback.xml:
+ *
+ *   <appender name="ASSINCRONO" class="log.AppenderAnel">
+ *       <assincrono>true</assincrono>
+ *       <capacidade>8192</capacidade>
+ *       <politica>descartarInfo</politica>
+ *       <appender-ref ref="STDOUT"/>
+ *   </appender>
+ */
+public class AppenderAnel extends UnsynchronizedAppenderBase<ILoggingEvent> implements AppenderAttachable<ILoggingEvent> {
+    private static final long ESPERA_ESCRITORA_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long INTERVALO_RESUMO_NANOS = TimeUnit.SECONDS.toNanos(10);
+    private static final long TIMEOUT_PARADA_MILLIS = 2000;
+
+    private final AppenderAttachableImpl<ILoggingEvent> filhos = new AppenderAttachableImpl<>();
+
+    private boolean assincrono = true;
+    private int capacidade = 8192;
+    private String politica = "descartarInfo";
+    private long esperaMaxima = 100;
+
+    private ILoggingEvent[] eventos;
+    private AtomicLongArray sequencias;
+    private int mascara;
+    private final AtomicLong cauda = new AtomicLong(); // Próxima posição a publicar (produtores)
+    private volatile long cabeca;                      // Próxima posição a ler (só a escritora avança)
+
+    private Thread escritora;
+    private volatile boolean dormindo;
+    private volatile boolean parando;
+
+    private final AtomicLong descartados = new AtomicLong();
+    private Contador descartadosMetrica;
+
+    public void setAssincrono(boolean assincrono) {
+        this.assincrono = assincrono;
+    }
+
+    public void setCapacidade(int capacidade) {
+        this.capacidade = capacidade;
+    }
+
+    public void setPolitica(String politica) {
+        this.politica = politica;
+    }
+
+    public void setEsperaMaxima(long esperaMaxima) {
+        this.esperaMaxima = esperaMaxima;
+    }
+
+    @Override
+    public void start() {
+        if (!filhos.iteratorForAppenders().hasNext()) {
+            addError("Nenhum appender associado a " + name + ".");
+            return;
+        }
+        if (!politica.equals("descartarInfo") && !politica.equals("descartar") && !politica.equals("bloquear")) {
+            addError("Política desconhecida: " + politica + " (use descartarInfo, descartar ou bloquear).");
+            return;
+        }
+        if (!assincrono) {
+            super.start();
+            return;
+        }
+
+        int tamanho = Integer.highestOneBit(Math.max(2, capacidade - 1) << 1);
+        eventos = new ILoggingEvent[tamanho];
+        sequencias = new AtomicLongArray(tamanho);
+        for (int i = 0; i < tamanho; i++) {
+            sequencias.set(i, i);
+        }
+        mascara = tamanho - 1;
+
+        descartadosMetrica = Metricas.contador("leilao_log_descartados_total",
+                "Eventos de log descartados com o anel assíncrono cheio", "appender", name);
+        Metricas.medidor("leilao_log_fila", "Eventos de log aguardando a thread escritora",
+                () -> cauda.get() - cabeca, "appender", name);
+
+        escritora = new Thread(this::escrever, "log-escritor-" + name);
+        escritora.setDaemon(true);
+        super.start();
+        escritora.start();
+    }
+
+    @Override
+    public void stop() {
+        if (!isStarted()) {
+            return;
+        }
+        super.stop();
+        if (escritora == null) {
+            filhos.detachAndStopAllAppenders();
+            return;
+        }
+        parando = true;
+        LockSupport.unpark(escritora);
+        try {
+            escritora.join(TIMEOUT_PARADA_MILLIS);
+            if (escritora.isAlive()) {
+                addWarn("Thread escritora de " + name + " não terminou em " + TIMEOUT_PARADA_MILLIS + " ms; eventos pendentes perdidos.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        filhos.detachAndStopAllAppenders();
+    }
+
+    @Override
+    protected void append(ILoggingEvent evento) {
+        if (escritora == null) {
+            filhos.appendLoopOnAppenders(evento);
+            return;
+        }
+
+        boolean podeEsperar = politica.equals("bloquear")
+                || (politica.equals("descartarInfo") && evento.getLevel().isGreaterOrEqual(Level.WARN));
+
+        // Anel cheio e sem espera: descarta antes de pagar pela formatação
+        if (!podeEsperar && cheio()) {
+            descartar();
+            return;
+        }
+
+        // Congela mensagem, thread e MDC: o evento será escrito por outra thread
+        evento.prepareForDeferredProcessing();
+        if (publicar(evento)) {
+            return;
+        }
+        if (!podeEsperar || !esperarPublicar(evento)) {
+            descartar();
+        }
+    }
+
+    private boolean esperarPublicar(ILoggingEvent evento) {
+        long limite = politica.equals("bloquear") ? Long.MAX_VALUE : System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(esperaMaxima);
+        while (System.nanoTime() < limite && isStarted()) {
+            LockSupport.parkNanos(50_000);
+            if (publicar(evento)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void descartar() {
+        descartados.incrementAndGet();
+        descartadosMetrica.incrementar();
+    }
+
+    private boolean cheio() {
+        return cauda.get() - cabeca >= eventos.length;
+    }
+
+    private boolean publicar(ILoggingEvent evento) {
+        long posicao = cauda.get();
+        while (true) {
+            int indice = (int) (posicao & mascara);
+            long diferenca = sequencias.get(indice) - posicao;
+            if (diferenca == 0) {
+                if (cauda.compareAndSet(posicao, posicao + 1)) {
+                    eventos[indice] = evento;
+                    sequencias.set(indice, posicao + 1); // Libera a posição para a escritora
+                    if (dormindo) {
+                        LockSupport.unpark(escritora);
+                    }
+                    return true;
+                }
+                posicao = cauda.get();
+            } else if (diferenca < 0) {
+                return false; // A escritora ainda não liberou esta posição: anel cheio
+            } else {
+                posicao = cauda.get();
+            }
+        }
+    }
+
+    private ILoggingEvent retirar() {
+        int indice = (int) (cabeca & mascara);
+        if (sequencias.get(indice) != cabeca + 1) {
+            return null;
+        }
+        ILoggingEvent evento = eventos[indice];
+        eventos[indice] = null;
+        sequencias.set(indice, cabeca + eventos.length);
+        cabeca++;
+        return evento;
+    }
+
+    // Laço da thread escritora
+    private void escrever() {
+        long descartadosResumidos = 0;
+        long proximoResumo = System.nanoTime() + INTERVALO_RESUMO_NANOS;
+
+        while (true) {
+            ILoggingEvent evento = retirar();
+            if (evento != null) {
+                filhos.appendLoopOnAppenders(evento);
+                continue;
+            }
+
+            // Anel vazio: um flush cobre todos os eventos escritos desde o último
+            descarregarFilhos();
+
+            if (System.nanoTime() - proximoResumo >= 0) {
+                descartadosResumidos = resumirDescartes(descartadosResumidos);
+                proximoResumo = System.nanoTime() + INTERVALO_RESUMO_NANOS;
+            }
+            if (parando) {
+                resumirDescartes(descartadosResumidos);
+                return;
+            }
+
+            // Dorme até um produtor publicar; a nova checagem evita perder um unpark
+            dormindo = true;
+            if (sequencias.get((int) (cabeca & mascara)) != cabeca + 1 && !parando) {
+                LockSupport.parkNanos(ESPERA_ESCRITORA_NANOS);
+            }
+            dormindo = false;
+        }
+    }
+
+    // Filhos com immediateFlush=false (arquivo) só gravam quando a escritora fica ociosa
+    private void descarregarFilhos() {
+        Iterator<Appender<ILoggingEvent>> iterador = filhos.iteratorForAppenders();
+        while (iterador.hasNext()) {
+            if (iterador.next() instanceof OutputStreamAppender<ILoggingEvent> saida
+                    && !saida.isImmediateFlush() && saida.isStarted() && saida.getOutputStream() != null) {
+                try {
+                    saida.getOutputStream().flush();
+                } catch (IOException e) {
+                    addError("Falha ao descarregar " + saida.getName(), e);
+                }
+            }
+        }
+    }
+
+    private long resumirDescartes(long jaResumidos) {
+        long total = descartados.get();
+        if (total > jaResumidos) {
+            LoggerContext contexto = (LoggerContext) getContext();
+            LoggingEvent aviso = new LoggingEvent(AppenderAnel.class.getName(), contexto.getLogger(AppenderAnel.class),
+                    Level.WARN, "{} eventos de log descartados com o anel cheio (capacidade {}).", null,
+                    new Object[]{total - jaResumidos, eventos.length});
+            filhos.appendLoopOnAppenders(aviso);
+        }
+        return total;
+    }
+
+    @Override
+    public void addAppender(Appender<ILoggingEvent> appender) {
+        filhos.addAppender(appender);
+    }
+
+    @Override
+    public Iterator<Appender<ILoggingEvent>> iteratorForAppenders() {
+        return filhos.iteratorForAppenders();
+    }
+
+    @Override
+    public Appender<ILoggingEvent> getAppender(String nome) {
+        return filhos.getAppender(nome);
+    }
+
+    @Override
+    public boolean isAttached(Appender<ILoggingEvent> appender) {
+        return filhos.isAttached(appender);
+    }
+
+    @Override
+    public void detachAndStopAllAppenders() {
+        filhos.detachAndStopAllAppenders();
+    }
+
+    @Override
+    public boolean detachAppender(Appender<ILoggingEvent> appender) {
+        return filhos.detachAppender(appender);
+    }
+
+    @Override
+    public boolean detachAppender(String nome) {
+        return filhos.detachAppender(nome);
+    }
+}
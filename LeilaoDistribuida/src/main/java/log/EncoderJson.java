@@ -0,0 +1,96 @@
+package log;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import ch.qos.logback.core.encoder.EncoderBase;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Um objeto JSON por linha (JSON Lines), para os arquivos rotacionados:
+ *
+ *   {"ts":1697650000123,"nivel":"INFO","thread":"main","logger":"protocol.TCPHandler",
+ *    "msg":"...","mdc":{...},"excecao":"..."}
+ *
+ * ts é o instante em milissegundos desde a época; mdc e excecao só
+ * aparecem quando existem. Cada linha pode ser lida isoladamente, então um
+ * arquivo cortado pela rotação continua legível.
+ */
+public class EncoderJson extends EncoderBase<ILoggingEvent> {
+
+    @Override
+    public byte[] headerBytes() {
+        return null;
+    }
+
+    @Override
+    public byte[] encode(ILoggingEvent evento) {
+        StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"ts\":").append(evento.getTimeStamp());
+        campo(sb, "nivel", evento.getLevel().toString());
+        campo(sb, "thread", evento.getThreadName());
+        campo(sb, "logger", evento.getLoggerName());
+        campo(sb, "msg", evento.getFormattedMessage());
+
+        Map<String, String> mdc = evento.getMDCPropertyMap();
+        if (mdc != null && !mdc.isEmpty()) {
+            sb.append(",\"mdc\":{");
+            boolean primeiro = true;
+            for (Map.Entry<String, String> entrada : mdc.entrySet()) {
+                if (!primeiro) {
+                    sb.append(',');
+                }
+                texto(sb, entrada.getKey());
+                sb.append(':');
+                texto(sb, entrada.getValue());
+                primeiro = false;
+            }
+            sb.append('}');
+        }
+
+        IThrowableProxy excecao = evento.getThrowableProxy();
+        if (excecao != null) {
+            campo(sb, "excecao", ThrowableProxyUtil.asString(excecao));
+        }
+        sb.append("}\n");
+        return sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] footerBytes() {
+        return null;
+    }
+
+    private static void campo(StringBuilder sb, String nome, String valor) {
+        sb.append(",\"").append(nome).append("\":");
+        texto(sb, valor);
+    }
+
+    private static void texto(StringBuilder sb, String valor) {
+        if (valor == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+}
@@ -0,0 +1,23 @@
+package metricas;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contador monotônico. LongAdder espalha as escritas concorrentes em células
+ * separadas; depois de criadas, incrementar não aloca nem trava.
+ */
+public class Contador {
+    private final LongAdder valor = new LongAdder();
+
+    public void incrementar() {
+        valor.increment();
+    }
+
+    public void somar(long quantidade) {
+        valor.add(quantidade);
+    }
+
+    public long getValor() {
+        return valor.sum();
+    }
+}
@@ -0,0 +1,30 @@
+package metricas;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+// Execução de processarBatch em um handler
+@Name("leilao.Batch")
+@Label("Processamento do batch")
+@Category({"Leilão", "Handler"})
+@Description("Uma execução de processarBatch")
+@StackTrace(false)
+public class EventoBatch extends Event {
+    @Label("Protocolo")
+    public String protocolo;
+
+    @Label("Requisições")
+    public int tamanho;
+
+    @Label("Lances")
+    public int lances;
+
+    @Label("Maior espera na fila")
+    @Timespan(Timespan.NANOSECONDS)
+    public long esperaMaxima;
+}
@@ -0,0 +1,45 @@
+package metricas;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Um comando JDBC do BancoDados (execute, executeBatch ou commit).
+ *
+ * Uso: EventoComandoBD evento = EventoComandoBD.iniciar("inserirLance", idItem);
+ * ... executar ...; evento.concluir(linhas). Sem gravação ativa, shouldCommit()
+ * é falso e nenhum campo é preenchido.
+ */
+@Name("leilao.ComandoBD")
+@Label("Comando JDBC")
+@Category({"Leilão", "Banco de dados"})
+@Description("Execução de um comando no PostgreSQL")
+public class EventoComandoBD extends Event {
+    @Label("Operação")
+    public String operacao;
+
+    @Label("Id do item")
+    public int idItem;
+
+    @Label("Linhas")
+    public int linhas;
+
+    public static EventoComandoBD iniciar(String operacao, int idItem) {
+        EventoComandoBD evento = new EventoComandoBD();
+        evento.operacao = operacao;
+        evento.idItem = idItem;
+        evento.begin();
+        return evento;
+    }
+
+    public void concluir(int linhas) {
+        end();
+        if (shouldCommit()) {
+            this.linhas = linhas;
+            commit();
+        }
+    }
+}
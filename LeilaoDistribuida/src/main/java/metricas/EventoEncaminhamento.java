@@ -0,0 +1,34 @@
+package metricas;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Ida e volta de um comando do gateway até o handler (enviarParaServidorInterno*)
+@Name("leilao.Encaminhamento")
+@Label("Encaminhamento")
+@Category({"Leilão", "Gateway"})
+@Description("Envio de um comando ao handler e espera pela resposta")
+public class EventoEncaminhamento extends Event {
+    @Label("Protocolo")
+    public String protocolo;
+
+    @Label("Host do backend")
+    public String host;
+
+    @Label("Porta do backend")
+    public int porta;
+
+    @Label("Id da requisição")
+    public String idRequisicao;
+
+    @Label("Bytes enviados")
+    @DataAmount
+    public int bytes;
+
+    @Label("Sucesso")
+    public boolean sucesso;
+}
@@ -0,0 +1,25 @@
+package metricas;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+// Entrada de uma requisição na fila do batch de um handler (evento instantâneo)
+@Name("leilao.Enfileiramento")
+@Label("Enfileiramento no batch")
+@Category({"Leilão", "Handler"})
+@Description("Requisição adicionada ao requestBatch")
+@StackTrace(false)
+public class EventoEnfileiramento extends Event {
+    @Label("Protocolo")
+    public String protocolo;
+
+    @Label("Tamanho da fila")
+    public int tamanhoFila;
+
+    @Label("Id da requisição")
+    public String idRequisicao;
+}
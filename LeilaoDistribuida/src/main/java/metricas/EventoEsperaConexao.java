@@ -0,0 +1,17 @@
+package metricas;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Espera por uma conexão do pool do Hikari (dataSource.getConnection)
+@Name("leilao.EsperaConexao")
+@Label("Espera por conexão")
+@Category({"Leilão", "Banco de dados"})
+@Description("Tempo bloqueado aguardando uma conexão do pool")
+public class EventoEsperaConexao extends Event {
+    @Label("Operação")
+    public String operacao;
+}
@@ -0,0 +1,26 @@
+package metricas;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+// Escolha de backend no instantâneo do registro (Gateway.rotear)
+@Name("leilao.Roteamento")
+@Label("Roteamento")
+@Category({"Leilão", "Gateway"})
+@Description("Escolha do backend pelo round-robin ponderado do gateway")
+public class EventoRoteamento extends Event {
+    @Label("Protocolo")
+    public String protocolo;
+
+    @Label("Host do backend")
+    public String host;
+
+    @Label("Porta escolhida")
+    public int porta;
+
+    @Label("Backends registrados")
+    public int backends;
+}
@@ -0,0 +1,102 @@
+package metricas;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histograma log-linear no estilo HDR, sem travas e sem alocação no registro.
+ *
+ * Valores até 15 têm um balde cada; acima disso, cada potência de 2 é
+ * dividida em 16 baldes, o que dá erro relativo de no máximo ~6% em toda
+ * a faixa de um long. Registrar um valor é um cálculo de índice e um
+ * incremento atômico; os quantis só são calculados na leitura (scrape).
+ */
+public class Histograma {
+    private static final int BITS_SUB = 4;
+    private static final int SUB = 1 << BITS_SUB;
+    private static final int BALDES = SUB + (63 - BITS_SUB) * SUB;
+
+    private final AtomicLongArray baldes = new AtomicLongArray(BALDES);
+    private final AtomicLong soma = new AtomicLong();
+    private final AtomicLong total = new AtomicLong();
+    private final double escala;
+
+    /**
+     * @param escala Divisor aplicado na exportação (ex.: 1e9 para nanossegundos -> segundos)
+     */
+    public Histograma(double escala) {
+        this.escala = escala;
+    }
+
+    public void registrar(long valor) {
+        if (valor < 0) {
+            valor = 0;
+        }
+        baldes.incrementAndGet(indice(valor));
+        soma.addAndGet(valor);
+        total.incrementAndGet();
+    }
+
+    // Registra o tempo decorrido desde um instante obtido com System.nanoTime()
+    public void registrarDesde(long inicioNanos) {
+        registrar(System.nanoTime() - inicioNanos);
+    }
+
+    static int indice(long valor) {
+        if (valor < SUB) {
+            return (int) valor;
+        }
+        int expoente = 63 - Long.numberOfLeadingZeros(valor); // >= BITS_SUB
+        int mantissa = (int) (valor >>> (expoente - BITS_SUB)) & (SUB - 1);
+        return SUB + (expoente - BITS_SUB) * SUB + mantissa;
+    }
+
+    // Maior valor que cai no balde
+    static long limiteSuperior(int indice) {
+        if (indice < SUB) {
+            return indice;
+        }
+        int expoente = (indice - SUB) / SUB + BITS_SUB;
+        int mantissa = (indice - SUB) % SUB;
+        long largura = 1L << (expoente - BITS_SUB);
+        return ((long) (SUB + mantissa) << (expoente - BITS_SUB)) + largura - 1;
+    }
+
+    public long getTotal() {
+        return total.get();
+    }
+
+    public double getSoma() {
+        return soma.get() / escala;
+    }
+
+    /**
+     * Calcula vários quantis numa única passada sobre os baldes.
+     *
+     * @param quantis Quantis em ordem crescente (ex.: 0.5, 0.99)
+     * @return Valores na unidade de exportação
+     */
+    public double[] quantis(double... quantis) {
+        long[] copia = new long[BALDES];
+        long contagem = 0;
+        for (int i = 0; i < BALDES; i++) {
+            copia[i] = baldes.get(i);
+            contagem += copia[i];
+        }
+
+        double[] resultado = new double[quantis.length];
+        if (contagem == 0) {
+            return resultado;
+        }
+
+        int q = 0;
+        long acumulado = 0;
+        for (int i = 0; i < BALDES && q < quantis.length; i++) {
+            acumulado += copia[i];
+            while (q < quantis.length && acumulado >= Math.ceil(quantis[q] * contagem)) {
+                resultado[q++] = limiteSuperior(i) / escala;
+            }
+        }
+        return resultado;
+    }
+}
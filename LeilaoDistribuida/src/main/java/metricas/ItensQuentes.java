@@ -0,0 +1,163 @@
+package metricas;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Detecção de itens quentes: os poucos leilões que concentram os lances
+ * recentes (tipicamente nos minutos finais).
+ *
+ * Cada lance conta num count-min sketch de PROFUNDIDADE linhas de LARGURA
+ * contadores, com atualização conservadora (só sobem os contadores no
+ * mínimo). A cada janela todos os contadores caem pela metade, então a
+ * estimativa de um item é a sua contagem de lances com peso que decai com a
+ * idade. O item esquenta quando a estimativa atinge o limiar e esfria quando
+ * cai abaixo da metade dele; no máximo "maximo" itens ficam quentes ao mesmo
+ * tempo, e um novo só entra no lugar do menos disputado. O sketch tem
+ * tamanho fixo e só erra para cima: um item frio que colide com um quente
+ * pode passar por quente, nunca o contrário.
+ *
+ * Há um detector por origem (o gateway e cada handler), todos listados em
+ * /quentes. Propriedades leilao.quentes.*: janela (ms, padrão 1000), limiar
+ * (lances, padrão 64) e maximo (itens quentes, padrão 16).
+ */
+public final class ItensQuentes {
+    private static final int PROFUNDIDADE = 4;
+    private static final int BITS_LARGURA = 10;
+    private static final int LARGURA = 1 << BITS_LARGURA;
+    private static final int[] SEMENTES = {0x9E3779B1, 0x85EBCA77, 0xC2B2AE3D, 0x27D4EB2F}; // Ímpares: hash multiplicativo
+
+    private static final long JANELA_NANOS = TimeUnit.MILLISECONDS.toNanos(Math.max(1, Long.getLong("leilao.quentes.janela", 1000)));
+    private static final int LIMIAR = Math.max(2, Integer.getInteger("leilao.quentes.limiar", 64));
+    private static final int MAXIMO = Math.max(1, Integer.getInteger("leilao.quentes.maximo", 16));
+
+    private static final Map<String, ItensQuentes> detectores = new ConcurrentSkipListMap<>();
+
+    private final String origem;
+    private final AtomicIntegerArray contadores = new AtomicIntegerArray(PROFUNDIDADE * LARGURA);
+    private final Map<Integer, Long> quentes = new ConcurrentHashMap<>(); // idItem -> quando esquentou (ms)
+    private final AtomicLong proximoDecaimento = new AtomicLong(System.nanoTime() + JANELA_NANOS);
+    private final Contador lancesQuentes;
+    private final Contador entradas;
+
+    private ItensQuentes(String origem) {
+        this.origem = origem;
+        lancesQuentes = Metricas.contador("leilao_quentes_lances_total",
+                "Lances para itens quentes", "origem", origem);
+        entradas = Metricas.contador("leilao_quentes_entradas_total",
+                "Vezes em que um item passou a quente", "origem", origem);
+        Metricas.medidor("leilao_quentes_itens",
+                "Itens quentes no momento", () -> quentes.size(), "origem", origem);
+    }
+
+    // Detector da origem (ex.: "gateway", "tcp"), criado na primeira chamada
+    public static ItensQuentes de(String origem) {
+        return detectores.computeIfAbsent(origem, ItensQuentes::new);
+    }
+
+    /**
+     * Conta um lance para o item.
+     *
+     * @return true se o item está quente (contando este lance)
+     */
+    public boolean registrar(int idItem) {
+        decair();
+        int minimo = Integer.MAX_VALUE;
+        for (int linha = 0; linha < PROFUNDIDADE; linha++) {
+            minimo = Math.min(minimo, contadores.get(posicao(linha, idItem)));
+        }
+        for (int linha = 0; linha < PROFUNDIDADE; linha++) {
+            contadores.compareAndSet(posicao(linha, idItem), minimo, minimo + 1); // Perder a corrida só subestima um lance
+        }
+
+        if (quentes.containsKey(idItem)) {
+            lancesQuentes.incrementar();
+            return true;
+        }
+        if (minimo + 1 < LIMIAR || !esquentar(idItem, minimo + 1)) {
+            return false;
+        }
+        lancesQuentes.incrementar();
+        return true;
+    }
+
+    public boolean isQuente(int idItem) {
+        return quentes.containsKey(idItem);
+    }
+
+    // Cheio, o novo item só entra no lugar do quente menos disputado
+    private synchronized boolean esquentar(int idItem, int estimativa) {
+        if (quentes.size() >= MAXIMO) {
+            int menor = -1;
+            int menorEstimativa = Integer.MAX_VALUE;
+            for (int id : quentes.keySet()) {
+                int e = estimativa(id);
+                if (e < menorEstimativa) {
+                    menor = id;
+                    menorEstimativa = e;
+                }
+            }
+            if (menorEstimativa >= estimativa) {
+                return false;
+            }
+            quentes.remove(menor);
+        }
+        if (quentes.putIfAbsent(idItem, System.currentTimeMillis()) == null) {
+            entradas.incrementar();
+        }
+        return true;
+    }
+
+    private int estimativa(int idItem) {
+        int minimo = Integer.MAX_VALUE;
+        for (int linha = 0; linha < PROFUNDIDADE; linha++) {
+            minimo = Math.min(minimo, contadores.get(posicao(linha, idItem)));
+        }
+        return minimo;
+    }
+
+    private static int posicao(int linha, int idItem) {
+        return linha * LARGURA + ((idItem * SEMENTES[linha]) >>> (32 - BITS_LARGURA));
+    }
+
+    // Quem passa primeiro do fim da janela divide os contadores, uma vez por janela vencida
+    private void decair() {
+        long agora = System.nanoTime();
+        long proximo = proximoDecaimento.get();
+        if (agora - proximo < 0) {
+            return;
+        }
+        long janelas = (agora - proximo) / JANELA_NANOS + 1;
+        if (!proximoDecaimento.compareAndSet(proximo, proximo + janelas * JANELA_NANOS)) {
+            return;
+        }
+        int deslocamento = (int) Math.min(janelas, 31);
+        for (int i = 0; i < contadores.length(); i++) {
+            contadores.updateAndGet(i, v -> v >>> deslocamento);
+        }
+        quentes.keySet().removeIf(id -> estimativa(id) < LIMIAR / 2);
+    }
+
+    /**
+     * Escreve os itens quentes de todos os detectores do processo, um por
+     * linha: origem, item, estimativa de lances e há quanto tempo está quente.
+     */
+    public static void escrever(Writer out) throws IOException {
+        out.write("# limiar " + LIMIAR + " lances, janela " + TimeUnit.NANOSECONDS.toMillis(JANELA_NANOS) + " ms\n");
+        long agora = System.currentTimeMillis();
+        for (ItensQuentes detector : detectores.values()) {
+            detector.decair();
+            for (Map.Entry<Integer, Long> quente : detector.quentes.entrySet()) {
+                out.write(detector.origem + " item " + quente.getKey() + " ~" + detector.estimativa(quente.getKey())
+                        + " lances, quente há " + (agora - quente.getValue()) + " ms\n");
+            }
+        }
+        out.flush();
+    }
+}
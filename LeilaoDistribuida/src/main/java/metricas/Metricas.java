@@ -0,0 +1,143 @@
+package metricas;
+
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Registro global de métricas do processo (gateway ou handler), exportado
+ * no formato texto do Prometheus.
+ *
+ * As séries são criadas na inicialização (ou na primeira vez que um backend
+ * aparece) e guardadas em campos pelos chamadores; o caminho da requisição
+ * só incrementa histogramas e contadores já existentes.
+ */
+public final class Metricas {
+    private static final Logger logger = LoggerFactory.getLogger(Metricas.class);
+
+    private static final double NANOS_POR_SEGUNDO = 1_000_000_000.0;
+    private static final double[] QUANTIS = {0.5, 0.9, 0.99, 0.999};
+
+    private static final Map<String, Familia> familias = new ConcurrentSkipListMap<>();
+
+    private Metricas() {
+    }
+
+    private static final class Familia {
+        final String ajuda;
+        final String tipo;
+        final Map<String, Object> series = new ConcurrentSkipListMap<>();
+
+        Familia(String ajuda, String tipo) {
+            this.ajuda = ajuda;
+            this.tipo = tipo;
+        }
+    }
+
+    /**
+     * Histograma de durações registradas em nanossegundos e exportadas em segundos.
+     *
+     * @param rotulos Pares nome/valor (ex.: "protocolo", "tcp")
+     */
+    public static Histograma histogramaTempo(String nome, String ajuda, String... rotulos) {
+        return (Histograma) serie(nome, ajuda, "summary", rotulos, () -> new Histograma(NANOS_POR_SEGUNDO));
+    }
+
+    // Histograma de grandezas sem unidade (ex.: tamanho de batch)
+    public static Histograma histograma(String nome, String ajuda, String... rotulos) {
+        return (Histograma) serie(nome, ajuda, "summary", rotulos, () -> new Histograma(1.0));
+    }
+
+    public static Contador contador(String nome, String ajuda, String... rotulos) {
+        return (Contador) serie(nome, ajuda, "counter", rotulos, Contador::new);
+    }
+
+    // Valor lido no momento da exportação (ex.: tamanho de fila, conexões ativas)
+    public static void medidor(String nome, String ajuda, LongSupplier fonte, String... rotulos) {
+        serie(nome, ajuda, "gauge", rotulos, () -> fonte);
+    }
+
+    private static Object serie(String nome, String ajuda, String tipo, String[] rotulos,
+                                Supplier<Object> fabrica) {
+        Familia familia = familias.computeIfAbsent(nome, n -> new Familia(ajuda, tipo));
+        return familia.series.computeIfAbsent(formatarRotulos(rotulos), r -> fabrica.get());
+    }
+
+    private static String formatarRotulos(String[] rotulos) {
+        if (rotulos.length % 2 != 0) {
+            throw new IllegalArgumentException("Rótulos devem ser pares nome/valor.");
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < rotulos.length; i += 2) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(rotulos[i]).append("=\"").append(rotulos[i + 1].replace("\"", "\\\"")).append('"');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Escreve todas as séries no formato texto do Prometheus (versão 0.0.4).
+     */
+    public static void escrever(Writer out) throws IOException {
+        for (Map.Entry<String, Familia> entrada : familias.entrySet()) {
+            String nome = entrada.getKey();
+            Familia familia = entrada.getValue();
+            out.write("# HELP " + nome + " " + familia.ajuda + "\n");
+            out.write("# TYPE " + nome + " " + familia.tipo + "\n");
+
+            for (Map.Entry<String, Object> serie : familia.series.entrySet()) {
+                String rotulos = serie.getKey();
+                Object valor = serie.getValue();
+                if (valor instanceof Histograma histograma) {
+                    double[] quantis = histograma.quantis(QUANTIS);
+                    for (int i = 0; i < QUANTIS.length; i++) {
+                        String comQuantil = (rotulos.isEmpty() ? "" : rotulos + ",") + "quantile=\"" + QUANTIS[i] + "\"";
+                        out.write(nome + "{" + comQuantil + "} " + quantis[i] + "\n");
+                    }
+                    out.write(nome + "_sum" + chaves(rotulos) + " " + histograma.getSoma() + "\n");
+                    out.write(nome + "_count" + chaves(rotulos) + " " + histograma.getTotal() + "\n");
+                } else if (valor instanceof Contador contador) {
+                    out.write(nome + chaves(rotulos) + " " + contador.getValor() + "\n");
+                } else if (valor instanceof LongSupplier fonte) {
+                    out.write(nome + chaves(rotulos) + " " + fonte.getAsLong() + "\n");
+                }
+            }
+        }
+        out.flush();
+    }
+
+    private static String chaves(String rotulos) {
+        return rotulos.isEmpty() ? "" : "{" + rotulos + "}";
+    }
+
+    /**
+     * Sobe um servidor HTTP só com /metrics, /rastros e /quentes, para processos que não falam HTTP
+     * (TCPHandler e UDPHandler). A porta vem de "leilao.metricas.porta" ou,
+     * se ausente, é a porta do handler + 1000.
+     */
+    public static HttpServer iniciarServidor(int portaHandler) {
+        int porta = Integer.getInteger("leilao.metricas.porta", portaHandler + 1000);
+        try {
+            HttpServer server = HttpServer.create(new InetSocketAddress(porta), 0);
+            server.createContext("/metrics", new MetricasHandler());
+            server.createContext("/rastros", new RastrosHandler());
+            server.createContext("/quentes", new QuentesHandler());
+            server.start();
+            logger.info("Métricas disponíveis em http://localhost:{}/metrics", porta);
+            return server;
+        } catch (IOException e) {
+            logger.error("Erro ao iniciar o servidor de métricas na porta {}: {}", porta, e.getMessage());
+            return null;
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package metricas;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Rastreamento de requisições de ponta a ponta.
+ *
+ * O gateway gera o id e o repassa ao handler: no cabeçalho X-Request-Id
+ * (HTTP) ou como primeiro campo "#id;" da linha TCP e do datagrama UDP.
+ * Cada processo guarda seus próprios rastros:
+ * - os MAIS_LENTOS rastros de cada endpoint, sempre (é a cauda que importa
+ *   para o p99.9, então ela não é amostrada);
+ * - 1 em cada AMOSTRAGEM rastros concluídos num anel de CAPACIDADE posições,
+ *   para uma visão das requisições recentes.
+ *
+ * Etapas internas do armazenamento (BancoDados) são marcadas nos rastros
+ * ativos da thread corrente, definidos com ativar() antes da chamada.
+ * Propriedades: leilao.rastreio.desligado, leilao.rastreio.amostragem,
+ * leilao.rastreio.capacidade e leilao.rastreio.lentos.
+ */
+public final class Rastreador {
+    public static final String CABECALHO = "X-Request-Id";
+    private static final char PREFIXO = '#';
+
+    private static final boolean ATIVO = !Boolean.getBoolean("leilao.rastreio.desligado");
+    private static final int AMOSTRAGEM = Math.max(1, Integer.getInteger("leilao.rastreio.amostragem", 16));
+    private static final int CAPACIDADE = Integer.highestOneBit(Math.max(2, Integer.getInteger("leilao.rastreio.capacidade", 1024)));
+    private static final int MAIS_LENTOS = Math.max(1, Integer.getInteger("leilao.rastreio.lentos", 10));
+
+    private static final AtomicReferenceArray<Rastro> anel = new AtomicReferenceArray<>(CAPACIDADE);
+    private static final AtomicLong concluidos = new AtomicLong();
+    private static final AtomicLong posicaoAnel = new AtomicLong();
+    private static final Map<String, MaisLentos> lentosPorEndpoint = new ConcurrentHashMap<>();
+
+    private static final ThreadLocal<List<Rastro>> ativos = ThreadLocal.withInitial(ArrayList::new);
+
+    private Rastreador() {
+    }
+
+    // Os N rastros mais lentos de um endpoint, do mais lento para o mais rápido
+    private static final class MaisLentos {
+        private final Rastro[] rastros = new Rastro[MAIS_LENTOS];
+        private int quantidade;
+        // Duração do mais rápido guardado quando cheio: abaixo dela nem se trava
+        private volatile long limiar = -1;
+
+        void oferecer(Rastro rastro) {
+            long duracao = rastro.getDuracao();
+            if (duracao <= limiar) {
+                return;
+            }
+            synchronized (this) {
+                int posicao = quantidade < rastros.length ? quantidade++ : rastros.length - 1;
+                if (posicao == rastros.length - 1 && rastros[posicao] != null && rastros[posicao].getDuracao() >= duracao) {
+                    return;
+                }
+                while (posicao > 0 && rastros[posicao - 1].getDuracao() < duracao) {
+                    rastros[posicao] = rastros[posicao - 1];
+                    posicao--;
+                }
+                rastros[posicao] = rastro;
+                if (quantidade == rastros.length) {
+                    limiar = rastros[rastros.length - 1].getDuracao();
+                }
+            }
+        }
+
+        synchronized Rastro[] copia() {
+            Rastro[] copia = new Rastro[quantidade];
+            System.arraycopy(rastros, 0, copia, 0, quantidade);
+            return copia;
+        }
+    }
+
+    public static String novoId() {
+        return Long.toHexString(ThreadLocalRandom.current().nextLong() | Long.MIN_VALUE);
+    }
+
+    /**
+     * Abre um rastro. Com id nulo (requisição que não passou pelo gateway),
+     * um id novo é gerado.
+     */
+    public static Rastro iniciar(String id, String endpoint) {
+        if (!ATIVO) {
+            return Rastro.NENHUM;
+        }
+        return new Rastro(id != null ? id : novoId(), endpoint);
+    }
+
+    static void concluido(Rastro rastro) {
+        lentosPorEndpoint.computeIfAbsent(rastro.getEndpoint(), e -> new MaisLentos()).oferecer(rastro);
+        if (concluidos.getAndIncrement() % AMOSTRAGEM == 0) {
+            anel.set((int) (posicaoAnel.getAndIncrement() & (CAPACIDADE - 1)), rastro);
+        }
+    }
+
+    // Define os rastros atendidos pela operação que a thread corrente vai executar
+    public static void ativar(Rastro rastro) {
+        List<Rastro> lista = ativos.get();
+        lista.clear();
+        lista.add(rastro);
+    }
+
+    public static void ativar(List<Rastro> rastros) {
+        List<Rastro> lista = ativos.get();
+        lista.clear();
+        lista.addAll(rastros);
+    }
+
+    public static void desativar() {
+        ativos.get().clear();
+    }
+
+    // Marca uma etapa em todos os rastros ativos da thread (sem efeito se não houver)
+    public static void marcarAtivos(String etapa) {
+        List<Rastro> lista = ativos.get();
+        for (int i = 0; i < lista.size(); i++) {
+            lista.get(i).marcar(etapa);
+        }
+    }
+
+    // "#id;comando" para TCP e UDP (sem id, o comando segue como está)
+    public static String prefixar(String id, String comando) {
+        return id == null ? comando : PREFIXO + id + ";" + comando;
+    }
+
+    // Id de uma mensagem "#id;comando", ou null se a mensagem não tiver id
+    public static String idDe(String mensagem) {
+        if (mensagem.isEmpty() || mensagem.charAt(0) != PREFIXO) {
+            return null;
+        }
+        int separador = mensagem.indexOf(';');
+        return separador > 1 ? mensagem.substring(1, separador) : null;
+    }
+
+    public static String semId(String mensagem) {
+        if (mensagem.isEmpty() || mensagem.charAt(0) != PREFIXO) {
+            return mensagem;
+        }
+        int separador = mensagem.indexOf(';');
+        return separador >= 0 ? mensagem.substring(separador + 1) : "";
+    }
+
+    /**
+     * Escreve os mais lentos de cada endpoint e os recentes amostrados.
+     * Com filtroId, apenas os rastros daquele id.
+     */
+    public static void escrever(Writer out, String filtroId) throws IOException {
+        out.write("# mais lentos por endpoint (etapa +ms desde a etapa anterior)\n");
+        for (Map.Entry<String, MaisLentos> entrada : new ConcurrentSkipListMap<>(lentosPorEndpoint).entrySet()) {
+            out.write("== " + entrada.getKey() + " ==\n");
+            for (Rastro rastro : entrada.getValue().copia()) {
+                if (filtroId == null || filtroId.equals(rastro.getId())) {
+                    rastro.escrever(out);
+                }
+            }
+        }
+
+        out.write("# recentes (1 a cada " + AMOSTRAGEM + ")\n");
+        long fim = posicaoAnel.get();
+        for (long i = Math.max(0, fim - CAPACIDADE); i < fim; i++) {
+            Rastro rastro = anel.get((int) (i & (CAPACIDADE - 1)));
+            if (rastro != null && (filtroId == null || filtroId.equals(rastro.getId()))) {
+                rastro.escrever(out);
+            }
+        }
+    }
+}
@@ -0,0 +1,83 @@
+package metricas;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+
+/**
+ * Linha do tempo de uma requisição dentro de um processo: o instante de
+ * início e as etapas marcadas por onde ela passou. O mesmo id atravessa o
+ * gateway e o handler, então os rastros dos dois processos podem ser
+ * cruzados pelo id.
+ */
+public final class Rastro {
+    private static final int MAX_ETAPAS = 12;
+
+    // Rastro vazio devolvido quando o rastreamento está desligado (sem id, nada é propagado)
+    static final Rastro NENHUM = new Rastro(null, "-");
+
+    private final String id;
+    private final String endpoint;
+    private final long inicio = System.nanoTime();
+    private final long inicioMillis = System.currentTimeMillis();
+    private final String[] etapas = new String[MAX_ETAPAS];
+    private final long[] instantes = new long[MAX_ETAPAS];
+    private int quantidade;
+    private volatile long duracao = -1;
+
+    Rastro(String id, String endpoint) {
+        this.id = id;
+        this.endpoint = endpoint;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getEndpoint() {
+        return endpoint;
+    }
+
+    // Duração total em nanossegundos, ou -1 se ainda não concluído
+    public long getDuracao() {
+        return duracao;
+    }
+
+    // As etapas podem ser marcadas por threads diferentes (recepção e batch)
+    public void marcar(String etapa) {
+        if (this == NENHUM) {
+            return;
+        }
+        synchronized (this) {
+            if (quantidade < MAX_ETAPAS) {
+                etapas[quantidade] = etapa;
+                instantes[quantidade] = System.nanoTime();
+                quantidade++;
+            }
+        }
+    }
+
+    public void concluir() {
+        if (this == NENHUM || duracao >= 0) {
+            return;
+        }
+        duracao = System.nanoTime() - inicio;
+        Rastreador.concluido(this);
+    }
+
+    // Ex.: 3f9a... tcp:registrarLance 12.480ms @1700000000000 | enfileirada +0.041 | batch +9.870 | ... | fim +0.210
+    synchronized void escrever(Writer out) throws IOException {
+        out.write(id);
+        out.write(' ');
+        out.write(endpoint);
+        out.write(String.format(Locale.ROOT, " %.3fms @%d", duracao / 1e6, inicioMillis));
+        long anterior = inicio;
+        for (int i = 0; i < quantidade; i++) {
+            // Tempo gasto desde a etapa anterior, em milissegundos
+            out.write(String.format(Locale.ROOT, " | %s +%.3f", etapas[i], (instantes[i] - anterior) / 1e6));
+            anterior = instantes[i];
+        }
+        out.write(String.format(Locale.ROOT, " | fim +%.3f", (inicio + duracao - anterior) / 1e6));
+        out.write('\n');
+    }
+}
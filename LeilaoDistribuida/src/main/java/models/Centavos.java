@@ -0,0 +1,46 @@
+package models;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Conversões de valores monetários para ponto fixo em centavos (long).
+ * Comparações de lances feitas em centavos são exatas, ao contrário de double.
+ */
+public final class Centavos {
+
+    private Centavos() {
+    }
+
+    // Converte um valor decimal em centavos, arredondando para o centavo mais próximo
+    public static long deValor(double valor) {
+        return Math.round(valor * 100.0);
+    }
+
+    /**
+     * Converte um valor textual (ex.: "10.05") em centavos sem passar por
+     * double. Os handlers leem assim os valores dos comandos: o arredondamento
+     * para o centavo vale para o texto que o cliente enviou.
+     *
+     * @throws NumberFormatException se o texto não for um número ou não couber em centavos
+     */
+    public static long deTexto(String valor) {
+        try {
+            return new BigDecimal(valor.trim()).setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+        } catch (ArithmeticException e) {
+            throw new NumberFormatException("Valor fora do limite: " + valor);
+        }
+    }
+
+    public static long deDecimal(BigDecimal valor) {
+        return valor == null ? 0L : valor.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact();
+    }
+
+    public static double paraValor(long centavos) {
+        return centavos / 100.0;
+    }
+
+    public static BigDecimal paraDecimal(long centavos) {
+        return BigDecimal.valueOf(centavos, 2);
+    }
+}
@@ -1,20 +1,27 @@
 package models;
 
+// Visão de um item lido do armazenamento; os valores ficam em centavos (ponto fixo)
 public class ItemLeilao {
     private int id;
     private String nome;
     private String descricao;
-    private double precoInicial;
-    private double maiorLance;
+    private long precoInicialCentavos;
+    private long maiorLanceCentavos;
     private String clienteMaiorLance;
+    private long encerraEm; // Instante de encerramento em milissegundos (0 = sem prazo)
 
-    public ItemLeilao(int id, String nome, String descricao, double precoInicial, double maiorLance, String clienteMaiorLance) {
+    public ItemLeilao(int id, String nome, String descricao, long precoInicialCentavos, long maiorLanceCentavos, String clienteMaiorLance) {
+        this(id, nome, descricao, precoInicialCentavos, maiorLanceCentavos, clienteMaiorLance, 0L);
+    }
+
+    public ItemLeilao(int id, String nome, String descricao, long precoInicialCentavos, long maiorLanceCentavos, String clienteMaiorLance, long encerraEm) {
         this.id = id;
         this.nome = nome;
         this.descricao = descricao;
-        this.precoInicial = precoInicial;
-        this.maiorLance = maiorLance;
+        this.precoInicialCentavos = precoInicialCentavos;
+        this.maiorLanceCentavos = maiorLanceCentavos;
         this.clienteMaiorLance = clienteMaiorLance;
+        this.encerraEm = encerraEm;
     }
 
     // Getters e Setters
@@ -31,20 +38,24 @@ public class ItemLeilao {
         return descricao;
     }
 
-    public double getPrecoInicial() {
-        return precoInicial;
+    public long getPrecoInicialCentavos() {
+        return precoInicialCentavos;
     }
 
-    public double getMaiorLance() {
-        return maiorLance;
+    public long getMaiorLanceCentavos() {
+        return maiorLanceCentavos;
     }
 
     public String getClienteMaiorLance() {
         return clienteMaiorLance;
     }
 
-    public void setMaiorLance(double maiorLance) {
-        this.maiorLance = maiorLance;
+    public long getEncerraEm() {
+        return encerraEm;
+    }
+
+    public boolean isEncerrado(long agora) {
+        return encerraEm > 0 && encerraEm <= agora;
     }
 
     public void setClienteMaiorLance(String clienteMaiorLance) {
@@ -57,9 +68,10 @@ public class ItemLeilao {
                 "id=" + id +
                 ", nome='" + nome + '\'' +
                 ", descricao='" + descricao + '\'' +
-                ", precoInicial=" + precoInicial +
-                ", maiorLance=" + maiorLance +
+                ", precoInicial=" + Centavos.paraDecimal(precoInicialCentavos).toPlainString() +
+                ", maiorLance=" + Centavos.paraDecimal(maiorLanceCentavos).toPlainString() +
                 ", clienteMaiorLance='" + clienteMaiorLance + '\'' +
+                ", encerraEm=" + encerraEm +
                 '}';
     }
 }
@@ -1,19 +1,20 @@
 package models;
 
+// Valor em centavos (ponto fixo), como no armazenamento e no protocolo
 public class Lance {
     private int id;
     private int idItem;
     private String cliente;
-    private double valor;
+    private long valorCentavos;
 
-    public Lance(int id, int idItem, String cliente, double valor) {
+    public Lance(int id, int idItem, String cliente, long valorCentavos) {
         this.id = id;
         this.idItem = idItem;
         this.cliente = cliente;
-        this.valor = valor;
+        this.valorCentavos = valorCentavos;
     }
 
-    // Getters e Setters
+    // Getters
 
     public int getId() {
         return id;
@@ -27,12 +28,8 @@ public class Lance {
         return cliente;
     }
 
-    public double getValor() {
-        return valor;
-    }
-
-    public void setValor(double valor) {
-        this.valor = valor;
+    public long getValorCentavos() {
+        return valorCentavos;
     }
 
     @Override
@@ -41,7 +38,7 @@ public class Lance {
                 "id=" + id +
                 ", idItem=" + idItem +
                 ", cliente='" + cliente + '\'' +
-                ", valor=" + valor +
+                ", valor=" + Centavos.paraDecimal(valorCentavos).toPlainString() +
                 '}';
     }
 }
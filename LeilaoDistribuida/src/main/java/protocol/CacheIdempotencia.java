@@ -0,0 +1,154 @@
+package protocol;
+
+import metricas.Contador;
+import metricas.Metricas;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resultados recentes dos comandos com chave de idempotência de um handler.
+ *
+ * A primeira tentativa de uma chave reserva a entrada e segue para o batch;
+ * as repetidas não entram na fila nem chegam ao banco: enquanto o batch não
+ * roda, recebem a mesma confirmação da primeira, e depois dele, o resultado
+ * do comando ("Lance registrado com sucesso.", "Item cadastrado com
+ * sucesso: 42"...). A mesma chave com outro comando é recusada.
+ *
+ * As entradas ficam em segmentos com trava própria, escolhidos pelo hash da
+ * chave; cada segmento é um LinkedHashMap em ordem de acesso limitado a
+ * capacidade / SEGMENTOS entradas, que descarta a menos usada ao passar do
+ * limite. Uma entrada vale até a validade configurada: vencida, é removida
+ * ao ser consultada ou ao chegar à ponta de descarte do segmento.
+ *
+ * Propriedades leilao.idempotencia.*: capacidade (chaves por handler,
+ * padrão 100000) e validade (s, padrão 600).
+ */
+final class CacheIdempotencia {
+    private static final int SEGMENTOS = 16; // Potência de 2
+    private static final int CAPACIDADE = Math.max(SEGMENTOS, Integer.getInteger("leilao.idempotencia.capacidade", 100_000));
+    private static final long VALIDADE_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("leilao.idempotencia.validade", 600));
+
+    static final String CHAVE_INVALIDA = "Erro: chave de idempotência inválida.";
+    static final String CHAVE_REUTILIZADA = "Erro: chave de idempotência já usada com outro comando.";
+
+    private static final class Resultado {
+        final Object comando;     // Comparado por equals, para recusar a chave reaproveitada (um hash colidiria)
+        final long criadoEm;      // System.nanoTime()
+        volatile String resposta; // Confirmação até o batch rodar; depois, o resultado do comando
+
+        Resultado(Object comando, String resposta) {
+            this.comando = comando;
+            this.criadoEm = System.nanoTime();
+            this.resposta = resposta;
+        }
+
+        boolean vencido(long agora) {
+            return agora - criadoEm > VALIDADE_NANOS;
+        }
+    }
+
+    private static final class Segmento extends LinkedHashMap<String, Resultado> {
+        private static final long serialVersionUID = 1L; // LinkedHashMap é Serializable; o cache nunca é serializado
+
+        private final int limite;
+
+        Segmento(int limite) {
+            super(16, 0.75f, true);
+            this.limite = limite;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Resultado> maisAntiga) {
+            return size() > limite || maisAntiga.getValue().vencido(System.nanoTime());
+        }
+    }
+
+    private final Segmento[] segmentos = new Segmento[SEGMENTOS];
+    private final Contador novas;
+    private final Contador repetidas;
+    private final Contador recusadas;
+
+    CacheIdempotencia(String protocolo) {
+        for (int i = 0; i < SEGMENTOS; i++) {
+            segmentos[i] = new Segmento(CAPACIDADE / SEGMENTOS);
+        }
+        String ajuda = "Comandos com chave de idempotência: novos, repetidos (respondidos pelo cache) e recusados";
+        novas = Metricas.contador("leilao_handler_idempotencia_total", ajuda, "protocolo", protocolo, "resultado", "nova");
+        repetidas = Metricas.contador("leilao_handler_idempotencia_total", ajuda, "protocolo", protocolo, "resultado", "repetida");
+        recusadas = Metricas.contador("leilao_handler_idempotencia_total", ajuda, "protocolo", protocolo, "resultado", "recusada");
+        Metricas.medidor("leilao_handler_idempotencia_chaves", "Chaves de idempotência guardadas", this::tamanho, "protocolo", protocolo);
+    }
+
+    /**
+     * Reserva a chave para o comando.
+     *
+     * @param comando     Texto ou Comando analisado; a repetição precisa ser igual (equals)
+     * @param confirmacao Resposta imediata da primeira tentativa, repetida
+     *                    às demais até o batch concluir o comando
+     * @return null se a chave é nova (o comando segue para o batch); senão,
+     *         a resposta a devolver sem processar o comando
+     */
+    String reservar(String chave, Object comando, String confirmacao) {
+        if (!ChaveIdempotencia.valida(chave)) {
+            recusadas.incrementar();
+            return CHAVE_INVALIDA;
+        }
+        Segmento segmento = segmento(chave);
+        synchronized (segmento) {
+            Resultado resultado = segmento.get(chave);
+            if (resultado != null && !resultado.vencido(System.nanoTime())) {
+                if (!resultado.comando.equals(comando)) {
+                    recusadas.incrementar();
+                    return CHAVE_REUTILIZADA;
+                }
+                repetidas.incrementar();
+                return resultado.resposta;
+            }
+            segmento.put(chave, new Resultado(comando, confirmacao));
+        }
+        novas.incrementar();
+        return null;
+    }
+
+    // Guarda o resultado do comando processado no batch (sem chave, nada a fazer)
+    void concluir(String chave, String resposta) {
+        if (chave == null) {
+            return;
+        }
+        Segmento segmento = segmento(chave);
+        synchronized (segmento) {
+            Resultado resultado = segmento.get(chave);
+            if (resultado != null) {
+                resultado.resposta = resposta;
+            }
+        }
+    }
+
+    // Desfaz a reserva de um comando que não chegou ao batch (fila cheia), para a nova tentativa passar
+    void cancelar(String chave) {
+        if (chave == null) {
+            return;
+        }
+        Segmento segmento = segmento(chave);
+        synchronized (segmento) {
+            segmento.remove(chave);
+        }
+    }
+
+    private int tamanho() {
+        int total = 0;
+        for (Segmento segmento : segmentos) {
+            synchronized (segmento) {
+                total += segmento.size();
+            }
+        }
+        return total;
+    }
+
+    private Segmento segmento(String chave) {
+        int h = chave.hashCode();
+        return segmentos[(h ^ (h >>> 16)) & (SEGMENTOS - 1)];
+    }
+}
@@ -0,0 +1,270 @@
+package protocol;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Canal entre o gateway e um handler da mesma máquina por memória
+ * compartilhada: um arquivo mapeado (padrão em /dev/shm) com dois anéis de
+ * um produtor e um consumidor, o de requisições (gateway → handler) e o de
+ * respostas (handler → gateway).
+ *
+ * Cada mensagem é um registro [tamanho][seq][texto UTF-8] alinhado a 8
+ * bytes; um registro que não cabe antes do fim do anel deixa um marcador de
+ * pulo e recomeça do início. As posições de escrita (cauda) e de leitura
+ * (cabeça) crescem sem voltar e ficam em linhas de cache separadas.
+ *
+ * O consumidor gira um pouco sobre o anel vazio e depois dorme num socket
+ * UDP de loopback (a campainha), anunciando a porta e o sono no cabeçalho
+ * do anel. O produtor só toca a campainha se encontrar o consumidor
+ * dormindo; com tráfego, nenhuma mensagem passa por chamada de sistema.
+ *
+ * Propriedades leilao.ipc.*: dir (diretório dos arquivos, padrão /dev/shm),
+ * capacidade (bytes por anel, potência de 2, padrão 1 MiB) e giros (voltas
+ * sobre o anel vazio antes de dormir, padrão 2000).
+ */
+public final class CanalMemoria implements Closeable {
+    private static final Path DIRETORIO = Path.of(System.getProperty("leilao.ipc.dir", "/dev/shm"));
+    public static final int CAPACIDADE_PADRAO = Integer.getInteger("leilao.ipc.capacidade", 1 << 20);
+    private static final int GIROS = Integer.getInteger("leilao.ipc.giros", 2000);
+    private static final int SONO_MAXIMO_MILLIS = 100; // Rede de segurança: o consumidor confere o anel mesmo sem campainha
+
+    private static final int MAGICO = 0x4C45494C; // "LEIL"
+    private static final int CABECALHO_ARQUIVO = 64;   // mágico, capacidade
+    private static final int CABECALHO_ANEL = 256;     // cauda, cabeça, sono e porta da campainha
+    private static final int CAUDA = 0;
+    private static final int CABECA = 64;
+    private static final int DORMINDO = 128;
+    private static final int PORTA = 132;
+    private static final int CABECALHO_REGISTRO = 16;  // tamanho (int), reservado, seq (long)
+    private static final int PULO = -1;
+    private static final byte[] TOQUE = {1};
+
+    private static final int REQUISICOES = 0;
+    private static final int RESPOSTAS = 1;
+
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INT = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    // Mensagem lida do anel: o número de sequência liga a resposta à requisição
+    public record Mensagem(long seq, String texto) {
+    }
+
+    private final Anel entrada;
+    private final Anel saida;
+    private final DatagramSocket campainha; // Onde este lado dorme à espera de mensagens
+    private final DatagramPacket toque = new DatagramPacket(new byte[1], 1); // Recepção da campainha
+
+    private CanalMemoria(MappedByteBuffer buffer, int capacidade, int anelEntrada, int anelSaida) throws IOException {
+        this.entrada = new Anel(buffer, capacidade, anelEntrada);
+        this.saida = new Anel(buffer, capacidade, anelSaida);
+        this.campainha = new DatagramSocket(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        campainha.setSoTimeout(SONO_MAXIMO_MILLIS);
+        INT.setVolatile(buffer, entrada.base + PORTA, campainha.getLocalPort());
+    }
+
+    // Arquivo do canal de um handler, pelo protocolo e pela porta que ele anuncia ao gateway
+    public static Path caminho(String protocolo, int porta) {
+        return DIRETORIO.resolve("leilao-" + protocolo + "-" + porta);
+    }
+
+    /**
+     * Lado do handler: cria o arquivo do zero (um canal de um handler
+     * anterior na mesma porta é descartado) e consome as requisições.
+     */
+    public static CanalMemoria criar(Path arquivo, int capacidade) throws IOException {
+        if (Integer.bitCount(capacidade) != 1 || capacidade < 4096) {
+            throw new IllegalArgumentException("Capacidade do anel deve ser potência de 2, no mínimo 4096: " + capacidade);
+        }
+        Files.deleteIfExists(arquivo);
+        MappedByteBuffer buffer;
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = canal.map(FileChannel.MapMode.READ_WRITE, 0, CABECALHO_ARQUIVO + 2L * (CABECALHO_ANEL + capacidade));
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        buffer.putInt(4, capacidade);
+        CanalMemoria canal = new CanalMemoria(buffer, capacidade, REQUISICOES, RESPOSTAS);
+        INT.setRelease(buffer, 0, MAGICO); // Por último: o gateway só abre o canal já pronto
+        return canal;
+    }
+
+    /**
+     * Lado do gateway: abre o canal criado pelo handler, produz requisições e
+     * consome as respostas.
+     *
+     * @throws IOException se o arquivo não existir ou o handler ainda não o
+     *                     tiver inicializado
+     */
+    public static CanalMemoria abrir(Path arquivo) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel canal = FileChannel.open(arquivo, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = canal.map(FileChannel.MapMode.READ_WRITE, 0, canal.size());
+        }
+        buffer.order(ByteOrder.nativeOrder());
+        if (buffer.capacity() < CABECALHO_ARQUIVO || (int) INT.getAcquire(buffer, 0) != MAGICO) {
+            throw new IOException("Canal de memória não inicializado: " + arquivo);
+        }
+        return new CanalMemoria(buffer, buffer.getInt(4), RESPOSTAS, REQUISICOES);
+    }
+
+    /**
+     * Escreve a mensagem no anel de saída e acorda o outro lado se ele
+     * estiver dormindo. Só uma thread por vez pode enviar.
+     *
+     * @return false se o anel estiver cheio
+     */
+    public boolean enviar(long seq, String texto) throws IOException {
+        byte[] bytes = texto.getBytes(StandardCharsets.UTF_8);
+        if (!saida.escrever(seq, bytes)) {
+            return false;
+        }
+        int porta = saida.acordar();
+        if (porta > 0) {
+            campainha.send(new DatagramPacket(TOQUE, 1, InetAddress.getLoopbackAddress(), porta));
+        }
+        return true;
+    }
+
+    /**
+     * Próxima mensagem do anel de entrada, esperando por ela: primeiro
+     * girando, depois dormindo na campainha. Só uma thread pode receber.
+     *
+     * @throws IOException se o canal for fechado
+     */
+    public Mensagem receber() throws IOException {
+        int giros = 0;
+        while (true) {
+            Mensagem mensagem = entrada.ler();
+            if (mensagem != null) {
+                return mensagem;
+            }
+            if (++giros < GIROS) {
+                Thread.onSpinWait();
+                continue;
+            }
+
+            // Anuncia o sono antes de conferir o anel de novo: ou o produtor vê o sono, ou esta leitura vê a mensagem
+            entrada.dormir(true);
+            mensagem = entrada.ler();
+            if (mensagem == null) {
+                try {
+                    campainha.receive(toque);
+                } catch (SocketTimeoutException e) {
+                    // Confere o anel de novo
+                }
+            }
+            entrada.dormir(false);
+            if (mensagem != null) {
+                return mensagem;
+            }
+            giros = 0;
+        }
+    }
+
+    @Override
+    public void close() {
+        campainha.close(); // Um receber() em andamento falha com IOException
+    }
+
+    // Um anel de um produtor e um consumidor; posicao é a cauda de quem escreve ou a cabeça de quem lê
+    private static final class Anel {
+        final MappedByteBuffer buffer;
+        final int base;
+        final int dados;
+        final int capacidade;
+        final int mascara;
+        long posicao;
+        boolean sincronizado;
+
+        Anel(MappedByteBuffer buffer, int capacidade, int indice) {
+            this.buffer = buffer;
+            this.capacidade = capacidade;
+            this.mascara = capacidade - 1;
+            this.base = CABECALHO_ARQUIVO + indice * (CABECALHO_ANEL + capacidade);
+            this.dados = base + CABECALHO_ANEL;
+        }
+
+        // Na primeira operação, retoma de onde o processo anterior deste lado parou
+        private void sincronizar(int campo) {
+            if (!sincronizado) {
+                posicao = (long) LONG.getVolatile(buffer, base + campo);
+                sincronizado = true;
+            }
+        }
+
+        boolean escrever(long seq, byte[] bytes) {
+            sincronizar(CAUDA);
+            int alinhado = (CABECALHO_REGISTRO + bytes.length + 7) & ~7;
+            if (alinhado > capacidade / 2) {
+                throw new IllegalArgumentException("Mensagem maior que o anel: " + bytes.length + " bytes");
+            }
+            long cabeca = (long) LONG.getAcquire(buffer, base + CABECA);
+            int offset = (int) (posicao & mascara);
+            int restante = capacidade - offset;
+            int necessario = restante < alinhado ? restante + alinhado : alinhado;
+            if (capacidade - (posicao - cabeca) < necessario) {
+                return false;
+            }
+            if (restante < alinhado) {
+                buffer.putInt(dados + offset, PULO);
+                posicao += restante;
+                offset = 0;
+            }
+            buffer.putInt(dados + offset, bytes.length);
+            buffer.putLong(dados + offset + 8, seq);
+            buffer.put(dados + offset + CABECALHO_REGISTRO, bytes);
+            posicao += alinhado;
+            LONG.setVolatile(buffer, base + CAUDA, posicao); // Publica o registro antes de olhar o sono do consumidor
+            return true;
+        }
+
+        Mensagem ler() {
+            sincronizar(CABECA);
+            while (true) {
+                long cauda = (long) LONG.getVolatile(buffer, base + CAUDA);
+                if (posicao == cauda) {
+                    return null;
+                }
+                int offset = (int) (posicao & mascara);
+                int tamanho = buffer.getInt(dados + offset);
+                if (tamanho == PULO) {
+                    posicao += capacidade - offset;
+                    LONG.setRelease(buffer, base + CABECA, posicao);
+                    continue;
+                }
+                long seq = buffer.getLong(dados + offset + 8);
+                byte[] bytes = new byte[tamanho];
+                buffer.get(dados + offset + CABECALHO_REGISTRO, bytes);
+                posicao += (CABECALHO_REGISTRO + tamanho + 7) & ~7;
+                LONG.setRelease(buffer, base + CABECA, posicao);
+                return new Mensagem(seq, new String(bytes, StandardCharsets.UTF_8));
+            }
+        }
+
+        void dormir(boolean dormindo) {
+            INT.setVolatile(buffer, base + DORMINDO, dormindo ? 1 : 0);
+        }
+
+        // Lado do produtor: porta da campainha do consumidor se ele dormia (e agora foi acordado), senão 0
+        int acordar() {
+            if ((int) INT.getVolatile(buffer, base + DORMINDO) == 1 && INT.compareAndSet(buffer, base + DORMINDO, 1, 0)) {
+                return (int) INT.getVolatile(buffer, base + PORTA);
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package protocol;
+
+/**
+ * Chave de idempotência opcional dos comandos.
+ *
+ * O cliente escolhe a chave e a repete em cada nova tentativa do mesmo
+ * comando: no cabeçalho Idempotency-Key (HTTP) ou como campo "!chave;"
+ * antes do comando (TCP e UDP). O gateway repassa a chave depois do id de
+ * rastreamento ("#id;!chave;comando") e encaminha todas as tentativas com
+ * a mesma chave ao mesmo handler, que responde as repetidas pelo
+ * CacheIdempotencia.
+ */
+public final class ChaveIdempotencia {
+    public static final String CABECALHO = "Idempotency-Key";
+    private static final char PREFIXO = '!';
+    static final int TAMANHO_MAXIMO = 64;
+
+    private ChaveIdempotencia() {
+    }
+
+    // "!chave;comando" para TCP e UDP (sem chave, o comando segue como está)
+    public static String prefixar(String chave, String comando) {
+        return chave == null ? comando : PREFIXO + chave + ";" + comando;
+    }
+
+    // Chave de uma mensagem "!chave;comando", ou null se a mensagem não tiver chave
+    public static String chaveDe(String mensagem) {
+        if (mensagem.isEmpty() || mensagem.charAt(0) != PREFIXO) {
+            return null;
+        }
+        int separador = mensagem.indexOf(';');
+        return separador > 1 ? mensagem.substring(1, separador) : null;
+    }
+
+    public static String semChave(String mensagem) {
+        if (mensagem.isEmpty() || mensagem.charAt(0) != PREFIXO) {
+            return mensagem;
+        }
+        int separador = mensagem.indexOf(';');
+        return separador >= 0 ? mensagem.substring(separador + 1) : "";
+    }
+
+    // Chaves longas ou com separadores não são aceitas (a chave viaja dentro da linha do comando)
+    public static boolean valida(String chave) {
+        if (chave.isEmpty() || chave.length() > TAMANHO_MAXIMO) {
+            return false;
+        }
+        for (int i = 0; i < chave.length(); i++) {
+            char c = chave.charAt(i);
+            if (c == ';' || c == '\n' || c == '\r' || Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,55 @@
+package protocol;
+
+import models.Centavos;
+import models.Lance;
+
+/**
+ * Comando de escrita já analisado, entregue pelo gateway ao handler local
+ * (HandlerLocal) sem voltar a texto. Os campos que não se aplicam ao tipo
+ * ficam zerados; valores em centavos, duracao em segundos, ou -1 para o leilão sem prazo.
+ */
+public record Comando(Tipo tipo, String nome, String descricao, long precoInicialCentavos, long duracao,
+                      int idItem, String cliente, long valorCentavos) {
+
+    public enum Tipo {
+        CADASTRAR_ITEM("cadastrarItem"),
+        REGISTRAR_LANCE("registrarLance");
+
+        final String nome;
+
+        Tipo(String nome) {
+            this.nome = nome;
+        }
+    }
+
+    public static Comando cadastrarItem(String nome, String descricao, long precoInicialCentavos, long duracao) {
+        return new Comando(Tipo.CADASTRAR_ITEM, nome, descricao, precoInicialCentavos, duracao, 0, null, 0);
+    }
+
+    public static Comando registrarLance(int idItem, String cliente, long valorCentavos) {
+        return new Comando(Tipo.REGISTRAR_LANCE, null, null, 0, -1, idItem, cliente, valorCentavos);
+    }
+
+    /**
+     * Comando de "cadastrarItem;nome;descricao;precoInicial[;duracao]" ou
+     * "registrarLance;idItem;cliente;valor" (sem id nem chave), com as mesmas
+     * regras dos handlers remotos.
+     *
+     * @throws IllegalArgumentException se a linha não for um comando válido
+     */
+    public static Comando analisar(String mensagem) {
+        String[] partes = mensagem.split(";");
+        if (mensagem.startsWith("cadastrarItem") && (partes.length == 4 || partes.length == 5)) {
+            long duracao = partes.length == 5 ? Long.parseLong(partes[4].trim()) : -1;
+            return cadastrarItem(partes[1], partes[2], Centavos.deTexto(partes[3]), duracao);
+        }
+        if (mensagem.startsWith("registrarLance") && partes.length == 4) {
+            return registrarLance(Integer.parseInt(partes[1]), partes[2], Centavos.deTexto(partes[3]));
+        }
+        throw new IllegalArgumentException("Mensagem inválida");
+    }
+
+    Lance lance() {
+        return new Lance(0, idItem, cliente, valorCentavos);
+    }
+}
@@ -0,0 +1,47 @@
+package protocol;
+
+/**
+ * Formato das requisições com vários comandos que o gateway envia aos
+ * handlers (agrupamento por backend).
+ *
+ * Cada comando é uma linha completa, com o id de rastreamento e a chave
+ * de idempotência opcionais ("#id;!chave;comando"), e recebe uma linha de
+ * resposta, na mesma ordem, igual à que receberia sozinho:
+ * - TCP: uma conexão com a linha "comandos;N" seguida das N linhas;
+ * - UDP: um datagrama "comandos;N\n" com as N linhas separadas por '\n';
+ * - HTTP: POST em /comandos com uma linha por comando no corpo.
+ */
+public final class ComandosAgrupados {
+    public static final String CAMINHO_HTTP = "/comandos";
+    private static final String CABECALHO = "comandos;";
+    public static final int MAXIMO = 1024; // Comandos por requisição
+
+    private ComandosAgrupados() {
+    }
+
+    public static String cabecalho(int quantidade) {
+        return CABECALHO + quantidade;
+    }
+
+    public static boolean isCabecalho(String mensagem) {
+        return mensagem.startsWith(CABECALHO);
+    }
+
+    /**
+     * Quantidade de comandos anunciada no cabeçalho.
+     *
+     * @throws IllegalArgumentException se o cabeçalho for inválido ou passar de MAXIMO
+     */
+    public static int quantidade(String cabecalho) {
+        int quantidade;
+        try {
+            quantidade = Integer.parseInt(cabecalho.substring(CABECALHO.length()).trim());
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Cabeçalho de comandos inválido: " + cabecalho);
+        }
+        if (quantidade < 0 || quantidade > MAXIMO) {
+            throw new IllegalArgumentException("Quantidade de comandos fora do limite: " + quantidade);
+        }
+        return quantidade;
+    }
+}
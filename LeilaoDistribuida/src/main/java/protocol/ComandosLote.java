@@ -0,0 +1,229 @@
+package protocol;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Formato dos lotes de comandos enviados pelos clientes (POST /lote no
+ * gateway e nos handlers HTTP; modo "lote" nas conexões TCP).
+ *
+ * O corpo tem um comando por linha e é lido aos poucos, sem esperar o fim:
+ * - a linha de comando de sempre, com a chave opcional ("!chave;registrarLance;1;ana;10");
+ * - ou um objeto JSON plano (NDJSON), por exemplo
+ *   {"comando":"registrarLance","idItem":1,"cliente":"ana","valor":10,"chave":"k1"}
+ *   ou {"comando":"cadastrarItem","nome":"Vaso","descricao":"Azul","precoInicial":50,"duracao":60}.
+ *
+ * Cada comando recebe uma linha de resultado em NDJSON, na ordem do corpo,
+ * com o número da linha e a mesma resposta que teria sozinho:
+ * {"linha":1,"resposta":"Requisição de lance recebida e adicionada ao batch."}.
+ * No TCP, o lote começa com a linha "lote" e termina numa linha vazia ou
+ * no fim da conexão.
+ */
+public final class ComandosLote {
+    public static final String CAMINHO_HTTP = "/lote";
+    public static final String MODO_TCP = "lote";
+    public static final String TIPO_CONTEUDO = "application/x-ndjson; charset=UTF-8";
+
+    private ComandosLote() {
+    }
+
+    /**
+     * Linha de comando ("!chave;tipo;dados", chave opcional) de uma linha do lote.
+     *
+     * @throws IllegalArgumentException se a linha não for um comando válido
+     */
+    public static String comando(String linha) {
+        String texto = linha.trim();
+        if (texto.startsWith("{")) {
+            return deObjeto(objeto(texto));
+        }
+        String chave = ChaveIdempotencia.chaveDe(texto);
+        if (chave != null && !ChaveIdempotencia.valida(chave)) {
+            throw new IllegalArgumentException("chave de idempotência inválida");
+        }
+        String mensagem = ChaveIdempotencia.semChave(texto);
+        if (!mensagem.startsWith("cadastrarItem;") && !mensagem.startsWith("registrarLance;")) {
+            throw new IllegalArgumentException("comando desconhecido");
+        }
+        return texto;
+    }
+
+    // {"linha":n,"resposta":"..."}
+    public static String resultado(int linha, String resposta) {
+        StringBuilder sb = new StringBuilder(resposta.length() + 32);
+        sb.append("{\"linha\":").append(linha).append(",\"resposta\":");
+        texto(sb, resposta);
+        return sb.append('}').toString();
+    }
+
+    private static String deObjeto(Map<String, String> campos) {
+        String tipo = campos.get("comando");
+        String comando;
+        if ("cadastrarItem".equals(tipo)) {
+            comando = tipo + ";" + campo(campos, "nome") + ";" + campo(campos, "descricao") + ";" + campo(campos, "precoInicial");
+            if (campos.containsKey("duracao")) {
+                comando += ";" + campo(campos, "duracao");
+            }
+        } else if ("registrarLance".equals(tipo)) {
+            comando = tipo + ";" + campo(campos, "idItem") + ";" + campo(campos, "cliente") + ";" + campo(campos, "valor");
+        } else {
+            throw new IllegalArgumentException("comando desconhecido");
+        }
+
+        String chave = campos.get("chave");
+        if (chave != null && !ChaveIdempotencia.valida(chave)) {
+            throw new IllegalArgumentException("chave de idempotência inválida");
+        }
+        return ChaveIdempotencia.prefixar(chave, comando);
+    }
+
+    // Os campos viajam separados por ';' numa só linha até o batch
+    private static String campo(Map<String, String> campos, String nome) {
+        String valor = campos.get(nome);
+        if (valor == null || valor.isEmpty()) {
+            throw new IllegalArgumentException("campo " + nome + " ausente");
+        }
+        if (valor.indexOf(';') >= 0 || valor.indexOf('\n') >= 0 || valor.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("campo " + nome + " com separador");
+        }
+        return valor;
+    }
+
+    // Objeto JSON de um só nível: valores texto, número ou literal; null conta como ausente
+    private static Map<String, String> objeto(String texto) {
+        Map<String, String> campos = new HashMap<>();
+        Leitor leitor = new Leitor(texto);
+        leitor.esperar('{');
+        if (!leitor.consumir('}')) {
+            do {
+                String nome = leitor.texto();
+                leitor.esperar(':');
+                String valor = leitor.valor();
+                if (valor != null) {
+                    campos.put(nome, valor);
+                }
+            } while (leitor.consumir(','));
+            leitor.esperar('}');
+        }
+        if (!leitor.fim()) {
+            throw new IllegalArgumentException("JSON inválido");
+        }
+        return campos;
+    }
+
+    private static final class Leitor {
+        private final String s;
+        private int i;
+
+        Leitor(String s) {
+            this.s = s;
+        }
+
+        private void espacos() {
+            while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+                i++;
+            }
+        }
+
+        boolean fim() {
+            espacos();
+            return i == s.length();
+        }
+
+        boolean consumir(char c) {
+            espacos();
+            if (i < s.length() && s.charAt(i) == c) {
+                i++;
+                return true;
+            }
+            return false;
+        }
+
+        void esperar(char c) {
+            if (!consumir(c)) {
+                throw new IllegalArgumentException("JSON inválido: esperado '" + c + "'");
+            }
+        }
+
+        String valor() {
+            espacos();
+            if (i < s.length() && s.charAt(i) == '"') {
+                return texto();
+            }
+            int inicio = i;
+            while (i < s.length() && ",}".indexOf(s.charAt(i)) < 0) {
+                char c = s.charAt(i);
+                if (c == '{' || c == '[' || c == '"') {
+                    throw new IllegalArgumentException("JSON inválido: só valores simples");
+                }
+                i++;
+            }
+            String literal = s.substring(inicio, i).trim();
+            if (literal.isEmpty()) {
+                throw new IllegalArgumentException("JSON inválido: valor ausente");
+            }
+            return "null".equals(literal) ? null : literal;
+        }
+
+        String texto() {
+            esperar('"');
+            StringBuilder sb = new StringBuilder();
+            while (i < s.length()) {
+                char c = s.charAt(i++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                if (i >= s.length()) {
+                    break;
+                }
+                char escape = s.charAt(i++);
+                switch (escape) {
+                    case 'n' -> sb.append('\n');
+                    case 'r' -> sb.append('\r');
+                    case 't' -> sb.append('\t');
+                    case 'b' -> sb.append('\b');
+                    case 'f' -> sb.append('\f');
+                    case 'u' -> {
+                        if (i + 4 > s.length()) {
+                            throw new IllegalArgumentException("JSON inválido: escape \\u incompleto");
+                        }
+                        try {
+                            sb.append((char) Integer.parseInt(s.substring(i, i + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw new IllegalArgumentException("JSON inválido: escape \\u");
+                        }
+                        i += 4;
+                    }
+                    default -> sb.append(escape); // \" \\ \/
+                }
+            }
+            throw new IllegalArgumentException("JSON inválido: texto sem fim");
+        }
+    }
+
+    private static void texto(StringBuilder sb, String valor) {
+        sb.append('"');
+        for (int i = 0; i < valor.length(); i++) {
+            char c = valor.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        sb.append('"');
+    }
+}
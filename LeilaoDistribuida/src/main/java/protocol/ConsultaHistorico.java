@@ -0,0 +1,79 @@
+package protocol;
+
+import database.ArmazenamentoLeilao;
+import models.Centavos;
+import models.Lance;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+
+/**
+ * Escrita do histórico de lances de um item, comum aos handlers HTTP e TCP.
+ *
+ * Formato da resposta, uma linha por lance:
+ *   id;idItem;cliente;valor
+ * seguida de "proximo;<cursor>" quando a página veio cheia (há mais lances)
+ * ou de "fim" quando o histórico terminou. Uma falha de leitura termina a
+ * resposta com uma linha de erro.
+ */
+final class ConsultaHistorico {
+    static final int LIMITE_PADRAO = 100;
+    static final int LIMITE_MAXIMO = 1000;
+
+    private ConsultaHistorico() {
+    }
+
+    static int limitar(String limite) {
+        if (limite == null || limite.isBlank()) {
+            return LIMITE_PADRAO;
+        }
+        int valor = Integer.parseInt(limite.trim());
+        return Math.max(1, Math.min(valor, LIMITE_MAXIMO));
+    }
+
+    static int cursor(String apos) {
+        return (apos == null || apos.isBlank()) ? 0 : Integer.parseInt(apos.trim());
+    }
+
+    /**
+     * Transmite uma página do histórico para o writer à medida que os lances são lidos.
+     *
+     * @return Quantidade de lances escritos
+     */
+    static int escrever(ArmazenamentoLeilao armazenamento, int idItem, int apos, int limite, Writer out) throws IOException {
+        int[] ultimoId = {apos};
+        int entregues;
+        try {
+            entregues = armazenamento.listarLances(idItem, apos, limite, lance -> {
+                try {
+                    escreverLance(lance, out);
+                    ultimoId[0] = lance.getId();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause(); // Cliente desconectou no meio da página
+        }
+
+        if (entregues < 0) {
+            out.write("Erro ao consultar o histórico de lances.\n");
+        } else {
+            out.write(entregues == limite ? "proximo;" + ultimoId[0] + "\n" : "fim\n");
+        }
+        out.flush();
+        return entregues;
+    }
+
+    private static void escreverLance(Lance lance, Writer out) throws IOException {
+        out.write(Integer.toString(lance.getId()));
+        out.write(';');
+        out.write(Integer.toString(lance.getIdItem()));
+        out.write(';');
+        out.write(lance.getCliente());
+        out.write(';');
+        out.write(Centavos.paraDecimal(lance.getValorCentavos()).toPlainString());
+        out.write('\n');
+    }
+}
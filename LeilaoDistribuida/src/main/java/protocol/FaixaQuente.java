@@ -0,0 +1,201 @@
+package protocol;
+
+import database.ArmazenamentoLeilao;
+import log.Amostragem;
+import metricas.Contador;
+import metricas.Histograma;
+import metricas.ItensQuentes;
+import metricas.Metricas;
+import metricas.Rastreador;
+import models.Centavos;
+import models.Lance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * Faixa quente de um handler: os lances dos itens quentes (ItensQuentes)
+ * saem do requestBatch comum e são escritos por uma thread própria.
+ *
+ * Um item disputado serializa os lances na sua linha do armazenamento; na
+ * faixa, eles esperam juntos por até "espera" ms e são coalescidos antes da
+ * escrita: na ordem de chegada, um lance que não supera o maior lance
+ * anterior do mesmo item não tem como ser aceito e é recusado ali mesmo,
+ * sem ir ao armazenamento. Os demais vão numa só chamada a registrarLances.
+ * O batch comum deixa de esperar pelos itens quentes e os itens frios
+ * mantêm a latência de sempre.
+ *
+ * Um lance que entrou no batch comum antes de o item esquentar pode ser
+ * aplicado depois dos lances da faixa; o maior lance vence do mesmo jeito.
+ * Propriedades leilao.quentes.*: espera (ms, padrão 20) e pendentes (acima
+ * disso os lances quentes voltam ao batch comum, padrão 100000).
+ */
+final class FaixaQuente {
+    private static final Logger logger = LoggerFactory.getLogger(FaixaQuente.class);
+
+    private static final long ESPERA_MILLIS = Math.max(0, Long.getLong("leilao.quentes.espera", 20));
+    private static final int MAXIMO_PENDENTES = Integer.getInteger("leilao.quentes.pendentes", 100_000);
+    private static final String SUCESSO = "Lance registrado com sucesso.";
+
+    private record LanceQuente(RequisicaoPendente requisicao, Lance lance) {
+    }
+
+    private final ItensQuentes detector;
+    private final Supplier<ArmazenamentoLeilao> bancoDados; // Os handlers só abrem o armazenamento no main
+    private final CacheIdempotencia idempotencia;
+    private final MetricasBatch metricas;
+    private final String recusa;
+    private final List<LanceQuente> pendentes = new ArrayList<>();
+    private final AtomicBoolean agendada = new AtomicBoolean();
+    private final ScheduledExecutorService escritor;
+
+    private final Contador coalescidos;
+    private final Histograma escrita;
+
+    /**
+     * @param recusa Resposta do handler ao lance não aceito
+     */
+    FaixaQuente(String protocolo, Supplier<ArmazenamentoLeilao> bancoDados, CacheIdempotencia idempotencia,
+                MetricasBatch metricas, String recusa) {
+        this.detector = ItensQuentes.de(protocolo);
+        this.bancoDados = bancoDados;
+        this.idempotencia = idempotencia;
+        this.metricas = metricas;
+        this.recusa = recusa;
+        this.escritor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, protocolo + "-quentes");
+            thread.setDaemon(true);
+            return thread;
+        });
+        coalescidos = Metricas.contador("leilao_handler_quentes_coalescidos_total",
+                "Lances quentes recusados na faixa sem ir ao armazenamento", "protocolo", protocolo);
+        escrita = Metricas.histogramaTempo("leilao_handler_quentes_escrita_segundos",
+                "Duração de cada escrita da faixa quente", "protocolo", protocolo);
+        Metricas.medidor("leilao_handler_quentes_pendentes",
+                "Lances aguardando a faixa quente", this::pendentes, "protocolo", protocolo);
+    }
+
+    /**
+     * Conta o lance no detector do handler e, se o item estiver quente, leva
+     * a requisição para a faixa. Outros comandos não são tocados.
+     *
+     * @return false se a requisição segue para o batch comum
+     */
+    boolean aceitar(RequisicaoPendente requisicao) {
+        Lance lance = requisicao.comando != null
+                ? (requisicao.comando.tipo() == Comando.Tipo.REGISTRAR_LANCE ? requisicao.comando.lance() : null)
+                : extrairLance(requisicao.mensagem);
+        if (lance == null || !detector.registrar(lance.getIdItem())) {
+            return false;
+        }
+        int tamanho;
+        synchronized (pendentes) {
+            if (pendentes.size() >= MAXIMO_PENDENTES) {
+                return false;
+            }
+            pendentes.add(new LanceQuente(requisicao, lance));
+            tamanho = pendentes.size();
+        }
+        metricas.enfileirada(requisicao, tamanho);
+        if (agendada.compareAndSet(false, true)) {
+            escritor.schedule(this::escrever, ESPERA_MILLIS, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    private int pendentes() {
+        synchronized (pendentes) {
+            return pendentes.size();
+        }
+    }
+
+    // Sempre na thread da faixa: leva tudo o que chegou durante a espera
+    private void escrever() {
+        List<LanceQuente> lote;
+        synchronized (pendentes) {
+            agendada.set(false); // Um lance que chegar depois daqui agenda a próxima escrita
+            lote = new ArrayList<>(pendentes);
+            pendentes.clear();
+        }
+        if (lote.isEmpty()) {
+            return;
+        }
+
+        // Por item, na ordem de chegada: quem não supera o maior lance anterior já está recusado
+        Map<Integer, Long> maiores = new HashMap<>();
+        List<LanceQuente> viaveis = new ArrayList<>();
+        List<Lance> lances = new ArrayList<>();
+        for (LanceQuente quente : lote) {
+            quente.requisicao.rastro.marcar("batch");
+            long valor = quente.lance.getValorCentavos();
+            Long maior = maiores.get(quente.lance.getIdItem());
+            if (maior != null && valor <= maior) {
+                concluir(quente, recusa);
+                coalescidos.incrementar();
+                continue;
+            }
+            maiores.put(quente.lance.getIdItem(), valor);
+            viaveis.add(quente);
+            lances.add(quente.lance);
+        }
+
+        if (!lances.isEmpty()) {
+            List<RequisicaoPendente> requisicoes = new ArrayList<>(viaveis.size());
+            for (LanceQuente quente : viaveis) {
+                requisicoes.add(quente.requisicao);
+            }
+            long inicio = System.nanoTime();
+            Rastreador.ativar(RequisicaoPendente.rastros(requisicoes));
+            try {
+                boolean[] resultados = bancoDados.get().registrarLances(lances);
+                for (int i = 0; i < resultados.length; i++) {
+                    concluir(viaveis.get(i), resultados[i] ? SUCESSO : recusa);
+                }
+            } catch (RuntimeException e) {
+                logger.error("Erro na escrita da faixa quente: {}", e.getMessage(), e);
+                for (LanceQuente quente : viaveis) {
+                    concluir(quente, recusa);
+                }
+            } finally {
+                Rastreador.desativar();
+                escrita.registrarDesde(inicio);
+            }
+        }
+        logger.debug("Faixa quente: {} lances, {} escritos", lote.size(), lances.size());
+    }
+
+    private void concluir(LanceQuente quente, String resposta) {
+        RequisicaoPendente requisicao = quente.requisicao;
+        idempotencia.concluir(requisicao.chave, resposta);
+        metricas.filaAteCommit.registrarDesde(requisicao.recebidaEm);
+        requisicao.rastro.concluir();
+        if (Amostragem.amostrada(requisicao.rastro)) {
+            logger.info("Lance quente processado: {}. Resposta: {}", quente.lance, resposta);
+        }
+    }
+
+    // "registrarLance;idItem;cliente;valor" em Lance (null para os demais casos)
+    private static Lance extrairLance(String mensagem) {
+        if (mensagem == null || !mensagem.startsWith("registrarLance")) {
+            return null;
+        }
+        String[] partes = mensagem.split(";");
+        if (partes.length != 4) {
+            return null;
+        }
+        try {
+            return new Lance(0, Integer.parseInt(partes[1]), partes[2], Centavos.deTexto(partes[3]));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
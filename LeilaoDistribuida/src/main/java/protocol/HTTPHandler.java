@@ -1,6 +1,18 @@
 package protocol;
 
-import database.BancoDados;
+import database.Armazenamento;
+import database.ArmazenamentoLeilao;
+import log.Amostragem;
+import metricas.Contador;
+import metricas.EventoBatch;
+import metricas.Metricas;
+import metricas.MetricasHandler;
+import metricas.QuentesHandler;
+import metricas.Rastreador;
+import metricas.Rastro;
+import metricas.RastrosHandler;
+import models.Centavos;
+import models.Lance;
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpExchange;
@@ -8,51 +20,160 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
-import java.net.HttpURLConnection;
 import java.net.InetSocketAddress;
-import java.net.URL;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class HTTPHandler {
 
-    private static BancoDados bancoDados;
+    private static ArmazenamentoLeilao bancoDados;
     private static final Logger logger = LoggerFactory.getLogger(HTTPHandler.class);
 
     // Fila para agrupar requisições (Request Batch)
-    private static final List<String> requestBatch = new ArrayList<>();
+    private static final List<RequisicaoPendente> requestBatch = new ArrayList<>();
     private static final int BATCH_SIZE = 5; // Tamanho máximo do batch
     private static final long BATCH_INTERVAL = 10; // Intervalo de processamento do batch em segundos
 
+    private static final MetricasBatch metricas = new MetricasBatch("http", requestBatch);
+    private static final CacheIdempotencia idempotencia = new CacheIdempotencia("http");
+    // Lances dos itens quentes, escritos fora do batch comum
+    private static final FaixaQuente faixaQuente = new FaixaQuente("http", () -> bancoDados, idempotencia, metricas, "Lance recusado.");
+
+    /*
+     * Modelo de threads:
+     * - despacho: threads do HttpServer; leem os cabeçalhos, entregam a troca
+     *   ao pool de trabalho e respondem o heartbeat, que nunca entra na fila;
+     * - trabalho: pool limitado que executa comandos e consultas; com a fila
+     *   cheia, responde 503;
+     * - lotes: pool limitado e sem fila só para /lote, cujo stream ocupa a
+     *   thread do começo ao fim; com todas ocupadas, responde 503, sem tirar
+     *   threads do pool de trabalho;
+     * - batch: uma única thread que grava os batches no banco, acionada pelo
+     *   tamanho do batch ou pelo intervalo, sem bloquear as requisições.
+     *
+     * Propriedades leilao.http.*: threads (pool de trabalho, padrão um por
+     * núcleo), fila (trocas aguardando o pool, padrão 1024), lotes (streams
+     * de /lote simultâneos, padrão 8) e despacho (threads de despacho,
+     * padrão 2).
+     */
+    private static final int THREADS = Math.max(1, Integer.getInteger("leilao.http.threads", Runtime.getRuntime().availableProcessors()));
+    private static final int FILA = Math.max(1, Integer.getInteger("leilao.http.fila", 1024));
+    private static final int LOTES = Math.max(1, Integer.getInteger("leilao.http.lotes", 8));
+    private static final int DESPACHO = Math.max(1, Integer.getInteger("leilao.http.despacho", 2));
+
+    private static final ExecutorService despacho = Executors.newFixedThreadPool(DESPACHO, threads("http-despacho"));
+    private static final ThreadPoolExecutor trabalho = new ThreadPoolExecutor(THREADS, THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(FILA), threads("http-trabalho"), new ThreadPoolExecutor.AbortPolicy());
+    private static final ThreadPoolExecutor lotes = new ThreadPoolExecutor(LOTES, LOTES, 0L, TimeUnit.MILLISECONDS,
+            new SynchronousQueue<>(), threads("http-lote"), new ThreadPoolExecutor.AbortPolicy());
+    private static final ScheduledExecutorService batchScheduler = Executors.newSingleThreadScheduledExecutor(threads("http-batch"));
+    private static final AtomicBoolean batchAgendado = new AtomicBoolean();
+
+    private static final Contador recusadas = Metricas.contador("leilao_handler_http_recusadas_total",
+            "Requisições recusadas com 503 por falta de thread livre (fila de trabalho cheia ou lotes ocupados)");
+
+    static {
+        Metricas.medidor("leilao_handler_http_fila", "Requisições aguardando uma thread de trabalho", () -> trabalho.getQueue().size());
+        Metricas.medidor("leilao_handler_http_ativas", "Threads de trabalho ocupadas", trabalho::getActiveCount);
+        Metricas.medidor("leilao_handler_http_lotes_ativos", "Streams de /lote em andamento", lotes::getActiveCount);
+    }
+
+    private static ThreadFactory threads(String nome) {
+        AtomicInteger sequencia = new AtomicInteger();
+        return r -> new Thread(r, nome + "-" + sequencia.incrementAndGet());
+    }
+
     public static void main(String[] args) {
         int porta = Integer.parseInt(args[0]);
 
-        bancoDados = BancoDados.getInstance();
+        // Motor de armazenamento opcional como segundo argumento (postgres | memoria)
+        bancoDados = Armazenamento.criar(args.length > 1 ? args[1] : null);
 
         try {
             HttpServer server = HttpServer.create(new InetSocketAddress(porta), 0);
-            server.createContext("/cadastrarItem", new CadastrarItemHandler());
-            server.createContext("/registrarLance", new RegistrarLanceHandler());
+            // Comandos e consultas rodam no pool de trabalho; o heartbeat responde na própria thread de despacho
+            server.createContext("/cadastrarItem", new Trabalho(new CadastrarItemHandler()));
+            server.createContext("/registrarLance", new Trabalho(new RegistrarLanceHandler()));
+            server.createContext(ComandosAgrupados.CAMINHO_HTTP, new Trabalho(new ComandosHandler())); // Comandos agrupados pelo gateway
+            server.createContext(ComandosLote.CAMINHO_HTTP, new Trabalho(lotes, new LoteHandler())); // Lote de comandos do cliente, em streaming, no pool próprio
             server.createContext("/heartbeat", new HeartbeatHandler());  // Adiciona o contexto de heartbeat
-            server.setExecutor(null); // Cria um executor padrão
+            server.createContext("/lances/", new Trabalho(new LancesHandler(bancoDados))); // Histórico paginado: /lances/{idItem}?after=&limit=
+            server.createContext("/metrics", new Trabalho(new MetricasHandler())); // Métricas no formato texto do Prometheus
+            server.createContext("/rastros", new Trabalho(new RastrosHandler())); // Rastros mais lentos e recentes
+            server.createContext("/quentes", new Trabalho(new QuentesHandler())); // Itens quentes detectados pelo handler
+            server.setExecutor(despacho);
             server.start();
             System.out.println("Servidor HTTP rodando na porta " + porta);
 
-            registrarNoGateway("http", porta);  // Registrar no Gateway
+            if (ServidorMemoria.ATIVO) {
+                ServidorMemoria.iniciar("http", porta, HTTPHandler::receberLinha, () -> {
+                    if (requestBatch.size() >= BATCH_SIZE) {
+                        agendarBatch();
+                    }
+                });
+            }
+            RegistroGateway.iniciar("http", porta);  // Registrar no Gateway e renovar a concessão
 
             // Iniciar o agendador para processar o batch a cada intervalo
-            ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-            scheduler.scheduleAtFixedRate(HTTPHandler::processarBatch, BATCH_INTERVAL, BATCH_INTERVAL, TimeUnit.SECONDS);
+            batchScheduler.scheduleAtFixedRate(HTTPHandler::processarBatch, BATCH_INTERVAL, BATCH_INTERVAL, TimeUnit.SECONDS);
 
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
-    
+
+    /**
+     * Executa o handler no pool de trabalho, fora da thread de despacho do
+     * HttpServer. A thread de despacho só lê a linha de requisição e os
+     * cabeçalhos e entrega a troca ao pool, ficando livre para o heartbeat;
+     * com a fila do pool cheia, a requisição é recusada com 503 na hora.
+     */
+    static class Trabalho implements HttpHandler {
+        private final ThreadPoolExecutor pool;
+        private final HttpHandler handler;
+
+        Trabalho(HttpHandler handler) {
+            this(trabalho, handler);
+        }
+
+        Trabalho(ThreadPoolExecutor pool, HttpHandler handler) {
+            this.pool = pool;
+            this.handler = handler;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            try {
+                pool.execute(() -> {
+                    try {
+                        handler.handle(exchange);
+                    } catch (IOException | RuntimeException e) {
+                        logger.warn("Erro no processamento de {}: {}", exchange.getRequestURI().getPath(), e.getMessage());
+                    } finally {
+                        exchange.close();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                recusadas.incrementar();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                exchange.sendResponseHeaders(503, -1);
+                exchange.close();
+            }
+        }
+    }
+
     // Novo handler para o heartbeat
     static class HeartbeatHandler implements HttpHandler {
         @Override
@@ -63,28 +184,6 @@ public class HTTPHandler {
         }
     }
 
-    private static void registrarNoGateway(String tipo, int porta) {
-        try {
-            URL url = new URL("http://localhost:9000/registerServer");
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setDoOutput(true);
-            conn.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
-
-            String corpo = tipo + ";" + porta;
-            try (OutputStream os = conn.getOutputStream()) {
-                byte[] input = corpo.getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
-            }
-
-            int responseCode = conn.getResponseCode();
-            System.out.println("Registrado no Gateway com status: " + responseCode);
-
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-    }
-
     // Handler para a rota /cadastrarItem
     static class CadastrarItemHandler implements HttpHandler {
         @Override
@@ -94,26 +193,16 @@ public class HTTPHandler {
                 BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
                 String body = reader.readLine();
 
-                logger.info("Dados recebidos (cadastrarItem): " + body);
+                responder(exchange, receber("cadastrarItem", body, exchange.getRequestHeaders().getFirst(Rastreador.CABECALHO),
+                        exchange.getRequestHeaders().getFirst(ChaveIdempotencia.CABECALHO)));
 
-                synchronized (requestBatch) {
-                    requestBatch.add("cadastrarItem;" + body); // Adiciona um identificador para o tipo de requisição
-                    logger.info("Requisição de cadastrarItem adicionada ao batch. Tamanho atual: " + requestBatch.size());
-                }
-
-                String resposta = "Requisição recebida e adicionada ao batch.";
-                exchange.sendResponseHeaders(200, resposta.getBytes().length);
-                OutputStream os = exchange.getResponseBody();
-                os.write(resposta.getBytes());
-                os.close();
-
-                // Se o batch atingir o tamanho máximo, processar imediatamente
+                // Se o batch atingir o tamanho máximo, processar imediatamente (na thread do batch)
                 if (requestBatch.size() >= BATCH_SIZE) {
-                    processarBatch();
+                    agendarBatch();
                 }
 
             } catch (Exception e) {
-                logger.error("Erro no processamento do item: " + e.getMessage(), e);
+                logger.error("Erro no processamento do item: {}", e.getMessage(), e);
                 exchange.sendResponseHeaders(500, 0);
                 OutputStream os = exchange.getResponseBody();
                 os.write("Erro interno do servidor".getBytes(StandardCharsets.UTF_8));
@@ -131,26 +220,49 @@ public class HTTPHandler {
                 BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
                 String body = reader.readLine();
 
-                logger.info("Dados recebidos (registrarLance): " + body);
+                responder(exchange, receber("registrarLance", body, exchange.getRequestHeaders().getFirst(Rastreador.CABECALHO),
+                        exchange.getRequestHeaders().getFirst(ChaveIdempotencia.CABECALHO)));
 
-                synchronized (requestBatch) {
-                    requestBatch.add("registrarLance;" + body); // Adiciona um identificador para o tipo de requisição
-                    logger.info("Requisição de registrarLance adicionada ao batch. Tamanho atual: " + requestBatch.size());
+                // Se o batch atingir o tamanho máximo, processar imediatamente (na thread do batch)
+                if (requestBatch.size() >= BATCH_SIZE) {
+                    agendarBatch();
                 }
 
-                String resposta = "Requisição de lance recebida e adicionada ao batch.";
-                exchange.sendResponseHeaders(200, resposta.getBytes().length);
+            } catch (Exception e) {
+                logger.error("Erro no processamento do lance: {}", e.getMessage(), e);
+                exchange.sendResponseHeaders(500, 0);
                 OutputStream os = exchange.getResponseBody();
-                os.write(resposta.getBytes());
+                os.write("Erro interno do servidor".getBytes(StandardCharsets.UTF_8));
                 os.close();
+            }
+        }
+    }
+
+    // Handler para a rota /comandos: vários comandos agrupados pelo gateway, uma resposta por linha
+    static class ComandosHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                exchange.close();
+                return;
+            }
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+                StringBuilder respostas = new StringBuilder();
+                String linha;
+                int quantidade = 0;
+                while ((linha = reader.readLine()) != null && quantidade++ < ComandosAgrupados.MAXIMO) {
+                    respostas.append(receberLinha(linha)).append('\n');
+                }
+                responder(exchange, respostas.toString());
 
-                // Se o batch atingir o tamanho máximo, processar imediatamente
                 if (requestBatch.size() >= BATCH_SIZE) {
-                    processarBatch();
+                    agendarBatch();
                 }
 
             } catch (Exception e) {
-                logger.error("Erro no processamento do lance: " + e.getMessage(), e);
+                logger.error("Erro no processamento dos comandos agrupados: {}", e.getMessage(), e);
                 exchange.sendResponseHeaders(500, 0);
                 OutputStream os = exchange.getResponseBody();
                 os.write("Erro interno do servidor".getBytes(StandardCharsets.UTF_8));
@@ -159,13 +271,192 @@ public class HTTPHandler {
         }
     }
 
-    // Processar o batch de requisições
+    // Handler para a rota /lote: comandos lidos do corpo aos poucos, um resultado NDJSON por linha à medida que saem
+    static class LoteHandler implements HttpHandler {
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                exchange.close();
+                return;
+            }
+
+            // Tamanho 0: resposta em chunks, escrita enquanto o corpo ainda chega
+            exchange.getResponseHeaders().set("Content-Type", ComandosLote.TIPO_CONTEUDO);
+            exchange.sendResponseHeaders(200, 0);
+            int numero = 0;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(exchange.getRequestBody(), StandardCharsets.UTF_8));
+                 Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+                String linha;
+                while ((linha = reader.readLine()) != null) {
+                    if (linha.isBlank()) {
+                        continue;
+                    }
+                    out.write(ComandosLote.resultado(++numero, receberDoLote(linha)));
+                    out.write('\n');
+                    if (requestBatch.size() >= BATCH_SIZE) {
+                        agendarBatch();
+                    }
+                    // Sem mais linhas já recebidas, os resultados seguem para o cliente
+                    if (!reader.ready()) {
+                        out.flush();
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Lote interrompido após {} comandos: {}", numero, e.getMessage());
+            }
+            logger.info("Lote recebido: {} comandos", numero);
+        }
+
+        private static String receberDoLote(String linha) {
+            String mensagem;
+            try {
+                mensagem = ComandosLote.comando(linha);
+            } catch (IllegalArgumentException e) {
+                return "Mensagem inválida: " + e.getMessage();
+            }
+            String chave = ChaveIdempotencia.chaveDe(mensagem);
+            mensagem = ChaveIdempotencia.semChave(mensagem);
+            String tipo = RequisicaoPendente.comando(mensagem);
+            return receber(tipo, mensagem.substring(tipo.length() + 1), null, chave);
+        }
+    }
+
+    // Uma linha "#id;!chave;comando;dados", com id e chave opcionais (comandos agrupados e canal de memória)
+    private static String receberLinha(String linha) {
+        String idRequisicao = Rastreador.idDe(linha);
+        String mensagem = Rastreador.semId(linha);
+        String chave = ChaveIdempotencia.chaveDe(mensagem);
+        mensagem = ChaveIdempotencia.semChave(mensagem);
+
+        String tipo = RequisicaoPendente.comando(mensagem);
+        return "outro".equals(tipo) ? "Mensagem inválida" : receber(tipo, mensagem.substring(tipo.length() + 1), idRequisicao, chave);
+    }
+
+    /**
+     * Um comando recebido: respondido pelo cache de idempotência se for
+     * repetido, senão colocado no batch.
+     *
+     * @param tipo cadastrarItem ou registrarLance
+     * @param dados Campos do comando, sem o tipo
+     * @return a resposta ao cliente
+     */
+    private static String receber(String tipo, String dados, String idRequisicao, String chave) {
+        Rastro rastro = Rastreador.iniciar(idRequisicao, "http:" + tipo);
+        boolean amostrada = Amostragem.amostrada(rastro);
+        if (amostrada) {
+            logger.info("Dados recebidos ({}): {}", tipo, dados);
+        }
+
+        String resposta = "cadastrarItem".equals(tipo)
+                ? "Requisição recebida e adicionada ao batch."
+                : "Requisição de lance recebida e adicionada ao batch.";
+        String comando = tipo + ";" + dados; // Adiciona um identificador para o tipo de requisição
+        String repetida = chave != null ? idempotencia.reservar(chave, comando, resposta) : null;
+        if (repetida != null) {
+            // Repetição do comando: responde pelo cache, sem passar pelo batch
+            rastro.concluir();
+            return repetida;
+        }
+
+        // Lance de um item quente vai para a faixa quente; o resto, ao batch
+        RequisicaoPendente requisicao = new RequisicaoPendente(comando, rastro, chave);
+        if (faixaQuente.aceitar(requisicao)) {
+            return resposta;
+        }
+        synchronized (requestBatch) {
+            requestBatch.add(requisicao);
+            metricas.enfileirada(requisicao, requestBatch.size());
+            if (amostrada) {
+                logger.info("Requisição de {} adicionada ao batch. Tamanho atual: {}", tipo, requestBatch.size());
+            }
+        }
+        return resposta;
+    }
+
+    private static void responder(HttpExchange exchange, String resposta) throws IOException {
+        byte[] bytes = resposta.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+
+    // Handler para a rota /lances/{idItem}?after=<cursor>&limit=<n> (também usado pelo handler local)
+    static class LancesHandler implements HttpHandler {
+        private final ArmazenamentoLeilao bancoDados;
+
+        LancesHandler(ArmazenamentoLeilao bancoDados) {
+            this.bancoDados = bancoDados;
+        }
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                exchange.close();
+                return;
+            }
+
+            int idItem;
+            int apos;
+            int limite;
+            try {
+                String caminho = exchange.getRequestURI().getPath();
+                idItem = Integer.parseInt(caminho.substring("/lances/".length()));
+                Map<String, String> parametros = lerParametros(exchange.getRequestURI().getRawQuery());
+                apos = ConsultaHistorico.cursor(parametros.get("after"));
+                limite = ConsultaHistorico.limitar(parametros.get("limit"));
+            } catch (RuntimeException e) {
+                byte[] resposta = "Uso: /lances/{idItem}?after=<cursor>&limit=<n>".getBytes(StandardCharsets.UTF_8);
+                exchange.sendResponseHeaders(400, resposta.length);
+                try (OutputStream os = exchange.getResponseBody()) {
+                    os.write(resposta);
+                }
+                return;
+            }
+
+            // Tamanho 0: resposta em chunks, escrita enquanto as linhas chegam do banco
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+            exchange.sendResponseHeaders(200, 0);
+            try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(), StandardCharsets.UTF_8))) {
+                int entregues = ConsultaHistorico.escrever(bancoDados, idItem, apos, limite, out);
+                logger.info("Histórico do item {} enviado: {} lances após o cursor {}", idItem, entregues, apos);
+            }
+        }
+
+        private static Map<String, String> lerParametros(String query) {
+            Map<String, String> parametros = new HashMap<>();
+            if (query == null) {
+                return parametros;
+            }
+            for (String par : query.split("&")) {
+                int igual = par.indexOf('=');
+                if (igual > 0) {
+                    parametros.put(par.substring(0, igual), par.substring(igual + 1));
+                }
+            }
+            return parametros;
+        }
+    }
+
+    // Pede um processarBatch à thread do batch; pedidos feitos antes de ele começar viram um só
+    private static void agendarBatch() {
+        if (batchAgendado.compareAndSet(false, true)) {
+            batchScheduler.execute(() -> {
+                batchAgendado.set(false);
+                processarBatch();
+            });
+        }
+    }
+
+    // Processar o batch de requisições (sempre na thread do batch)
     private static void processarBatch() {
-        List<String> batchParaProcessar;
+        List<RequisicaoPendente> batchParaProcessar;
 
         synchronized (requestBatch) {
             if (requestBatch.isEmpty()) {
-                logger.info("Nenhuma requisição no batch para processar.");
+                logger.debug("Nenhuma requisição no batch para processar.");
                 return;
             }
 
@@ -174,10 +465,21 @@ public class HTTPHandler {
             requestBatch.clear();
         }
 
-        logger.info("Processando batch com " + batchParaProcessar.size() + " requisições.");
+        logger.info("Processando batch com {} requisições.", batchParaProcessar.size());
+        long inicioBatch = System.nanoTime();
+        EventoBatch evento = new EventoBatch();
+        evento.begin();
+        for (RequisicaoPendente requisicao : batchParaProcessar) {
+            requisicao.rastro.marcar("batch");
+        }
+
+        // Lances do batch são aplicados de uma só vez no armazenamento
+        List<RequisicaoPendente> requisicoesLance = new ArrayList<>();
+        List<Lance> lances = new ArrayList<>();
 
-        for (String request : batchParaProcessar) {
+        for (RequisicaoPendente requisicao : batchParaProcessar) {
             try {
+                String request = requisicao.mensagem;
                 String[] partes = request.split(";", 2); // Tipo da requisição e dados separados
                 String tipoRequisicao = partes[0];
                 String dadosRequisicao = partes[1];
@@ -186,34 +488,56 @@ public class HTTPHandler {
                     String[] dados = dadosRequisicao.split(";");
                     String nome = dados[0];
                     String descricao = dados[1];
-                    double precoInicial = Double.parseDouble(dados[2]);
+                    long precoInicialCentavos = Centavos.deTexto(dados[2]);
+                    // Quarto campo opcional: duração do leilão em segundos
+                    long encerraEm = dados.length > 3 ? System.currentTimeMillis() + Long.parseLong(dados[3].trim()) * 1000 : 0L;
 
                     // Chama o banco de dados para cadastrar o item
-                    int idItem = bancoDados.adicionarItem(nome, descricao, precoInicial);
-                    if (idItem != -1) {
-                        logger.info("Item cadastrado com sucesso: " + nome + " (ID: " + idItem + ")");
-                    } else {
-                        logger.error("Erro ao cadastrar o item: " + nome);
+                    Rastreador.ativar(requisicao.rastro);
+                    int idItem = bancoDados.adicionarItem(nome, descricao, precoInicialCentavos, encerraEm);
+                    Rastreador.desativar();
+                    idempotencia.concluir(requisicao.chave, idItem != -1 ? "Item cadastrado com sucesso: " + idItem : "Erro ao cadastrar item.");
+                    if (idItem == -1) {
+                        logger.error("Erro ao cadastrar o item: {}", nome);
+                    } else if (Amostragem.amostrada(requisicao.rastro)) {
+                        logger.info("Item cadastrado com sucesso: {} (ID: {})", nome, idItem);
                     }
+                    metricas.filaAteCommit.registrarDesde(requisicao.recebidaEm);
+                    requisicao.rastro.concluir();
                 } else if ("registrarLance".equals(tipoRequisicao)) {
                     String[] dados = dadosRequisicao.split(";");
                     int idItem = Integer.parseInt(dados[0]);
                     String cliente = dados[1];
-                    double valor = Double.parseDouble(dados[2]);
-
-                    // Chama o banco de dados para registrar o lance
-                    boolean sucesso = bancoDados.registrarLance(idItem, cliente, valor);
-                    if (sucesso) {
-                        logger.info("Lance registrado com sucesso para o item " + idItem);
-                    } else {
-                        logger.error("Erro ao registrar lance para o item " + idItem);
-                    }
+                    long valorCentavos = Centavos.deTexto(dados[2]);
+
+                    requisicoesLance.add(requisicao);
+                    lances.add(new Lance(0, idItem, cliente, valorCentavos));
                 }
 
             } catch (Exception e) {
-                logger.error("Erro ao processar requisição do batch: " + e.getMessage(), e);
+                logger.error("Erro ao processar requisição do batch: {}", e.getMessage(), e);
+                idempotencia.concluir(requisicao.chave, "Mensagem inválida");
+                requisicao.rastro.concluir();
             }
         }
-    }
 
+        if (!lances.isEmpty()) {
+            // Chama o banco de dados para registrar os lances do batch
+            Rastreador.ativar(RequisicaoPendente.rastros(requisicoesLance));
+            boolean[] resultados = bancoDados.registrarLances(lances);
+            Rastreador.desativar();
+            for (int i = 0; i < resultados.length; i++) {
+                idempotencia.concluir(requisicoesLance.get(i).chave, resultados[i] ? "Lance registrado com sucesso." : "Lance recusado.");
+                metricas.filaAteCommit.registrarDesde(requisicoesLance.get(i).recebidaEm);
+                requisicoesLance.get(i).rastro.concluir();
+                // Lance recusado (valor abaixo do maior ou leilão encerrado) é resultado normal, não falha do sistema
+                if (Amostragem.amostrada(requisicoesLance.get(i).rastro)) {
+                    logger.info(resultados[i] ? "Lance registrado com sucesso para o item {}" : "Lance recusado para o item {}",
+                            lances.get(i).getIdItem());
+                }
+            }
+        }
+
+        metricas.batchProcessado(evento, batchParaProcessar, lances.size(), inicioBatch);
+    }
 }
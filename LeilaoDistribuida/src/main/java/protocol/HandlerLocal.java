@@ -0,0 +1,164 @@
+package protocol;
+
+import com.sun.net.httpserver.HttpExchange;
+import database.ArmazenamentoLeilao;
+import log.Amostragem;
+import metricas.EventoBatch;
+import metricas.Rastreador;
+import metricas.Rastro;
+import models.Lance;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Handler no mesmo processo do gateway (modo co-localizado).
+ *
+ * O gateway entrega o Comando já analisado numa fila limitada, sem socket
+ * nem texto no caminho. A thread do batch leva de uma vez tudo o que chegou
+ * enquanto o batch anterior rodava e aplica os lances juntos no
+ * armazenamento, como os handlers remotos; a chave de idempotência tem o
+ * mesmo cache por handler. Com a fila cheia o comando é recusado, e o
+ * gateway conta a recusa no disjuntor do backend local como a falha de um
+ * handler remoto. Os lances dos itens quentes vão para a FaixaQuente, como
+ * nos handlers remotos. As consultas ao histórico rodam na thread do
+ * gateway, com o mesmo formato de resposta dos handlers HTTP e TCP.
+ */
+public final class HandlerLocal {
+    private static final Logger logger = LoggerFactory.getLogger(HandlerLocal.class);
+
+    private static final String CONFIRMACAO = "Requisição recebida e será processada em batch.";
+    private static final int MAXIMO_BATCH = 1000; // Requisições levadas da fila por batch, no máximo
+
+    private final ArmazenamentoLeilao bancoDados;
+    private final BlockingQueue<RequisicaoPendente> fila;
+    private final MetricasBatch metricas;
+    private final CacheIdempotencia idempotencia = new CacheIdempotencia("local");
+    private final FaixaQuente faixaQuente;
+    private final HTTPHandler.LancesHandler consultaHTTP;
+    private final Thread batch;
+
+    public HandlerLocal(ArmazenamentoLeilao bancoDados, int capacidade) {
+        this.bancoDados = bancoDados;
+        this.fila = new ArrayBlockingQueue<>(capacidade);
+        this.metricas = new MetricasBatch("local", fila);
+        this.faixaQuente = new FaixaQuente("local", () -> bancoDados, idempotencia, metricas, "Erro ao registrar lance.");
+        this.consultaHTTP = new HTTPHandler.LancesHandler(bancoDados);
+        this.batch = new Thread(this::executar, "local-batch");
+        batch.setDaemon(true);
+        batch.start();
+    }
+
+    // Vivo enquanto a thread do batch roda; só assim o gateway renova a concessão do backend local
+    public boolean isAtivo() {
+        return batch.isAlive();
+    }
+
+    /**
+     * Coloca o comando na fila do batch.
+     *
+     * @param idRequisicao Id de rastreamento do gateway, ou null
+     * @return a confirmação, ou a resposta guardada de uma chave repetida
+     * @throws IllegalStateException se a fila estiver cheia
+     */
+    public String enviar(Comando comando, String chave, String idRequisicao) {
+        Rastro rastro = Rastreador.iniciar(idRequisicao, "local:" + comando.tipo().nome);
+        String repetida = chave != null ? idempotencia.reservar(chave, comando, CONFIRMACAO) : null;
+        if (repetida != null) {
+            rastro.concluir();
+            return repetida;
+        }
+
+        RequisicaoPendente requisicao = new RequisicaoPendente(comando, rastro, chave);
+        if (faixaQuente.aceitar(requisicao)) {
+            return CONFIRMACAO;
+        }
+        if (!fila.offer(requisicao)) {
+            idempotencia.cancelar(chave);
+            rastro.concluir();
+            throw new IllegalStateException("Fila do handler local cheia.");
+        }
+        metricas.enfileirada(requisicao, fila.size());
+        return CONFIRMACAO;
+    }
+
+    // GET /lances/{idItem}?after=&limit=, respondido como no HTTPHandler
+    public void consultarHTTP(HttpExchange exchange) throws IOException {
+        consultaHTTP.handle(exchange);
+    }
+
+    // historicoLances;idItem[;cursor[;limite]], respondido como no TCPHandler
+    public void consultarTCP(String mensagem, Writer out) throws IOException {
+        TCPHandler.responderHistorico(bancoDados, mensagem, out);
+    }
+
+    private void executar() {
+        List<RequisicaoPendente> pendentes = new ArrayList<>();
+        while (true) {
+            try {
+                pendentes.add(fila.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            fila.drainTo(pendentes, MAXIMO_BATCH - 1);
+            try {
+                processarBatch(pendentes);
+            } catch (RuntimeException e) {
+                logger.error("Erro no batch do handler local: {}", e.getMessage(), e);
+            }
+            pendentes.clear();
+        }
+    }
+
+    // Itens cadastrados um a um, na ordem de chegada; os lances, de uma só vez no armazenamento
+    private void processarBatch(List<RequisicaoPendente> batch) {
+        long inicioBatch = System.nanoTime();
+        EventoBatch evento = new EventoBatch();
+        evento.begin();
+
+        List<RequisicaoPendente> requisicoesLance = new ArrayList<>();
+        List<Lance> lances = new ArrayList<>();
+        for (RequisicaoPendente requisicao : batch) {
+            requisicao.rastro.marcar("batch");
+            Comando comando = requisicao.comando;
+            if (comando.tipo() == Comando.Tipo.REGISTRAR_LANCE) {
+                requisicoesLance.add(requisicao);
+                lances.add(comando.lance());
+                continue;
+            }
+
+            long encerraEm = comando.duracao() >= 0 ? System.currentTimeMillis() + comando.duracao() * 1000 : 0L;
+            Rastreador.ativar(requisicao.rastro);
+            int idItem = bancoDados.adicionarItem(comando.nome(), comando.descricao(), comando.precoInicialCentavos(), encerraEm);
+            Rastreador.desativar();
+            concluir(requisicao, idItem != -1 ? "Item cadastrado com sucesso: " + idItem : "Erro ao cadastrar item.");
+        }
+
+        if (!lances.isEmpty()) {
+            Rastreador.ativar(RequisicaoPendente.rastros(requisicoesLance));
+            boolean[] resultados = bancoDados.registrarLances(lances);
+            Rastreador.desativar();
+            for (int i = 0; i < resultados.length; i++) {
+                concluir(requisicoesLance.get(i), resultados[i] ? "Lance registrado com sucesso." : "Erro ao registrar lance.");
+            }
+        }
+
+        metricas.batchProcessado(evento, batch, lances.size(), inicioBatch);
+        logger.debug("Batch local concluído: {} requisições", batch.size());
+    }
+
+    private void concluir(RequisicaoPendente requisicao, String resposta) {
+        idempotencia.concluir(requisicao.chave, resposta);
+        metricas.filaAteCommit.registrarDesde(requisicao.recebidaEm);
+        requisicao.rastro.concluir();
+        if (Amostragem.amostrada(requisicao.rastro)) {
+            logger.info("Requisição processada: {}. Resposta: {}", requisicao.comando, resposta);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package protocol;
+
+import metricas.Contador;
+import metricas.EventoBatch;
+import metricas.EventoEnfileiramento;
+import metricas.Histograma;
+import metricas.Metricas;
+
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Séries de métricas do estágio de batch de um handler, rotuladas pelo
+ * protocolo, e os eventos JFR de enfileiramento e processamento do batch.
+ */
+final class MetricasBatch {
+    private final String protocolo;
+    final Contador requisicoes;
+    final Histograma filaAteCommit;
+    final Histograma duracaoBatch;
+    final Histograma tamanhoBatch;
+
+    MetricasBatch(String protocolo, Collection<?> requestBatch) {
+        this.protocolo = protocolo;
+        requisicoes = Metricas.contador("leilao_handler_requisicoes_total",
+                "Requisições recebidas pelo handler", "protocolo", protocolo);
+        filaAteCommit = Metricas.histogramaTempo("leilao_handler_fila_ate_commit_segundos",
+                "Tempo entre a entrada da requisição no batch e o fim do seu processamento", "protocolo", protocolo);
+        duracaoBatch = Metricas.histogramaTempo("leilao_handler_batch_segundos",
+                "Duração de processarBatch", "protocolo", protocolo);
+        tamanhoBatch = Metricas.histograma("leilao_handler_batch_tamanho",
+                "Quantidade de requisições por batch processado", "protocolo", protocolo);
+        Metricas.medidor("leilao_handler_batch_pendentes",
+                "Requisições aguardando o próximo batch", requestBatch::size, "protocolo", protocolo);
+    }
+
+    // Chamado com a trava do requestBatch, logo após adicionar a requisição
+    void enfileirada(RequisicaoPendente requisicao, int tamanhoFila) {
+        requisicoes.incrementar();
+        requisicao.rastro.marcar("enfileirada");
+
+        EventoEnfileiramento evento = new EventoEnfileiramento();
+        if (evento.shouldCommit()) {
+            evento.protocolo = protocolo;
+            evento.tamanhoFila = tamanhoFila;
+            evento.idRequisicao = requisicao.rastro.getId();
+            evento.commit();
+        }
+    }
+
+    // Fecha um processarBatch: histogramas e o evento JFR iniciado no começo do batch
+    void batchProcessado(EventoBatch evento, List<RequisicaoPendente> batch, int lances, long inicioBatch) {
+        duracaoBatch.registrarDesde(inicioBatch);
+        tamanhoBatch.registrar(batch.size());
+
+        evento.end();
+        if (evento.shouldCommit()) {
+            evento.protocolo = protocolo;
+            evento.tamanho = batch.size();
+            evento.lances = lances;
+            evento.esperaMaxima = batch.isEmpty() ? 0 : inicioBatch - batch.get(0).recebidaEm;
+            evento.commit();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package protocol;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Registro do handler no gateway e renovação da concessão.
+ *
+ * O registro inicial é um POST em /registerServer; depois, a cada
+ * intervalo, um datagrama com o mesmo corpo ("tipo;[host:]porta;peso[;transporte]") vai
+ * para a porta UDP 9003 do gateway. Se o gateway reiniciar ou deixar a
+ * concessão vencer, o próximo heartbeat registra o handler de novo.
+ *
+ * Propriedades:
+ * - leilao.gateway.host: endereço do gateway (padrão localhost)
+ * - leilao.handler.host: endereço anunciado ao gateway; sem ele, o gateway
+ *   usa o endereço de origem do registro
+ * - leilao.handler.peso: peso no round-robin (padrão 1)
+ * - leilao.handler.transporte: "memoria" para receber os comandos do gateway
+ *   pelo canal de memória compartilhada (ServidorMemoria); padrão "rede"
+ * - leilao.registro.intervalo: ms entre heartbeats (padrão 1000, um terço da
+ *   concessão padrão do gateway)
+ */
+final class RegistroGateway {
+    private static final Logger logger = LoggerFactory.getLogger(RegistroGateway.class);
+
+    private static final String HOST_GATEWAY = System.getProperty("leilao.gateway.host", "localhost");
+    private static final int PORTA_GATEWAY_HTTP = 9000;
+    private static final int PORTA_GATEWAY_HEARTBEAT = 9003;
+    private static final long INTERVALO_MILLIS = Long.getLong("leilao.registro.intervalo", 1000);
+
+    private RegistroGateway() {
+    }
+
+    // Registra o handler e agenda os heartbeats numa thread daemon
+    static void iniciar(String tipo, int porta) {
+        String host = System.getProperty("leilao.handler.host");
+        String corpo = tipo + ";" + (host != null ? host + ":" : "") + porta + ";" + Integer.getInteger("leilao.handler.peso", 1);
+        if (ServidorMemoria.ATIVO) {
+            corpo += ";memoria";
+        }
+
+        registrar(tipo, corpo);
+
+        ScheduledExecutorService agendador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "registro-heartbeat");
+            t.setDaemon(true);
+            return t;
+        });
+        byte[] heartbeat = corpo.getBytes(StandardCharsets.UTF_8);
+        try {
+            DatagramSocket socket = new DatagramSocket();
+            agendador.scheduleAtFixedRate(() -> enviarHeartbeat(socket, heartbeat), INTERVALO_MILLIS, INTERVALO_MILLIS, TimeUnit.MILLISECONDS);
+        } catch (IOException e) {
+            logger.error("Erro ao abrir o socket de heartbeat: {}", e.getMessage(), e);
+        }
+    }
+
+    private static void registrar(String tipo, String corpo) {
+        try {
+            URL url = new URL("http://" + HOST_GATEWAY + ":" + PORTA_GATEWAY_HTTP + "/registerServer");
+            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
+            conn.setRequestMethod("POST");
+            conn.setDoOutput(true);
+            conn.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
+
+            try (OutputStream os = conn.getOutputStream()) {
+                byte[] input = corpo.getBytes(StandardCharsets.UTF_8);
+                os.write(input, 0, input.length);
+            }
+
+            int responseCode = conn.getResponseCode();
+            logger.info("Servidor {} registrado no Gateway com status: {} ({})", tipo.toUpperCase(), responseCode, corpo);
+
+        } catch (IOException e) {
+            // Não é fatal: os heartbeats registram o handler quando o gateway subir
+            logger.error("Erro ao registrar servidor {} no Gateway: {}", tipo.toUpperCase(), e.getMessage());
+        }
+    }
+
+    private static void enviarHeartbeat(DatagramSocket socket, byte[] heartbeat) {
+        try {
+            InetAddress gateway = InetAddress.getByName(HOST_GATEWAY);
+            socket.send(new DatagramPacket(heartbeat, heartbeat.length, gateway, PORTA_GATEWAY_HEARTBEAT));
+        } catch (IOException e) {
+            logger.warn("Falha ao enviar heartbeat ao Gateway: {}", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package protocol;
+
+import metricas.Rastro;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Requisição aguardando no batch, com o instante de chegada para medir o tempo até o commit
+final class RequisicaoPendente {
+    final String mensagem;  // Texto do comando (handlers remotos)
+    final Comando comando;  // Comando já analisado (handler local)
+    final Rastro rastro;
+    final String chave;    // Chave de idempotência, ou null
+    final long recebidaEm; // System.nanoTime()
+
+    RequisicaoPendente(String mensagem, Rastro rastro) {
+        this(mensagem, rastro, null);
+    }
+
+    RequisicaoPendente(String mensagem, Rastro rastro, String chave) {
+        this(mensagem, null, rastro, chave);
+    }
+
+    RequisicaoPendente(Comando comando, Rastro rastro, String chave) {
+        this(null, comando, rastro, chave);
+    }
+
+    private RequisicaoPendente(String mensagem, Comando comando, Rastro rastro, String chave) {
+        this.mensagem = mensagem;
+        this.comando = comando;
+        this.rastro = rastro;
+        this.chave = chave;
+        this.recebidaEm = System.nanoTime();
+    }
+
+    // Nome do comando para rotular o rastro; valores fora do protocolo viram "outro"
+    static String comando(String mensagem) {
+        if (mensagem.startsWith("cadastrarItem")) {
+            return "cadastrarItem";
+        }
+        if (mensagem.startsWith("registrarLance")) {
+            return "registrarLance";
+        }
+        return "outro";
+    }
+
+    static List<Rastro> rastros(List<RequisicaoPendente> requisicoes) {
+        List<Rastro> rastros = new ArrayList<>(requisicoes.size());
+        for (RequisicaoPendente requisicao : requisicoes) {
+            rastros.add(requisicao.rastro);
+        }
+        return rastros;
+    }
+}
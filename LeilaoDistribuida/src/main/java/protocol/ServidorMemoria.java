@@ -0,0 +1,88 @@
+package protocol;
+
+import metricas.Contador;
+import metricas.Metricas;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.UnaryOperator;
+
+/**
+ * Lado do handler do transporte por memória compartilhada (CanalMemoria).
+ *
+ * Com leilao.handler.transporte=memoria, o handler cria o canal da sua porta
+ * e se anuncia ao gateway com esse transporte; os comandos do gateway
+ * passam a chegar pelo anel, uma linha por mensagem no mesmo formato do
+ * socket ("#id;!chave;tipo;dados"), e cada um recebe uma linha de resposta.
+ * As consultas e os clientes diretos continuam na porta de rede.
+ *
+ * Uma única thread consome o anel: cada comando só entra no batch, então a
+ * resposta sai logo e a próxima mensagem já pode ser lida.
+ */
+final class ServidorMemoria {
+    private static final Logger logger = LoggerFactory.getLogger(ServidorMemoria.class);
+
+    static final String TRANSPORTE = System.getProperty("leilao.handler.transporte", "rede");
+    static final boolean ATIVO = "memoria".equalsIgnoreCase(TRANSPORTE);
+
+    private static final long ESPERA_RESPOSTA_NANOS = TimeUnit.SECONDS.toNanos(5); // Anel de respostas cheio: gateway parado
+
+    private ServidorMemoria() {
+    }
+
+    /**
+     * Cria o canal do handler e inicia a thread que o consome.
+     *
+     * @param atender      Resposta de uma linha de comando
+     * @param aposComando  Chamado depois de cada resposta (ex.: agendar o batch cheio)
+     */
+    static void iniciar(String protocolo, int porta, UnaryOperator<String> atender, Runnable aposComando) throws IOException {
+        Path arquivo = CanalMemoria.caminho(protocolo, porta);
+        CanalMemoria canal = CanalMemoria.criar(arquivo, CanalMemoria.CAPACIDADE_PADRAO);
+        Contador mensagens = Metricas.contador("leilao_handler_ipc_mensagens_total",
+                "Comandos recebidos pelo canal de memória compartilhada", "protocolo", protocolo);
+        Contador descartadas = Metricas.contador("leilao_handler_ipc_descartadas_total",
+                "Respostas descartadas com o anel de respostas cheio", "protocolo", protocolo);
+
+        Thread consumidor = new Thread(() -> {
+            try {
+                while (true) {
+                    CanalMemoria.Mensagem mensagem = canal.receber();
+                    mensagens.incrementar();
+                    String resposta;
+                    try {
+                        resposta = atender.apply(mensagem.texto());
+                    } catch (RuntimeException e) {
+                        logger.error("Erro ao atender comando do canal de memória: {}", e.getMessage(), e);
+                        resposta = "Mensagem inválida";
+                    }
+                    if (!responder(canal, mensagem.seq(), resposta)) {
+                        descartadas.incrementar();
+                    }
+                    aposComando.run();
+                }
+            } catch (IOException e) {
+                logger.error("Canal de memória {} encerrado: {}", arquivo, e.getMessage());
+            }
+        }, protocolo + "-memoria");
+        consumidor.setDaemon(true);
+        consumidor.start();
+        logger.info("Canal de memória compartilhada em {}", arquivo);
+    }
+
+    // O gateway pode estar lento para ler: espera por espaço até o prazo, depois desiste da resposta
+    private static boolean responder(CanalMemoria canal, long seq, String resposta) throws IOException {
+        long prazo = System.nanoTime() + ESPERA_RESPOSTA_NANOS;
+        while (!canal.enviar(seq, resposta)) {
+            if (System.nanoTime() > prazo) {
+                return false;
+            }
+            LockSupport.parkNanos(50_000);
+        }
+        return true;
+    }
+}
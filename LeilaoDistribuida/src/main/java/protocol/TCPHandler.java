@@ -1,6 +1,14 @@
 package protocol;
 
-import database.BancoDados;
+import database.Armazenamento;
+import database.ArmazenamentoLeilao;
+import log.Amostragem;
+import metricas.EventoBatch;
+import metricas.Metricas;
+import metricas.Rastreador;
+import metricas.Rastro;
+import models.Centavos;
+import models.Lance;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -15,27 +23,40 @@ import java.util.concurrent.TimeUnit;
 
 public class TCPHandler {
     private static final Logger logger = LoggerFactory.getLogger(TCPHandler.class);
-    private static BancoDados bancoDados;
+    static ArmazenamentoLeilao bancoDados; // Visível no pacote para os benchmarks (módulo benchmarks)
 
     // Fila para agrupar requisições (Request Batch)
-    private static final List<String> requestBatch = new ArrayList<>();
+    private static final List<RequisicaoPendente> requestBatch = new ArrayList<>();
     private static final int BATCH_SIZE = 5; // Tamanho máximo do batch
     private static final long BATCH_INTERVAL = 10; // Intervalo de processamento do batch em segundos
 
+    private static final MetricasBatch metricas = new MetricasBatch("tcp", requestBatch);
+    private static final CacheIdempotencia idempotencia = new CacheIdempotencia("tcp");
+    private static final String CONFIRMACAO = "Requisição recebida e será processada em batch.";
+    // Lances dos itens quentes, escritos fora do batch comum
+    private static final FaixaQuente faixaQuente = new FaixaQuente("tcp", () -> bancoDados, idempotencia, metricas, "Erro ao registrar lance.");
+
     // Executor para agendar o processamento do batch
     private static final ScheduledExecutorService batchScheduler = Executors.newScheduledThreadPool(1);
 
     public static void main(String[] args) {
         int porta = Integer.parseInt(args[0]);
 
-        bancoDados = BancoDados.getInstance();
+        // Motor de armazenamento opcional como segundo argumento (postgres | memoria)
+        bancoDados = Armazenamento.criar(args.length > 1 ? args[1] : null);
 
         // Agendar o processamento do batch em intervalos regulares
         batchScheduler.scheduleAtFixedRate(TCPHandler::processarBatch, BATCH_INTERVAL, BATCH_INTERVAL, TimeUnit.SECONDS);
 
+        // /metrics numa porta lateral, já que o handler não fala HTTP
+        Metricas.iniciarServidor(porta);
+
         try (ServerSocket serverSocket = new ServerSocket(porta)) {
             logger.info("Servidor TCP rodando na porta {}", porta);
-            registrarNoGateway(porta); // Registrar no gateway
+            if (ServidorMemoria.ATIVO) {
+                ServidorMemoria.iniciar("tcp", porta, TCPHandler::receber, () -> { }); // O batch cheio roda no enfileirar
+            }
+            RegistroGateway.iniciar("tcp", porta); // Registrar no gateway e renovar a concessão
 
             while (true) {
                 Socket cliente = serverSocket.accept();
@@ -43,7 +64,7 @@ public class TCPHandler {
             }
 
         } catch (IOException e) {
-            logger.error("Erro ao iniciar o servidor TCP: " + e.getMessage(), e);
+            logger.error("Erro ao iniciar o servidor TCP: {}", e.getMessage(), e);
         }
     }
 
@@ -55,29 +76,6 @@ public class TCPHandler {
         }
     }
 
-    // Registrar o servidor no Gateway
-    private static void registrarNoGateway(int porta) {
-        try {
-            URL url = new URL("http://localhost:9000/registerServer");
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setDoOutput(true);
-            conn.setRequestProperty("Content-Type", "text/plain; charset=UTF-8");
-
-            String corpo = "tcp;" + porta;
-            try (OutputStream os = conn.getOutputStream()) {
-                byte[] input = corpo.getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
-            }
-
-            int responseCode = conn.getResponseCode();
-            logger.info("Servidor TCP registrado no Gateway com status: " + responseCode);
-
-        } catch (IOException e) {
-            logger.error("Erro ao registrar servidor TCP no Gateway: " + e.getMessage(), e);
-        }
-    }
-
     // Handler para as conexões dos clientes TCP
     static class ClienteTCPHandler implements Runnable {
         private final Socket cliente;
@@ -91,31 +89,51 @@ public class TCPHandler {
             try (BufferedReader in = new BufferedReader(new InputStreamReader(cliente.getInputStream(), StandardCharsets.UTF_8));
                  BufferedWriter out = new BufferedWriter(new OutputStreamWriter(cliente.getOutputStream(), StandardCharsets.UTF_8))) {
 
-                String mensagem = in.readLine();
-                if (mensagem != null) {
+                String linha = in.readLine();
+                if (linha != null) {
+                    String mensagem = Rastreador.semId(linha);
+
                     // Verifica se é um healthcheck
                     if ("ping".equalsIgnoreCase(mensagem.trim())) {
-                        logger.info("Healthcheck recebido. Respondendo com pong.");
+                        if (Amostragem.amostrada()) {
+                            logger.info("Healthcheck recebido. Respondendo com pong.");
+                        }
                         TCPHandler.healthCheck(cliente);
                         return;
                     }
 
-                    logger.info("Requisição recebida no TCPHandler: " + mensagem);
-
-                    // Adicionar a requisição na fila do batch
-                    synchronized (requestBatch) {
-                        requestBatch.add(mensagem);
-                        logger.info("Requisição adicionada ao batch. Tamanho atual do batch: " + requestBatch.size());
+                    // Consulta de histórico: respondida na hora, fora do batch
+                    if (mensagem.startsWith("historicoLances")) {
+                        responderHistorico(bancoDados, mensagem, out);
+                        return;
+                    }
 
-                        // Verifica se o batch atingiu o tamanho máximo para processar imediatamente
-                        if (requestBatch.size() >= BATCH_SIZE) {
-                            logger.info("Tamanho máximo do batch atingido. Processando batch...");
-                            processarBatch();
+                    // Comandos agrupados pelo gateway: "comandos;N" e N linhas, uma resposta por linha
+                    if (ComandosAgrupados.isCabecalho(mensagem)) {
+                        int quantidade;
+                        try {
+                            quantidade = ComandosAgrupados.quantidade(mensagem);
+                        } catch (IllegalArgumentException e) {
+                            out.write("Mensagem inválida\n");
+                            out.flush();
+                            return;
+                        }
+                        for (int i = 0; i < quantidade && (linha = in.readLine()) != null; i++) {
+                            out.write(receber(linha));
+                            out.write("\n");
                         }
+                        out.flush();
+                        return;
+                    }
+
+                    // Lote do cliente: um comando por linha até uma linha vazia ou o fim da conexão
+                    if (ComandosLote.MODO_TCP.equals(mensagem.trim())) {
+                        responderLote(in, out);
+                        return;
                     }
 
                     // Resposta imediata para o cliente (a requisição será processada no batch)
-                    out.write("Requisição recebida e será processada em batch.\n");
+                    out.write(receber(linha) + "\n");
                     out.flush();
                 } else {
                     logger.warn("Nenhuma mensagem recebida do cliente.");
@@ -124,56 +142,215 @@ public class TCPHandler {
                 }
 
             } catch (IOException e) {
-                logger.error("Erro no TCPHandler: " + e.getMessage(), e);
+                logger.error("Erro no TCPHandler: {}", e.getMessage(), e);
             } finally {
                 try {
                     cliente.close();
                 } catch (IOException e) {
-                    logger.error("Erro ao fechar conexão do cliente: " + e.getMessage(), e);
+                    logger.error("Erro ao fechar conexão do cliente: {}", e.getMessage(), e);
                 }
             }
         }
     }
 
+    // Um comando recebido: respondido pelo cache de idempotência se for repetido, senão colocado no batch
+    static String receber(String linha) {
+        // Id de rastreamento opcional repassado pelo gateway: "#id;comando"
+        String idRequisicao = Rastreador.idDe(linha);
+        String mensagem = Rastreador.semId(linha);
+        // Chave de idempotência opcional: "!chave;comando"
+        String chave = ChaveIdempotencia.chaveDe(mensagem);
+        mensagem = ChaveIdempotencia.semChave(mensagem);
+
+        Rastro rastro = Rastreador.iniciar(idRequisicao, "tcp:" + RequisicaoPendente.comando(mensagem));
+        if (Amostragem.amostrada(rastro)) {
+            logger.info("Requisição recebida no TCPHandler: {}", mensagem);
+        }
+
+        // Repetição de um comando com chave: responde pelo cache, sem passar pelo batch
+        String repetida = chave != null ? idempotencia.reservar(chave, mensagem, CONFIRMACAO) : null;
+        if (repetida != null) {
+            rastro.concluir();
+            return repetida;
+        }
+
+        // Adicionar a requisição na fila do batch
+        enfileirar(mensagem, rastro, chave);
+        return CONFIRMACAO;
+    }
+
+    // Adiciona a requisição ao batch e o processa se atingir BATCH_SIZE
+    static void enfileirar(String mensagem, Rastro rastro) {
+        enfileirar(mensagem, rastro, null);
+    }
+
+    static void enfileirar(String mensagem, Rastro rastro, String chave) {
+        // Lance de um item quente vai para a faixa quente, sem esperar nem segurar o batch
+        RequisicaoPendente requisicao = new RequisicaoPendente(mensagem, rastro, chave);
+        if (faixaQuente.aceitar(requisicao)) {
+            return;
+        }
+        synchronized (requestBatch) {
+            requestBatch.add(requisicao);
+            metricas.enfileirada(requisicao, requestBatch.size());
+            if (Amostragem.amostrada(rastro)) {
+                logger.info("Requisição adicionada ao batch. Tamanho atual do batch: {}", requestBatch.size());
+            }
+
+            // Verifica se o batch atingiu o tamanho máximo para processar imediatamente
+            if (requestBatch.size() >= BATCH_SIZE) {
+                logger.debug("Tamanho máximo do batch atingido. Processando batch...");
+                processarBatch();
+            }
+        }
+    }
+
+    // Um resultado NDJSON por comando, enviado assim que não houver mais linhas já recebidas
+    private static void responderLote(BufferedReader in, BufferedWriter out) throws IOException {
+        int numero = 0;
+        String linha;
+        while ((linha = in.readLine()) != null && !linha.isBlank()) {
+            String resposta;
+            try {
+                resposta = receber(ComandosLote.comando(linha));
+            } catch (IllegalArgumentException e) {
+                resposta = "Mensagem inválida: " + e.getMessage();
+            }
+            out.write(ComandosLote.resultado(++numero, resposta));
+            out.write("\n");
+            if (!in.ready()) {
+                out.flush();
+            }
+        }
+        out.flush();
+        logger.info("Lote recebido: {} comandos", numero);
+    }
+
+    // Formato: historicoLances;idItem[;cursor[;limite]] (também usado pelo handler local)
+    static void responderHistorico(ArmazenamentoLeilao bancoDados, String mensagem, Writer out) throws IOException {
+        String[] partes = mensagem.split(";");
+        int idItem;
+        int apos;
+        int limite;
+        try {
+            idItem = Integer.parseInt(partes[1].trim());
+            apos = ConsultaHistorico.cursor(partes.length > 2 ? partes[2] : null);
+            limite = ConsultaHistorico.limitar(partes.length > 3 ? partes[3] : null);
+        } catch (RuntimeException e) {
+            out.write("Mensagem inválida\n");
+            out.flush();
+            return;
+        }
+
+        int entregues = ConsultaHistorico.escrever(bancoDados, idItem, apos, limite, out);
+        logger.info("Histórico do item {} enviado: {} lances após o cursor {}", idItem, entregues, apos);
+    }
+
     // Método para processar um batch de requisições
     private static void processarBatch() {
         synchronized (requestBatch) {
             if (requestBatch.isEmpty()) {
-                logger.info("Nenhuma requisição no batch para processar.");
+                logger.debug("Nenhuma requisição no batch para processar.");
                 return; // Se não houver requisições no batch, sair
             }
 
             // Log para indicar o início do processamento em batch
-            logger.info("Iniciando processamento do batch de requisições. Tamanho do batch: " + requestBatch.size());
+            logger.debug("Iniciando processamento do batch de requisições. Tamanho do batch: {}", requestBatch.size());
 
             // Clonar a lista de requisições para evitar conflitos de concorrência
-            List<String> batch = new ArrayList<>(requestBatch);
+            List<RequisicaoPendente> batch = new ArrayList<>(requestBatch);
             requestBatch.clear();  // Limpar a fila original após clonar
+            long inicioBatch = System.nanoTime();
+            EventoBatch evento = new EventoBatch();
+            evento.begin();
+
+            // Lances válidos são separados e aplicados de uma só vez no armazenamento
+            List<RequisicaoPendente> requisicoesLance = new ArrayList<>();
+            List<Lance> lances = new ArrayList<>();
 
             // Processar cada requisição no batch
-            for (String mensagem : batch) {
-                String resposta = processarRequisicao(mensagem);
+            for (RequisicaoPendente requisicao : batch) {
+                requisicao.rastro.marcar("batch");
+            }
 
-                // Log para cada requisição processada no batch
-                logger.info("Requisição processada: " + mensagem + ". Resposta: " + resposta);
+            for (RequisicaoPendente requisicao : batch) {
+                String mensagem = requisicao.mensagem;
+                Lance lance = extrairLance(mensagem);
+                if (lance != null) {
+                    requisicoesLance.add(requisicao);
+                    lances.add(lance);
+                    continue;
+                }
+
+                Rastreador.ativar(requisicao.rastro);
+                String resposta;
+                try {
+                    resposta = processarRequisicao(mensagem);
+                } catch (NumberFormatException e) {
+                    resposta = "Mensagem inválida"; // Número mal formado: não derruba o batch nem o agendamento dele
+                }
+                Rastreador.desativar();
+                idempotencia.concluir(requisicao.chave, resposta);
+                metricas.filaAteCommit.registrarDesde(requisicao.recebidaEm);
+                requisicao.rastro.concluir();
+
+                // Log para cada requisição processada no batch (amostrado)
+                if (Amostragem.amostrada(requisicao.rastro)) {
+                    logger.info("Requisição processada: {}. Resposta: {}", mensagem, resposta);
+                }
+            }
+
+            if (!lances.isEmpty()) {
+                Rastreador.ativar(RequisicaoPendente.rastros(requisicoesLance));
+                boolean[] resultados = bancoDados.registrarLances(lances);
+                Rastreador.desativar();
+                for (int i = 0; i < resultados.length; i++) {
+                    String resposta = resultados[i] ? "Lance registrado com sucesso." : "Erro ao registrar lance.";
+                    idempotencia.concluir(requisicoesLance.get(i).chave, resposta);
+                    metricas.filaAteCommit.registrarDesde(requisicoesLance.get(i).recebidaEm);
+                    requisicoesLance.get(i).rastro.concluir();
+                    if (Amostragem.amostrada(requisicoesLance.get(i).rastro)) {
+                        logger.info("Requisição processada: {}. Resposta: {}", requisicoesLance.get(i).mensagem, resposta);
+                    }
+                }
             }
 
+            metricas.batchProcessado(evento, batch, lances.size(), inicioBatch);
+
             // Log para indicar o fim do processamento em batch
-            logger.info("Processamento do batch concluído. Total de requisições processadas: " + batch.size());
+            logger.info("Processamento do batch concluído. Total de requisições processadas: {}", batch.size());
+        }
+    }
+
+    // Converte uma mensagem registrarLance válida em Lance (null para os demais casos)
+    private static Lance extrairLance(String mensagem) {
+        if (!mensagem.startsWith("registrarLance")) {
+            return null;
+        }
+        String[] partes = mensagem.split(";");
+        if (partes.length != 4) {
+            return null;
+        }
+        try {
+            return new Lance(0, Integer.parseInt(partes[1]), partes[2], Centavos.deTexto(partes[3]));
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
 
     // Método para processar uma única requisição
-    private static String processarRequisicao(String mensagem) {
+    static String processarRequisicao(String mensagem) {
         String resposta;
 
         if (mensagem.startsWith("cadastrarItem")) {
             String[] partes = mensagem.split(";");
-            if (partes.length == 4) {
+            if (partes.length == 4 || partes.length == 5) {
                 String nome = partes[1];
                 String descricao = partes[2];
-                double precoInicial = Double.parseDouble(partes[3]);
-                int idItem = bancoDados.adicionarItem(nome, descricao, precoInicial);
+                long precoInicialCentavos = Centavos.deTexto(partes[3]);
+                // Quinto campo opcional: duração do leilão em segundos
+                long encerraEm = partes.length == 5 ? System.currentTimeMillis() + Long.parseLong(partes[4].trim()) * 1000 : 0L;
+                int idItem = bancoDados.adicionarItem(nome, descricao, precoInicialCentavos, encerraEm);
                 resposta = (idItem != -1) ? "Item cadastrado com sucesso: " + idItem : "Erro ao cadastrar item.";
             } else {
                 resposta = "Mensagem inválida";
@@ -183,8 +360,8 @@ public class TCPHandler {
             if (partes.length == 4) {
                 int idItem = Integer.parseInt(partes[1]);
                 String clienteNome = partes[2];
-                double valor = Double.parseDouble(partes[3]);
-                boolean sucesso = bancoDados.registrarLance(idItem, clienteNome, valor);
+                long valorCentavos = Centavos.deTexto(partes[3]);
+                boolean sucesso = bancoDados.registrarLance(idItem, clienteNome, valorCentavos);
                 resposta = sucesso ? "Lance registrado com sucesso." : "Erro ao registrar lance.";
             } else {
                 resposta = "Mensagem inválida";
@@ -1,113 +1,403 @@
 package protocol;
 
-import database.BancoDados;
+import database.Armazenamento;
+import database.ArmazenamentoLeilao;
+import log.Amostragem;
+import metricas.Contador;
+import metricas.EventoBatch;
+import metricas.Histograma;
+import metricas.Metricas;
+import metricas.Rastreador;
+import metricas.Rastro;
+import models.Centavos;
+import models.Lance;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.OutputStream;
-import java.net.DatagramPacket;
-import java.net.DatagramSocket;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class UDPHandler {
 
     private static final Logger logger = LoggerFactory.getLogger(UDPHandler.class);
-    private static BancoDados bancoDados;
+    private static ArmazenamentoLeilao bancoDados;
 
     // Fila para agrupar requisições (Request Batch)
-    private static final List<String> requestBatch = new ArrayList<>();
+    private static final List<RequisicaoPendente> requestBatch = new ArrayList<>();
     private static final int BATCH_SIZE = 5; // Tamanho máximo do batch
     private static final long BATCH_INTERVAL = 10; // Intervalo de processamento do batch em segundos
 
-    // Executor para agendar o processamento do batch
+    private static final MetricasBatch metricas = new MetricasBatch("udp", requestBatch);
+    private static final CacheIdempotencia idempotencia = new CacheIdempotencia("udp");
+    private static final String CONFIRMACAO = "Requisição recebida. Será processada no próximo batch.";
+    // Lances dos itens quentes, escritos fora do batch comum
+    private static final FaixaQuente faixaQuente = new FaixaQuente("udp", () -> bancoDados, idempotencia, metricas, "Erro ao registrar lance.");
+
+    // Executor para agendar o processamento do batch (thread única: os receptores nunca gravam no banco)
     private static final ScheduledExecutorService batchScheduler = Executors.newScheduledThreadPool(1);
+    private static final AtomicBoolean batchAgendado = new AtomicBoolean();
+
+    /*
+     * Recepção: leilao.udp.receptores canais na mesma porta com SO_REUSEPORT
+     * (padrão um por núcleo; 1 volta ao receptor único), cada um com buffer
+     * de recepção de leilao.udp.bufferRecepcao bytes (padrão 4 MiB). Acima de
+     * leilao.udp.pendentes requisições no batch (padrão 100000), os comandos
+     * são recusados com uma resposta de erro em vez de descartados em silêncio.
+     */
+    private static final int RECEPTORES = Math.max(1, Integer.getInteger("leilao.udp.receptores", Runtime.getRuntime().availableProcessors()));
+    private static final int BUFFER_RECEPCAO = Integer.getInteger("leilao.udp.bufferRecepcao", 4 << 20);
+    private static final int MAXIMO_PENDENTES = Integer.getInteger("leilao.udp.pendentes", 100_000);
+    private static final int TAMANHO_MAXIMO = 65507; // Maior datagrama UDP: comandos agrupados passam de 1 KiB
+    private static final int RAJADA = 64; // Datagramas lidos por despertar do seletor, no máximo
+    private static final int MAIOR_RESPOSTA = 256; // Folga, em bytes, para a resposta de um comando agrupado
+    private static final String SOBRECARGA = "Erro: handler sobrecarregado, reenvie o comando.";
+
+    private static final Contador datagramas = Metricas.contador("leilao_handler_udp_datagramas_total", "Datagramas recebidos pelos receptores");
+    private static final Histograma rajada = Metricas.histograma("leilao_handler_udp_rajada", "Datagramas lidos por despertar de um receptor");
+    private static final Contador filaCheia = Metricas.contador("leilao_handler_udp_descartados_total",
+            "Comandos recusados ou respostas não enviadas pelo handler", "motivo", "fila_cheia");
+    private static final Contador respostasDescartadas = Metricas.contador("leilao_handler_udp_descartados_total",
+            "Comandos recusados ou respostas não enviadas pelo handler", "motivo", "envio");
+    private static final Contador falhas = Metricas.contador("leilao_handler_udp_descartados_total",
+            "Comandos recusados ou respostas não enviadas pelo handler", "motivo", "erro");
 
     public static void main(String[] args) {
         int porta = Integer.parseInt(args[0]);
 
-        bancoDados = BancoDados.getInstance();
+        // Motor de armazenamento opcional como segundo argumento (postgres | memoria)
+        bancoDados = Armazenamento.criar(args.length > 1 ? args[1] : null);
 
         // Agendar o processamento do batch em intervalos regulares
         batchScheduler.scheduleAtFixedRate(UDPHandler::processarBatch, BATCH_INTERVAL, BATCH_INTERVAL, TimeUnit.SECONDS);
 
-        try (DatagramSocket socket = new DatagramSocket(porta)) {
-            logger.info("Servidor UDP rodando na porta " + porta);
+        // /metrics numa porta lateral, já que o handler não fala HTTP
+        Metricas.iniciarServidor(porta);
 
-            registrarNoGateway("udp", porta);  // Registrar o servidor no gateway
+        try {
+            List<DatagramChannel> canais = abrirCanais(porta);
+            logger.info("Servidor UDP rodando na porta {} com {} receptor(es)", porta, canais.size());
+            Metricas.medidor("leilao_handler_udp_descartados_kernel",
+                    "Datagramas descartados pelo kernel no buffer de recepção da porta (/proc/net/udp)", () -> descartesKernel(porta));
 
-            byte[] buffer = new byte[1024];
-            while (true) {
-                DatagramPacket request = new DatagramPacket(buffer, buffer.length);
-                socket.receive(request);
-                String mensagem = new String(request.getData(), 0, request.getLength(), StandardCharsets.UTF_8);
+            for (int i = 0; i < canais.size(); i++) {
+                new Thread(new Receptor(canais.get(i)), "udp-receptor-" + (i + 1)).start();
+            }
+            if (ServidorMemoria.ATIVO) {
+                ServidorMemoria.iniciar("udp", porta, UDPHandler::atender, () -> {
+                    if (requestBatch.size() >= BATCH_SIZE) {
+                        agendarBatch();
+                    }
+                });
+            }
 
-                logger.info("Recebido via UDP: " + mensagem);
+            RegistroGateway.iniciar("udp", porta);  // Registrar o servidor no gateway e renovar a concessão
 
-                // Se for um "ping", responder com "pong" (para healthcheck)
-                if ("ping".equals(mensagem)) {
-                    logger.info("Recebida mensagem de 'ping'. Respondendo com 'Pong'.");
-                    byte[] responseBytes = "Pong".getBytes(StandardCharsets.UTF_8);
-                    DatagramPacket response = new DatagramPacket(responseBytes, responseBytes.length, request.getAddress(), request.getPort());
-                    socket.send(response);  // Responder ao cliente Gateway
-                    continue;
-                }
+        } catch (IOException e) {
+            logger.error("Erro no servidor UDP: {}", e.getMessage(), e);
+        }
 
-                // Adiciona a requisição ao batch
-                synchronized (requestBatch) {
-                    requestBatch.add(mensagem);
-                    logger.info("Requisição adicionada ao batch. Tamanho atual: " + requestBatch.size());
+    }
+
+    // Um canal por receptor na mesma porta (SO_REUSEPORT: o kernel reparte os datagramas entre eles)
+    private static List<DatagramChannel> abrirCanais(int porta) throws IOException {
+        List<DatagramChannel> canais = new ArrayList<>();
+        DatagramChannel primeiro = DatagramChannel.open(StandardProtocolFamily.INET);
+        boolean reusePort = RECEPTORES > 1 && primeiro.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT);
+        if (RECEPTORES > 1 && !reusePort) {
+            logger.warn("SO_REUSEPORT indisponível: usando um só receptor UDP");
+        }
+        canais.add(configurar(primeiro, porta, reusePort));
+        for (int i = 1; reusePort && i < RECEPTORES; i++) {
+            canais.add(configurar(DatagramChannel.open(StandardProtocolFamily.INET), porta, true));
+        }
+        return canais;
+    }
+
+    private static DatagramChannel configurar(DatagramChannel canal, int porta, boolean reusePort) throws IOException {
+        if (reusePort) {
+            canal.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+        }
+        canal.setOption(StandardSocketOptions.SO_RCVBUF, BUFFER_RECEPCAO); // Folga para rajadas enquanto o receptor trabalha
+        canal.bind(new InetSocketAddress(porta));
+        canal.configureBlocking(false);
+        return canal;
+    }
+
+    /**
+     * Receptor de um canal: a cada despertar do seletor, esvazia o socket
+     * (até RAJADA datagramas), responde cada um e entrega os comandos ao
+     * batch sem esperar por ele. Os buffers diretos de entrada e saída são
+     * do receptor e reaproveitados em todos os datagramas.
+     */
+    static class Receptor implements Runnable {
+        private final DatagramChannel canal;
+        private final ByteBuffer entrada = ByteBuffer.allocateDirect(TAMANHO_MAXIMO);
+        private final ByteBuffer saida = ByteBuffer.allocateDirect(TAMANHO_MAXIMO);
+
+        Receptor(DatagramChannel canal) {
+            this.canal = canal;
+        }
+
+        @Override
+        public void run() {
+            try (Selector seletor = Selector.open()) {
+                canal.register(seletor, SelectionKey.OP_READ);
+                while (true) {
+                    seletor.select();
+                    seletor.selectedKeys().clear();
+
+                    int recebidos = 0;
+                    SocketAddress origem;
+                    while (recebidos < RAJADA && (origem = canal.receive(entrada.clear())) != null) {
+                        recebidos++;
+                        // Uma falha num datagrama não pode derrubar o receptor do canal
+                        try {
+                            String resposta = atender(StandardCharsets.UTF_8.decode(entrada.flip()).toString());
+                            saida.clear().put(resposta.getBytes(StandardCharsets.UTF_8)).flip();
+                            if (canal.send(saida, origem) == 0) {
+                                respostasDescartadas.incrementar(); // Buffer de envio cheio: o cliente reenvia no timeout
+                            }
+                        } catch (IOException | RuntimeException e) {
+                            falhas.incrementar();
+                            logger.error("Erro ao atender datagrama de {}: {}", origem, e.getMessage(), e);
+                        }
+                    }
+                    datagramas.somar(recebidos);
+                    rajada.registrar(recebidos);
+
+                    // Se o batch atingir o tamanho máximo, processar na thread do batch
+                    if (requestBatch.size() >= BATCH_SIZE) {
+                        agendarBatch();
+                    }
                 }
+            } catch (IOException e) {
+                logger.error("Erro no receptor UDP: {}", e.getMessage(), e);
+            }
+        }
+    }
+
+    private static String atender(String datagrama) {
+        // Se for um "ping", responder com "pong" (para healthcheck)
+        if ("ping".equals(Rastreador.semId(datagrama))) {
+            if (Amostragem.amostrada()) {
+                logger.info("Recebida mensagem de 'ping'. Respondendo com 'Pong'.");
+            }
+            return "Pong";
+        }
+        // Comandos agrupados pelo gateway ("comandos;N\n" e N linhas) voltam com uma resposta por linha
+        return ComandosAgrupados.isCabecalho(datagrama) ? receberAgrupados(datagrama) : receber(datagrama);
+    }
 
-                // Envia uma resposta imediatamente ao JMeter, mesmo antes do processamento do batch
-                byte[] responseBytes = "Requisição recebida. Será processada no próximo batch.".getBytes(StandardCharsets.UTF_8);
-                DatagramPacket response = new DatagramPacket(responseBytes, responseBytes.length, request.getAddress(), request.getPort());
-                socket.send(response);  // Responder ao cliente JMeter
+    // Pede um processarBatch à thread do batch; pedidos feitos antes de ele começar viram um só
+    private static void agendarBatch() {
+        if (batchAgendado.compareAndSet(false, true)) {
+            batchScheduler.execute(() -> {
+                batchAgendado.set(false);
+                processarBatch();
+            });
+        }
+    }
 
-                // Se o batch atingir o tamanho máximo, processar imediatamente
-                if (requestBatch.size() >= BATCH_SIZE) {
-                    processarBatch();
+    // Soma a coluna drops das linhas de /proc/net/udp com a porta local do handler (0 fora do Linux)
+    private static long descartesKernel(int porta) {
+        String portaHex = String.format(":%04X", porta);
+        long total = 0;
+        try (BufferedReader reader = Files.newBufferedReader(Path.of("/proc/net/udp"))) {
+            String linha = reader.readLine(); // Cabeçalho
+            while ((linha = reader.readLine()) != null) {
+                String[] campos = linha.trim().split("\\s+");
+                if (campos.length > 12 && campos[1].endsWith(portaHex)) {
+                    total += Long.parseLong(campos[campos.length - 1]);
                 }
             }
+        } catch (IOException | RuntimeException e) {
+            return 0;
+        }
+        return total;
+    }
 
-        } catch (IOException e) {
-            logger.error("Erro no servidor UDP: " + e.getMessage(), e);
+    // Um comando recebido: respondido pelo cache de idempotência se for repetido, senão colocado no batch
+    private static String receber(String linha) {
+        // Id de rastreamento opcional repassado pelo gateway: "#id;comando"
+        String idRequisicao = Rastreador.idDe(linha);
+        String mensagem = Rastreador.semId(linha);
+        // Chave de idempotência opcional: "!chave;comando"
+        String chave = ChaveIdempotencia.chaveDe(mensagem);
+        mensagem = ChaveIdempotencia.semChave(mensagem);
+
+        Rastro rastro = Rastreador.iniciar(idRequisicao, "udp:" + RequisicaoPendente.comando(mensagem));
+        boolean amostrada = Amostragem.amostrada(rastro);
+        if (amostrada) {
+            logger.info("Recebido via UDP: {}", mensagem);
+        }
+
+        // Batch acima do limite: recusa explícita antes de reservar a chave, para a nova tentativa passar
+        if (pendentes() >= MAXIMO_PENDENTES) {
+            filaCheia.incrementar();
+            rastro.concluir();
+            return SOBRECARGA;
+        }
+
+        // Repetição de um comando com chave (o cliente UDP reenvia no timeout): responde pelo cache
+        String repetida = chave != null ? idempotencia.reservar(chave, mensagem, CONFIRMACAO) : null;
+        if (repetida != null) {
+            rastro.concluir();
+            return repetida;
         }
 
+        // Lance de um item quente vai para a faixa quente; o resto, ao batch
+        RequisicaoPendente requisicao = new RequisicaoPendente(mensagem, rastro, chave);
+        if (faixaQuente.aceitar(requisicao)) {
+            return CONFIRMACAO;
+        }
+        synchronized (requestBatch) {
+            requestBatch.add(requisicao);
+            metricas.enfileirada(requisicao, requestBatch.size());
+            if (amostrada) {
+                logger.info("Requisição adicionada ao batch. Tamanho atual: {}", requestBatch.size());
+            }
+        }
+        return CONFIRMACAO;
     }
 
-    // Método para processar um batch de requisições
+    private static int pendentes() {
+        synchronized (requestBatch) {
+            return requestBatch.size();
+        }
+    }
+
+    private static String receberAgrupados(String datagrama) {
+        String[] linhas = datagrama.split("\n");
+        int quantidade;
+        try {
+            quantidade = ComandosAgrupados.quantidade(linhas[0]);
+        } catch (IllegalArgumentException e) {
+            return "Mensagem inválida";
+        }
+        // A resposta precisa caber num datagrama: os comandos que não cabem nem
+        // são aceitos, e o gateway os dá como falhos pela falta da linha
+        StringBuilder respostas = new StringBuilder();
+        int bytes = 0;
+        for (int i = 1; i <= quantidade && i < linhas.length && bytes + MAIOR_RESPOSTA <= TAMANHO_MAXIMO; i++) {
+            if (i > 1) {
+                respostas.append('\n');
+                bytes++;
+            }
+            String resposta = receber(linhas[i]);
+            respostas.append(resposta);
+            bytes += resposta.getBytes(StandardCharsets.UTF_8).length;
+        }
+        return respostas.toString();
+    }
+
+    // Método para processar um batch de requisições (sempre na thread do batch)
     private static void processarBatch() {
+        List<RequisicaoPendente> batch;
         synchronized (requestBatch) {
             if (requestBatch.isEmpty()) {
-                logger.info("Nenhuma requisição no batch para processar.");
+                logger.debug("Nenhuma requisição no batch para processar.");
                 return; // Se não houver requisições no batch, sair
             }
 
             // Log para indicar o início do processamento em batch
-            logger.info("Iniciando processamento do batch de requisições. Tamanho do batch: " + requestBatch.size());
+            logger.debug("Iniciando processamento do batch de requisições. Tamanho do batch: {}", requestBatch.size());
 
-            // Clonar a lista de requisições para evitar conflitos de concorrência
-            List<String> batch = new ArrayList<>(requestBatch);
-            requestBatch.clear();  // Limpar a fila original após clonar
+            // Copia e limpa a fila sob a trava; o banco é chamado fora dela, com os receptores livres
+            batch = new ArrayList<>(requestBatch);
+            requestBatch.clear();
+        }
+
+        long inicioBatch = System.nanoTime();
+        EventoBatch evento = new EventoBatch();
+        evento.begin();
 
-            // Processar cada requisição no batch
-            for (String mensagem : batch) {
-                String resposta = processarRequisicao(mensagem);
+        // Lances válidos são separados e aplicados de uma só vez no armazenamento
+        List<RequisicaoPendente> requisicoesLance = new ArrayList<>();
+        List<Lance> lances = new ArrayList<>();
 
-                // Log para cada requisição processada no batch
-                logger.info("Requisição processada: " + mensagem + ". Resposta: " + resposta);
+        // Processar cada requisição no batch
+        for (RequisicaoPendente requisicao : batch) {
+            requisicao.rastro.marcar("batch");
+        }
+
+        for (RequisicaoPendente requisicao : batch) {
+            String mensagem = requisicao.mensagem;
+            Lance lance = extrairLance(mensagem);
+            if (lance != null) {
+                requisicoesLance.add(requisicao);
+                lances.add(lance);
+                continue;
             }
 
-            // Log para indicar o fim do processamento em batch
-            logger.info("Processamento do batch concluído. Total de requisições processadas: " + batch.size());
+            Rastreador.ativar(requisicao.rastro);
+            String resposta;
+            try {
+                resposta = processarRequisicao(mensagem);
+            } catch (NumberFormatException e) {
+                resposta = "Mensagem inválida"; // Número mal formado: não derruba o batch nem o agendamento dele
+            }
+            Rastreador.desativar();
+            idempotencia.concluir(requisicao.chave, resposta);
+            metricas.filaAteCommit.registrarDesde(requisicao.recebidaEm);
+            requisicao.rastro.concluir();
+
+            // Log para cada requisição processada no batch (amostrado)
+            if (Amostragem.amostrada(requisicao.rastro)) {
+                logger.info("Requisição processada: {}. Resposta: {}", mensagem, resposta);
+            }
+        }
+
+        if (!lances.isEmpty()) {
+            Rastreador.ativar(RequisicaoPendente.rastros(requisicoesLance));
+            boolean[] resultados = bancoDados.registrarLances(lances);
+            Rastreador.desativar();
+            for (int i = 0; i < resultados.length; i++) {
+                String resposta = resultados[i] ? "Lance registrado com sucesso." : "Erro ao registrar lance.";
+                idempotencia.concluir(requisicoesLance.get(i).chave, resposta);
+                metricas.filaAteCommit.registrarDesde(requisicoesLance.get(i).recebidaEm);
+                requisicoesLance.get(i).rastro.concluir();
+                if (Amostragem.amostrada(requisicoesLance.get(i).rastro)) {
+                    logger.info("Requisição processada: {}. Resposta: {}", requisicoesLance.get(i).mensagem, resposta);
+                }
+            }
+        }
+
+        metricas.batchProcessado(evento, batch, lances.size(), inicioBatch);
+
+        // Log para indicar o fim do processamento em batch
+        logger.info("Processamento do batch concluído. Total de requisições processadas: {}", batch.size());
+    }
+
+    // Converte uma mensagem registrarLance válida em Lance (null para os demais casos)
+    private static Lance extrairLance(String mensagem) {
+        if (!mensagem.startsWith("registrarLance")) {
+            return null;
+        }
+        String[] partes = mensagem.split(";");
+        if (partes.length != 4) {
+            return null;
+        }
+        try {
+            return new Lance(0, Integer.parseInt(partes[1]), partes[2], Centavos.deTexto(partes[3]));
+        } catch (NumberFormatException e) {
+            return null;
         }
     }
 
@@ -117,11 +407,13 @@ public class UDPHandler {
 
         if (mensagem.startsWith("cadastrarItem")) {
             String[] partes = mensagem.split(";");
-            if (partes.length == 4) {
+            if (partes.length == 4 || partes.length == 5) {
                 String nome = partes[1];
                 String descricao = partes[2];
-                double precoInicial = Double.parseDouble(partes[3]);
-                int idItem = bancoDados.adicionarItem(nome, descricao, precoInicial);
+                long precoInicialCentavos = Centavos.deTexto(partes[3]);
+                // Quinto campo opcional: duração do leilão em segundos
+                long encerraEm = partes.length == 5 ? System.currentTimeMillis() + Long.parseLong(partes[4].trim()) * 1000 : 0L;
+                int idItem = bancoDados.adicionarItem(nome, descricao, precoInicialCentavos, encerraEm);
                 resposta = (idItem != -1) ? "Item cadastrado com sucesso: " + idItem : "Erro ao cadastrar item.";
             } else {
                 resposta = "Mensagem inválida";
@@ -131,8 +423,8 @@ public class UDPHandler {
             if (partes.length == 4) {
                 int idItem = Integer.parseInt(partes[1]);
                 String clienteNome = partes[2];
-                double valor = Double.parseDouble(partes[3]);
-                boolean sucesso = bancoDados.registrarLance(idItem, clienteNome, valor);
+                long valorCentavos = Centavos.deTexto(partes[3]);
+                boolean sucesso = bancoDados.registrarLance(idItem, clienteNome, valorCentavos);
                 resposta = sucesso ? "Lance registrado com sucesso." : "Erro ao registrar lance.";
             } else {
                 resposta = "Mensagem inválida";
@@ -143,27 +435,4 @@ public class UDPHandler {
 
         return resposta;
     }
-
-    // Registrar no Gateway
-    private static void registrarNoGateway(String tipo, int porta) {
-        try {
-            URL url = new URL("http://localhost:9000/registerServer");
-            HttpURLConnection conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("POST");
-            conn.setDoOutput(true);
-            conn.setRequestProperty("Content-Type", "text/plain; charset=UTF_8");
-
-            String corpo = tipo + ";" + porta;
-            try (OutputStream os = conn.getOutputStream()) {
-                byte[] input = corpo.getBytes(StandardCharsets.UTF_8);
-                os.write(input, 0, input.length);
-            }
-
-            int responseCode = conn.getResponseCode();
-            logger.info("Servidor UDP registrado no Gateway com status: " + responseCode + ", na porta: " + porta);
-
-        } catch (IOException e) {
-            logger.error("Erro ao registrar no Gateway: " + e.getMessage(), e);
-        }
-    }
 }
@@ -0,0 +1,76 @@
+package database;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArmazemColunarTest {
+
+    @Test
+    void adicionarGuardaAsColunasComIdsCrescentes() {
+        ArmazemColunar armazem = new ArmazemColunar();
+        int primeiro = armazem.adicionar("Vaso", "Azul", 5000, 0L);
+        int segundo = armazem.adicionar("Quadro", "Óleo", 12_345, 1_700_000_000_000L);
+
+        assertEquals(1, primeiro);
+        assertEquals(2, segundo);
+        assertEquals(2, armazem.getUltimoId());
+        assertEquals("Quadro", armazem.getNome(segundo));
+        assertEquals("Óleo", armazem.getDescricao(segundo));
+        assertEquals(12_345, armazem.getPrecoInicial(segundo));
+        assertEquals(1_700_000_000_000L, armazem.getEncerraEm(segundo));
+        assertEquals(0, armazem.getMaiorLance(segundo));
+        assertEquals(DicionarioNomes.NENHUM, armazem.getClienteMaiorLance(segundo));
+    }
+
+    @Test
+    void existeSoParaIdsValidos() {
+        ArmazemColunar armazem = new ArmazemColunar();
+        armazem.adicionar("Vaso", "Azul", 5000, 0L);
+        assertTrue(armazem.existe(1));
+        assertFalse(armazem.existe(0));
+        assertFalse(armazem.existe(2));
+        assertFalse(armazem.existe(-1));
+    }
+
+    @Test
+    void cresceAlemDeUmSegmento() {
+        ArmazemColunar armazem = new ArmazemColunar();
+        int total = 40_000; // Mais de dois blocos de 16384
+        for (int i = 1; i <= total; i++) {
+            assertEquals(i, armazem.adicionar("Item " + i, null, i, 0L));
+        }
+        assertEquals(16_384, armazem.getPrecoInicial(16_384));
+        assertEquals("Item 16385", armazem.getNome(16_385));
+        assertEquals(total, armazem.getPrecoInicial(total));
+    }
+
+    @Test
+    void removerSoltaOsTextosSemReutilizarOId() {
+        ArmazemColunar armazem = new ArmazemColunar();
+        int id = armazem.adicionar("Vaso", "Azul", 5000, 0L);
+        armazem.remover(id);
+
+        assertFalse(armazem.existe(id));
+        assertNull(armazem.getNome(id));
+        assertNull(armazem.getDescricao(id));
+        assertEquals(id + 1, armazem.adicionar("Quadro", "Óleo", 100, 0L));
+    }
+
+    @Test
+    void maiorLanceEEncadeamento() {
+        ArmazemColunar armazem = new ArmazemColunar();
+        int id = armazem.adicionar("Vaso", "Azul", 5000, 0L);
+        armazem.setMaiorLance(id, 6000, 3);
+        armazem.encadearLance(id, 10);
+        armazem.encadearLance(id, 11);
+
+        assertEquals(6000, armazem.getMaiorLance(id));
+        assertEquals(3, armazem.getClienteMaiorLance(id));
+        assertEquals(10, armazem.getPrimeiroLance(id));
+        assertEquals(11, armazem.getUltimoLance(id));
+    }
+}
@@ -0,0 +1,102 @@
+package database;
+
+import models.ItemLeilao;
+import models.Lance;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BancoMemoriaTest {
+
+    @TempDir
+    Path pasta;
+
+    @Test
+    void lanceSoPassaAcimaDoMaiorEmCentavos() {
+        BancoMemoria banco = new BancoMemoria();
+        int id = banco.adicionarItem("Vaso", "Azul", 1000, 0L);
+        assertTrue(banco.registrarLance(id, "ana", 1001));
+        assertFalse(banco.registrarLance(id, "bob", 1001));
+        assertTrue(banco.registrarLance(id, "bob", 1002));
+
+        ItemLeilao item = banco.getItem(id);
+        assertEquals(1002, item.getMaiorLanceCentavos());
+        assertEquals("bob", item.getClienteMaiorLance());
+    }
+
+    @Test
+    void itemRemovidoNaoAparece() {
+        BancoMemoria banco = new BancoMemoria();
+        int id = banco.adicionarItem("Vaso", "Azul", 1000, 0L);
+        banco.removerItens(new int[]{id});
+        assertNull(banco.getItem(id));
+        assertFalse(banco.registrarLance(id, "ana", 2000));
+    }
+
+    @Test
+    void snapshotGuardaItensRemovidosEHistorico() {
+        Path arquivo = pasta.resolve("leilao.snapshot");
+        BancoMemoria banco = new BancoMemoria(arquivo, 0);
+        int vaso = banco.adicionarItem("Vaso", "Azul", 1000, 0L);
+        int quadro = banco.adicionarItem("Quadro", "Óleo", 5000, 0L);
+        banco.registrarLance(vaso, "ana", 1500);
+        banco.registrarLance(quadro, "bob", 6000);
+        banco.registrarLance(vaso, "bob", 1750);
+        banco.removerItens(new int[]{quadro});
+        banco.fechar();
+
+        BancoMemoria restaurado = new BancoMemoria(arquivo, 0);
+        assertNull(restaurado.getItem(quadro));
+        ItemLeilao item = restaurado.getItem(vaso);
+        assertEquals("Vaso", item.getNome());
+        assertEquals(1750, item.getMaiorLanceCentavos());
+        assertEquals("bob", item.getClienteMaiorLance());
+
+        List<Lance> lances = new ArrayList<>();
+        assertEquals(2, restaurado.listarLances(vaso, 0, 10, lances::add));
+        assertEquals("ana", lances.get(0).getCliente());
+        assertEquals(1500, lances.get(0).getValorCentavos());
+        assertEquals("bob", lances.get(1).getCliente());
+        assertEquals(1750, lances.get(1).getValorCentavos());
+        assertEquals(2, restaurado.contarLances(vaso));
+        restaurado.fechar();
+    }
+
+    @Test
+    void leiturasConcorrentesComOArquivadorNaoVeemItemSemNome() throws InterruptedException {
+        Path arquivo = pasta.resolve("concorrente.snapshot");
+        BancoMemoria banco = new BancoMemoria(arquivo, 0);
+        int total = 20_000;
+        for (int i = 0; i < total; i++) {
+            banco.adicionarItem("Item " + i, "Descrição " + i, 100, 0L);
+        }
+
+        Thread arquivador = new Thread(() -> {
+            for (int id = 1; id <= total; id++) {
+                banco.removerItens(new int[]{id});
+            }
+        });
+        arquivador.start();
+        while (arquivador.isAlive()) {
+            for (int id = 1; id <= total; id += 97) {
+                ItemLeilao item = banco.getItem(id);
+                if (item != null) {
+                    assertNotNull(item.getNome());
+                    assertNotNull(item.getDescricao());
+                }
+            }
+            banco.salvarSnapshot(); // Antes lançava NullPointerException no writeUTF
+        }
+        arquivador.join();
+        banco.fechar();
+    }
+}
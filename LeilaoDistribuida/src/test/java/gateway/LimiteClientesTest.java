@@ -0,0 +1,68 @@
+package gateway;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LimiteClientesTest {
+    private static final String REGRA_CLIENTE = "leilao.limite.teste.registrarLance.cliente";
+    private static final String REGRA_ENDERECO = "leilao.limite.teste.registrarLance.endereco";
+
+    @AfterEach
+    void limparRegras() {
+        System.clearProperty(REGRA_CLIENTE);
+        System.clearProperty(REGRA_ENDERECO);
+    }
+
+    @Test
+    void semRegraNaoHaLimite() {
+        LimiteClientes limite = new LimiteClientes();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(limite.permitir("teste", "cadastrarItem", "ana", InetAddress.getLoopbackAddress()));
+        }
+    }
+
+    @Test
+    void baldeDoClientePassaARajadaERecusaOResto() {
+        System.setProperty(REGRA_CLIENTE, "1/3"); // Um por segundo, rajada de três
+        LimiteClientes limite = new LimiteClientes();
+        for (int i = 0; i < 3; i++) {
+            assertTrue(limite.permitir("teste", "registrarLance", "ana", null));
+        }
+        assertFalse(limite.permitir("teste", "registrarLance", "ana", null));
+        // Outro cliente tem o próprio balde
+        assertTrue(limite.permitir("teste", "registrarLance", "bob", null));
+    }
+
+    @Test
+    void baldeRecarregaComOTempo() throws InterruptedException {
+        System.setProperty(REGRA_CLIENTE, "20/1"); // Um a cada 50 ms
+        LimiteClientes limite = new LimiteClientes();
+        assertTrue(limite.permitir("teste", "registrarLance", "ana", null));
+        assertFalse(limite.permitir("teste", "registrarLance", "ana", null));
+        Thread.sleep(120);
+        assertTrue(limite.permitir("teste", "registrarLance", "ana", null));
+    }
+
+    @Test
+    void baldeDoEnderecoValeParaTodosOsClientes() {
+        System.setProperty(REGRA_ENDERECO, "1/2");
+        LimiteClientes limite = new LimiteClientes();
+        InetAddress origem = InetAddress.getLoopbackAddress();
+        assertTrue(limite.permitir("teste", "registrarLance", "ana", origem));
+        assertTrue(limite.permitir("teste", "registrarLance", "bob", origem));
+        assertFalse(limite.permitir("teste", "registrarLance", "carla", origem));
+    }
+
+    @Test
+    void clienteDoLance() {
+        assertEquals("ana", LimiteClientes.clienteDoLance("registrarLance;1;ana;10"));
+        assertNull(LimiteClientes.clienteDoLance("cadastrarItem;Vaso;Azul;50"));
+    }
+}
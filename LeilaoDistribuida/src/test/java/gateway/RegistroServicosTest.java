@@ -0,0 +1,94 @@
+package gateway;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RegistroServicosTest {
+
+    @Test
+    void roundRobinPonderadoSegueOsPesos() {
+        RegistroServicos registro = new RegistroServicos();
+        registro.registrar("tcp", "10.0.0.1", 9001, 3);
+        registro.registrar("tcp", "10.0.0.2", 9001, 1);
+
+        Map<String, Integer> escolhas = new HashMap<>();
+        for (int i = 0; i < 40; i++) {
+            escolhas.merge(registro.escolher("tcp").getEndereco(), 1, Integer::sum);
+        }
+        assertEquals(30, escolhas.get("10.0.0.1:9001"));
+        assertEquals(10, escolhas.get("10.0.0.2:9001"));
+    }
+
+    @Test
+    void roundRobinPonderadoEspalhaOBackendPesado() {
+        RegistroServicos registro = new RegistroServicos();
+        registro.registrar("http", "a", 1, 2);
+        registro.registrar("http", "b", 1, 1);
+        registro.registrar("http", "c", 1, 1);
+
+        // Em uma volta de 4, o de peso 2 não sai duas vezes seguidas
+        String anterior = null;
+        for (int i = 0; i < 4; i++) {
+            String atual = registro.escolher("http").getEndereco();
+            assertNotEquals(anterior, atual);
+            anterior = atual;
+        }
+    }
+
+    @Test
+    void renovacaoSemMudancaNaoPublicaInstantaneo() {
+        RegistroServicos registro = new RegistroServicos();
+        assertTrue(registro.registrar("udp", "a", 1, 1));
+        long versao = registro.getInstantaneo().versao;
+        assertFalse(registro.registrar("udp", "a", 1, 1));
+        assertEquals(versao, registro.getInstantaneo().versao);
+        assertTrue(registro.registrar("udp", "a", 1, 2)); // Peso novo
+        assertEquals(versao + 1, registro.getInstantaneo().versao);
+    }
+
+    @Test
+    void concessaoVencidaSaiPelaRodaDeTempo() throws InterruptedException {
+        RegistroServicos registro = new RegistroServicos();
+        registro.iniciar();
+        registro.registrar("tcp", "vencido", 1, 1, 200);
+        registro.registrar("tcp", "renovado", 1, 1, 200);
+
+        long fim = System.currentTimeMillis() + 1500;
+        while (System.currentTimeMillis() < fim) {
+            registro.registrar("tcp", "renovado", 1, 1, 200);
+            Thread.sleep(50);
+        }
+        List<RegistroServicos.Backend> backends = registro.getInstantaneo().getBackends("tcp");
+        assertEquals(1, backends.size());
+        assertEquals("renovado:1", backends.get(0).getEndereco());
+    }
+
+    @Test
+    void chaveFicaNoMesmoBackend() {
+        RegistroServicos registro = new RegistroServicos();
+        registro.registrar("tcp", "a", 1, 1);
+        registro.registrar("tcp", "b", 1, 1);
+        registro.registrar("tcp", "c", 1, 1);
+        RegistroServicos.Backend escolhido = registro.escolher("tcp", "chave-1");
+        for (int i = 0; i < 10; i++) {
+            assertSame(escolhido, registro.escolher("tcp", "chave-1"));
+        }
+    }
+
+    @Test
+    void semBackendOuProtocoloInvalido() {
+        RegistroServicos registro = new RegistroServicos();
+        assertThrows(IllegalStateException.class, () -> registro.escolher("tcp"));
+        assertThrows(IllegalArgumentException.class, () -> registro.registrar("ftp", "a", 1, 1));
+    }
+}
@@ -0,0 +1,60 @@
+package metricas;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ItensQuentesTest {
+    private static final int LIMIAR = 64; // Padrão de leilao.quentes.limiar
+
+    @Test
+    void itemEsquentaAoAtingirOLimiar() {
+        ItensQuentes detector = ItensQuentes.de("teste-limiar");
+        for (int i = 1; i < LIMIAR; i++) {
+            assertFalse(detector.registrar(42));
+        }
+        assertTrue(detector.registrar(42));
+        assertTrue(detector.isQuente(42));
+    }
+
+    @Test
+    void itensPoucoDisputadosContinuamFrios() {
+        ItensQuentes detector = ItensQuentes.de("teste-frios");
+        for (int item = 1; item <= 500; item++) {
+            detector.registrar(item);
+            detector.registrar(item);
+        }
+        for (int item = 1; item <= 500; item++) {
+            assertFalse(detector.isQuente(item));
+        }
+    }
+
+    @Test
+    void estimativaNaoEVazadaPorOutrosItens() {
+        // Sketch só erra para cima; um item quente no meio de vários frios é achado
+        ItensQuentes detector = ItensQuentes.de("teste-mistura");
+        for (int rodada = 0; rodada < LIMIAR; rodada++) {
+            detector.registrar(7);
+            detector.registrar(1000 + rodada);
+        }
+        assertTrue(detector.isQuente(7));
+        assertFalse(detector.isQuente(1000));
+    }
+
+    @Test
+    void detectorPorOrigemEListagem() throws IOException {
+        assertSame(ItensQuentes.de("teste-listagem"), ItensQuentes.de("teste-listagem"));
+        ItensQuentes detector = ItensQuentes.de("teste-listagem");
+        for (int i = 0; i < LIMIAR; i++) {
+            detector.registrar(99);
+        }
+        StringWriter out = new StringWriter();
+        ItensQuentes.escrever(out);
+        assertTrue(out.toString().contains("teste-listagem item 99 "));
+    }
+}
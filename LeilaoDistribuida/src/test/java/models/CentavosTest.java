@@ -0,0 +1,53 @@
+package models;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class CentavosTest {
+
+    @Test
+    void deTextoLeDecimaisSemPassarPorDouble() {
+        assertEquals(1005, Centavos.deTexto("10.05"));
+        assertEquals(700, Centavos.deTexto(" 7 "));
+        assertEquals(1, Centavos.deTexto("0.01"));
+        // 0.1 + 0.2 em double dá 0.30000000000000004; em texto é exato
+        assertEquals(30, Centavos.deTexto("0.30"));
+    }
+
+    @Test
+    void deTextoArredondaParaOCentavoMaisProximo() {
+        assertEquals(1235, Centavos.deTexto("12.345"));
+        assertEquals(1234, Centavos.deTexto("12.3449"));
+    }
+
+    @Test
+    void deTextoAceitaNotacaoCientifica() {
+        assertEquals(1000, Centavos.deTexto("1e1"));
+        assertEquals(1_000_000_000L, Centavos.deTexto("1E7"));
+        assertEquals(150, Centavos.deTexto("1.5e0"));
+    }
+
+    @Test
+    void deTextoRecusaTextoInvalidoOuForaDoLimite() {
+        assertThrows(NumberFormatException.class, () -> Centavos.deTexto("abc"));
+        assertThrows(NumberFormatException.class, () -> Centavos.deTexto(""));
+        assertThrows(NumberFormatException.class, () -> Centavos.deTexto("1e30"));
+    }
+
+    @Test
+    void paraDecimalNaoUsaNotacaoCientifica() {
+        assertEquals("10000000.00", Centavos.paraDecimal(1_000_000_000L).toPlainString());
+        assertEquals("0.05", Centavos.paraDecimal(5).toPlainString());
+    }
+
+    @Test
+    void deDecimalIdaEVolta() {
+        assertEquals(1999, Centavos.deDecimal(new BigDecimal("19.99")));
+        assertEquals(0, Centavos.deDecimal(null));
+        assertEquals(123_456_789L, Centavos.deDecimal(Centavos.paraDecimal(123_456_789L)));
+    }
+}
@@ -0,0 +1,64 @@
+package protocol;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class CacheIdempotenciaTest {
+    private static final String CONFIRMACAO = "Requisição recebida.";
+
+    private final CacheIdempotencia cache = new CacheIdempotencia("teste");
+
+    @Test
+    void chaveNovaSegueERepetidaRecebeAConfirmacao() {
+        assertNull(cache.reservar("k1", "registrarLance;1;ana;10", CONFIRMACAO));
+        assertEquals(CONFIRMACAO, cache.reservar("k1", "registrarLance;1;ana;10", CONFIRMACAO));
+    }
+
+    @Test
+    void repetidaRecebeOResultadoDepoisDoBatch() {
+        assertNull(cache.reservar("k1", "registrarLance;1;ana;10", CONFIRMACAO));
+        cache.concluir("k1", "Lance registrado com sucesso.");
+        assertEquals("Lance registrado com sucesso.", cache.reservar("k1", "registrarLance;1;ana;10", CONFIRMACAO));
+    }
+
+    @Test
+    void mesmaChaveComOutroComandoERecusada() {
+        assertNull(cache.reservar("k1", "registrarLance;1;ana;10", CONFIRMACAO));
+        assertEquals(CacheIdempotencia.CHAVE_REUTILIZADA, cache.reservar("k1", "registrarLance;1;ana;11", CONFIRMACAO));
+    }
+
+    @Test
+    void comandosComOMesmoHashNaoSeConfundem() {
+        // "Aa" e "BB" têm o mesmo hashCode: a comparação precisa ser pelo comando
+        String primeiro = "registrarLance;1;Aa;10";
+        String segundo = "registrarLance;1;BB;10";
+        assertEquals(primeiro.hashCode(), segundo.hashCode());
+        assertNotEquals(primeiro, segundo);
+
+        assertNull(cache.reservar("k1", primeiro, CONFIRMACAO));
+        assertEquals(CacheIdempotencia.CHAVE_REUTILIZADA, cache.reservar("k1", segundo, CONFIRMACAO));
+    }
+
+    @Test
+    void comandoAnalisadoComparaPorValor() {
+        assertNull(cache.reservar("k1", Comando.registrarLance(1, "ana", 1000), CONFIRMACAO));
+        assertEquals(CONFIRMACAO, cache.reservar("k1", Comando.registrarLance(1, "ana", 1000), CONFIRMACAO));
+        assertEquals(CacheIdempotencia.CHAVE_REUTILIZADA, cache.reservar("k1", Comando.registrarLance(1, "ana", 1001), CONFIRMACAO));
+    }
+
+    @Test
+    void chaveInvalidaERecusada() {
+        assertEquals(CacheIdempotencia.CHAVE_INVALIDA, cache.reservar("a b", "registrarLance;1;ana;10", CONFIRMACAO));
+        assertEquals(CacheIdempotencia.CHAVE_INVALIDA, cache.reservar("", "registrarLance;1;ana;10", CONFIRMACAO));
+    }
+
+    @Test
+    void cancelarLiberaAChave() {
+        assertNull(cache.reservar("k1", "registrarLance;1;ana;10", CONFIRMACAO));
+        cache.cancelar("k1");
+        assertNull(cache.reservar("k1", "registrarLance;1;ana;11", CONFIRMACAO));
+    }
+}
@@ -0,0 +1,66 @@
+package protocol;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ComandosLoteTest {
+
+    @Test
+    void linhaDeComandoPassaComoEsta() {
+        assertEquals("registrarLance;1;ana;10", ComandosLote.comando("  registrarLance;1;ana;10 "));
+        assertEquals("!k1;cadastrarItem;Vaso;Azul;50", ComandosLote.comando("!k1;cadastrarItem;Vaso;Azul;50"));
+    }
+
+    @Test
+    void objetoJsonViraLinhaDeComando() {
+        assertEquals("!k1;registrarLance;1;ana;10.50", ComandosLote.comando(
+                "{\"comando\":\"registrarLance\",\"idItem\":1,\"cliente\":\"ana\",\"valor\":10.50,\"chave\":\"k1\"}"));
+        assertEquals("cadastrarItem;Vaso;Azul;50;60", ComandosLote.comando(
+                "{ \"comando\" : \"cadastrarItem\", \"nome\":\"Vaso\", \"descricao\":\"Azul\", \"precoInicial\":50, \"duracao\":60 }"));
+    }
+
+    @Test
+    void valorEmNotacaoCientificaChegaIntactoAoHandler() {
+        assertEquals("registrarLance;1;ana;1e7", ComandosLote.comando(
+                "{\"comando\":\"registrarLance\",\"idItem\":1,\"cliente\":\"ana\",\"valor\":1e7}"));
+    }
+
+    @Test
+    void escapesDeTextoSaoDecodificados() {
+        assertEquals("cadastrarItem;Vaso \"raro\";Azul/claro é;50", ComandosLote.comando(
+                "{\"comando\":\"cadastrarItem\",\"nome\":\"Vaso \\\"raro\\\"\",\"descricao\":\"Azul\\/claro \\u00e9\",\"precoInicial\":50}"));
+    }
+
+    @Test
+    void nullContaComoCampoAusente() {
+        assertThrows(IllegalArgumentException.class, () -> ComandosLote.comando(
+                "{\"comando\":\"registrarLance\",\"idItem\":1,\"cliente\":null,\"valor\":10}"));
+        assertEquals("registrarLance;1;ana;10", ComandosLote.comando(
+                "{\"comando\":\"registrarLance\",\"idItem\":1,\"cliente\":\"ana\",\"valor\":10,\"chave\":null}"));
+    }
+
+    @Test
+    void recusaJsonInvalido() {
+        assertThrows(IllegalArgumentException.class, () -> ComandosLote.comando("{\"comando\":\"registrarLance\""));
+        assertThrows(IllegalArgumentException.class, () -> ComandosLote.comando("{\"comando\":\"registrarLance\"} lixo"));
+        assertThrows(IllegalArgumentException.class, () -> ComandosLote.comando("{\"comando\":{\"a\":1}}"));
+        assertThrows(IllegalArgumentException.class, () -> ComandosLote.comando("{\"comando\":}"));
+        assertThrows(IllegalArgumentException.class, () -> ComandosLote.comando("{\"nome\":\"a\\u12\"}"));
+    }
+
+    @Test
+    void recusaCampoComSeparadorEComandoDesconhecido() {
+        assertThrows(IllegalArgumentException.class, () -> ComandosLote.comando(
+                "{\"comando\":\"registrarLance\",\"idItem\":1,\"cliente\":\"a;b\",\"valor\":10}"));
+        assertThrows(IllegalArgumentException.class, () -> ComandosLote.comando("{\"comando\":\"apagarTudo\"}"));
+        assertThrows(IllegalArgumentException.class, () -> ComandosLote.comando("apagarTudo;1"));
+        assertThrows(IllegalArgumentException.class, () -> ComandosLote.comando("!a b;registrarLance;1;ana;10"));
+    }
+
+    @Test
+    void resultadoEscapaAResposta() {
+        assertEquals("{\"linha\":3,\"resposta\":\"Erro: \\\"x\\\"\\n\"}", ComandosLote.resultado(3, "Erro: \"x\"\n"));
+    }
+}
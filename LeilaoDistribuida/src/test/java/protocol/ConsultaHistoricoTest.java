@@ -0,0 +1,42 @@
+package protocol;
+
+import database.BancoMemoria;
+import models.Centavos;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ConsultaHistoricoTest {
+
+    @Test
+    void valoresGrandesSaemSemNotacaoCientifica() throws IOException {
+        BancoMemoria banco = new BancoMemoria();
+        int idItem = banco.adicionarItem("Vaso", "Azul", 100L, 0L);
+        banco.registrarLance(idItem, "ana", Centavos.deTexto("1e7"));
+        banco.registrarLance(idItem, "bob", Centavos.deTexto("10000000.05"));
+
+        StringWriter out = new StringWriter();
+        assertEquals(2, ConsultaHistorico.escrever(banco, idItem, 0, 10, out));
+        assertEquals(linha(1, idItem, "ana", "10000000.00") + linha(2, idItem, "bob", "10000000.05") + "fim\n", out.toString());
+    }
+
+    @Test
+    void paginaCheiaIndicaOProximoCursor() throws IOException {
+        BancoMemoria banco = new BancoMemoria();
+        int idItem = banco.adicionarItem("Vaso", "Azul", 100L, 0L);
+        for (int i = 1; i <= 3; i++) {
+            banco.registrarLance(idItem, "ana", 100L + i);
+        }
+
+        StringWriter out = new StringWriter();
+        assertEquals(2, ConsultaHistorico.escrever(banco, idItem, 0, 2, out));
+        assertEquals(linha(1, idItem, "ana", "1.01") + linha(2, idItem, "ana", "1.02") + "proximo;2\n", out.toString());
+    }
+
+    private static String linha(int id, int idItem, String cliente, String valor) {
+        return id + ";" + idItem + ";" + cliente + ";" + valor + "\n";
+    }
+}